@@ -29,6 +29,10 @@ android {
         sourceCompatibility = JavaVersion.VERSION_11
         targetCompatibility = JavaVersion.VERSION_11
     }
+    testOptions {
+        // 本地单元测试中android.util.Log等桩方法返回默认值，用于在JVM上回放录制数据
+        unitTests.isReturnDefaultValues = true
+    }
 }
 
 dependencies {
@@ -39,6 +43,8 @@ dependencies {
     implementation(libs.constraintlayout)
     implementation("androidx.cardview:cardview:1.0.0")
     testImplementation(libs.junit)
+    // android.jar中的org.json只有桩实现，本地单元测试需要真实实现
+    testImplementation("org.json:json:20240303")
     androidTestImplementation(libs.ext.junit)
     androidTestImplementation(libs.espresso.core)
 
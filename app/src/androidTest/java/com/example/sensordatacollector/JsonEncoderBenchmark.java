@@ -0,0 +1,204 @@
+package com.example.sensordatacollector;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JSONL编码对比测试
+ * 先检查JsonLineEncoder的输出与 toJson().toString() + "\n" 的UTF-8字节逐字节相同(含字典编码)，
+ * 再分别计时两条路径编码同一批合成记录。在设备上运行，以便与Android自带的org.json对比。
+ */
+@RunWith(AndroidJUnit4.class)
+public class JsonEncoderBenchmark {
+    private static final String TAG = "JsonEncoderBenchmark";
+
+    private static final int DEFAULT_RECORD_COUNT = 200_000;
+    private static final int WARMUP_ROUNDS = 2;
+
+    @Test
+    public void outputMatchesJsonObject() {
+        assertTrue(checkCompatibility(createEdgeCaseRecords(), false));
+        assertTrue(checkCompatibility(createEdgeCaseRecords(), true));
+        assertTrue(checkCompatibility(createSyntheticRecords(10_000), true));
+    }
+
+    @Test
+    public void timing() {
+        runTiming(DEFAULT_RECORD_COUNT, false);
+        runTiming(DEFAULT_RECORD_COUNT, true);
+    }
+
+    /**
+     * 逐条比较两条路径的输出，两条路径各自使用独立的字典
+     */
+    private static boolean checkCompatibility(List<DataRecord> records, boolean useDictionary) {
+        StringDictionary referenceDictionary = useDictionary ? new StringDictionary() : null;
+        StringDictionary encoderDictionary = useDictionary ? new StringDictionary() : null;
+        JsonLineEncoder encoder = new JsonLineEncoder();
+
+        for (int i = 0; i < records.size(); i++) {
+            DataRecord record = records.get(i);
+            byte[] expected = encodeWithJsonObject(record, referenceDictionary);
+
+            encoder.reset();
+            encoder.encode(record, encoderDictionary);
+            byte[] actual = Arrays.copyOf(encoder.getBuffer(), encoder.length());
+
+            if (!Arrays.equals(expected, actual)) {
+                Log.e(TAG, "第 " + i + " 条记录输出不一致(字典: " + useDictionary + ")\n期望: " +
+                           toUtf8(expected) + "实际: " + toUtf8(actual));
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 计时两条路径编码相同记录的耗时
+     */
+    private static void runTiming(int recordCount, boolean useDictionary) {
+        List<DataRecord> records = createSyntheticRecords(recordCount);
+        JsonLineEncoder encoder = new JsonLineEncoder();
+        ByteArrayOutputStream sink = new ByteArrayOutputStream(1 << 20);
+
+        long jsonObjectNanos = 0;
+        long encoderNanos = 0;
+        long bytes = 0;
+        for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+            StringDictionary dictionary = useDictionary ? new StringDictionary() : null;
+            long start = System.nanoTime();
+            for (DataRecord record : records) {
+                byte[] data = encodeWithJsonObject(record, dictionary);
+                sink.write(data, 0, data.length);
+            }
+            long elapsed = System.nanoTime() - start;
+            bytes = sink.size();
+            sink.reset();
+
+            dictionary = useDictionary ? new StringDictionary() : null;
+            start = System.nanoTime();
+            for (DataRecord record : records) {
+                encoder.reset();
+                encoder.encode(record, dictionary);
+                sink.write(encoder.getBuffer(), 0, encoder.length());
+            }
+            long encoderElapsed = System.nanoTime() - start;
+            sink.reset();
+
+            // 前几轮只用于预热
+            if (round == WARMUP_ROUNDS) {
+                jsonObjectNanos = elapsed;
+                encoderNanos = encoderElapsed;
+            }
+        }
+
+        Log.i(TAG, String.format(Locale.US,
+                "%d 条记录 (字典: %b, %.1f 字节/条): JSONObject %.0f ns/条, JsonLineEncoder %.0f ns/条, 加速 %.2fx",
+                recordCount, useDictionary, (double) bytes / recordCount,
+                (double) jsonObjectNanos / recordCount, (double) encoderNanos / recordCount,
+                encoderNanos > 0 ? (double) jsonObjectNanos / encoderNanos : 0));
+    }
+
+    /**
+     * 原有的编码路径：JSONObject -> String -> UTF-8字节
+     */
+    private static byte[] encodeWithJsonObject(DataRecord record, StringDictionary dictionary) {
+        String line;
+        if (dictionary == null) {
+            line = record.toJson().toString() + "\n";
+        } else {
+            String json = record.toJson(dictionary).toString();
+            line = dictionary.takePendingDefinitions() + json + "\n";
+        }
+        try {
+            return line.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toUtf8(byte[] data) {
+        try {
+            return new String(data, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return Arrays.toString(data);
+        }
+    }
+
+    /**
+     * 加速度计、陀螺仪、磁力计交替的合成记录，数值量级与真实传感器相近
+     */
+    private static List<DataRecord> createSyntheticRecords(int count) {
+        String[] names = { "accelerometer", "gyroscope", "magnetometer" };
+        int[] sensorIds = { SensorRegistry.ID_ACCELEROMETER, SensorRegistry.ID_GYROSCOPE, SensorRegistry.ID_MAGNETOMETER };
+        double[] scales = { 9.81, 0.5, 40.0 };
+        Random random = new Random(42);
+
+        List<DataRecord> records = new ArrayList<>(count);
+        long baseMs = 1_700_000_000_000L;
+        for (int i = 0; i < count; i++) {
+            int sensor = i % names.length;
+            long index = i / names.length;
+            double scale = scales[sensor];
+            records.add(new DataRecord(baseMs + index * 5L, 1_000_000_000L + index * 5_000_000L,
+                    sensorIds[sensor], names[sensor],
+                    (float) (random.nextGaussian() * scale), (float) (random.nextGaussian() * scale),
+                    (float) (random.nextGaussian() * scale), 3,
+                    "Chrome", "com.android.chrome", "benchmark_user"));
+        }
+        return records;
+    }
+
+    /**
+     * 格式化和转义的边界情况
+     */
+    private static List<DataRecord> createEdgeCaseRecords() {
+        List<DataRecord> records = new ArrayList<>();
+        float[] values = {
+                0f, -0f, 1f, -1f, 0.1f, -2.5f, 9.80665f, 1e-10f, 3.4028235e38f, -1.17549435e-38f,
+                16777216f, 123456.78f, 1e7f, 1e20f, Float.MIN_VALUE
+        };
+        for (int i = 0; i < values.length; i++) {
+            records.add(new DataRecord(1_700_000_000_000L + i, i % 2 == 0 ? 0L : Long.MAX_VALUE - i,
+                    i % 3, "accelerometer", values[i], values[(i + 1) % values.length], values[(i + 2) % values.length],
+                    i - 1, "应用 😀", "com.example/app", "user\"\\\t\n\u0001 "));
+        }
+
+        // null字符串字段被省略
+        records.add(new DataRecord(1L, "gyroscope", 1f, 2f, 3f, 0, null, null, null));
+        records.add(new DataRecord(2L, null, 1f, 2f, 3f, 0, "app", "pkg", "user"));
+
+        // 落单的代理字符
+        records.add(new DataRecord(3L, "\uD800x", 1f, 2f, 3f, 0, "a\uDC00", "pkg", "user"));
+
+        // 非有限数值交给toJson处理
+        records.add(new DataRecord(4L, "magnetometer", Float.NaN, 1f, Float.POSITIVE_INFINITY, 0, "app", "pkg", "user"));
+
+        // 非传感器类型只有公共字段
+        DataRecord other = new DataRecord(5L, "pressure", 1f, 2f, 3f, 0, "app", "pkg", "user");
+        other.type = "marker";
+        records.add(other);
+
+        FusedDataRecord fused = new FusedDataRecord(6L, 6_000_000L, 3, "app", "pkg", "user");
+        fused.accX = 0.25f;
+        fused.accY = -9.81f;
+        fused.gyroZ = -0f;
+        fused.magX = 45.5f;
+        records.add(fused);
+        return records;
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.sensordatacollector;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 采集流水线压测
+ * 使用SyntheticSensorSource以不同的传感器数量和采样率驱动DataManager和StorageManager，
+ * 统计端到端吞吐量、各阶段丢弃数以及分发/写入延迟百分位。
+ * 在设备上作为插桩测试运行，会临时开启DataManager的文件记录，不要在正式采集时运行。
+ */
+@RunWith(AndroidJUnit4.class)
+public class PipelineBenchmark {
+    private static final String TAG = "PipelineBenchmark";
+
+    // 运行结束后等待队列排空的最长时间
+    private static final long DRAIN_TIMEOUT_MS = 30_000;
+
+    // 与SensorCollector一致的批次参数
+    private static final int BATCH_SIZE = 256;
+    private static final long BATCH_MAX_AGE_MS = 100;
+
+    /**
+     * 单个场景的结果
+     */
+    public static class ScenarioResult {
+        public String name;
+        public long targetRecords;
+        public long emittedRecords;
+        public long writtenRecords;
+        public long lateEmissions;
+        public long dispatchDropped;
+        public long writerDropped;
+        public long elapsedNanos;
+        public Histogram dispatchLatency; // 生成到DataManager通知监听器(纳秒)
+        public Histogram writeLatency;    // 生成到写入文件(纳秒)
+        public FlushPolicy flushPolicy;
+        public long fileWrites;           // 对文件的写调用次数
+        public long flushes;
+        public double compressionRatio;
+
+        public double getWrittenPerSecond() {
+            return elapsedNanos > 0 ? writtenRecords * 1_000_000_000.0 / elapsedNanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%s: 目标 %d, 生成 %d (延迟发出 %d), 写入 %d (%.0f 条/秒), 丢弃 分发 %d / 写入 %d, " +
+                    "分发延迟 p50 %.2fms p99 %.2fms, 写入延迟 p50 %.2fms p99 %.2fms p99.9 %.2fms, " +
+                    "%s: 写调用 %d, 刷新 %d, 压缩率 %.2f",
+                    name, targetRecords, emittedRecords, lateEmissions, writtenRecords, getWrittenPerSecond(),
+                    dispatchDropped, writerDropped,
+                    dispatchLatency.getValueAtPercentile(50) / 1e6, dispatchLatency.getValueAtPercentile(99) / 1e6,
+                    writeLatency.getValueAtPercentile(50) / 1e6, writeLatency.getValueAtPercentile(99) / 1e6,
+                    writeLatency.getValueAtPercentile(99.9) / 1e6,
+                    flushPolicy, fileWrites, flushes, compressionRatio);
+        }
+    }
+
+    /**
+     * 运行一个场景
+     * @param outputDir 输出目录，每个场景在其中创建独立的子目录
+     * @param sensorCount 传感器数量
+     * @param rateHz 每个传感器的采样率
+     * @param durationMs 生成数据的时长
+     */
+    public static ScenarioResult runScenario(File outputDir, int sensorCount, double rateHz, long durationMs) {
+        return runScenario(outputDir, sensorCount, rateHz, durationMs, FlushPolicy.DEFAULT);
+    }
+
+    /**
+     * 使用指定刷新策略运行一个场景
+     */
+    public static ScenarioResult runScenario(File outputDir, int sensorCount, double rateHz, long durationMs,
+                                             FlushPolicy flushPolicy) {
+        String name = sensorCount + "x" + (int) rateHz + "Hz";
+        Log.d(TAG, "开始压测场景: " + name + ", 时长 " + durationMs + "ms");
+
+        DataManager dataManager = DataManager.getInstance();
+        boolean wasRecording = dataManager.isRecordingToFile();
+        dataManager.setShouldRecordToFile(true);
+        dataManager.getPipelineStats().reset();
+
+        StorageManager storageManager = new StorageManager(new File(outputDir, name + "_" + System.nanoTime()));
+        storageManager.setFlushPolicy(flushPolicy);
+
+        final Histogram dispatchLatency = new Histogram();
+        final Histogram writeLatency = new Histogram();
+        final AtomicLong written = new AtomicLong(0);
+
+        DataManager.DataRecordListener probe = record -> dispatchLatency.record(System.nanoTime() - record.eventTimeNanos);
+        storageManager.setRecordWrittenListener(record -> {
+            writeLatency.record(System.nanoTime() - record.eventTimeNanos);
+            written.incrementAndGet();
+        });
+        dataManager.addListener(storageManager);
+        dataManager.addListener(probe);
+
+        ScenarioResult result = new ScenarioResult();
+        result.name = name;
+        result.dispatchLatency = dispatchLatency;
+        result.writeLatency = writeLatency;
+        result.flushPolicy = flushPolicy;
+
+        try {
+            SyntheticSensorSource source = new SyntheticSensorSource(dataManager,
+                    SyntheticSensorSource.createSensors(sensorCount, rateHz), 42);
+            // 与SensorCollector相同，按批次交付
+            source.setBatching(BATCH_SIZE, BATCH_MAX_AGE_MS);
+            long startNanos = System.nanoTime();
+            SyntheticSensorSource.RunResult run = source.run(durationMs);
+
+            // 等待所有被接受的记录写入文件
+            long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MS;
+            while (System.currentTimeMillis() < deadline) {
+                long settled = written.get() + dataManager.getPipelineStats().getDropped() +
+                               storageManager.getPipelineStats().getDropped();
+                if (settled >= run.recordsEmitted) {
+                    break;
+                }
+                Thread.sleep(10);
+            }
+
+            result.elapsedNanos = System.nanoTime() - startNanos;
+            result.targetRecords = run.targetRecords;
+            result.emittedRecords = run.recordsEmitted;
+            result.lateEmissions = run.lateEmissions;
+            result.writtenRecords = written.get();
+            result.dispatchDropped = dataManager.getPipelineStats().getDropped();
+            result.writerDropped = storageManager.getPipelineStats().getDropped();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Log.e(TAG, "压测被中断");
+        } finally {
+            dataManager.removeListener(probe);
+            dataManager.removeListener(storageManager);
+            storageManager.setRecordWrittenListener(null);
+            storageManager.shutdown();
+            dataManager.setShouldRecordToFile(wasRecording);
+
+            // 文件关闭后压缩器中的数据已全部写出，此时的压缩率才准确
+            StorageWriteStats writeStats = storageManager.getWriteStats();
+            result.fileWrites = writeStats.getFileWrites();
+            result.flushes = writeStats.getFlushes();
+            result.compressionRatio = writeStats.getCompressionRatio();
+        }
+
+        Log.i(TAG, result.toString());
+        return result;
+    }
+
+    /**
+     * 输出目录位于应用的缓存目录中
+     */
+    private static File getOutputDir() {
+        return new File(InstrumentationRegistry.getInstrumentation().getTargetContext().getCacheDir(), "pipeline_benchmark");
+    }
+
+    /**
+     * 从当前UI可选的最高速率(3x200Hz)逐步增加到12x1kHz
+     */
+    @Test
+    public void allScenarios() {
+        Log.d(TAG, "开始运行所有压测场景");
+        File outputDir = getOutputDir();
+
+        int[][] scenarios = {
+                {3, 100},
+                {3, 200},
+                {6, 500},
+                {12, 1000}
+        };
+        for (int[] scenario : scenarios) {
+            runScenario(outputDir, scenario[0], scenario[1], 10_000);
+        }
+
+        Log.d(TAG, "所有压测场景完成");
+    }
+
+    /**
+     * 对比每条记录刷新一次和默认刷新策略下的写调用次数与压缩率
+     */
+    @Test
+    public void flushPolicyComparison() {
+        Log.d(TAG, "开始对比刷新策略");
+        File outputDir = getOutputDir();
+        ScenarioResult everyRecord = runScenario(outputDir, 12, 1000, 10_000, FlushPolicy.EVERY_RECORD);
+        ScenarioResult batched = runScenario(outputDir, 12, 1000, 10_000, FlushPolicy.DEFAULT);
+        Log.i(TAG, String.format(Locale.US, "刷新策略对比: 写调用 %d -> %d, 刷新 %d -> %d, 压缩率 %.2f -> %.2f",
+                everyRecord.fileWrites, batched.fileWrites, everyRecord.flushes, batched.flushes,
+                everyRecord.compressionRatio, batched.compressionRatio));
+    }
+}
@@ -0,0 +1,246 @@
+package com.example.sensordatacollector;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 存储编码对比测试
+ * 用同一批记录比较现有的JSONL(字典)+GZIP路径、定长二进制数据段和Gorilla记录块数据段在不同压缩方式
+ * (整体GZIP或数据段内的按块压缩编码)下的每条记录字节数、编码耗时和解码耗时。
+ * 记录优先取自回放的真实录制文件(应用数据目录中的数据文件)，没有录制文件时使用合成记录。在设备上作为插桩测试运行。
+ */
+@RunWith(AndroidJUnit4.class)
+public class StorageCodecBenchmark {
+    private static final String TAG = "StorageCodecBenchmark";
+
+    private static final int DEFAULT_RECORD_COUNT = 200_000;
+    private static final int WARMUP_ROUNDS = 2;
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+    private enum Path {
+        JSONL_GZIP("JSONL+字典+GZIP", -1, CompressionCodec.NONE, true),
+        SEGMENT_FIXED("定长数据段", SegmentFormat.RECORD_ENCODING_FIXED, CompressionCodec.NONE, false),
+        SEGMENT_FIXED_GZIP("定长数据段+GZIP", SegmentFormat.RECORD_ENCODING_FIXED, CompressionCodec.NONE, true),
+        SEGMENT_FIXED_LZ4("定长数据段+LZ4", SegmentFormat.RECORD_ENCODING_FIXED, CompressionCodec.LZ4, false),
+        SEGMENT_FIXED_DEFLATE("定长数据段+deflate-6", SegmentFormat.RECORD_ENCODING_FIXED, CompressionCodec.DEFLATE_DEFAULT, false),
+        SEGMENT_GORILLA("Gorilla数据段", SegmentFormat.RECORD_ENCODING_GORILLA, CompressionCodec.NONE, false),
+        SEGMENT_GORILLA_GZIP("Gorilla数据段+GZIP", SegmentFormat.RECORD_ENCODING_GORILLA, CompressionCodec.NONE, true),
+        SEGMENT_GORILLA_LZ4("Gorilla数据段+LZ4", SegmentFormat.RECORD_ENCODING_GORILLA, CompressionCodec.LZ4, false),
+        SEGMENT_GORILLA_DEFLATE_FAST("Gorilla数据段+deflate-1", SegmentFormat.RECORD_ENCODING_GORILLA, CompressionCodec.DEFLATE_FAST, false),
+        SEGMENT_GORILLA_DEFLATE_BEST("Gorilla数据段+deflate-9", SegmentFormat.RECORD_ENCODING_GORILLA, CompressionCodec.DEFLATE_BEST, false),
+        SEGMENT_GORILLA_DEFLATE_DICTIONARY("Gorilla数据段+deflate-dict", SegmentFormat.RECORD_ENCODING_GORILLA, CompressionCodec.DEFLATE_DICTIONARY, false);
+
+        final String label;
+        final int recordEncoding;  // JSONL为-1
+        final CompressionCodec codec;
+        final boolean gzip;
+
+        Path(String label, int recordEncoding, CompressionCodec codec, boolean gzip) {
+            this.label = label;
+            this.recordEncoding = recordEncoding;
+            this.codec = codec;
+            this.gzip = gzip;
+        }
+    }
+
+    /**
+     * 回放应用数据目录中的录制文件并对比各编码路径，没有录制文件时使用合成记录
+     */
+    @Test
+    public void compareCodecs() {
+        File recordingDir = InstrumentationRegistry.getInstrumentation().getTargetContext().getFilesDir();
+        List<DataRecord> records = loadRecordings(recordingDir, DEFAULT_RECORD_COUNT);
+        if (records.isEmpty()) {
+            Log.i(TAG, "没有可回放的录制文件，使用合成记录");
+            records = createSyntheticRecords(DEFAULT_RECORD_COUNT);
+        }
+        runComparison(records);
+    }
+
+    /**
+     * 尽可能快地回放录制文件，收集最多maxRecords条传感器和融合记录
+     */
+    public static List<DataRecord> loadRecordings(File recordingDir, int maxRecords) {
+        List<File> files = RecordingReplaySource.findRecordingFiles(recordingDir);
+        List<DataRecord> records = new ArrayList<>();
+        if (files.isEmpty()) {
+            return records;
+        }
+        RecordingReplaySource[] source = new RecordingReplaySource[1];
+        source[0] = new RecordingReplaySource(dataRecord -> {
+            if (records.size() >= maxRecords) {
+                source[0].stop();
+                return;
+            }
+            if (dataRecord instanceof FusedDataRecord || "sensor".equals(dataRecord.type)) {
+                records.add(dataRecord);
+            }
+        });
+        source[0].setAsFastAsPossible();
+        try {
+            RecordingReplaySource.ReplayResult result = source[0].replay(files);
+            Log.i(TAG, "已回放录制文件: " + result);
+        } catch (IOException e) {
+            Log.e(TAG, "回放录制文件失败", e);
+        }
+        return records;
+    }
+
+    /**
+     * 对每条编码路径计时编码和解码，预热后取最后一轮
+     */
+    public static void runComparison(List<DataRecord> records) {
+        int count = records.size();
+        if (count == 0) {
+            return;
+        }
+        Log.i(TAG, "对比 " + count + " 条记录");
+        long jsonlBytes = 0;
+        for (Path path : Path.values()) {
+            try {
+                byte[] encoded = null;
+                long encodeNanos = 0;
+                long decodeNanos = 0;
+                for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+                    long start = System.nanoTime();
+                    encoded = encode(path, records);
+                    long encodeElapsed = System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    long decoded = decode(path, encoded);
+                    long decodeElapsed = System.nanoTime() - start;
+                    if (decoded != count) {
+                        Log.e(TAG, path.label + " 解码记录数不一致: " + decoded + " / " + count);
+                        break;
+                    }
+
+                    // 前几轮只用于预热
+                    if (round == WARMUP_ROUNDS) {
+                        encodeNanos = encodeElapsed;
+                        decodeNanos = decodeElapsed;
+                    }
+                }
+                if (path == Path.JSONL_GZIP) {
+                    jsonlBytes = encoded.length;
+                }
+                Log.i(TAG, String.format(Locale.US,
+                        "%s: %.2f 字节/条 (为JSONL+GZIP的 %.1f%%), 编码 %.0f ns/条, 解码 %.0f ns/条",
+                        path.label, (double) encoded.length / count,
+                        jsonlBytes > 0 ? 100.0 * encoded.length / jsonlBytes : 0,
+                        (double) encodeNanos / count, (double) decodeNanos / count));
+            } catch (IOException e) {
+                Log.e(TAG, path.label + " 编码失败", e);
+            }
+        }
+    }
+
+    private static byte[] encode(Path path, List<DataRecord> records) throws IOException {
+        ByteArrayOutputStream sink = new ByteArrayOutputStream(1 << 20);
+        OutputStream out = path.gzip ? new GZIPOutputStream(sink, GZIP_BUFFER_SIZE) : sink;
+
+        if (path == Path.JSONL_GZIP) {
+            // 与StorageManager写入JSONL时相同：字典编码后逐条写入压缩流
+            JsonLineEncoder encoder = new JsonLineEncoder();
+            StringDictionary dictionary = new StringDictionary();
+            for (DataRecord record : records) {
+                encoder.reset();
+                encoder.encode(record, dictionary);
+                encoder.writeTo(out);
+            }
+        } else {
+            SegmentWriter writer = new SegmentWriter(out, new SegmentFormat.Header(records.get(0).timestampMs,
+                    "benchmark_user", "benchmark", null, path.recordEncoding, path.codec.getId()), true);
+            for (DataRecord record : records) {
+                writer.write(record);
+            }
+            writer.flush();
+        }
+        out.close();
+        return sink.toByteArray();
+    }
+
+    /**
+     * 解码并返回记录数；JSONL只解压并按行切分，不解析JSON，字典定义行不计入
+     */
+    private static long decode(Path path, byte[] encoded) throws IOException {
+        InputStream in = new ByteArrayInputStream(encoded);
+        if (path == Path.JSONL_GZIP) {
+            String definitionPrefix = "{\"type\":\"" + StringDictionary.TYPE + "\"";
+            long lines = 0;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(in, GZIP_BUFFER_SIZE), StandardCharsets.UTF_8), GZIP_BUFFER_SIZE)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.startsWith(definitionPrefix)) {
+                        lines++;
+                    }
+                }
+            }
+            return lines;
+        }
+        if (path.gzip) {
+            in = new GZIPInputStream(in, GZIP_BUFFER_SIZE);
+        }
+        long records = 0;
+        try (SegmentReader reader = new SegmentReader(in)) {
+            while (reader.next()) {
+                if (!reader.isMetadata()) {
+                    records++;
+                }
+            }
+        }
+        return records;
+    }
+
+    /**
+     * 加速度计、陀螺仪、磁力计交替的合成记录：低频运动加噪声，数值按传感器分辨率量化，与真实录制的特征相近
+     */
+    private static List<DataRecord> createSyntheticRecords(int count) {
+        String[] names = { "accelerometer", "gyroscope", "magnetometer" };
+        int[] sensorIds = { SensorRegistry.ID_ACCELEROMETER, SensorRegistry.ID_GYROSCOPE, SensorRegistry.ID_MAGNETOMETER };
+        double[] scales = { 2.0, 0.5, 40.0 };
+        double[] resolutions = { 0.0023956299, 0.0010652645, 0.15 };
+        Random random = new Random(42);
+
+        List<DataRecord> records = new ArrayList<>(count);
+        long baseMs = 1_700_000_000_000L;
+        for (int i = 0; i < count; i++) {
+            int sensor = i % names.length;
+            long index = i / names.length;
+            double t = index * 0.005;
+            float[] values = new float[3];
+            for (int axis = 0; axis < 3; axis++) {
+                double value = scales[sensor] * Math.sin(t * (1 + axis) + sensor) + random.nextGaussian() * scales[sensor] * 0.01;
+                if (sensor == 0 && axis == 2) {
+                    value += 9.81;
+                }
+                values[axis] = (float) (Math.round(value / resolutions[sensor]) * resolutions[sensor]);
+            }
+            records.add(new DataRecord(baseMs + index * 5L, 1_000_000_000L + index * 5_000_000L + random.nextInt(20_000),
+                    sensorIds[sensor], names[sensor], values[0], values[1], values[2], 3,
+                    "Chrome", "com.android.chrome", "benchmark_user"));
+        }
+        return records;
+    }
+}
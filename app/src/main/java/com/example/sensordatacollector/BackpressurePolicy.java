@@ -0,0 +1,15 @@
+package com.example.sensordatacollector;
+
+/**
+ * 采集流水线各阶段队列已满时的处理策略
+ */
+public enum BackpressurePolicy {
+    /** 阻塞提交线程直到队列有空位，超时后丢弃 */
+    BLOCK,
+    /** 丢弃队列中最旧的记录，为新记录腾出位置 */
+    DROP_OLDEST,
+    /** 丢弃新提交的记录 */
+    DROP_NEWEST,
+    /** 将新记录溢写到磁盘，队列空闲后再读回处理 */
+    SPILL_TO_DISK
+}
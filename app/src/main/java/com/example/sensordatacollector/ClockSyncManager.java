@@ -0,0 +1,379 @@
+package com.example.sensordatacollector;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 时钟同步管理器
+ * 持续维护传感器时钟(SystemClock.elapsedRealtimeNanos)、设备墙上时间和可选的服务器时间之间的映射，
+ * 定期重新测量以跟踪漂移和墙上时间的跳变(NTP校时、用户修改时间)，并把最新的偏移量同步给TimestampManager。
+ * 映射以"clock_sync"元数据行写入每个数据文件，多设备实验可据此把各设备的事件时间换算到同一个服务器时基。
+ */
+public class ClockSyncManager {
+    private static final String TAG = "ClockSyncManager";
+    private static volatile ClockSyncManager instance;
+
+    // 默认重新同步的间隔
+    private static final long DEFAULT_RESYNC_INTERVAL_MS = 5 * 60 * 1000;
+
+    // 两次测量之间偏移量变化超过该值视为跳变，而不是漂移
+    private static final long STEP_THRESHOLD_NANOS = 2_000_000L;
+
+    // 每次与服务器同步时的请求次数，取往返时间最短的一次
+    private static final int SERVER_SAMPLE_COUNT = 8;
+
+    // 往返时间超过该值的服务器样本不可靠，直接丢弃
+    private static final long MAX_SERVER_RTT_NANOS = 500_000_000L;
+
+    /**
+     * 服务器时间来源，返回服务器当前的墙上时间(毫秒)
+     */
+    public interface ServerTimeSource {
+        long fetchServerTimeMs() throws IOException;
+    }
+
+    /**
+     * 设备时钟，默认读取系统时钟，单元测试中替换为可控的实现
+     */
+    interface DeviceClock {
+        long elapsedRealtimeNanos();
+
+        long currentTimeMillis();
+    }
+
+    static final DeviceClock SYSTEM_CLOCK = new DeviceClock() {
+        @Override
+        public long elapsedRealtimeNanos() {
+            return SystemClock.elapsedRealtimeNanos();
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    /**
+     * 时钟映射更新回调
+     */
+    public interface ClockSyncListener {
+        /**
+         * @param stepped 本次同步是否检测到墙上时间或服务器偏移的跳变
+         */
+        void onClockSynced(ClockMapping mapping, boolean stepped);
+    }
+
+    /**
+     * 某一时刻的时钟映射
+     */
+    public static class ClockMapping {
+        public final long elapsedRealtimeNanos; // 测量时的传感器时钟
+        public final long wallTimeMs;           // 测量时的墙上时间
+        public final long bootOffsetNanos;      // 墙上时间 - elapsedRealtimeNanos
+        public final double driftPpm;           // 墙上时间相对传感器时钟的漂移(百万分之一)
+        public final int stepCount;             // 累计检测到的墙上时间跳变次数
+        public final boolean hasServerTime;
+        public final long serverOffsetNanos;    // 服务器时间 - 墙上时间
+        public final long serverRttNanos;       // 服务器测量的往返时间，误差上限约为其一半
+        public final long serverSyncElapsedNanos; // 服务器测量时的传感器时钟
+        public final double serverDriftPpm;     // 服务器时间相对墙上时间的漂移(百万分之一)
+
+        ClockMapping(long elapsedRealtimeNanos, long wallTimeMs, long bootOffsetNanos, double driftPpm, int stepCount,
+                     boolean hasServerTime, long serverOffsetNanos, long serverRttNanos, long serverSyncElapsedNanos,
+                     double serverDriftPpm) {
+            this.elapsedRealtimeNanos = elapsedRealtimeNanos;
+            this.wallTimeMs = wallTimeMs;
+            this.bootOffsetNanos = bootOffsetNanos;
+            this.driftPpm = driftPpm;
+            this.stepCount = stepCount;
+            this.hasServerTime = hasServerTime;
+            this.serverOffsetNanos = serverOffsetNanos;
+            this.serverRttNanos = serverRttNanos;
+            this.serverSyncElapsedNanos = serverSyncElapsedNanos;
+            this.serverDriftPpm = serverDriftPpm;
+        }
+
+        /**
+         * 将传感器事件时间换算为墙上时间(纳秒)
+         */
+        public long toWallTimeNanos(long eventTimeNanos) {
+            return eventTimeNanos + bootOffsetNanos;
+        }
+
+        /**
+         * 将传感器事件时间换算为服务器时间(纳秒)，没有服务器时间时返回墙上时间
+         */
+        public long toServerTimeNanos(long eventTimeNanos) {
+            return toWallTimeNanos(eventTimeNanos) + (hasServerTime ? serverOffsetNanos : 0);
+        }
+
+        /**
+         * 作为数据文件中的元数据行
+         */
+        public JSONObject toJson() {
+            JSONObject json = new JSONObject();
+            try {
+                json.put("type", "clock_sync");
+                json.put("elapsed_realtime_ns", elapsedRealtimeNanos);
+                json.put("wall_time_ms", wallTimeMs);
+                json.put("boot_offset_ns", bootOffsetNanos);
+                json.put("drift_ppm", driftPpm);
+                json.put("step_count", stepCount);
+                if (hasServerTime) {
+                    json.put("server_offset_ns", serverOffsetNanos);
+                    json.put("server_rtt_ns", serverRttNanos);
+                    json.put("server_sync_elapsed_ns", serverSyncElapsedNanos);
+                    json.put("server_drift_ppm", serverDriftPpm);
+                }
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+            return json;
+        }
+    }
+
+    private final List<ClockSyncListener> listeners = new CopyOnWriteArrayList<>();
+    private final DeviceClock clock;
+
+    private volatile ServerTimeSource serverTimeSource;
+    private volatile long resyncIntervalMs = DEFAULT_RESYNC_INTERVAL_MS;
+    private volatile ClockMapping currentMapping;
+
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> resyncTask;
+
+    // 保证同一时间只有一次测量，避免上一次映射被并发覆盖
+    private final Object syncLock = new Object();
+
+    /**
+     * @param clock 设备时钟，单例使用SYSTEM_CLOCK
+     */
+    ClockSyncManager(DeviceClock clock) {
+        this.clock = clock;
+        currentMapping = measure(null);
+        Log.d(TAG, "时钟同步管理器已初始化");
+    }
+
+    public static ClockSyncManager getInstance() {
+        if (instance == null) {
+            synchronized (ClockSyncManager.class) {
+                if (instance == null) {
+                    instance = new ClockSyncManager(SYSTEM_CLOCK);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 开始定期重新同步
+     */
+    public synchronized void start() {
+        if (resyncTask != null) {
+            return;
+        }
+        if (scheduler == null || scheduler.isShutdown()) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "ClockSync");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            });
+        }
+        resyncTask = scheduler.scheduleWithFixedDelay(this::syncSafely, 0, resyncIntervalMs, TimeUnit.MILLISECONDS);
+        Log.i(TAG, "开始定期时钟同步，间隔: " + resyncIntervalMs + "ms");
+    }
+
+    /**
+     * 停止定期重新同步
+     */
+    public synchronized void stop() {
+        if (resyncTask != null) {
+            resyncTask.cancel(false);
+            resyncTask = null;
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        Log.i(TAG, "停止定期时钟同步");
+    }
+
+    /**
+     * 设置重新同步的间隔，正在运行时立即按新间隔重新调度
+     */
+    public synchronized void setResyncIntervalMs(long intervalMs) {
+        this.resyncIntervalMs = Math.max(1000, intervalMs);
+        if (resyncTask != null) {
+            stop();
+            start();
+        }
+    }
+
+    /**
+     * 设置服务器时间来源，null表示只跟踪设备时钟；运行中会立即同步一次
+     */
+    public void setServerTimeSource(ServerTimeSource source) {
+        this.serverTimeSource = source;
+        ScheduledExecutorService executor;
+        synchronized (this) {
+            executor = scheduler;
+        }
+        if (source != null && executor != null && !executor.isShutdown()) {
+            executor.execute(this::syncSafely);
+        }
+    }
+
+    public void addListener(ClockSyncListener listener) {
+        if (listener != null && !listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+
+    public void removeListener(ClockSyncListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * 获取最近一次测量的时钟映射
+     */
+    public ClockMapping getCurrentMapping() {
+        return currentMapping;
+    }
+
+    private void syncSafely() {
+        try {
+            sync();
+        } catch (Exception e) {
+            Log.e(TAG, "时钟同步失败", e);
+        }
+    }
+
+    /**
+     * 立即测量一次，更新映射并通知监听器，会阻塞当前线程直到服务器请求完成
+     * 启动偏移与TimestampManager正在使用的值相差超过跳变阈值时才同步给它，
+     * 避免每次重新同步都因读时钟的误差让传感器时间换算出的墙上时间来回抖动
+     */
+    public ClockMapping sync() {
+        ClockMapping previous;
+        ClockMapping mapping;
+        synchronized (syncLock) {
+            previous = currentMapping;
+            mapping = measure(previous);
+            currentMapping = mapping;
+            TimestampManager timestampManager = TimestampManager.getInstance();
+            if (Math.abs(mapping.bootOffsetNanos - timestampManager.getBootTimeOffsetNanos()) > STEP_THRESHOLD_NANOS) {
+                timestampManager.setBootTimeOffsetNanos(mapping.bootOffsetNanos);
+            }
+        }
+
+        boolean stepped = mapping.stepCount != previous.stepCount ||
+                (mapping.hasServerTime && previous.hasServerTime &&
+                 Math.abs(mapping.serverOffsetNanos - previous.serverOffsetNanos) > STEP_THRESHOLD_NANOS) ||
+                (mapping.hasServerTime && !previous.hasServerTime);
+        Log.d(TAG, "时钟同步完成: 启动偏移 " + mapping.bootOffsetNanos + "ns, 漂移 " +
+                   String.format(Locale.US, "%.2f", mapping.driftPpm) + "ppm" +
+                   (mapping.hasServerTime ? ", 服务器偏移 " + mapping.serverOffsetNanos / 1_000 + "μs (往返 " +
+                                           mapping.serverRttNanos / 1_000 + "μs)" : "") +
+                   (stepped ? ", 检测到跳变" : ""));
+
+        for (ClockSyncListener listener : listeners) {
+            try {
+                listener.onClockSynced(mapping, stepped);
+            } catch (Exception e) {
+                Log.e(TAG, "时钟同步回调异常", e);
+            }
+        }
+        return mapping;
+    }
+
+    /**
+     * 测量当前的时钟映射，并根据上一次映射计算漂移和跳变
+     */
+    private ClockMapping measure(ClockMapping previous) {
+        long elapsedNanos = clock.elapsedRealtimeNanos();
+        long wallTimeMs = clock.currentTimeMillis();
+        long bootOffsetNanos = TimestampManager.computeBootTimeOffsetNanos(clock);
+
+        double driftPpm = previous != null ? previous.driftPpm : 0;
+        int stepCount = previous != null ? previous.stepCount : 0;
+        if (previous != null) {
+            long deltaOffset = bootOffsetNanos - previous.bootOffsetNanos;
+            long deltaElapsed = elapsedNanos - previous.elapsedRealtimeNanos;
+            if (Math.abs(deltaOffset) > STEP_THRESHOLD_NANOS) {
+                stepCount++;
+                Log.w(TAG, "墙上时间跳变: " + (deltaOffset / 1_000_000) + "ms");
+            } else if (deltaElapsed > 0) {
+                driftPpm = deltaOffset * 1_000_000.0 / deltaElapsed;
+            }
+        }
+
+        boolean hasServerTime = previous != null && previous.hasServerTime;
+        long serverOffsetNanos = hasServerTime ? previous.serverOffsetNanos : 0;
+        long serverRttNanos = hasServerTime ? previous.serverRttNanos : 0;
+        long serverSyncElapsedNanos = hasServerTime ? previous.serverSyncElapsedNanos : 0;
+        double serverDriftPpm = hasServerTime ? previous.serverDriftPpm : 0;
+
+        ServerTimeSource source = serverTimeSource;
+        if (source != null) {
+            long[] sample = measureServerOffset(source, bootOffsetNanos);
+            if (sample != null) {
+                if (hasServerTime) {
+                    long deltaOffset = sample[0] - serverOffsetNanos;
+                    long deltaElapsed = sample[2] - serverSyncElapsedNanos;
+                    if (Math.abs(deltaOffset) <= STEP_THRESHOLD_NANOS && deltaElapsed > 0) {
+                        serverDriftPpm = deltaOffset * 1_000_000.0 / deltaElapsed;
+                    }
+                }
+                hasServerTime = true;
+                serverOffsetNanos = sample[0];
+                serverRttNanos = sample[1];
+                serverSyncElapsedNanos = sample[2];
+            }
+        }
+
+        return new ClockMapping(elapsedNanos, wallTimeMs, bootOffsetNanos, driftPpm, stepCount,
+                hasServerTime, serverOffsetNanos, serverRttNanos, serverSyncElapsedNanos, serverDriftPpm);
+    }
+
+    /**
+     * 多次请求服务器时间，取往返时间最短的一次估计服务器与墙上时间的偏移
+     * 假设请求和响应的网络延迟对称，服务器时间对应请求发出和收到响应的中点
+     * @return {偏移(纳秒), 往返时间(纳秒), 测量时的传感器时钟}，全部失败时返回null
+     */
+    private long[] measureServerOffset(ServerTimeSource source, long bootOffsetNanos) {
+        long[] best = null;
+        for (int i = 0; i < SERVER_SAMPLE_COUNT; i++) {
+            try {
+                long before = clock.elapsedRealtimeNanos();
+                long serverTimeMs = source.fetchServerTimeMs();
+                long after = clock.elapsedRealtimeNanos();
+
+                long rtt = after - before;
+                if (rtt > MAX_SERVER_RTT_NANOS) {
+                    continue;
+                }
+                long midpoint = before + rtt / 2;
+                long offset = serverTimeMs * 1_000_000L - (midpoint + bootOffsetNanos);
+                if (best == null || rtt < best[1]) {
+                    best = new long[] {offset, rtt, midpoint};
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "获取服务器时间失败: " + e.getMessage());
+            }
+        }
+        return best;
+    }
+}
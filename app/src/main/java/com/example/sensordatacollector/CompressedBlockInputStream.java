@@ -0,0 +1,124 @@
+package com.example.sensordatacollector;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 按块解压的输入流，读取CompressedBlockOutputStream写出的块
+ * 文件末尾的块不完整时(例如写入时进程被杀)视为流结束，isTruncated()返回true。
+ */
+public class CompressedBlockInputStream extends InputStream {
+    private final InputStream in;
+    private final CompressionCodec codec;
+    private final byte[] header = new byte[CompressedBlockOutputStream.BLOCK_HEADER_SIZE];
+
+    private byte[] block = new byte[0];
+    private int blockLength = 0;
+    private int position = 0;
+    private byte[] compressed = new byte[0];
+
+    private boolean finished = false;
+    private boolean truncated = false;
+
+    public CompressedBlockInputStream(InputStream in, CompressionCodec codec) {
+        this.in = in;
+        this.codec = codec;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == blockLength && !readBlock()) {
+            return -1;
+        }
+        return block[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (position == blockLength && !readBlock()) {
+            return -1;
+        }
+        int n = Math.min(len, blockLength - position);
+        System.arraycopy(block, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return blockLength - position;
+    }
+
+    /**
+     * 末尾是否有不完整的块
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * 读入并解压下一个块
+     * @return 没有更多完整的块时返回false
+     */
+    private boolean readBlock() throws IOException {
+        if (finished) {
+            return false;
+        }
+        int headerRead = readFully(header, header.length);
+        if (headerRead < header.length) {
+            finished = true;
+            truncated = headerRead > 0;
+            return false;
+        }
+        int rawLength = getInt(0);
+        int length = getInt(4);
+        if (rawLength <= 0 || rawLength > SegmentFormat.MAX_COMPRESSED_BLOCK_SIZE || length <= 0 || length > rawLength) {
+            throw new IOException("压缩块长度无效: " + length + " / " + rawLength);
+        }
+        if (compressed.length < length) {
+            compressed = new byte[length];
+        }
+        if (readFully(compressed, length) < length) {
+            finished = true;
+            truncated = true;
+            return false;
+        }
+        if (block.length < rawLength) {
+            block = new byte[rawLength];
+        }
+        if (length == rawLength) {
+            // 按原样存储的块
+            System.arraycopy(compressed, 0, block, 0, rawLength);
+        } else {
+            codec.decompress(compressed, 0, length, block, 0, rawLength);
+        }
+        blockLength = rawLength;
+        position = 0;
+        return true;
+    }
+
+    private int readFully(byte[] target, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int n = in.read(target, offset, length - offset);
+            if (n < 0) {
+                break;
+            }
+            offset += n;
+        }
+        return offset;
+    }
+
+    private int getInt(int offset) {
+        return (header[offset] & 0xFF) | ((header[offset + 1] & 0xFF) << 8) |
+               ((header[offset + 2] & 0xFF) << 16) | (header[offset + 3] << 24);
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.sensordatacollector;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 按块压缩的输出流，块格式见SegmentFormat
+ * 数据攒满一个块或flush()时压缩成一个独立的块写入下游，因此刷新后文件总在块边界结束，
+ * 进程被杀时最多丢失最后一个不完整的块。块越大压缩率越高，刷新过于频繁时可以由后台任务重新压缩。
+ * 压缩后不比原数据小的块按原样存储。
+ */
+public class CompressedBlockOutputStream extends OutputStream {
+    static final int BLOCK_HEADER_SIZE = 8;
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    private final OutputStream out;
+    private final CompressionCodec codec;
+    private final byte[] block;
+    private int blockLength = 0;
+    private final byte[] compressed;
+    private boolean closed = false;
+
+    private long blocksWritten = 0;
+    private long rawBytes = 0;
+    private long compressedBytes = 0;
+
+    /**
+     * @param out 下游输出流
+     * @param blockSize 块的最大原始字节数，不超过SegmentFormat.MAX_COMPRESSED_BLOCK_SIZE
+     */
+    public CompressedBlockOutputStream(OutputStream out, CompressionCodec codec, int blockSize) {
+        if (blockSize <= 0 || blockSize > SegmentFormat.MAX_COMPRESSED_BLOCK_SIZE) {
+            throw new IllegalArgumentException("块大小无效: " + blockSize);
+        }
+        this.out = out;
+        this.codec = codec;
+        this.block = new byte[blockSize];
+        this.compressed = new byte[BLOCK_HEADER_SIZE + Math.max(codec.maxCompressedLength(blockSize), blockSize)];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("流已关闭");
+        }
+        while (len > 0) {
+            int n = Math.min(len, block.length - blockLength);
+            System.arraycopy(b, off, block, blockLength, n);
+            blockLength += n;
+            off += n;
+            len -= n;
+            if (blockLength == block.length) {
+                finishBlock();
+            }
+        }
+    }
+
+    /**
+     * 压缩当前块并写入下游，当前块为空时不做任何事
+     */
+    public void finishBlock() throws IOException {
+        if (blockLength == 0) {
+            return;
+        }
+        int length = codec.compress(block, 0, blockLength, compressed, BLOCK_HEADER_SIZE);
+        if (length >= blockLength) {
+            System.arraycopy(block, 0, compressed, BLOCK_HEADER_SIZE, blockLength);
+            length = blockLength;
+        }
+        putInt(0, blockLength);
+        putInt(4, length);
+        out.write(compressed, 0, BLOCK_HEADER_SIZE + length);
+
+        blocksWritten++;
+        rawBytes += blockLength;
+        compressedBytes += BLOCK_HEADER_SIZE + length;
+        blockLength = 0;
+    }
+
+    /**
+     * 结束当前块并刷新下游
+     */
+    @Override
+    public void flush() throws IOException {
+        finishBlock();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            finishBlock();
+        } finally {
+            closed = true;
+            out.close();
+        }
+    }
+
+    public long getBlocksWritten() {
+        return blocksWritten;
+    }
+
+    public long getRawBytes() {
+        return rawBytes;
+    }
+
+    /**
+     * 写入下游的字节数，包括块头
+     */
+    public long getCompressedBytes() {
+        return compressedBytes;
+    }
+
+    private void putInt(int offset, int value) {
+        compressed[offset] = (byte) value;
+        compressed[offset + 1] = (byte) (value >>> 8);
+        compressed[offset + 2] = (byte) (value >>> 16);
+        compressed[offset + 3] = (byte) (value >>> 24);
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.sensordatacollector;
+
+import java.io.IOException;
+
+/**
+ * 数据段的块压缩编码
+ * 编码编号写在数据段文件头中(见SegmentFormat)，读取时据此选择解压方式，因此编号一经使用不能改变含义。
+ * 实现必须是无状态或线程安全的：同一实例可能同时被写入线程和后台任务使用。
+ */
+public interface CompressionCodec {
+    int ID_NONE = 0;
+    int ID_DEFLATE_FAST = 1;
+    int ID_DEFLATE_DEFAULT = 2;
+    int ID_DEFLATE_BEST = 3;
+    int ID_DEFLATE_DICTIONARY = 4;
+    int ID_LZ4 = 5;
+
+    /** 不压缩，文件头之后直接是数据块，与未引入压缩编码之前的数据段相同 */
+    CompressionCodec NONE = new CompressionCodec() {
+        @Override
+        public int getId() {
+            return ID_NONE;
+        }
+
+        @Override
+        public String getName() {
+            return "none";
+        }
+
+        @Override
+        public int maxCompressedLength(int length) {
+            return length;
+        }
+
+        @Override
+        public int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+            System.arraycopy(src, srcOff, dst, dstOff, srcLen);
+            return srcLen;
+        }
+
+        @Override
+        public void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int rawLength) throws IOException {
+            if (srcLen != rawLength) {
+                throw new IOException("未压缩块长度不一致: " + srcLen + " / " + rawLength);
+            }
+            System.arraycopy(src, srcOff, dst, dstOff, srcLen);
+        }
+
+        @Override
+        public String toString() {
+            return getName();
+        }
+    };
+
+    /** Deflate最快级别(1)，压缩率接近默认级别，耗时约为其一半 */
+    CompressionCodec DEFLATE_FAST = new DeflateCodec(ID_DEFLATE_FAST, "deflate-1", 1, null);
+    /** Deflate默认级别(6)，与原来GZIPOutputStream的级别相同 */
+    CompressionCodec DEFLATE_DEFAULT = new DeflateCodec(ID_DEFLATE_DEFAULT, "deflate-6", 6, null);
+    /** Deflate最高级别(9)，用于充电时写入或重新压缩 */
+    CompressionCodec DEFLATE_BEST = new DeflateCodec(ID_DEFLATE_BEST, "deflate-9", 9, null);
+    /** Deflate默认级别加预置字典，刷新频繁、块很小时压缩率明显好于不带字典 */
+    CompressionCodec DEFLATE_DICTIONARY = new DeflateCodec(ID_DEFLATE_DICTIONARY, "deflate-dict", 6,
+            DeflateCodec.PRESET_DICTIONARY);
+    /** 纯Java的LZ4块格式，压缩率低于Deflate但编码快得多，用于电池供电时记录 */
+    CompressionCodec LZ4 = new Lz4Codec(ID_LZ4, "lz4");
+
+    /**
+     * 文件头中的编号
+     */
+    int getId();
+
+    /**
+     * 配置和日志中使用的名称
+     */
+    String getName();
+
+    /**
+     * 压缩length字节时输出缓冲区至少需要的大小
+     */
+    int maxCompressedLength(int length);
+
+    /**
+     * 压缩一个块
+     * @param dst 输出缓冲区，从dstOff开始至少有maxCompressedLength(srcLen)字节
+     * @return 压缩后的字节数
+     */
+    int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff);
+
+    /**
+     * 解压一个块
+     * @param rawLength 解压后的字节数，与压缩前相同
+     * @throws IOException 数据损坏或解压后的长度与rawLength不一致
+     */
+    void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int rawLength) throws IOException;
+
+    /**
+     * 按编号查找编码，未知编号返回null
+     */
+    static CompressionCodec forId(int id) {
+        for (CompressionCodec codec : all()) {
+            if (codec.getId() == id) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 按名称查找编码，未知名称返回null
+     */
+    static CompressionCodec forName(String name) {
+        for (CompressionCodec codec : all()) {
+            if (codec.getName().equals(name)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 所有内置编码，按编号顺序
+     */
+    static CompressionCodec[] all() {
+        return new CompressionCodec[] { NONE, DEFLATE_FAST, DEFLATE_DEFAULT, DEFLATE_BEST, DEFLATE_DICTIONARY, LZ4 };
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.sensordatacollector;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 数据文件降采样
+ * 每个传感器(融合记录单独计)只保留每keepEvery条记录中的第一条，元数据行和字典定义行全部保留，
+ * 因此降采样后的文件格式不变，字典引用仍然有效。文件末尾追加一行降采样元数据说明本次保留的比例。
+ * 用于存储配额的DOWNSAMPLE_BEFORE_DELETE策略：在删除未上传的数据之前先降低其采样率。
+ */
+public class DataFileDownsampler {
+    private static final String TAG = "DataFileDownsampler";
+
+    public static final String METADATA_TYPE = "downsample";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 降采样结果
+     */
+    public static class Result {
+        public long recordsKept;
+        public long recordsDropped;
+
+        @Override
+        public String toString() {
+            return "保留 " + recordsKept + " 条记录, 丢弃 " + recordsDropped + " 条";
+        }
+    }
+
+    /**
+     * 把数据文件降采样写入另一个文件，支持.jsonl、.jsonl.gz和.sdseg
+     */
+    public static Result downsample(File input, File output, int keepEvery) throws IOException {
+        if (keepEvery < 2) {
+            throw new IllegalArgumentException("keepEvery必须大于1: " + keepEvery);
+        }
+        String name = input.getName();
+        Result result;
+        if (name.endsWith(SegmentFormat.FILE_EXTENSION)) {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(input), BUFFER_SIZE);
+                 OutputStream out = new BufferedOutputStream(new FileOutputStream(output), BUFFER_SIZE)) {
+                result = downsampleSegment(in, out, keepEvery);
+            }
+        } else {
+            boolean compressed = name.endsWith(".gz");
+            try (InputStream fileIn = new FileInputStream(input);
+                 InputStream in = compressed ? new GZIPInputStream(fileIn, BUFFER_SIZE) : new BufferedInputStream(fileIn, BUFFER_SIZE);
+                 OutputStream fileOut = new FileOutputStream(output);
+                 OutputStream out = compressed ? new GZIPOutputStream(fileOut, BUFFER_SIZE) : new BufferedOutputStream(fileOut, BUFFER_SIZE)) {
+                result = downsampleJsonl(in, out, keepEvery);
+            }
+        }
+        Log.d(TAG, name + " 降采样 1/" + keepEvery + ": " + result);
+        return result;
+    }
+
+    /**
+     * 二进制数据段降采样，沿用原文件头
+     */
+    public static Result downsampleSegment(InputStream segment, OutputStream out, int keepEvery) throws IOException {
+        Result result = new Result();
+        SegmentReader reader = new SegmentReader(segment);
+        SegmentWriter writer = new SegmentWriter(out, reader.getHeader(), true);
+        Map<String, Long> counters = new HashMap<>();
+        while (reader.next()) {
+            if (reader.isMetadata()) {
+                writer.writeMetadata(reader.getMetadataJson());
+                continue;
+            }
+            DataRecord record = reader.getRecord();
+            if (keep(counters, record.type + ":" + record.sensorId + ":" + record.sensorName, keepEvery)) {
+                writer.write(record);
+                result.recordsKept++;
+            } else {
+                result.recordsDropped++;
+            }
+        }
+        writer.writeMetadata(createMetadata(keepEvery, result).toString());
+        writer.flush();
+        return result;
+    }
+
+    /**
+     * JSONL降采样，非记录行(字典定义、元数据和无法解析的行)原样保留
+     */
+    public static Result downsampleJsonl(InputStream jsonl, OutputStream out, int keepEvery) throws IOException {
+        Result result = new Result();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(jsonl, StandardCharsets.UTF_8), BUFFER_SIZE);
+        Map<String, Long> counters = new HashMap<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            String key = null;
+            try {
+                JSONObject json = new JSONObject(line);
+                String type = json.optString("type", "sensor");
+                if (json.has("timestamp_ms") && ("sensor".equals(type) || FusedDataRecord.TYPE.equals(type))) {
+                    key = type + ":" + json.optInt("sensor_id", 0) + ":" +
+                          json.optString("sensor_name", json.optString("sensor_name_ref", ""));
+                }
+            } catch (JSONException e) {
+                // 原样保留
+            }
+            if (key != null) {
+                if (!keep(counters, key, keepEvery)) {
+                    result.recordsDropped++;
+                    continue;
+                }
+                result.recordsKept++;
+            }
+            out.write(line.getBytes(StandardCharsets.UTF_8));
+            out.write('\n');
+        }
+        out.write((createMetadata(keepEvery, result).toString() + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        return result;
+    }
+
+    private static boolean keep(Map<String, Long> counters, String key, int keepEvery) {
+        Long count = counters.get(key);
+        long index = count != null ? count : 0;
+        counters.put(key, index + 1);
+        return index % keepEvery == 0;
+    }
+
+    private static JSONObject createMetadata(int keepEvery, Result result) {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("type", METADATA_TYPE);
+            json.put("keep_every", keepEvery);
+            json.put("records_kept", result.recordsKept);
+            json.put("records_dropped", result.recordsDropped);
+            json.put("created_ms", System.currentTimeMillis());
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return json;
+    }
+}
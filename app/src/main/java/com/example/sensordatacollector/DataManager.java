@@ -9,15 +9,10 @@ import android.util.Log;
 import android.content.res.Configuration;
 import android.app.Service;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.RejectedExecutionHandler;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -33,8 +28,14 @@ public class DataManager implements SensorCollector.DataCollectionListener, Comp
     // 使用final保证线程安全，并加锁处理
     private final List<DataRecordListener> listeners = new ArrayList<>();
 
-    // 使用单线程执行器处理数据
-    private ExecutorService processExecutor;
+    // 使用单线程执行器处理数据，队列满时按背压策略处理
+    private RecordStageExecutor processExecutor;
+    
+    // 分发阶段的计数器，执行器重建后继续累计
+    private final PipelineStageStats stageStats = new PipelineStageStats("data_manager");
+    
+    // 队列已满时的处理策略，默认阻塞，把压力传回传感器环形缓冲区并在那里计数
+    private volatile BackpressurePolicy backpressurePolicy = BackpressurePolicy.BLOCK;
 
     // 时间戳管理器
     private TimestampManager timestampManager;
@@ -62,14 +63,21 @@ public class DataManager implements SensorCollector.DataCollectionListener, Comp
     // 应用上下文引用 - 使用WeakReference避免内存泄漏
     private volatile java.lang.ref.WeakReference<Context> contextRef;
     
-    // 线程池配置参数 - 优化减少线程数量
-    private static final int CORE_POOL_SIZE = 1;
-    private static final int MAX_POOL_SIZE = 2; // 减少最大线程数
-    private static final int KEEP_ALIVE_TIME = 10; // 减少保活时间到10秒
-    private static final int QUEUE_CAPACITY = 50; // 减少队列容量
+    // 线程池配置参数 - 单线程保证记录按顺序分发
+    private static final int POOL_SIZE = 1;
+    private static final int QUEUE_CAPACITY = 1024; // 可容纳约一个传感器处理批次的数倍
 
     public interface DataRecordListener {
         void onNewDataRecord(DataRecord dataRecord);
+        
+        /**
+         * 一次收到一批样本，默认逐条转换为DataRecord处理；能直接处理列数据的监听器应覆盖此方法
+         */
+        default void onNewBatch(SensorBatch batch) {
+            for (int i = 0; i < batch.size(); i++) {
+                onNewDataRecord(batch.toRecord(i));
+            }
+        }
     }
 
     // 私有构造函数，防止直接实例化
@@ -96,6 +104,12 @@ public class DataManager implements SensorCollector.DataCollectionListener, Comp
             } else {
                 Log.w(TAG, "无法从WeakReference获取有效的ApplicationContext");
             }
+            
+            // 溢写目录依赖上下文，直接交给当前执行器，之后切换到SPILL_TO_DISK时不需要重建执行器
+            RecordStageExecutor executor = processExecutor;
+            if (executor != null) {
+                executor.setSpillDirectory(getSpillDirectory());
+            }
         }
     }
 
@@ -165,7 +179,28 @@ public class DataManager implements SensorCollector.DataCollectionListener, Comp
     }
 
     /**
-     * 通知所有监听器有新数据
+     * 通知所有监听器有一批新数据，在数据处理线程中执行
+     */
+    private void notifyListeners(final SensorBatch batch) {
+        final List<DataRecordListener> listenersCopy;
+        synchronized (listeners) {
+            if (listeners.isEmpty()) {
+                return;
+            }
+            listenersCopy = new ArrayList<>(listeners);
+        }
+
+        for (DataRecordListener listener : listenersCopy) {
+            try {
+                listener.onNewBatch(batch);
+            } catch (Exception e) {
+                Log.e(TAG, "通知监听器出错", e);
+            }
+        }
+    }
+
+    /**
+     * 通知所有监听器有新数据，在数据处理线程中执行
      */
     private void notifyListeners(final DataRecord dataRecord) {
         if (dataRecord == null) {
@@ -173,86 +208,21 @@ public class DataManager implements SensorCollector.DataCollectionListener, Comp
             return;
         }
 
+        // 创建副本，防止并发修改，在锁外通知监听器
+        final List<DataRecordListener> listenersCopy;
         synchronized (listeners) {
             if (listeners.isEmpty()) {
                 Log.v(TAG, "没有数据监听器");
                 return;
             }
+            listenersCopy = new ArrayList<>(listeners);
+        }
 
-            // 创建副本，防止并发修改
-            final List<DataRecordListener> listenersCopy = new ArrayList<>(listeners);
-
-            // 检查线程池状态并在处理线程中通知所有监听器
-            if (processExecutor != null && !processExecutor.isShutdown()) {
-                try {
-                    processExecutor.submit(() -> {
-                        for (DataRecordListener listener : listenersCopy) {
-                            try {
-                                listener.onNewDataRecord(dataRecord);
-                            } catch (Exception e) {
-                                Log.e(TAG, "通知监听器出错", e);
-                            }
-                        }
-                    });
-                } catch (RejectedExecutionException e) {
-                    Log.w(TAG, "通知监听器任务被拒绝: " + e.getMessage());
-                    handleRejectedExecution(e, () -> {
-                        for (DataRecordListener listener : listenersCopy) {
-                            try {
-                                listener.onNewDataRecord(dataRecord);
-                            } catch (Exception ex) {
-                                Log.e(TAG, "通知监听器出错", ex);
-                            }
-                        }
-                    });
-                } catch (Exception e) {
-                    Log.e(TAG, "提交通知监听器任务失败", e);
-                    // 直接在当前线程通知监听器
-                    for (DataRecordListener listener : listenersCopy) {
-                        try {
-                            listener.onNewDataRecord(dataRecord);
-                        } catch (Exception ex) {
-                            Log.e(TAG, "通知监听器出错", ex);
-                        }
-                    }
-                }
-            } else {
-                // 线程池不可用，检查DataManager状态
-                if (isExecutorRunning.get()) {
-                    Log.d(TAG, "线程池不可用，尝试重建");
-                    ensureExecutorAvailable();
-                    // 重建后再次尝试使用线程池
-                    if (processExecutor != null && !processExecutor.isShutdown()) {
-                        try {
-                            processExecutor.submit(() -> {
-                                for (DataRecordListener listener : listenersCopy) {
-                                    try {
-                                        listener.onNewDataRecord(dataRecord);
-                                    } catch (Exception e) {
-                                        Log.e(TAG, "通知监听器出错", e);
-                                    }
-                                }
-                            });
-                            return; // 成功提交，直接返回
-                        } catch (Exception e) {
-                            Log.w(TAG, "重建后仍无法使用线程池: " + e.getMessage());
-                        }
-                    }
-                } else {
-                    // DataManager已关闭，静默处理，避免日志污染
-                    Log.v(TAG, "DataManager已关闭，跳过数据处理");
-                    return; // 直接返回，不处理数据
-                }
-                
-                // 如果重建失败，直接在当前线程通知监听器
-                Log.d(TAG, "在当前线程通知监听器");
-                for (DataRecordListener listener : listenersCopy) {
-                    try {
-                        listener.onNewDataRecord(dataRecord);
-                    } catch (Exception e) {
-                        Log.e(TAG, "通知监听器出错", e);
-                    }
-                }
+        for (DataRecordListener listener : listenersCopy) {
+            try {
+                listener.onNewDataRecord(dataRecord);
+            } catch (Exception e) {
+                Log.e(TAG, "通知监听器出错", e);
             }
         }
     }
@@ -318,64 +288,54 @@ public class DataManager implements SensorCollector.DataCollectionListener, Comp
             }
         }
         
-        // 创建新的执行器，使用有界队列和拒绝策略
-        processExecutor = new ThreadPoolExecutor(
-            CORE_POOL_SIZE, 
-            MAX_POOL_SIZE, 
-            KEEP_ALIVE_TIME, 
-            TimeUnit.SECONDS, 
-            new LinkedBlockingQueue<>(QUEUE_CAPACITY), // 有界队列，限制队列容量
-            new ThreadFactory() {
-                @Override
-                public Thread newThread(Runnable r) {
-                    Thread thread = new Thread(r, "DataManager-Worker");
-                    thread.setPriority(Thread.NORM_PRIORITY - 1); // 稍低优先级
-                    thread.setDaemon(true); // 设置为守护线程，避免阻止应用退出
-                    return thread;
-                }
-            },
-            new RejectedExecutionHandler() {
-                @Override
-                public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
-                    // 当队列满时，记录警告但不抛出异常
-                    Log.w(TAG, "数据处理队列已满，任务被拒绝");
-                    
-                    // 如果线程池已关闭，尝试重建
-                    if (executor.isShutdown() && isExecutorRunning.get()) {
-                        Log.d(TAG, "线程池已关闭，尝试重建");
-                        mainHandler.post(() -> {
-                            createExecutor();
-                            // 重新提交任务
-                            try {
-                                if (processExecutor != null && !processExecutor.isShutdown()) {
-                                    processExecutor.submit(r);
-                                }
-                            } catch (Exception e) {
-                                Log.e(TAG, "重新提交任务失败", e);
-                                // 直接执行任务，确保数据不丢失
-                                try {
-                                    r.run();
-                                } catch (Exception ex) {
-                                    Log.e(TAG, "直接执行任务失败", ex);
-                                }
-                            }
-                        });
-                    } else {
-                        // 直接在调用线程中执行任务，确保数据不丢失
-                        try {
-                            Log.d(TAG, "在调用线程中直接执行被拒绝的任务");
-                            r.run();
-                        } catch (Exception e) {
-                            Log.e(TAG, "直接执行被拒绝任务失败", e);
-                        }
-                    }
-                }
-            }
+        // 创建新的执行器，使用有界队列，队列满时按背压策略处理
+        processExecutor = new RecordStageExecutor(
+            stageStats,
+            "DataManager-Worker",
+            POOL_SIZE,
+            QUEUE_CAPACITY,
+            backpressurePolicy,
+            this::notifyListeners,
+            getSpillDirectory()
         );
+        processExecutor.setBatchHandler(this::notifyListeners);
         
         isExecutorRunning.set(true);
-        Log.d(TAG, "创建了新的数据处理执行器 (核心线程: " + CORE_POOL_SIZE + 
-                  ", 最大线程: " + MAX_POOL_SIZE + ", 队列容量: " + QUEUE_CAPACITY + ")");
+        Log.d(TAG, "创建了新的数据处理执行器 (线程: " + POOL_SIZE + ", 队列容量: " + QUEUE_CAPACITY +
+                  ", 背压策略: " + backpressurePolicy + ")");
+    }
+    
+    /**
+     * 溢写目录，尚未初始化上下文时返回null，此时SPILL_TO_DISK按丢弃处理
+     */
+    private File getSpillDirectory() {
+        Context context = contextRef != null ? contextRef.get() : null;
+        return context != null ? new File(context.getFilesDir(), "spill") : null;
+    }
+    
+    /**
+     * 设置分发队列已满时的处理策略
+     */
+    public void setBackpressurePolicy(BackpressurePolicy policy) {
+        if (policy == null) return;
+        
+        backpressurePolicy = policy;
+        // 溢写目录在获得上下文时已交给执行器，直接切换策略，不重建执行器
+        RecordStageExecutor executor = processExecutor;
+        if (executor != null) {
+            executor.setPolicy(policy);
+        }
+    }
+    
+    public BackpressurePolicy getBackpressurePolicy() {
+        return backpressurePolicy;
+    }
+    
+    /**
+     * 获取分发阶段的计数器
+     */
+    public PipelineStageStats getPipelineStats() {
+        return stageStats;
     }
 
     /**
@@ -391,21 +351,17 @@ public class DataManager implements SensorCollector.DataCollectionListener, Comp
         // 确保执行器可用
         ensureExecutorAvailable();
         
-        // 检查执行器状态并处理数据
-        if (processExecutor != null && !processExecutor.isShutdown()) {
+        // 检查执行器状态并处理数据，记录只提交一次，由处理线程直接通知监听器
+        RecordStageExecutor executor = processExecutor;
+        if (executor != null && !executor.isShutdown()) {
             try {
-                processExecutor.submit(() -> {
-                    try {
-                        notifyListeners(dataRecord);
-                    } catch (Exception e) {
-                        Log.e(TAG, "处理传感器数据出错", e);
-                    }
-                });
+                executor.submitRecord(dataRecord);
             } catch (RejectedExecutionException e) {
-                handleRejectedExecution(e, () -> notifyListeners(dataRecord));
+                handleRejectedExecution(e, dataRecord);
             } catch (Exception e) {
                 Log.e(TAG, "提交任务时发生未知异常", e);
                 // 直接在当前线程处理，确保数据不丢失
+                stageStats.recordInline();
                 notifyListeners(dataRecord);
             }
         } else {
@@ -413,14 +369,50 @@ public class DataManager implements SensorCollector.DataCollectionListener, Comp
             if (isExecutorRunning.get()) {
                 Log.w(TAG, "线程池不可用，在当前线程处理传感器数据");
                 // 直接处理数据，确保不丢失
+                stageStats.recordInline();
                 notifyListeners(dataRecord);
             } else {
                 // DataManager已关闭，静默跳过
+                stageStats.recordDropped();
                 Log.v(TAG, "DataManager已关闭，跳过传感器数据处理");
             }
         }
     }
 
+    /**
+     * 一批传感器样本的回调，整批作为一个任务提交，在处理线程中按批通知监听器
+     */
+    @Override
+    public void onBatchCollected(SensorBatch batch) {
+        if (batch == null || batch.isEmpty()) {
+            return;
+        }
+        
+        ensureExecutorAvailable();
+        
+        RecordStageExecutor executor = processExecutor;
+        if (executor != null && !executor.isShutdown()) {
+            try {
+                executor.submitBatch(batch);
+            } catch (RejectedExecutionException e) {
+                Log.w(TAG, "批次提交被拒绝，在当前线程处理: " + e.getMessage());
+                stageStats.recordInline(batch.size());
+                notifyListeners(batch);
+            } catch (Exception e) {
+                Log.e(TAG, "提交批次时发生未知异常", e);
+                stageStats.recordInline(batch.size());
+                notifyListeners(batch);
+            }
+        } else if (isExecutorRunning.get()) {
+            Log.w(TAG, "线程池不可用，在当前线程处理传感器数据批次");
+            stageStats.recordInline(batch.size());
+            notifyListeners(batch);
+        } else {
+            stageStats.recordDropped(batch.size());
+            Log.v(TAG, "DataManager已关闭，跳过传感器数据批次");
+        }
+    }
+
     /**
      * 确保执行器可用
      */
@@ -437,9 +429,9 @@ public class DataManager implements SensorCollector.DataCollectionListener, Comp
     }
     
     /**
-     * 处理被拒绝的任务执行
+     * 处理执行器已关闭导致的提交失败
      */
-    private void handleRejectedExecution(RejectedExecutionException e, Runnable fallbackTask) {
+    private void handleRejectedExecution(RejectedExecutionException e, DataRecord dataRecord) {
         Log.w(TAG, "任务被拒绝执行: " + e.getMessage());
         
         // 如果执行器已关闭且应该运行，尝试重建
@@ -451,7 +443,7 @@ public class DataManager implements SensorCollector.DataCollectionListener, Comp
                 // 重建后尝试重新提交任务
                 if (processExecutor != null && !processExecutor.isShutdown()) {
                     try {
-                        processExecutor.submit(fallbackTask);
+                        processExecutor.submitRecord(dataRecord);
                         return;
                     } catch (Exception retryEx) {
                         Log.e(TAG, "重新提交任务失败", retryEx);
@@ -464,8 +456,9 @@ public class DataManager implements SensorCollector.DataCollectionListener, Comp
         
         // 如果重建失败或其他情况，直接在当前线程执行
         Log.w(TAG, "线程池不可用，在当前线程执行任务");
+        stageStats.recordInline();
         try {
-            fallbackTask.run();
+            notifyListeners(dataRecord);
         } catch (Exception ex) {
             Log.e(TAG, "执行fallback任务失败", ex);
         }
@@ -5,6 +5,7 @@ import org.json.JSONException;
 
 public class DataRecord {
     public long timestampMs;
+    public long eventTimeNanos; // 传感器硬件时间戳(elapsedRealtimeNanos时基)，0表示未知
     public String type; // "sensor"
 
     // 用户ID字段
@@ -15,6 +16,7 @@ public class DataRecord {
     public String foregroundPackageName;
 
     // Sensor event specific
+    public int sensorId; // SensorRegistry中的传感器ID，0表示未知
     public String sensorName; // "gravity", "accelerometer", "magnetometer", "gyroscope"
     public float sensorX, sensorY, sensorZ;
     public int sensorAccuracy;
@@ -22,7 +24,16 @@ public class DataRecord {
     // Constructor for sensor events
     public DataRecord(long timestampMs, String sensorName, float sensorX, float sensorY, float sensorZ, int sensorAccuracy,
                      String foregroundAppName, String foregroundPackageName, String userId) {
+        this(timestampMs, 0L, 0, sensorName, sensorX, sensorY, sensorZ, sensorAccuracy,
+             foregroundAppName, foregroundPackageName, userId);
+    }
+
+    // Constructor for sensor events carrying the hardware event timestamp
+    public DataRecord(long timestampMs, long eventTimeNanos, int sensorId, String sensorName, float sensorX, float sensorY,
+                     float sensorZ, int sensorAccuracy, String foregroundAppName, String foregroundPackageName, String userId) {
         this.timestampMs = timestampMs;
+        this.eventTimeNanos = eventTimeNanos;
+        this.sensorId = sensorId;
         this.type = "sensor";
         this.sensorName = sensorName;
         this.sensorX = sensorX;
@@ -35,18 +46,31 @@ public class DataRecord {
     }
 
     public JSONObject toJson() {
+        return toJson(null);
+    }
+
+    /**
+     * 生成JSON，字典不为null时字符串字段写为 *_ref 编号，新增的字典定义由调用方从字典中取出并先行写入
+     */
+    public JSONObject toJson(StringDictionary dictionary) {
         JSONObject json = new JSONObject();
         try {
             json.put("timestamp_ms", this.timestampMs);
+            if (this.eventTimeNanos != 0) {
+                json.put("event_time_ns", this.eventTimeNanos);
+            }
             json.put("type", this.type);
-            json.put("user_id", this.userId);
+            StringDictionary.putString(json, "user_id", this.userId, dictionary);
             
             // 添加前台应用信息
-            json.put("foreground_app_name", this.foregroundAppName);
-            json.put("foreground_package_name", this.foregroundPackageName);
+            StringDictionary.putString(json, "foreground_app_name", this.foregroundAppName, dictionary);
+            StringDictionary.putString(json, "foreground_package_name", this.foregroundPackageName, dictionary);
 
             if ("sensor".equals(this.type)) {
-                json.put("sensor_name", this.sensorName);
+                StringDictionary.putString(json, "sensor_name", this.sensorName, dictionary);
+                if (this.sensorId != 0) {
+                    json.put("sensor_id", this.sensorId);
+                }
                 JSONObject values = new JSONObject();
                 values.put("x", this.sensorX);
                 values.put("y", this.sensorY);
@@ -60,6 +84,37 @@ public class DataRecord {
         return json;
     }
 
+    /**
+     * 从toJson()生成的JSON还原数据记录，用于重新读取溢写到磁盘或已保存的数据
+     */
+    public static DataRecord fromJson(JSONObject json) throws JSONException {
+        return fromJson(json, null);
+    }
+
+    /**
+     * 从JSON还原数据记录，*_ref 字段通过当前文件的字符串字典还原
+     */
+    public static DataRecord fromJson(JSONObject json, StringDictionary dictionary) throws JSONException {
+        if (FusedDataRecord.TYPE.equals(json.optString("type"))) {
+            return FusedDataRecord.fromJson(json, dictionary);
+        }
+        JSONObject values = json.optJSONObject("values");
+        DataRecord record = new DataRecord(
+                json.getLong("timestamp_ms"),
+                json.optLong("event_time_ns", 0L),
+                json.optInt("sensor_id", 0),
+                StringDictionary.getString(json, "sensor_name", dictionary),
+                values != null ? (float) values.optDouble("x", 0) : 0f,
+                values != null ? (float) values.optDouble("y", 0) : 0f,
+                values != null ? (float) values.optDouble("z", 0) : 0f,
+                json.optInt("accuracy", 0),
+                StringDictionary.getString(json, "foreground_app_name", dictionary),
+                StringDictionary.getString(json, "foreground_package_name", dictionary),
+                StringDictionary.getString(json, "user_id", dictionary));
+        record.type = json.optString("type", "sensor");
+        return record;
+    }
+
     @Override
     public String toString() {
         return toJson().toString();
@@ -0,0 +1,118 @@
+package com.example.sensordatacollector;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate块压缩编码(无zlib/gzip包装)，可选预置字典
+ * 每个块独立压缩，Deflater/Inflater按块创建并立即释放，实例本身无状态。
+ */
+public class DeflateCodec implements CompressionCodec {
+    /**
+     * 预置字典：数据段中反复出现的字符串(元数据JSON的键、传感器名称、常见包名前缀)，
+     * zlib优先匹配字典末尾的内容，所以最常见的放在最后。内容一经使用不能修改，否则旧文件无法解压。
+     */
+    static final byte[] PRESET_DICTIONARY = (
+            "{\"type\":\"downsample\",\"keep_every\":,\"records_kept\":,\"records_dropped\":,\"created_ms\":}" +
+            "{\"type\":\"marker\",\"user_id\":\"\",\"foreground_app\":\"\",\"foreground_package\":\"\"}" +
+            "\"server_offset_ns\":,\"server_rtt_ns\":,\"server_sync_elapsed_ns\":,\"server_drift_ppm\":" +
+            "{\"type\":\"clock_sync\",\"elapsed_realtime_ns\":,\"wall_time_ms\":,\"boot_offset_ns\":," +
+            "\"drift_ppm\":,\"step_count\":}" +
+            "com.google.android.com.android.systemuicom.android.launcher3com.android.chrome" +
+            "com.example.sensordatacollector" +
+            "magnetometergyroscopeaccelerometer"
+    ).getBytes(StandardCharsets.UTF_8);
+
+    private final int id;
+    private final String name;
+    private final int level;
+    private final byte[] dictionary;
+
+    /**
+     * @param level Deflater压缩级别(1-9)
+     * @param dictionary 预置字典，为null时不使用
+     */
+    public DeflateCodec(int id, String name, int level, byte[] dictionary) {
+        this.id = id;
+        this.name = name;
+        this.level = level;
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    public int getId() {
+        return id;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    @Override
+    public int maxCompressedLength(int length) {
+        // 与zlib的deflateBound相同的估计，再留出块结尾的余量
+        return length + (length >> 12) + (length >> 14) + (length >> 25) + 64;
+    }
+
+    @Override
+    public int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(src, srcOff, srcLen);
+            deflater.finish();
+            int length = 0;
+            while (!deflater.finished()) {
+                int n = deflater.deflate(dst, dstOff + length, dst.length - dstOff - length);
+                if (n == 0 && dstOff + length == dst.length) {
+                    throw new IllegalArgumentException("输出缓冲区不足");
+                }
+                length += n;
+            }
+            return length;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int rawLength) throws IOException {
+        Inflater inflater = new Inflater(true);
+        try {
+            if (dictionary != null) {
+                inflater.setDictionary(dictionary);
+            }
+            inflater.setInput(src, srcOff, srcLen);
+            int length = 0;
+            while (length < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(dst, dstOff + length, rawLength - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+            if (length != rawLength) {
+                throw new IOException("Deflate块解压后长度不一致: " + length + " / " + rawLength);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Deflate块数据损坏", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
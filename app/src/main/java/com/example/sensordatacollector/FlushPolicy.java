@@ -0,0 +1,49 @@
+package com.example.sensordatacollector;
+
+/**
+ * 数据文件的刷新策略
+ * 记录先在缓冲区和压缩器中累积，满足任一条件时才刷新到文件：
+ * 未刷新的字节数达到上限、未刷新的记录数达到上限、最早一条未刷新记录等待超过最长时间。
+ * 各条件小于等于0时不启用。压缩文件的每次刷新都会结束当前deflate块，刷新越频繁压缩率越差。
+ */
+public class FlushPolicy {
+    /** 默认每64KB或500ms刷新一次 */
+    public static final FlushPolicy DEFAULT = new FlushPolicy(64 * 1024, 0, 500);
+
+    /** 每条记录刷新一次，延迟最低，压缩率和系统调用开销最差 */
+    public static final FlushPolicy EVERY_RECORD = new FlushPolicy(0, 1, 0);
+
+    public final long maxPendingBytes;
+    public final int maxPendingRecords;
+    public final long maxLatencyMs;
+
+    public FlushPolicy(long maxPendingBytes, int maxPendingRecords, long maxLatencyMs) {
+        if (maxPendingBytes <= 0 && maxPendingRecords <= 0 && maxLatencyMs <= 0) {
+            throw new IllegalArgumentException("至少需要启用一个刷新条件");
+        }
+        this.maxPendingBytes = maxPendingBytes;
+        this.maxPendingRecords = maxPendingRecords;
+        this.maxLatencyMs = maxLatencyMs;
+    }
+
+    /**
+     * 按字节数或记录数判断是否需要刷新，在每次写入后调用
+     */
+    public boolean isSizeReached(long pendingBytes, int pendingRecords) {
+        return (maxPendingBytes > 0 && pendingBytes >= maxPendingBytes) ||
+               (maxPendingRecords > 0 && pendingRecords >= maxPendingRecords);
+    }
+
+    /**
+     * 按等待时间判断是否需要刷新
+     * @param pendingSinceNanos 最早一条未刷新数据写入的时间(System.nanoTime)
+     */
+    public boolean isLatencyReached(long pendingSinceNanos, long nowNanos) {
+        return maxLatencyMs > 0 && nowNanos - pendingSinceNanos >= maxLatencyMs * 1_000_000L;
+    }
+
+    @Override
+    public String toString() {
+        return "FlushPolicy{字节 " + maxPendingBytes + ", 记录 " + maxPendingRecords + ", 延迟 " + maxLatencyMs + "ms}";
+    }
+}
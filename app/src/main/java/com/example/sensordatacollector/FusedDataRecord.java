@@ -0,0 +1,129 @@
+package com.example.sensordatacollector;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * 融合后的9轴记录
+ * 由SensorResampler在统一时间网格上插值生成，一行同时包含加速度计、陀螺仪和磁力计的数值。
+ * 某个传感器缺失(设备没有该传感器或该时刻没有数据)时它的三个分量为NaN，JSON中省略对应的字段。
+ */
+public class FusedDataRecord extends DataRecord {
+    public static final String TYPE = "fused";
+
+    public float accX, accY, accZ;
+    public float gyroX, gyroY, gyroZ;
+    public float magX, magY, magZ;
+
+    public FusedDataRecord(long timestampMs, long eventTimeNanos, int accuracy,
+                           String foregroundAppName, String foregroundPackageName, String userId) {
+        super(timestampMs, eventTimeNanos, 0, TYPE, 0f, 0f, 0f, accuracy,
+              foregroundAppName, foregroundPackageName, userId);
+        this.type = TYPE;
+    }
+
+    /**
+     * 把指定传感器的分量设为缺失(NaN)
+     */
+    public void setAbsent(boolean accelerometer, boolean gyroscope, boolean magnetometer) {
+        if (accelerometer) {
+            accX = accY = accZ = Float.NaN;
+        }
+        if (gyroscope) {
+            gyroX = gyroY = gyroZ = Float.NaN;
+        }
+        if (magnetometer) {
+            magX = magY = magZ = Float.NaN;
+        }
+    }
+
+    public boolean hasAccelerometer() {
+        return !Float.isNaN(accX);
+    }
+
+    public boolean hasGyroscope() {
+        return !Float.isNaN(gyroX);
+    }
+
+    public boolean hasMagnetometer() {
+        return !Float.isNaN(magX);
+    }
+
+    @Override
+    public JSONObject toJson(StringDictionary dictionary) {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("timestamp_ms", this.timestampMs);
+            json.put("event_time_ns", this.eventTimeNanos);
+            json.put("type", this.type);
+            StringDictionary.putString(json, "user_id", this.userId, dictionary);
+
+            StringDictionary.putString(json, "foreground_app_name", this.foregroundAppName, dictionary);
+            StringDictionary.putString(json, "foreground_package_name", this.foregroundPackageName, dictionary);
+
+            if (hasAccelerometer()) {
+                json.put("accelerometer", vectorJson(accX, accY, accZ));
+            }
+            if (hasGyroscope()) {
+                json.put("gyroscope", vectorJson(gyroX, gyroY, gyroZ));
+            }
+            if (hasMagnetometer()) {
+                json.put("magnetometer", vectorJson(magX, magY, magZ));
+            }
+            json.put("accuracy", this.sensorAccuracy);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return json;
+    }
+
+    private static JSONObject vectorJson(float x, float y, float z) throws JSONException {
+        JSONObject values = new JSONObject();
+        values.put("x", x);
+        values.put("y", y);
+        values.put("z", z);
+        return values;
+    }
+
+    /**
+     * 从toJson()生成的JSON还原融合记录
+     */
+    public static FusedDataRecord fromJson(JSONObject json) throws JSONException {
+        return fromJson(json, null);
+    }
+
+    /**
+     * 从JSON还原融合记录，*_ref 字段通过当前文件的字符串字典还原
+     */
+    public static FusedDataRecord fromJson(JSONObject json, StringDictionary dictionary) throws JSONException {
+        FusedDataRecord record = new FusedDataRecord(
+                json.getLong("timestamp_ms"),
+                json.optLong("event_time_ns", 0L),
+                json.optInt("accuracy", 0),
+                StringDictionary.getString(json, "foreground_app_name", dictionary),
+                StringDictionary.getString(json, "foreground_package_name", dictionary),
+                StringDictionary.getString(json, "user_id", dictionary));
+        // 省略的传感器为缺失
+        record.setAbsent(true, true, true);
+
+        JSONObject acc = json.optJSONObject("accelerometer");
+        if (acc != null) {
+            record.accX = (float) acc.optDouble("x", 0);
+            record.accY = (float) acc.optDouble("y", 0);
+            record.accZ = (float) acc.optDouble("z", 0);
+        }
+        JSONObject gyro = json.optJSONObject("gyroscope");
+        if (gyro != null) {
+            record.gyroX = (float) gyro.optDouble("x", 0);
+            record.gyroY = (float) gyro.optDouble("y", 0);
+            record.gyroZ = (float) gyro.optDouble("z", 0);
+        }
+        JSONObject mag = json.optJSONObject("magnetometer");
+        if (mag != null) {
+            record.magX = (float) mag.optDouble("x", 0);
+            record.magY = (float) mag.optDouble("y", 0);
+            record.magZ = (float) mag.optDouble("z", 0);
+        }
+        return record;
+    }
+}
@@ -0,0 +1,549 @@
+package com.example.sensordatacollector;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Gorilla风格的记录块编码(参考Facebook Gorilla时间序列压缩)
+ * 一个块内的记录按原顺序写成一个位流，每个传感器(融合记录算一个)是一条独立的序列：
+ * <ul>
+ * <li>序列选择：'0' 表示预测的序列(上次紧跟在前一条记录所属序列之后的序列，交替采样时基本都能预测中)，
+ *     否则 '1' + 9位序列号(传感器编码0-255，融合记录为256)</li>
+ * <li>精度、标志和上下文编号：序列的第一条记录写原值(8+8+16位)，之后 '0' 表示与该序列上一条相同，否则 '1' + 原值</li>
+ * <li>墙上时间和事件时间：序列的第一条记录写64位原值，之后写与上一条间隔的差值(delta-of-delta)，
+ *     差值为0时只占1位；没有事件时间的记录不写事件时间</li>
+ * <li>数值(传感器3个、融合记录9个float)：与该序列上一条同一分量的位模式异或，相同时只占1位，
+ *     否则只写异或结果中间的有效位，前导零和末尾零的位数与上一次相容时沿用</li>
+ * </ul>
+ * 每个块独立编码，状态在块开始时清空，因此块可以单独解码，文件末尾不完整的块直接丢弃。
+ * 数值按位模式编码，NaN、-0等都能原样还原。
+ */
+public final class GorillaCodec {
+    static final int FUSED_STREAM = SegmentFormat.MAX_SENSOR_CODES;
+    private static final int STREAM_COUNT = FUSED_STREAM + 1;
+    private static final int STREAM_BITS = 9;
+    private static final int MAX_VALUES = 9;
+
+    private GorillaCodec() {
+    }
+
+    /**
+     * 每条序列的编解码状态
+     */
+    private static final class StreamState {
+        boolean started;
+        boolean hasEventTime;
+        int accuracy;
+        int flags;
+        int contextRef;
+        long wallMs;
+        long wallDelta;
+        long eventNanos;
+        long eventDelta;
+        final int[] values = new int[MAX_VALUES];
+        final int[] leading = new int[MAX_VALUES];
+        final int[] trailing = new int[MAX_VALUES];
+    }
+
+    /**
+     * 块编码器，实例可复用，不是线程安全的
+     */
+    public static final class Encoder {
+        private final BitWriter bits = new BitWriter();
+        private final StreamState[] streams = new StreamState[STREAM_COUNT];
+        private final int[] successors = new int[STREAM_COUNT];
+        private int lastStream;
+        private int recordCount;
+
+        public Encoder() {
+            reset();
+        }
+
+        /**
+         * 开始新的块
+         */
+        public void reset() {
+            bits.reset();
+            for (StreamState stream : streams) {
+                if (stream != null) {
+                    stream.started = false;
+                    stream.hasEventTime = false;
+                }
+            }
+            for (int i = 0; i < STREAM_COUNT; i++) {
+                successors[i] = i;
+            }
+            lastStream = 0;
+            recordCount = 0;
+        }
+
+        /**
+         * 编码一条传感器或融合记录
+         * @param sensorCode 数据段中的传感器编码，融合记录忽略
+         * @param contextRef 数据段中的上下文编号
+         */
+        public void encode(DataRecord record, int sensorCode, int contextRef) {
+            if (!(record instanceof FusedDataRecord)) {
+                encodeSensor(sensorCode, contextRef, record.timestampMs, record.eventTimeNanos, record.sensorAccuracy,
+                        record.sensorX, record.sensorY, record.sensorZ);
+                return;
+            }
+            FusedDataRecord fusedRecord = (FusedDataRecord) record;
+            StreamState stream = beginRecord(FUSED_STREAM, contextRef, record.timestampMs, record.eventTimeNanos,
+                    record.sensorAccuracy);
+            writeValue(stream, 0, fusedRecord.accX);
+            writeValue(stream, 1, fusedRecord.accY);
+            writeValue(stream, 2, fusedRecord.accZ);
+            writeValue(stream, 3, fusedRecord.gyroX);
+            writeValue(stream, 4, fusedRecord.gyroY);
+            writeValue(stream, 5, fusedRecord.gyroZ);
+            writeValue(stream, 6, fusedRecord.magX);
+            writeValue(stream, 7, fusedRecord.magY);
+            writeValue(stream, 8, fusedRecord.magZ);
+            endRecord(stream);
+        }
+
+        /**
+         * 编码一个传感器样本，供SegmentWriter直接传入批次中的列
+         */
+        void encodeSensor(int sensorCode, int contextRef, long timestampMs, long eventTimeNanos,
+                                  int sensorAccuracy, float x, float y, float z) {
+            StreamState stream = beginRecord(sensorCode, contextRef, timestampMs, eventTimeNanos, sensorAccuracy);
+            writeValue(stream, 0, x);
+            writeValue(stream, 1, y);
+            writeValue(stream, 2, z);
+            endRecord(stream);
+        }
+
+        /**
+         * 写入流切换、元信息和时间，返回记录所在的流，之后由调用方写入数值
+         */
+        private StreamState beginRecord(int streamIndex, int contextRef, long timestampMs, long eventTimeNanos,
+                                        int sensorAccuracy) {
+            StreamState stream = streams[streamIndex];
+            if (stream == null) {
+                stream = new StreamState();
+                streams[streamIndex] = stream;
+            }
+
+            if (successors[lastStream] == streamIndex) {
+                bits.write(0, 1);
+            } else {
+                bits.write(1, 1);
+                bits.write(streamIndex, STREAM_BITS);
+                successors[lastStream] = streamIndex;
+            }
+            lastStream = streamIndex;
+
+            int accuracy = Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, sensorAccuracy)) & 0xFF;
+            boolean hasEventTime = eventTimeNanos != 0;
+            int flags = hasEventTime ? 0 : SegmentFormat.FLAG_NO_EVENT_TIME;
+            if (!stream.started) {
+                writeMeta(accuracy, flags, contextRef);
+            } else if (accuracy == stream.accuracy && flags == stream.flags && contextRef == stream.contextRef) {
+                bits.write(0, 1);
+            } else {
+                bits.write(1, 1);
+                writeMeta(accuracy, flags, contextRef);
+            }
+            stream.accuracy = accuracy;
+            stream.flags = flags;
+            stream.contextRef = contextRef;
+
+            if (!stream.started) {
+                bits.write(timestampMs, 64);
+                stream.wallDelta = 0;
+            } else {
+                long delta = timestampMs - stream.wallMs;
+                writeDeltaOfDelta(delta - stream.wallDelta);
+                stream.wallDelta = delta;
+            }
+            stream.wallMs = timestampMs;
+
+            if (hasEventTime) {
+                if (!stream.hasEventTime) {
+                    bits.write(eventTimeNanos, 64);
+                    stream.eventDelta = 0;
+                    stream.hasEventTime = true;
+                } else {
+                    long delta = eventTimeNanos - stream.eventNanos;
+                    writeDeltaOfDelta(delta - stream.eventDelta);
+                    stream.eventDelta = delta;
+                }
+                stream.eventNanos = eventTimeNanos;
+            }
+            return stream;
+        }
+
+        private void endRecord(StreamState stream) {
+            stream.started = true;
+            recordCount++;
+        }
+
+        public int getRecordCount() {
+            return recordCount;
+        }
+
+        /**
+         * 当前块编码后的字节数(最后一个字节按补齐计算)
+         */
+        public int getByteLength() {
+            return bits.getByteLength();
+        }
+
+        /**
+         * 块的编码结果，有效长度为getByteLength()
+         */
+        public byte[] getBuffer() {
+            return bits.getBuffer();
+        }
+
+        private void writeMeta(int accuracy, int flags, int contextRef) {
+            bits.write(accuracy, 8);
+            bits.write(flags, 8);
+            bits.write(contextRef, 16);
+        }
+
+        /**
+         * 间隔的差值按大小分档：0 | 7位 | 12位 | 20位 | 32位 | 64位(zigzag编码)
+         */
+        private void writeDeltaOfDelta(long dod) {
+            long zigzag = (dod << 1) ^ (dod >> 63);
+            if (zigzag == 0) {
+                bits.write(0, 1);
+            } else if (zigzag >>> 7 == 0) {
+                bits.write(0b10, 2);
+                bits.write(zigzag, 7);
+            } else if (zigzag >>> 12 == 0) {
+                bits.write(0b110, 3);
+                bits.write(zigzag, 12);
+            } else if (zigzag >>> 20 == 0) {
+                bits.write(0b1110, 4);
+                bits.write(zigzag, 20);
+            } else if (zigzag >>> 32 == 0) {
+                bits.write(0b11110, 5);
+                bits.write(zigzag, 32);
+            } else {
+                bits.write(0b11111, 5);
+                bits.write(zigzag, 64);
+            }
+        }
+
+        private void writeValue(StreamState stream, int index, float value) {
+            int raw = Float.floatToRawIntBits(value);
+            if (!stream.started) {
+                bits.write(raw, 32);
+                stream.values[index] = raw;
+                stream.leading[index] = -1;
+                return;
+            }
+            int xor = raw ^ stream.values[index];
+            stream.values[index] = raw;
+            if (xor == 0) {
+                bits.write(0, 1);
+                return;
+            }
+            int leading = Integer.numberOfLeadingZeros(xor);
+            int trailing = Integer.numberOfTrailingZeros(xor);
+            int previousLeading = stream.leading[index];
+            int previousTrailing = stream.trailing[index];
+            if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+                // 有效位落在上一次的范围内，沿用上一次的前导零和末尾零位数
+                bits.write(0b10, 2);
+                bits.write(xor >>> previousTrailing, 32 - previousLeading - previousTrailing);
+            } else {
+                int significant = 32 - leading - trailing;
+                bits.write(0b11, 2);
+                bits.write(leading, 5);
+                bits.write(significant - 1, 5);
+                bits.write(xor >>> trailing, significant);
+                stream.leading[index] = leading;
+                stream.trailing[index] = trailing;
+            }
+        }
+    }
+
+    /**
+     * 块解码器，按拉取方式使用，实例可复用，不是线程安全的
+     */
+    public static final class Decoder {
+        private final BitReader bits = new BitReader();
+        private final StreamState[] streams = new StreamState[STREAM_COUNT];
+        private final int[] successors = new int[STREAM_COUNT];
+        private final int[] currentValues = new int[MAX_VALUES];
+        private int lastStream;
+        private int remaining;
+
+        private StreamState current;
+        private int currentStream;
+
+        /**
+         * 开始解码一个块
+         * @param data 块的位流，解码期间不能修改
+         * @param recordCount 块中的记录数
+         */
+        public void reset(byte[] data, int length, int recordCount) {
+            bits.reset(data, length);
+            for (StreamState stream : streams) {
+                if (stream != null) {
+                    stream.started = false;
+                    stream.hasEventTime = false;
+                }
+            }
+            for (int i = 0; i < STREAM_COUNT; i++) {
+                successors[i] = i;
+            }
+            lastStream = 0;
+            remaining = recordCount;
+            current = null;
+        }
+
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        /**
+         * 解码下一条记录，之后可通过getter读取
+         * @throws IOException 位流不完整
+         */
+        public void next() throws IOException {
+            if (remaining <= 0) {
+                throw new IOException("数据块中没有更多记录");
+            }
+            int streamIndex;
+            if (bits.read(1) == 0) {
+                streamIndex = successors[lastStream];
+            } else {
+                streamIndex = (int) bits.read(STREAM_BITS);
+                if (streamIndex >= STREAM_COUNT) {
+                    throw new IOException("无效的序列号: " + streamIndex);
+                }
+                successors[lastStream] = streamIndex;
+            }
+            lastStream = streamIndex;
+            StreamState stream = streams[streamIndex];
+            if (stream == null) {
+                stream = new StreamState();
+                streams[streamIndex] = stream;
+            }
+
+            if (!stream.started || bits.read(1) == 1) {
+                stream.accuracy = (int) bits.read(8);
+                stream.flags = (int) bits.read(8);
+                stream.contextRef = (int) bits.read(16);
+            }
+
+            if (!stream.started) {
+                stream.wallMs = bits.read(64);
+                stream.wallDelta = 0;
+            } else {
+                stream.wallDelta += readDeltaOfDelta();
+                stream.wallMs += stream.wallDelta;
+            }
+
+            if ((stream.flags & SegmentFormat.FLAG_NO_EVENT_TIME) == 0) {
+                if (!stream.hasEventTime) {
+                    stream.eventNanos = bits.read(64);
+                    stream.eventDelta = 0;
+                    stream.hasEventTime = true;
+                } else {
+                    stream.eventDelta += readDeltaOfDelta();
+                    stream.eventNanos += stream.eventDelta;
+                }
+            }
+
+            int valueCount = streamIndex == FUSED_STREAM ? MAX_VALUES : 3;
+            for (int i = 0; i < valueCount; i++) {
+                currentValues[i] = readValue(stream, i);
+            }
+
+            stream.started = true;
+            current = stream;
+            currentStream = streamIndex;
+            remaining--;
+        }
+
+        public boolean isFused() {
+            return currentStream == FUSED_STREAM;
+        }
+
+        public int getSensorCode() {
+            return currentStream;
+        }
+
+        public int getAccuracy() {
+            return (byte) current.accuracy;
+        }
+
+        public int getFlags() {
+            return current.flags;
+        }
+
+        public int getContextRef() {
+            return current.contextRef;
+        }
+
+        public long getTimestampMs() {
+            return current.wallMs;
+        }
+
+        /**
+         * 事件时间，记录没有事件时间时返回0
+         */
+        public long getEventTimeNanos() {
+            return (current.flags & SegmentFormat.FLAG_NO_EVENT_TIME) == 0 ? current.eventNanos : 0;
+        }
+
+        public float getValue(int index) {
+            return Float.intBitsToFloat(currentValues[index]);
+        }
+
+        private long readDeltaOfDelta() throws IOException {
+            int width;
+            if (bits.read(1) == 0) {
+                return 0;
+            } else if (bits.read(1) == 0) {
+                width = 7;
+            } else if (bits.read(1) == 0) {
+                width = 12;
+            } else if (bits.read(1) == 0) {
+                width = 20;
+            } else if (bits.read(1) == 0) {
+                width = 32;
+            } else {
+                width = 64;
+            }
+            long zigzag = bits.read(width);
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        private int readValue(StreamState stream, int index) throws IOException {
+            if (!stream.started) {
+                int raw = (int) bits.read(32);
+                stream.values[index] = raw;
+                stream.leading[index] = -1;
+                return raw;
+            }
+            if (bits.read(1) == 0) {
+                return stream.values[index];
+            }
+            int xor;
+            if (bits.read(1) == 0) {
+                int leading = stream.leading[index];
+                int trailing = stream.trailing[index];
+                if (leading < 0) {
+                    throw new IOException("数值编码无效");
+                }
+                xor = (int) bits.read(32 - leading - trailing) << trailing;
+            } else {
+                int leading = (int) bits.read(5);
+                int significant = (int) bits.read(5) + 1;
+                int trailing = 32 - leading - significant;
+                if (trailing < 0) {
+                    throw new IOException("数值编码无效");
+                }
+                xor = (int) bits.read(significant) << trailing;
+                stream.leading[index] = leading;
+                stream.trailing[index] = trailing;
+            }
+            int raw = stream.values[index] ^ xor;
+            stream.values[index] = raw;
+            return raw;
+        }
+    }
+
+    /**
+     * 按高位在前的顺序写入位流
+     */
+    private static final class BitWriter {
+        private byte[] buffer = new byte[4096];
+        private int byteLength = 0;  // 已写满的字节数
+        private long pending = 0;    // 未满一个字节的位，位于低位
+        private int pendingBits = 0;
+
+        void reset() {
+            byteLength = 0;
+            pending = 0;
+            pendingBits = 0;
+        }
+
+        /**
+         * 写入value的低count位(count为0到64)
+         */
+        void write(long value, int count) {
+            if (count > 56) {
+                write(value >>> 32, count - 32);
+                write(value, 32);
+                return;
+            }
+            if (count == 0) {
+                return;
+            }
+            long mask = (1L << count) - 1;
+            pending = (pending << count) | (value & mask);
+            pendingBits += count;
+            if (byteLength + 8 > buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            while (pendingBits >= 8) {
+                pendingBits -= 8;
+                buffer[byteLength++] = (byte) (pending >>> pendingBits);
+            }
+            pending &= (1L << pendingBits) - 1;
+        }
+
+        int getByteLength() {
+            return byteLength + (pendingBits > 0 ? 1 : 0);
+        }
+
+        /**
+         * 返回缓冲区，最后不满一个字节的位补0后写入
+         */
+        byte[] getBuffer() {
+            if (pendingBits > 0) {
+                buffer[byteLength] = (byte) (pending << (8 - pendingBits));
+            }
+            return buffer;
+        }
+    }
+
+    /**
+     * 按高位在前的顺序读取位流
+     */
+    private static final class BitReader {
+        private byte[] data;
+        private int length;
+        private int position;    // 下一个要读入的字节
+        private long pending;    // 已读入未消费的位，位于低位
+        private int pendingBits;
+
+        void reset(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+            this.position = 0;
+            this.pending = 0;
+            this.pendingBits = 0;
+        }
+
+        /**
+         * 读取count位(count为0到64)
+         */
+        long read(int count) throws IOException {
+            if (count > 56) {
+                long high = read(count - 32);
+                return (high << 32) | read(32);
+            }
+            while (pendingBits < count) {
+                if (position >= length) {
+                    throw new IOException("数据块位流不完整");
+                }
+                pending = (pending << 8) | (data[position++] & 0xFF);
+                pendingBits += 8;
+            }
+            pendingBits -= count;
+            long value = (pending >>> pendingBits) & ((1L << count) - 1);
+            pending &= (1L << pendingBits) - 1;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.example.sensordatacollector;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 多成员GZIP输出流
+ * GZIP文件可以由多个完整的成员(member)首尾相接组成，解压时按顺序输出所有成员的内容。
+ * 每次flush()结束当前成员(写出压缩数据的结尾、CRC和长度)，之后的写入开始新成员，
+ * 因此刷新后文件总是在成员边界结束：可以重新打开后直接追加、在成员边界截断，
+ * 也可以不停止写入就复制到最后一个成员边界为止的部分。
+ * 成员头固定为10字节(不含文件名等可选字段)，恢复时用于定位成员边界。
+ */
+public class GzipMemberOutputStream extends OutputStream {
+    static final byte[] MEMBER_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+    // 识别成员头时只比较魔数、压缩方法和标志(为0时头部固定10字节)，时间和操作系统字节因写入方不同而不同
+    private static final int HEADER_MATCH_BYTES = 4;
+    private static final int TRAILER_SIZE = 8;
+
+    private final OutputStream out;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final CRC32 crc = new CRC32();
+
+    // 成员头、压缩数据和成员尾先写入缓冲区，一个成员装得下时只对下游写一次
+    private final byte[] buffer;
+    private int bufferLength = 0;
+
+    private boolean memberOpen = false;
+    private boolean closed = false;
+    private long position;          // 已写入下游的数据在文件中的结束位置
+    private long committedPosition; // 最后一个完整成员在文件中的结束位置
+    private long membersWritten = 0;
+
+    /**
+     * @param out 下游输出流，不需要额外缓冲
+     * @param fileOffset 下游当前在文件中的位置，向已有文件追加时为追加前的文件长度
+     * @param bufferSize 缓冲区大小
+     */
+    public GzipMemberOutputStream(OutputStream out, long fileOffset, int bufferSize) {
+        this.out = out;
+        this.buffer = new byte[Math.max(bufferSize, MEMBER_HEADER.length + TRAILER_SIZE)];
+        this.position = fileOffset;
+        this.committedPosition = fileOffset;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("流已关闭");
+        }
+        if (len == 0) {
+            return;
+        }
+        if (!memberOpen) {
+            System.arraycopy(MEMBER_HEADER, 0, buffer, bufferLength, MEMBER_HEADER.length);
+            bufferLength += MEMBER_HEADER.length;
+            memberOpen = true;
+        }
+        crc.update(b, off, len);
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput()) {
+            deflate();
+        }
+    }
+
+    /**
+     * 结束当前成员并把缓冲区写入下游，没有未结束的成员时不做任何事
+     */
+    public void finishMember() throws IOException {
+        if (!memberOpen) {
+            return;
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            deflate();
+        }
+        if (buffer.length - bufferLength < TRAILER_SIZE) {
+            drain();
+        }
+        putIntLE((int) crc.getValue());
+        putIntLE((int) deflater.getBytesRead());
+        drain();
+
+        deflater.reset();
+        crc.reset();
+        memberOpen = false;
+        membersWritten++;
+        committedPosition = position;
+    }
+
+    /**
+     * 结束当前成员并刷新下游，之后文件在成员边界结束
+     */
+    @Override
+    public void flush() throws IOException {
+        finishMember();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            finishMember();
+        } finally {
+            closed = true;
+            deflater.end();
+            out.close();
+        }
+    }
+
+    /**
+     * 最后一个完整成员在文件中的结束位置，复制到这里为止的内容是完整的GZIP文件
+     */
+    public long getCommittedPosition() {
+        return committedPosition;
+    }
+
+    public long getMembersWritten() {
+        return membersWritten;
+    }
+
+    private void deflate() throws IOException {
+        if (bufferLength == buffer.length) {
+            drain();
+        }
+        bufferLength += deflater.deflate(buffer, bufferLength, buffer.length - bufferLength);
+    }
+
+    private void drain() throws IOException {
+        if (bufferLength > 0) {
+            out.write(buffer, 0, bufferLength);
+            position += bufferLength;
+            bufferLength = 0;
+        }
+    }
+
+    private void putIntLE(int value) {
+        buffer[bufferLength++] = (byte) value;
+        buffer[bufferLength++] = (byte) (value >> 8);
+        buffer[bufferLength++] = (byte) (value >> 16);
+        buffer[bufferLength++] = (byte) (value >> 24);
+    }
+
+    /**
+     * 查找已有GZIP文件中可以追加新成员的位置
+     * 只检查文件末尾maxScanBytes字节：从后往前找成员头，从找到的成员开始逐个解压校验，
+     * 直到文件末尾或遇到不完整/损坏的成员。
+     * @return 文件完整时返回文件长度；末尾有不完整的成员时返回该成员的起始位置，调用方截断到这里再追加；
+     *         检查范围内找不到完整的成员(例如旧版本写出的单成员大文件)时返回-1，此时不应追加
+     */
+    public static long findAppendPosition(File file, int maxScanBytes) throws IOException {
+        long length = file.length();
+        if (length == 0) {
+            return 0;
+        }
+        int windowSize = (int) Math.min(length, maxScanBytes);
+        long windowStart = length - windowSize;
+        byte[] window = new byte[windowSize];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(windowStart);
+            raf.readFully(window);
+        }
+
+        Inflater inflater = new Inflater(true);
+        try {
+            for (int candidate = windowSize - MEMBER_HEADER.length; candidate >= 0; candidate--) {
+                if (!isMemberHeader(window, candidate)) {
+                    continue;
+                }
+                // 从该成员开始向后校验，至少有一个完整成员才说明找到的是真实的成员边界
+                int end = candidate;
+                int completeMembers = 0;
+                while (end < windowSize && isMemberHeader(window, end)) {
+                    int memberEnd = checkMember(inflater, window, end);
+                    if (memberEnd < 0) {
+                        break;
+                    }
+                    end = memberEnd;
+                    completeMembers++;
+                }
+                if (completeMembers > 0) {
+                    return windowStart + end;
+                }
+            }
+            return -1;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * 解压校验一个成员
+     * @return 成员的结束位置，不完整或校验失败时返回-1
+     */
+    private static int checkMember(Inflater inflater, byte[] data, int start) {
+        inflater.reset();
+        int inputStart = start + MEMBER_HEADER.length;
+        inflater.setInput(data, inputStart, data.length - inputStart);
+        CRC32 crc = new CRC32();
+        byte[] output = new byte[16 * 1024];
+        try {
+            while (!inflater.finished()) {
+                int n = inflater.inflate(output);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    return -1;
+                }
+                crc.update(output, 0, n);
+            }
+        } catch (DataFormatException e) {
+            return -1;
+        }
+        int trailer = data.length - inflater.getRemaining();
+        if (trailer + TRAILER_SIZE > data.length) {
+            return -1;
+        }
+        if (getIntLE(data, trailer) != (int) crc.getValue() ||
+                getIntLE(data, trailer + 4) != (int) inflater.getBytesWritten()) {
+            return -1;
+        }
+        return trailer + TRAILER_SIZE;
+    }
+
+    private static boolean isMemberHeader(byte[] data, int offset) {
+        if (offset + MEMBER_HEADER.length > data.length) {
+            return false;
+        }
+        for (int i = 0; i < HEADER_MATCH_BYTES; i++) {
+            if (data[offset + i] != MEMBER_HEADER[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int getIntLE(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8) |
+               ((data[offset + 2] & 0xFF) << 16) | (data[offset + 3] << 24);
+    }
+}
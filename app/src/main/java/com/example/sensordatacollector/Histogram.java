@@ -0,0 +1,157 @@
+package com.example.sensordatacollector;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 对数-线性分桶直方图
+ * 每个2的幂区间再等分为32个子桶，相对误差不超过1/32，记录时不分配对象。
+ * 适合统计纳秒级的时间间隔、延迟等非负整数值，可被多个线程同时写入。
+ */
+public class Histogram {
+
+    // 每个2的幂区间的子桶数 = 2^SUB_BUCKET_BITS
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong(0);
+    private final AtomicLong totalSum = new AtomicLong(0);
+    private final AtomicLong minValue = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong maxValue = new AtomicLong(0);
+
+    /**
+     * 记录一个值，负值按0处理
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+
+        counts.incrementAndGet(bucketIndex(value));
+        totalCount.incrementAndGet();
+        totalSum.addAndGet(value);
+
+        long min;
+        while (value < (min = minValue.get()) && !minValue.compareAndSet(min, value)) {
+            // 重试
+        }
+        long max;
+        while (value > (max = maxValue.get()) && !maxValue.compareAndSet(max, value)) {
+            // 重试
+        }
+    }
+
+    /**
+     * 清空所有统计
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        totalSum.set(0);
+        minValue.set(Long.MAX_VALUE);
+        maxValue.set(0);
+    }
+
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    public long getMin() {
+        long min = minValue.get();
+        return min == Long.MAX_VALUE ? 0 : min;
+    }
+
+    public long getMax() {
+        return maxValue.get();
+    }
+
+    public double getMean() {
+        long count = totalCount.get();
+        return count > 0 ? (double) totalSum.get() / count : 0;
+    }
+
+    /**
+     * 获取指定百分位的值（取所在桶的中点，并限制在实际最小/最大值之间）
+     * @param percentile 0-100
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = totalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+
+        double clamped = Math.max(0, Math.min(100, percentile));
+        long target = Math.max(1, (long) Math.ceil(clamped / 100.0 * count));
+
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                long value = bucketLowerBound(i) + (bucketWidth(i) - 1) / 2;
+                return Math.max(getMin(), Math.min(getMax(), value));
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * 将另一个直方图的统计合并到当前直方图
+     */
+    public void add(Histogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long c = other.counts.get(i);
+            if (c != 0) {
+                counts.addAndGet(i, c);
+            }
+        }
+        totalCount.addAndGet(other.totalCount.get());
+        totalSum.addAndGet(other.totalSum.get());
+
+        long otherMin = other.minValue.get();
+        long min;
+        while (otherMin < (min = minValue.get()) && !minValue.compareAndSet(min, otherMin)) {
+            // 重试
+        }
+        long otherMax = other.maxValue.get();
+        long max;
+        while (otherMax > (max = maxValue.get()) && !maxValue.compareAndSet(max, otherMax)) {
+            // 重试
+        }
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKET_COUNT - 1);
+        return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long bucketLowerBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        int subBucket = index % SUB_BUCKET_COUNT;
+        return (long) (SUB_BUCKET_COUNT + subBucket) << shift;
+    }
+
+    private static long bucketWidth(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return 1;
+        }
+        return 1L << (index / SUB_BUCKET_COUNT - 1);
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + ", min=" + getMin() + ", p50=" + getValueAtPercentile(50) +
+               ", p99=" + getValueAtPercentile(99) + ", max=" + getMax();
+    }
+}
@@ -0,0 +1,393 @@
+package com.example.sensordatacollector;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 数据记录的流式JSONL编码器
+ * 直接把记录编码为UTF-8字节写入可复用的缓冲区，不创建JSONObject、装箱数值和中间字符串。
+ * 输出与 DataRecord.toJson().toString() + "\n" 再按UTF-8编码的结果逐字节相同：
+ * 字段顺序一致，数值按org.json的numberToString规则格式化，字符串按org.json的规则转义(包括"/")，
+ * null字符串字段省略。含NaN或无穷大的记录org.json无法完整输出，这类记录直接交给toJson处理。
+ * 实例不是线程安全的，每个写入线程使用自己的实例。
+ */
+public class JsonLineEncoder {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final long NEGATIVE_ZERO_BITS = Double.doubleToRawLongBits(-0d);
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes();
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int length = 0;
+
+    // 当前对象中是否已有字段，决定下一个字段前是否需要逗号
+    private boolean hasField = false;
+
+    /**
+     * 清空缓冲区，保留已分配的容量
+     */
+    public void reset() {
+        length = 0;
+    }
+
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * 把缓冲区内容写入输出流
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, length);
+    }
+
+    /**
+     * 追加一条记录及换行
+     * dictionary不为null时字符串字段写为 *_ref 编号，新增的字典定义行先于记录写入
+     */
+    public void encode(DataRecord record, StringDictionary dictionary) {
+        if (!hasFiniteValues(record)) {
+            String json = record.toJson(dictionary).toString();
+            if (dictionary != null) {
+                appendRaw(dictionary.takePendingDefinitions());
+            }
+            appendRaw(json);
+            appendByte('\n');
+            return;
+        }
+
+        boolean fused = record instanceof FusedDataRecord;
+        boolean sensor = !fused && "sensor".equals(record.type);
+
+        // 按toJson中的字段顺序分配编号，保证字典定义与原路径一致
+        int userRef = -1;
+        int appRef = -1;
+        int packageRef = -1;
+        int sensorNameRef = -1;
+        if (dictionary != null) {
+            userRef = dictionary.encode(record.userId);
+            appRef = dictionary.encode(record.foregroundAppName);
+            packageRef = dictionary.encode(record.foregroundPackageName);
+            if (sensor) {
+                sensorNameRef = dictionary.encode(record.sensorName);
+            }
+            appendRaw(dictionary.takePendingDefinitions());
+        }
+
+        beginObject();
+        longField("timestamp_ms", record.timestampMs);
+        if (fused || record.eventTimeNanos != 0) {
+            longField("event_time_ns", record.eventTimeNanos);
+        }
+        stringField("type", record.type, -1);
+        stringField("user_id", record.userId, userRef);
+        stringField("foreground_app_name", record.foregroundAppName, appRef);
+        stringField("foreground_package_name", record.foregroundPackageName, packageRef);
+
+        if (fused) {
+            FusedDataRecord fusedRecord = (FusedDataRecord) record;
+            // 缺失的传感器省略，与FusedDataRecord.toJson一致
+            if (fusedRecord.hasAccelerometer()) {
+                vectorField("accelerometer", fusedRecord.accX, fusedRecord.accY, fusedRecord.accZ);
+            }
+            if (fusedRecord.hasGyroscope()) {
+                vectorField("gyroscope", fusedRecord.gyroX, fusedRecord.gyroY, fusedRecord.gyroZ);
+            }
+            if (fusedRecord.hasMagnetometer()) {
+                vectorField("magnetometer", fusedRecord.magX, fusedRecord.magY, fusedRecord.magZ);
+            }
+            longField("accuracy", record.sensorAccuracy);
+        } else if (sensor) {
+            endSensor(record.sensorName, sensorNameRef, record.sensorId, record.sensorX, record.sensorY,
+                    record.sensorZ, record.sensorAccuracy);
+            return;
+        }
+        endObject();
+        appendByte('\n');
+    }
+
+    /**
+     * 追加批次中的第i个样本及换行，直接读取批次的列，不创建DataRecord；输出与encode(batch.toRecord(i), dictionary)相同
+     */
+    public void encode(SensorBatch batch, int i, StringDictionary dictionary) {
+        float x = batch.getX(i);
+        float y = batch.getY(i);
+        float z = batch.getZ(i);
+        if (!isFinite(x) || !isFinite(y) || !isFinite(z)) {
+            encode(batch.toRecord(i), dictionary);
+            return;
+        }
+
+        String userId = batch.getUserId();
+        String appName = batch.getForegroundAppName();
+        String packageName = batch.getForegroundPackageName();
+        String sensorName = batch.getSensorName(i);
+        int userRef = -1;
+        int appRef = -1;
+        int packageRef = -1;
+        int sensorNameRef = -1;
+        if (dictionary != null) {
+            userRef = dictionary.encode(userId);
+            appRef = dictionary.encode(appName);
+            packageRef = dictionary.encode(packageName);
+            sensorNameRef = dictionary.encode(sensorName);
+            appendRaw(dictionary.takePendingDefinitions());
+        }
+
+        beginObject();
+        longField("timestamp_ms", batch.getTimestampMs(i));
+        if (batch.getEventTimeNanos(i) != 0) {
+            longField("event_time_ns", batch.getEventTimeNanos(i));
+        }
+        stringField("type", "sensor", -1);
+        stringField("user_id", userId, userRef);
+        stringField("foreground_app_name", appName, appRef);
+        stringField("foreground_package_name", packageName, packageRef);
+        endSensor(sensorName, sensorNameRef, batch.getSensorId(i), x, y, z, batch.getAccuracy(i));
+    }
+
+    /**
+     * 传感器记录的传感器字段、数值和结束的换行
+     */
+    private void endSensor(String sensorName, int sensorNameRef, int sensorId, float x, float y, float z,
+                           int accuracy) {
+        stringField("sensor_name", sensorName, sensorNameRef);
+        if (sensorId != 0) {
+            longField("sensor_id", sensorId);
+        }
+        vectorField("values", x, y, z);
+        longField("accuracy", accuracy);
+        endObject();
+        appendByte('\n');
+    }
+
+    private static boolean hasFiniteValues(DataRecord record) {
+        if (record instanceof FusedDataRecord) {
+            FusedDataRecord fused = (FusedDataRecord) record;
+            return (!fused.hasAccelerometer() || isFinite(fused.accX) && isFinite(fused.accY) && isFinite(fused.accZ)) &&
+                   (!fused.hasGyroscope() || isFinite(fused.gyroX) && isFinite(fused.gyroY) && isFinite(fused.gyroZ)) &&
+                   (!fused.hasMagnetometer() || isFinite(fused.magX) && isFinite(fused.magY) && isFinite(fused.magZ));
+        }
+        return !"sensor".equals(record.type) ||
+               (isFinite(record.sensorX) && isFinite(record.sensorY) && isFinite(record.sensorZ));
+    }
+
+    private static boolean isFinite(float value) {
+        return !Float.isNaN(value) && !Float.isInfinite(value);
+    }
+
+    private void beginObject() {
+        appendByte('{');
+        hasField = false;
+    }
+
+    private void endObject() {
+        appendByte('}');
+        hasField = true;
+    }
+
+    private void key(String name) {
+        if (hasField) {
+            appendByte(',');
+        }
+        hasField = true;
+        appendString(name);
+        appendByte(':');
+    }
+
+    private void longField(String name, long value) {
+        key(name);
+        appendLong(value);
+    }
+
+    /**
+     * 字符串字段：有字典编号时写 name_ref，字符串为null时与JSONObject.put一样省略该字段
+     */
+    private void stringField(String name, String value, int ref) {
+        if (ref >= 0) {
+            key(name + StringDictionary.REF_SUFFIX);
+            appendLong(ref);
+        } else if (value != null) {
+            key(name);
+            appendString(value);
+        }
+    }
+
+    private void vectorField(String name, float x, float y, float z) {
+        key(name);
+        beginObject();
+        key("x");
+        appendFloat(x);
+        key("y");
+        appendFloat(y);
+        key("z");
+        appendFloat(z);
+        endObject();
+    }
+
+    /**
+     * 按JSONObject.numberToString的规则输出float：
+     * JSONObject.put把float提升为double，-0输出"-0"，整数值输出为长整数，其余使用Double.toString
+     */
+    private void appendFloat(float value) {
+        double d = value;
+        if (Double.doubleToRawLongBits(d) == NEGATIVE_ZERO_BITS) {
+            ensureCapacity(2);
+            buffer[length++] = '-';
+            buffer[length++] = '0';
+            return;
+        }
+        long asLong = (long) d;
+        if (d == (double) asLong) {
+            appendLong(asLong);
+        } else {
+            appendAscii(Double.toString(d));
+        }
+    }
+
+    private void appendLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            appendAscii(Long.toString(value));
+            return;
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            buffer[length++] = '-';
+            value = -value;
+        }
+        // 从右往左写入数字
+        int digits = 1;
+        for (long v = value / 10; v > 0; v /= 10) {
+            digits++;
+        }
+        int end = length + digits;
+        for (int i = end - 1; i >= length; i--) {
+            buffer[i] = (byte) ('0' + (value % 10));
+            value /= 10;
+        }
+        length = end;
+    }
+
+    /**
+     * 按org.json(JSONStringer)的规则转义字符串并以UTF-8写入
+     */
+    private void appendString(String value) {
+        int n = value.length();
+        ensureCapacity(n * 6 + 2);
+        buffer[length++] = '"';
+        for (int i = 0; i < n; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    buffer[length++] = '\\';
+                    buffer[length++] = (byte) c;
+                    break;
+                case '\t':
+                    buffer[length++] = '\\';
+                    buffer[length++] = 't';
+                    break;
+                case '\b':
+                    buffer[length++] = '\\';
+                    buffer[length++] = 'b';
+                    break;
+                case '\n':
+                    buffer[length++] = '\\';
+                    buffer[length++] = 'n';
+                    break;
+                case '\r':
+                    buffer[length++] = '\\';
+                    buffer[length++] = 'r';
+                    break;
+                case '\f':
+                    buffer[length++] = '\\';
+                    buffer[length++] = 'f';
+                    break;
+                default:
+                    if (c <= 0x1F) {
+                        buffer[length++] = '\\';
+                        buffer[length++] = 'u';
+                        buffer[length++] = '0';
+                        buffer[length++] = '0';
+                        buffer[length++] = HEX_DIGITS[(c >> 4) & 0xF];
+                        buffer[length++] = HEX_DIGITS[c & 0xF];
+                    } else {
+                        i = putUtf8(value, i, c);
+                    }
+                    break;
+            }
+        }
+        buffer[length++] = '"';
+    }
+
+    /**
+     * 不转义，直接以UTF-8写入字符串
+     */
+    private void appendRaw(String value) {
+        int n = value.length();
+        if (n == 0) {
+            return;
+        }
+        ensureCapacity(n * 3);
+        for (int i = 0; i < n; i++) {
+            i = putUtf8(value, i, value.charAt(i));
+        }
+    }
+
+    private void appendAscii(String value) {
+        int n = value.length();
+        ensureCapacity(n);
+        for (int i = 0; i < n; i++) {
+            buffer[length++] = (byte) value.charAt(i);
+        }
+    }
+
+    /**
+     * 以UTF-8写入一个字符，调用方已保证容量
+     * 与String.getBytes("UTF-8")一致，落单的代理字符写为'?'
+     * @return 最后处理的字符下标，代理对会多消耗一个字符
+     */
+    private int putUtf8(String value, int i, char c) {
+        if (c < 0x80) {
+            buffer[length++] = (byte) c;
+        } else if (c < 0x800) {
+            buffer[length++] = (byte) (0xC0 | (c >> 6));
+            buffer[length++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isSurrogate(c)) {
+            if (Character.isHighSurrogate(c) && i + 1 < value.length() &&
+                    Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(i + 1));
+                buffer[length++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[length++] = (byte) (0x80 | (codePoint & 0x3F));
+                return i + 1;
+            }
+            buffer[length++] = '?';
+        } else {
+            buffer[length++] = (byte) (0xE0 | (c >> 12));
+            buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer[length++] = (byte) (0x80 | (c & 0x3F));
+        }
+        return i;
+    }
+
+    private void appendByte(char c) {
+        ensureCapacity(1);
+        buffer[length++] = (byte) c;
+    }
+
+    private void ensureCapacity(int extra) {
+        int required = length + extra;
+        if (required > buffer.length) {
+            byte[] grown = new byte[Math.max(required, buffer.length * 2)];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.sensordatacollector;
+
+import java.io.IOException;
+
+/**
+ * LZ4块格式的纯Java实现(只有块格式，不含LZ4帧格式)
+ * 压缩用单个哈希表贪心查找4字节匹配，找不到匹配时逐渐加大步长跳过不可压缩的数据；
+ * 输出与标准LZ4块格式兼容，其他LZ4实现可以直接解压。实例无状态。
+ */
+public class Lz4Codec implements CompressionCodec {
+    private static final int MIN_MATCH = 4;
+    // 块末尾至少5字节是字面量，最后一个匹配至少在结尾前12字节开始(LZ4格式的要求)
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_OFFSET = 65535;
+    private static final int HASH_LOG = 14;
+    // 连续2^SKIP_STRENGTH次找不到匹配后步长加1
+    private static final int SKIP_STRENGTH = 6;
+
+    private final int id;
+    private final String name;
+
+    public Lz4Codec(int id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    @Override
+    public int getId() {
+        return id;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    @Override
+    public int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+        int srcEnd = srcOff + srcLen;
+        int matchLimit = srcEnd - LAST_LITERALS;
+        int mfLimit = srcEnd - MF_LIMIT;
+        int anchor = srcOff;
+        int op = dstOff;
+
+        if (srcLen > MF_LIMIT) {
+            // 位置加1后存入，0表示空
+            int[] table = new int[1 << HASH_LOG];
+            int ip = srcOff;
+            while (ip < mfLimit) {
+                int sequence = readInt(src, ip);
+                int hash = (sequence * -1640531535) >>> (32 - HASH_LOG);
+                int candidate = table[hash] - 1;
+                table[hash] = ip + 1;
+                if (candidate < 0 || ip - candidate > MAX_OFFSET || readInt(src, candidate) != sequence) {
+                    ip += 1 + ((ip - anchor) >>> SKIP_STRENGTH);
+                    continue;
+                }
+
+                // 向前扩展匹配
+                while (ip > anchor && candidate > srcOff && src[ip - 1] == src[candidate - 1]) {
+                    ip--;
+                    candidate--;
+                }
+                int matchLength = MIN_MATCH;
+                while (ip + matchLength < matchLimit && src[ip + matchLength] == src[candidate + matchLength]) {
+                    matchLength++;
+                }
+
+                op = writeSequence(src, anchor, ip - anchor, dst, op, ip - candidate, matchLength);
+                ip += matchLength;
+                anchor = ip;
+            }
+        }
+
+        // 最后一段只有字面量
+        return writeSequence(src, anchor, srcEnd - anchor, dst, op, 0, 0) - dstOff;
+    }
+
+    @Override
+    public void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int rawLength) throws IOException {
+        int ip = srcOff;
+        int srcEnd = srcOff + srcLen;
+        int op = dstOff;
+        int dstEnd = dstOff + rawLength;
+        while (ip < srcEnd) {
+            int token = src[ip++] & 0xFF;
+
+            int literalLength = token >>> 4;
+            if (literalLength == 15) {
+                int b;
+                do {
+                    if (ip >= srcEnd) {
+                        throw new IOException("LZ4块数据不完整");
+                    }
+                    b = src[ip++] & 0xFF;
+                    literalLength += b;
+                } while (b == 255);
+            }
+            if (literalLength > srcEnd - ip || literalLength > dstEnd - op) {
+                throw new IOException("LZ4块字面量长度无效");
+            }
+            System.arraycopy(src, ip, dst, op, literalLength);
+            ip += literalLength;
+            op += literalLength;
+            if (ip == srcEnd) {
+                break;
+            }
+
+            if (srcEnd - ip < 2) {
+                throw new IOException("LZ4块数据不完整");
+            }
+            int offset = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+            ip += 2;
+            if (offset == 0 || offset > op - dstOff) {
+                throw new IOException("LZ4块匹配偏移无效: " + offset);
+            }
+            int matchLength = token & 0x0F;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    if (ip >= srcEnd) {
+                        throw new IOException("LZ4块数据不完整");
+                    }
+                    b = src[ip++] & 0xFF;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+            if (matchLength > dstEnd - op) {
+                throw new IOException("LZ4块匹配长度无效");
+            }
+            int ref = op - offset;
+            if (offset >= matchLength) {
+                System.arraycopy(dst, ref, dst, op, matchLength);
+            } else {
+                // 重叠的匹配(例如重复的短模式)必须逐字节复制
+                for (int i = 0; i < matchLength; i++) {
+                    dst[op + i] = dst[ref + i];
+                }
+            }
+            op += matchLength;
+        }
+        if (op != dstEnd) {
+            throw new IOException("LZ4块解压后长度不一致: " + (op - dstOff) + " / " + rawLength);
+        }
+    }
+
+    /**
+     * 写入一个序列：标记字节、字面量长度扩展、字面量，matchLength大于0时再写偏移和匹配长度扩展
+     */
+    private static int writeSequence(byte[] src, int literalOff, int literalLength, byte[] dst, int op,
+                                     int offset, int matchLength) {
+        int tokenPos = op++;
+        int token;
+        if (literalLength >= 15) {
+            token = 15 << 4;
+            op = writeLength(dst, op, literalLength - 15);
+        } else {
+            token = literalLength << 4;
+        }
+        System.arraycopy(src, literalOff, dst, op, literalLength);
+        op += literalLength;
+
+        if (matchLength > 0) {
+            dst[op++] = (byte) offset;
+            dst[op++] = (byte) (offset >>> 8);
+            int extra = matchLength - MIN_MATCH;
+            if (extra >= 15) {
+                token |= 15;
+                op = writeLength(dst, op, extra - 15);
+            } else {
+                token |= extra;
+            }
+        }
+        dst[tokenPos] = (byte) token;
+        return op;
+    }
+
+    private static int writeLength(byte[] dst, int op, int length) {
+        while (length >= 255) {
+            dst[op++] = (byte) 255;
+            length -= 255;
+        }
+        dst[op++] = (byte) length;
+        return op;
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8) |
+               ((data[offset + 2] & 0xFF) << 16) | (data[offset + 3] << 24);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -463,20 +463,6 @@ public class MainActivity extends AppCompatActivity implements DataManager.DataR
             return true;
         });
         
-        // 添加时间戳对齐测试（长按停止按钮触发）
-        btnStop.setOnLongClickListener(v -> {
-            if (backgroundTaskExecutor != null && !backgroundTaskExecutor.isShutdown()) {
-                backgroundTaskExecutor.submit(() -> {
-                    Log.i(TAG, getString(R.string.timestamp_alignment_test_start));
-                    TimestampAlignmentTest.runAllTests();
-                    runOnUiThread(() -> {
-                        Toast.makeText(MainActivity.this, getString(R.string.timestamp_alignment_test_complete), Toast.LENGTH_LONG).show();
-                    });
-                });
-            }
-            return true;
-        });
-        
         // 查看文件按钮
         btnViewFiles.setOnClickListener(v -> {
             openFileManagerToViewFiles();
@@ -560,6 +546,34 @@ public class MainActivity extends AppCompatActivity implements DataManager.DataR
         });
     }
     
+    /**
+     * 在后台线程中把文件标记为上传中并转换二进制数据段，完成后在主线程开始上传
+     */
+    private void beginFileUpload(List<File> filesToUpload, String ip, String port) {
+        if (networkManager.isUploading()) {
+            Toast.makeText(this, getString(R.string.upload_in_progress), Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (backgroundTaskExecutor == null || backgroundTaskExecutor.isShutdown()) {
+            Log.w(TAG, "BackgroundTaskExecutor 未初始化或已关闭，无法开始上传。");
+            return;
+        }
+        
+        btnUpload.setEnabled(false);
+        backgroundTaskExecutor.submit(() -> {
+            List<File> uploadFiles = storageManager.beginUpload(filesToUpload);
+            runOnUiThread(() -> {
+                if (isDestroyed() || isFinishing()) {
+                    // 未开始上传，文件重新视为已封存
+                    storageManager.markFilesUploadFailed(uploadFiles);
+                    return;
+                }
+                btnUpload.setEnabled(true);
+                startFileUpload(uploadFiles, ip, port);
+            });
+        });
+    }
+    
     /**
      * 开始文件上传
      */
@@ -571,6 +585,7 @@ public class MainActivity extends AppCompatActivity implements DataManager.DataR
         
         if (networkManager.isUploading()) {
             Toast.makeText(this, getString(R.string.upload_in_progress), Toast.LENGTH_SHORT).show();
+            storageManager.markFilesUploadFailed(filesToUpload);
             return;
         }
         
@@ -588,6 +603,9 @@ public class MainActivity extends AppCompatActivity implements DataManager.DataR
         Log.i(TAG, getString(R.string.start_upload_files, totalFiles, formatFileSize(totalSize), ip, port));
         tvUploadProgress.setText(getString(R.string.preparing_upload_files, totalFiles));
         
+        // 上传前与服务器时间重新同步
+        ClockSyncManager.getInstance().setServerTimeSource(networkManager.createServerTimeSource(ip, port));
+        
         // 执行上传
         networkManager.uploadFiles(filesToUpload, ip, port, new NetworkManager.UploadCallback() {
             @Override
@@ -633,6 +651,9 @@ public class MainActivity extends AppCompatActivity implements DataManager.DataR
                 Log.e(TAG, failureMessage + ": " + errorMessage);
                 
                 runOnUiThread(() -> {
+                    // 文件重新视为未上传
+                    storageManager.markFilesUploadFailed(filesToUpload);
+                    
                     // 在UI上显示更友好的错误信息
                     String displayErrorMsg = errorMessage;
                     if (errorMessage.length() > 100) {
@@ -776,8 +797,8 @@ public class MainActivity extends AppCompatActivity implements DataManager.DataR
         // 保存设置
         saveSettings();
         
-        // 检查是否有未上传文件
-        List<File> filesToUpload = storageManager.getUnuploadedFiles();
+        // 封存当前文件并获取待上传的文件
+        List<File> filesToUpload = storageManager.prepareFilesForUpload();
         if (filesToUpload.isEmpty()) {
             Toast.makeText(this, getString(R.string.no_files_to_upload), Toast.LENGTH_SHORT).show();
             return;
@@ -792,7 +813,7 @@ public class MainActivity extends AppCompatActivity implements DataManager.DataR
             .setMessage(getString(R.string.upload_confirmation_message_formatted, filesToUpload.size(), totalSizeKB, 
                        formatFileSize(totalSizeKB * 1024), ip, port))
             .setPositiveButton(getString(R.string.start_upload), (d, which) -> {
-                startFileUpload(filesToUpload, ip, port);
+                beginFileUpload(filesToUpload, ip, port);
                 dismissCurrentDialog();
             })
             .setNegativeButton(getString(R.string.cancel), (d, which) -> dismissCurrentDialog())
@@ -905,28 +926,15 @@ public class MainActivity extends AppCompatActivity implements DataManager.DataR
         
         backgroundTaskExecutor.submit(() -> {
             try {
-                // 获取数据文件存储目录
-                File storageDir = getFilesDir();
-                
-                if (!storageDir.exists() || !storageDir.isDirectory()) {
-                    runOnUiThread(() -> Toast.makeText(this, getString(R.string.data_directory_not_exist), Toast.LENGTH_SHORT).show());
-                    return;
-                }
-                
-                // 获取所有数据文件
-                File[] dataFiles = storageDir.listFiles((dir, name) -> 
-                    name.contains("_sensor_data_") && 
-                    (name.endsWith(".jsonl") || name.endsWith(".jsonl.gz")));
+                // 从文件清单获取所有数据文件，最新的在前面，不扫描目录
+                List<SegmentManifest.Entry> entries = storageManager.getDataFileEntries();
                 
-                if (dataFiles == null || dataFiles.length == 0) {
+                if (entries.isEmpty()) {
                     runOnUiThread(() -> Toast.makeText(this, getString(R.string.no_data_files_found_message), Toast.LENGTH_SHORT).show());
                     return;
                 }
                 
-                // 按修改时间排序，最新的在前面
-                java.util.Arrays.sort(dataFiles, (f1, f2) -> Long.compare(f2.lastModified(), f1.lastModified()));
-                
-                runOnUiThread(() -> showFileSelectionDialog(dataFiles));
+                runOnUiThread(() -> showFileSelectionDialog(entries));
                 
             } catch (Exception e) {
                 Log.e(TAG, getString(R.string.file_list_failed), e);
@@ -941,28 +949,28 @@ public class MainActivity extends AppCompatActivity implements DataManager.DataR
     /**
      * 显示文件选择对话框
      */
-    private void showFileSelectionDialog(File[] dataFiles) {
-        if (dataFiles == null || dataFiles.length == 0) {
+    private void showFileSelectionDialog(List<SegmentManifest.Entry> entries) {
+        if (entries == null || entries.isEmpty()) {
             Toast.makeText(this, getString(R.string.no_viewable_files_message), Toast.LENGTH_SHORT).show();
             return;
         }
         
-        // 创建文件名列表
-        String[] fileNames = new String[dataFiles.length];
-        for (int i = 0; i < dataFiles.length; i++) {
-            File file = dataFiles[i];
-            long sizeKB = file.length() / 1024;
+        // 创建文件名列表，大小和时间取自清单
+        String[] fileNames = new String[entries.size()];
+        SimpleDateFormat sdf = new SimpleDateFormat("MM-dd HH:mm", Locale.getDefault());
+        for (int i = 0; i < entries.size(); i++) {
+            SegmentManifest.Entry entry = entries.get(i);
+            long sizeKB = entry.bytes / 1024;
             String sizeStr = sizeKB > 1024 ? String.format("%.1f MB", sizeKB / 1024.0) : sizeKB + " KB";
-            SimpleDateFormat sdf = new SimpleDateFormat("MM-dd HH:mm", Locale.getDefault());
-            String timeStr = sdf.format(new Date(file.lastModified()));
-            fileNames[i] = file.getName() + "\n" + sizeStr + " - " + timeStr;
+            String timeStr = sdf.format(new Date(entry.getDisplayTimeMs()));
+            fileNames[i] = entry.name + "\n" + sizeStr + " - " + timeStr;
         }
         
         AlertDialog dialog = new AlertDialog.Builder(this)
             .setTitle(getString(R.string.select_file_to_view_title))
             .setItems(fileNames, (d, which) -> {
                 dismissCurrentDialog();
-                showFileContentDialog(dataFiles[which]);
+                showFileContentDialog(storageManager.getDataFile(entries.get(which)));
             })
             .setNegativeButton(getString(R.string.cancel), (d, which) -> dismissCurrentDialog())
             .setOnCancelListener(d -> dismissCurrentDialog())
@@ -1069,7 +1077,15 @@ public class MainActivity extends AppCompatActivity implements DataManager.DataR
         int maxLines = 1000; // 限制最大行数，避免内存问题
         int lineCount = 0;
         
-        if (file.getName().endsWith(".gz")) {
+        if (file.getName().endsWith(SegmentFormat.FILE_EXTENSION)) {
+            // 二进制数据段转换为JSONL显示，第一行为文件头
+            try (java.io.InputStream in = new java.io.BufferedInputStream(new java.io.FileInputStream(file))) {
+                java.io.ByteArrayOutputStream jsonl = new java.io.ByteArrayOutputStream();
+                SegmentConverter.Result result = SegmentConverter.toJsonl(in, jsonl, false, maxLines - 1);
+                content.append(jsonl.toString("UTF-8"));
+                lineCount = (int) (1 + result.records + result.metadataLines);
+            }
+        } else if (file.getName().endsWith(".gz")) {
             // 读取GZIP压缩文件
             try (java.io.FileInputStream fis = new java.io.FileInputStream(file);
                  java.util.zip.GZIPInputStream gzis = new java.util.zip.GZIPInputStream(fis);
@@ -1220,6 +1236,8 @@ public class MainActivity extends AppCompatActivity implements DataManager.DataR
                         progressDialog.dismiss();
                     }
                     Toast.makeText(MainActivity.this, getString(R.string.server_connection_successful), Toast.LENGTH_SHORT).show();
+                    // 服务器可用时用它作为时钟同步的参考时间
+                    ClockSyncManager.getInstance().setServerTimeSource(networkManager.createServerTimeSource(ip, port));
                 }
 
                 @Override
@@ -1657,6 +1675,23 @@ public class MainActivity extends AppCompatActivity implements DataManager.DataR
     private void updateBatteryInfo() {
         if (batteryStatsManager != null) {
             String batteryInfo = batteryStatsManager.getBatteryStatsInfo();
+            
+            // 采集中时附加各传感器的实际采样频率和抖动
+            if (isBound && sensorService != null && sensorService.isSensorListening()) {
+                StringBuilder builder = new StringBuilder(batteryInfo);
+                for (SensorRateMonitor.RateStats stats : sensorService.getSensorRateStats()) {
+                    if (stats.sampleCount > 1) {
+                        builder.append('\n').append(stats);
+                    }
+                }
+                // 只显示出现过丢弃或溢写的阶段
+                for (PipelineStageStats stageStats : sensorService.getPipelineStats()) {
+                    if (stageStats.getDropped() > 0 || stageStats.getSpilled() > 0) {
+                        builder.append('\n').append(stageStats);
+                    }
+                }
+                batteryInfo = builder.toString();
+            }
             tvBatteryStats.setText(batteryInfo);
         }
     }
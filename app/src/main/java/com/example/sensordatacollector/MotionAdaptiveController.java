@@ -0,0 +1,348 @@
+package com.example.sensordatacollector;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+import android.hardware.TriggerEvent;
+import android.hardware.TriggerEventListener;
+import android.util.Log;
+
+/**
+ * 运动自适应采样控制器
+ * 监听加速度计数据，在滑动窗口内计算加速度模长的方差：
+ * 设备持续静止时把SensorCollector切换到较低的空闲采样率，检测到运动时在一个窗口内恢复配置的采样率。
+ * 可选地使用TYPE_SIGNIFICANT_MOTION作为唤醒触发。
+ */
+public class MotionAdaptiveController implements DataManager.DataRecordListener {
+    private static final String TAG = "MotionAdaptiveController";
+
+    // 默认参数
+    private static final long DEFAULT_WINDOW_MS = 2_000;
+    private static final long DEFAULT_STATIONARY_HOLD_MS = 10_000;
+    private static final int DEFAULT_IDLE_PERIOD_US = 100_000; // 空闲时10Hz
+    private static final double DEFAULT_STILL_VARIANCE = 0.002;  // (m/s²)²，桌面静止时噪声方差通常在0.0005以下
+    private static final double DEFAULT_MOTION_VARIANCE = 0.01;  // 高于静止阈值，避免在阈值附近来回切换
+    private static final double DEFAULT_JUMP_THRESHOLD = 0.5;    // 单个样本偏离窗口均值超过该值(m/s²)时立即唤醒
+    private static final int MIN_WINDOW_SAMPLES = 5;
+
+    // 滑动窗口容量，足够容纳1kHz下2秒的样本
+    private static final int WINDOW_CAPACITY = 4096;
+
+    private final SensorCollector sensorCollector;
+    private final SensorManager sensorManager;
+
+    // 滑动窗口：加速度模长及其时间(纳秒)
+    private final long[] windowTimes = new long[WINDOW_CAPACITY];
+    private final double[] windowValues = new double[WINDOW_CAPACITY];
+    private int windowStart = 0;
+    private int windowSize = 0;
+    private double windowSum = 0;
+    private double windowSumSquares = 0;
+
+    private volatile long windowNanos = DEFAULT_WINDOW_MS * 1_000_000L;
+    private volatile long stationaryHoldNanos = DEFAULT_STATIONARY_HOLD_MS * 1_000_000L;
+    private volatile int idlePeriodUs = DEFAULT_IDLE_PERIOD_US;
+    private volatile double stillVariance = DEFAULT_STILL_VARIANCE;
+    private volatile double motionVariance = DEFAULT_MOTION_VARIANCE;
+    private volatile double jumpThreshold = DEFAULT_JUMP_THRESHOLD;
+    private volatile boolean useSignificantMotion = false;
+
+    // 开始静止的时间(纳秒)，-1表示当前不静止
+    private long stationarySinceNanos = -1;
+
+    // 空闲统计
+    private volatile long idleEnterCount = 0;
+    private volatile long idleStartMs = 0;
+    private volatile long totalIdleMs = 0;
+
+    private volatile boolean running = false;
+    private boolean significantMotionRequested = false;
+
+    private final TriggerEventListener significantMotionListener = new TriggerEventListener() {
+        @Override
+        public void onTrigger(TriggerEvent event) {
+            synchronized (MotionAdaptiveController.this) {
+                significantMotionRequested = false;
+            }
+            Log.d(TAG, "显著运动触发");
+            wake("显著运动");
+        }
+    };
+
+    public MotionAdaptiveController(Context context, SensorCollector sensorCollector) {
+        this.sensorCollector = sensorCollector;
+        this.sensorManager = context != null ? (SensorManager) context.getSystemService(Context.SENSOR_SERVICE) : null;
+    }
+
+    /**
+     * 开始监听加速度计数据
+     */
+    public void start() {
+        if (running) {
+            return;
+        }
+        synchronized (this) {
+            resetWindow();
+            stationarySinceNanos = -1;
+        }
+        running = true;
+        DataManager.getInstance().addListener(this);
+        Log.i(TAG, "运动自适应采样已启用，窗口 " + (windowNanos / 1_000_000) + "ms, 空闲采样周期 " + idlePeriodUs + "μs");
+    }
+
+    /**
+     * 停止监听，并恢复正常采样率
+     */
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        DataManager.getInstance().removeListener(this);
+        wake("控制器停止");
+        Log.i(TAG, "运动自适应采样已停用");
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public void onNewDataRecord(DataRecord dataRecord) {
+        if (!running || dataRecord.sensorId != SensorRegistry.ID_ACCELEROMETER) {
+            return;
+        }
+
+        long timeNanos = dataRecord.eventTimeNanos != 0 ? dataRecord.eventTimeNanos : dataRecord.timestampMs * 1_000_000L;
+        double x = dataRecord.sensorX;
+        double y = dataRecord.sensorY;
+        double z = dataRecord.sensorZ;
+        onAccelerometerSample(timeNanos, Math.sqrt(x * x + y * y + z * z));
+    }
+
+    @Override
+    public void onNewBatch(SensorBatch batch) {
+        if (!running) {
+            return;
+        }
+        // 直接读取列数据，不为每个样本创建DataRecord
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.getSensorId(i) != SensorRegistry.ID_ACCELEROMETER) {
+                continue;
+            }
+            long eventTimeNanos = batch.getEventTimeNanos(i);
+            long timeNanos = eventTimeNanos != 0 ? eventTimeNanos : batch.getTimestampMs(i) * 1_000_000L;
+            double x = batch.getX(i);
+            double y = batch.getY(i);
+            double z = batch.getZ(i);
+            onAccelerometerSample(timeNanos, Math.sqrt(x * x + y * y + z * z));
+        }
+    }
+
+    /**
+     * 处理一个加速度模长样本
+     */
+    void onAccelerometerSample(long timeNanos, double magnitude) {
+        boolean idle = sensorCollector.isInIdleRate();
+        if (!idle) {
+            finishIdlePeriod();
+        }
+        boolean shouldWake = false;
+        boolean shouldSleep = false;
+
+        synchronized (this) {
+            // 空闲时单个样本明显偏离窗口均值，不等窗口统计直接唤醒
+            if (idle && windowSize >= MIN_WINDOW_SAMPLES &&
+                    Math.abs(magnitude - windowSum / windowSize) > jumpThreshold) {
+                shouldWake = true;
+            }
+
+            addSample(timeNanos, magnitude);
+
+            if (!shouldWake && isWindowFull()) {
+                double variance = getWindowVariance();
+                if (idle) {
+                    shouldWake = variance > motionVariance;
+                } else if (variance < stillVariance) {
+                    if (stationarySinceNanos < 0) {
+                        stationarySinceNanos = timeNanos;
+                    } else if (timeNanos - stationarySinceNanos >= stationaryHoldNanos) {
+                        shouldSleep = true;
+                    }
+                } else {
+                    stationarySinceNanos = -1;
+                }
+            }
+        }
+
+        if (shouldWake) {
+            wake("加速度变化");
+        } else if (shouldSleep) {
+            sleep();
+        }
+    }
+
+    /**
+     * 切换到空闲采样率
+     */
+    private void sleep() {
+        if (!sensorCollector.enterIdleRate(idlePeriodUs)) {
+            return;
+        }
+
+        synchronized (this) {
+            resetWindow();
+            stationarySinceNanos = -1;
+            idleEnterCount++;
+            idleStartMs = System.currentTimeMillis();
+
+            if (useSignificantMotion && sensorManager != null && !significantMotionRequested) {
+                Sensor significantMotion = sensorManager.getDefaultSensor(Sensor.TYPE_SIGNIFICANT_MOTION);
+                if (significantMotion != null) {
+                    significantMotionRequested = sensorManager.requestTriggerSensor(significantMotionListener, significantMotion);
+                }
+            }
+        }
+        Log.i(TAG, "设备静止，进入空闲采样");
+    }
+
+    /**
+     * 恢复正常采样率
+     */
+    private void wake(String reason) {
+        synchronized (this) {
+            if (significantMotionRequested && sensorManager != null) {
+                Sensor significantMotion = sensorManager.getDefaultSensor(Sensor.TYPE_SIGNIFICANT_MOTION);
+                if (significantMotion != null) {
+                    sensorManager.cancelTriggerSensor(significantMotionListener, significantMotion);
+                }
+                significantMotionRequested = false;
+            }
+        }
+
+        boolean exited = sensorCollector.exitIdleRate();
+        if (finishIdlePeriod() && exited) {
+            Log.i(TAG, "检测到运动(" + reason + ")，恢复正常采样");
+        }
+    }
+
+    /**
+     * 采集器已不在空闲采样(被恢复或被重启)时结束当前空闲时段的计时
+     * @return 是否结束了一个空闲时段
+     */
+    private synchronized boolean finishIdlePeriod() {
+        if (idleStartMs == 0 || sensorCollector.isInIdleRate()) {
+            return false;
+        }
+        totalIdleMs += System.currentTimeMillis() - idleStartMs;
+        idleStartMs = 0;
+        resetWindow();
+        stationarySinceNanos = -1;
+        return true;
+    }
+
+    private void addSample(long timeNanos, double value) {
+        // 移除窗口外的旧样本
+        while (windowSize > 0 && timeNanos - windowTimes[windowStart] > windowNanos) {
+            removeOldest();
+        }
+        if (windowSize == WINDOW_CAPACITY) {
+            removeOldest();
+        }
+
+        int index = (windowStart + windowSize) % WINDOW_CAPACITY;
+        windowTimes[index] = timeNanos;
+        windowValues[index] = value;
+        windowSize++;
+        windowSum += value;
+        windowSumSquares += value * value;
+    }
+
+    private void removeOldest() {
+        double value = windowValues[windowStart];
+        windowSum -= value;
+        windowSumSquares -= value * value;
+        windowStart = (windowStart + 1) % WINDOW_CAPACITY;
+        windowSize--;
+    }
+
+    private void resetWindow() {
+        windowStart = 0;
+        windowSize = 0;
+        windowSum = 0;
+        windowSumSquares = 0;
+    }
+
+    /**
+     * 窗口内样本是否覆盖了接近一个完整窗口的时长
+     */
+    private boolean isWindowFull() {
+        if (windowSize < MIN_WINDOW_SAMPLES) {
+            return false;
+        }
+        long newest = windowTimes[(windowStart + windowSize - 1) % WINDOW_CAPACITY];
+        return newest - windowTimes[windowStart] >= windowNanos * 9 / 10;
+    }
+
+    private double getWindowVariance() {
+        double mean = windowSum / windowSize;
+        return Math.max(0, windowSumSquares / windowSize - mean * mean);
+    }
+
+    /**
+     * 当前窗口内加速度模长的方差，样本不足时返回-1
+     */
+    public synchronized double getCurrentVariance() {
+        return windowSize >= MIN_WINDOW_SAMPLES ? getWindowVariance() : -1;
+    }
+
+    public void setWindowMs(long windowMs) {
+        this.windowNanos = Math.max(100, windowMs) * 1_000_000L;
+    }
+
+    public void setStationaryHoldMs(long holdMs) {
+        this.stationaryHoldNanos = Math.max(0, holdMs) * 1_000_000L;
+    }
+
+    /**
+     * 设置空闲时的采样周期(微秒)
+     */
+    public void setIdlePeriodUs(int periodUs) {
+        this.idlePeriodUs = Math.max(1, periodUs);
+    }
+
+    /**
+     * 设置静止和运动的方差阈值，运动阈值不低于静止阈值
+     */
+    public void setVarianceThresholds(double still, double motion) {
+        this.stillVariance = still;
+        this.motionVariance = Math.max(still, motion);
+    }
+
+    public void setJumpThreshold(double threshold) {
+        this.jumpThreshold = threshold;
+    }
+
+    /**
+     * 空闲时是否同时请求TYPE_SIGNIFICANT_MOTION作为唤醒触发，默认关闭
+     */
+    public void setUseSignificantMotion(boolean use) {
+        this.useSignificantMotion = use;
+    }
+
+    public boolean isUsingSignificantMotion() {
+        return useSignificantMotion;
+    }
+
+    public long getIdleEnterCount() {
+        return idleEnterCount;
+    }
+
+    /**
+     * 累计处于空闲采样的时间(毫秒)，包括当前这一段
+     */
+    public long getTotalIdleMs() {
+        long start = idleStartMs;
+        return totalIdleMs + (start > 0 ? System.currentTimeMillis() - start : 0);
+    }
+}
@@ -611,6 +611,47 @@ public class NetworkManager implements ComponentCallbacks2 {
         });
     }
     
+    /**
+     * 创建从上传服务器 /time 接口获取服务器时间的时间来源，供ClockSyncManager使用
+     * 接口返回毫秒时间戳，可以是纯数字，也可以是包含"time_ms"字段的JSON
+     * @param serverIp 服务器IP
+     * @param serverPort 服务器端口
+     * @return 时间来源，服务器信息无效时返回null
+     */
+    public ClockSyncManager.ServerTimeSource createServerTimeSource(String serverIp, String serverPort) {
+        if (!isValidServerInfo(serverIp, serverPort)) {
+            return null;
+        }
+        
+        final String url = "http://" + serverIp.trim() + ":" + serverPort.trim() + "/time";
+        
+        // 时间请求越快误差越小，使用短超时的客户端，复用已有的连接池
+        final OkHttpClient timeClient = client.newBuilder()
+                .connectTimeout(2, TimeUnit.SECONDS)
+                .readTimeout(2, TimeUnit.SECONDS)
+                .retryOnConnectionFailure(false)
+                .build();
+        
+        return () -> {
+            Request request = new Request.Builder().url(url).get().build();
+            try (Response response = timeClient.newCall(request).execute()) {
+                ResponseBody body = response.body();
+                if (!response.isSuccessful() || body == null) {
+                    throw new IOException("获取服务器时间失败，状态码: " + response.code());
+                }
+                String text = body.string().trim();
+                try {
+                    if (text.startsWith("{")) {
+                        return new org.json.JSONObject(text).getLong("time_ms");
+                    }
+                    return Long.parseLong(text);
+                } catch (org.json.JSONException | NumberFormatException e) {
+                    throw new IOException("无法解析服务器时间: " + text);
+                }
+            }
+        };
+    }
+    
     /**
      * 检查网络连接是否可用
      * @param context 上下文
@@ -0,0 +1,143 @@
+package com.example.sensordatacollector;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 采集流水线单个阶段的计数器
+ * 用于区分数据缺口来自传感器本身还是来自我们自己的队列
+ */
+public class PipelineStageStats {
+    private final String stageName;
+
+    private final AtomicLong offered = new AtomicLong(0);   // 提交到该阶段的记录数
+    private final AtomicLong queued = new AtomicLong(0);    // 成功进入队列的记录数
+    private final AtomicLong dropped = new AtomicLong(0);   // 被丢弃的记录数
+    private final AtomicLong inline = new AtomicLong(0);    // 因队列不可用而在调用线程直接处理的记录数
+    private final AtomicLong spilled = new AtomicLong(0);   // 溢写到磁盘的记录数
+    private final AtomicLong unspilled = new AtomicLong(0); // 从磁盘读回并处理的记录数
+    private final AtomicLong blocked = new AtomicLong(0);   // 提交时发生阻塞的次数
+
+    public PipelineStageStats(String stageName) {
+        this.stageName = stageName;
+    }
+
+    public void recordOffered() {
+        offered.incrementAndGet();
+    }
+
+    public void recordOffered(int count) {
+        offered.addAndGet(count);
+    }
+
+    public void recordQueued() {
+        queued.incrementAndGet();
+    }
+
+    public void recordQueued(int count) {
+        queued.addAndGet(count);
+    }
+
+    public void recordDropped() {
+        dropped.incrementAndGet();
+    }
+
+    public void recordDropped(int count) {
+        dropped.addAndGet(count);
+    }
+
+    public void recordInline() {
+        inline.incrementAndGet();
+    }
+
+    public void recordInline(int count) {
+        inline.addAndGet(count);
+    }
+
+    public void recordSpilled() {
+        spilled.incrementAndGet();
+    }
+
+    public void recordSpilled(int count) {
+        spilled.addAndGet(count);
+    }
+
+    public void recordUnspilled(int count) {
+        unspilled.addAndGet(count);
+    }
+
+    public void recordBlocked() {
+        blocked.incrementAndGet();
+    }
+
+    public String getStageName() {
+        return stageName;
+    }
+
+    public long getOffered() {
+        return offered.get();
+    }
+
+    public long getQueued() {
+        return queued.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getInline() {
+        return inline.get();
+    }
+
+    public long getSpilled() {
+        return spilled.get();
+    }
+
+    public long getUnspilled() {
+        return unspilled.get();
+    }
+
+    public long getBlocked() {
+        return blocked.get();
+    }
+
+    /**
+     * 清零所有计数
+     */
+    public void reset() {
+        offered.set(0);
+        queued.set(0);
+        dropped.set(0);
+        inline.set(0);
+        spilled.set(0);
+        unspilled.set(0);
+        blocked.set(0);
+    }
+
+    public JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("stage", stageName);
+            json.put("offered", getOffered());
+            json.put("queued", getQueued());
+            json.put("dropped", getDropped());
+            json.put("inline", getInline());
+            json.put("spilled", getSpilled());
+            json.put("unspilled", getUnspilled());
+            json.put("blocked", getBlocked());
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return stageName + ": 提交 " + getOffered() + ", 入队 " + getQueued() + ", 丢弃 " + getDropped() +
+               ", 直接执行 " + getInline() + ", 溢写 " + getSpilled() + "/" + getUnspilled() +
+               ", 阻塞 " + getBlocked();
+    }
+}
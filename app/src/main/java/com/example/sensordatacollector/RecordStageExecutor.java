@@ -0,0 +1,396 @@
+package com.example.sensordatacollector;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 采集流水线中处理数据记录的有界执行器
+ * 队列已满时按BackpressurePolicy处理新记录，并在PipelineStageStats中记录每条记录的去向。
+ * 核心线程数等于最大线程数且预先启动，记录直接放入队列，单线程时保证处理顺序。
+ * 溢写文件中还有未读回的记录时，新记录也追加到溢写文件，直到全部读回为止，保证记录按提交顺序处理。
+ */
+public class RecordStageExecutor extends ThreadPoolExecutor {
+    private static final String TAG = "RecordStageExecutor";
+
+    // BLOCK策略下等待队列空位的最长时间
+    private static final long DEFAULT_BLOCK_TIMEOUT_MS = 200;
+
+    // 队列空闲时每次从磁盘读回的记录数
+    private static final int UNSPILL_BATCH_SIZE = 256;
+
+    /**
+     * 携带数据记录的任务，队列满时可以按记录进行丢弃或溢写
+     */
+    public static class RecordTask implements Runnable {
+        final DataRecord record;
+        private final SpillBuffer.RecordHandler handler;
+
+        RecordTask(DataRecord record, SpillBuffer.RecordHandler handler) {
+            this.record = record;
+            this.handler = handler;
+        }
+
+        @Override
+        public void run() {
+            handler.handle(record);
+        }
+    }
+
+    /**
+     * 在工作线程中处理一批样本
+     */
+    public interface BatchHandler {
+        void handle(SensorBatch batch);
+    }
+
+    /**
+     * 携带一批样本的任务，计数按样本数累计
+     */
+    public static class BatchTask implements Runnable {
+        final SensorBatch batch;
+        private final BatchHandler handler;
+
+        BatchTask(SensorBatch batch, BatchHandler handler) {
+            this.batch = batch;
+            this.handler = handler;
+        }
+
+        @Override
+        public void run() {
+            handler.handle(batch);
+        }
+    }
+
+    private final PipelineStageStats stats;
+    private final SpillBuffer.RecordHandler recordHandler;
+    // 设置后不再改变
+    private volatile SpillBuffer spillBuffer;
+    private final int queueCapacity;
+
+    private volatile BatchHandler batchHandler;
+    private volatile BackpressurePolicy policy;
+    private volatile long blockTimeoutMs = DEFAULT_BLOCK_TIMEOUT_MS;
+
+    /**
+     * @param stats 该阶段的计数器
+     * @param threadName 工作线程名称
+     * @param poolSize 工作线程数
+     * @param queueCapacity 队列容量
+     * @param policy 队列已满时的处理策略
+     * @param recordHandler 在工作线程中处理每条记录
+     * @param spillDirectory 溢写目录，为null时SPILL_TO_DISK按DROP_NEWEST处理，之后可以通过setSpillDirectory设置
+     */
+    public RecordStageExecutor(PipelineStageStats stats, String threadName, int poolSize, int queueCapacity,
+                               BackpressurePolicy policy, SpillBuffer.RecordHandler recordHandler, File spillDirectory) {
+        super(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity), r -> {
+            Thread thread = new Thread(r, threadName);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.stats = stats;
+        this.recordHandler = recordHandler;
+        this.queueCapacity = queueCapacity;
+        this.policy = policy;
+        setRejectedExecutionHandler(new BlockingHandler());
+
+        // 记录直接放入队列，需要工作线程已经启动
+        prestartAllCoreThreads();
+
+        setSpillDirectory(spillDirectory);
+    }
+
+    /**
+     * 设置溢写目录，只有第一次设置的目录生效；创建时还没有目录(例如尚未获得上下文)的执行器可以之后再设置，
+     * 不需要重建执行器，同一个溢写文件始终只由一个执行器读写
+     */
+    public synchronized void setSpillDirectory(File spillDirectory) {
+        if (spillDirectory == null || spillBuffer != null || isShutdown()) {
+            return;
+        }
+        SpillBuffer buffer = new SpillBuffer(spillDirectory, stats.getStageName());
+        spillBuffer = buffer;
+
+        // 上次运行残留的溢写数据
+        if (buffer.hasPending()) {
+            execute(this::drainSpilled);
+        }
+    }
+
+    /**
+     * 提交一条记录，队列已满时按当前策略处理
+     * @return 记录被接受(入队或溢写)时返回true，被丢弃时返回false
+     * @throws RejectedExecutionException 执行器已关闭
+     */
+    public boolean submitRecord(DataRecord record) {
+        if (isShutdown()) {
+            throw new RejectedExecutionException(stats.getStageName() + " 已关闭");
+        }
+        stats.recordOffered();
+
+        // 溢写期间新记录排在已溢写的记录之后
+        if (spillPending(record)) {
+            stats.recordSpilled();
+            return true;
+        }
+
+        // 工作线程已预先启动，记录直接放入队列
+        RecordTask task = new RecordTask(record, recordHandler);
+        BlockingQueue<Runnable> queue = getQueue();
+        if (queue.offer(task)) {
+            stats.recordQueued();
+            return true;
+        }
+
+        BackpressurePolicy current = policy;
+        boolean accepted = false;
+        switch (current) {
+            case BLOCK:
+                stats.recordBlocked();
+                accepted = blockingPut(queue, task);
+                if (accepted) {
+                    stats.recordQueued();
+                }
+                break;
+            case DROP_OLDEST:
+                // 挤掉队列中最旧的一条记录，非记录任务(例如写入屏障)保留
+                for (Runnable queued : queue) {
+                    if (queued instanceof RecordTask && queue.remove(queued)) {
+                        stats.recordDropped();
+                        break;
+                    }
+                }
+                accepted = queue.offer(task);
+                if (accepted) {
+                    stats.recordQueued();
+                }
+                break;
+            case SPILL_TO_DISK:
+                if (spillBuffer != null) {
+                    try {
+                        spillBuffer.append(record);
+                        stats.recordSpilled();
+                        accepted = true;
+                    } catch (IOException e) {
+                        Log.e(TAG, stats.getStageName() + " 溢写记录失败", e);
+                    }
+                }
+                break;
+            case DROP_NEWEST:
+            default:
+                break;
+        }
+
+        if (!accepted) {
+            stats.recordDropped();
+            long dropped = stats.getDropped();
+            if (dropped % 1000 == 1) {
+                Log.w(TAG, stats.getStageName() + " 队列已满(" + queueCapacity + ")，策略 " + current + "，累计丢弃 " + dropped);
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * 提交一批样本，队列已满时按当前策略处理，丢弃和溢写均以整批为单位
+     * @return 批次被接受(入队或溢写)时返回true，被丢弃时返回false
+     * @throws RejectedExecutionException 执行器已关闭
+     */
+    public boolean submitBatch(SensorBatch batch) {
+        if (isShutdown()) {
+            throw new RejectedExecutionException(stats.getStageName() + " 已关闭");
+        }
+        int count = batch.size();
+        stats.recordOffered(count);
+
+        // 溢写期间新样本排在已溢写的记录之后；第一条追加成功后其余的也必须追加
+        // 先检查是否有未读回的记录，没有溢写时不为批次创建DataRecord
+        SpillBuffer buffer = spillBuffer;
+        if (count > 0 && buffer != null && buffer.hasPending() && spillPending(batch.toRecord(0))) {
+            return spillRemaining(batch, 1);
+        }
+
+        BatchTask task = new BatchTask(batch, batchHandler != null ? batchHandler : this::handleBatchAsRecords);
+        BlockingQueue<Runnable> queue = getQueue();
+        if (queue.offer(task)) {
+            stats.recordQueued(count);
+            return true;
+        }
+
+        BackpressurePolicy current = policy;
+        boolean accepted = false;
+        switch (current) {
+            case BLOCK:
+                stats.recordBlocked();
+                accepted = blockingPut(queue, task);
+                if (accepted) {
+                    stats.recordQueued(count);
+                }
+                break;
+            case DROP_OLDEST:
+                // 挤掉队列中最旧的一个记录或批次任务
+                for (Runnable queued : queue) {
+                    if ((queued instanceof RecordTask || queued instanceof BatchTask) && queue.remove(queued)) {
+                        stats.recordDropped(queued instanceof BatchTask ? ((BatchTask) queued).batch.size() : 1);
+                        break;
+                    }
+                }
+                accepted = queue.offer(task);
+                if (accepted) {
+                    stats.recordQueued(count);
+                }
+                break;
+            case SPILL_TO_DISK:
+                if (spillBuffer != null) {
+                    return spillRemaining(batch, 0);
+                }
+                break;
+            case DROP_NEWEST:
+            default:
+                break;
+        }
+
+        if (!accepted && count > 0) {
+            stats.recordDropped(count);
+            Log.w(TAG, stats.getStageName() + " 队列已满(" + queueCapacity + ")，策略 " + current +
+                       "，丢弃一批 " + count + " 条，累计丢弃 " + stats.getDropped());
+        }
+        return accepted;
+    }
+
+    /**
+     * 溢写文件中还有未读回的记录时把记录追加到溢写文件
+     * @return 是否已追加；没有未读回的记录或追加失败时返回false，记录按正常流程处理
+     */
+    private boolean spillPending(DataRecord record) {
+        SpillBuffer buffer = spillBuffer;
+        if (buffer == null) {
+            return false;
+        }
+        try {
+            return buffer.appendIfPending(record);
+        } catch (IOException e) {
+            Log.e(TAG, stats.getStageName() + " 溢写记录失败", e);
+            return false;
+        }
+    }
+
+    /**
+     * 把批次中从start开始的样本追加到溢写文件，start之前的样本已经溢写
+     * @return 是否全部溢写；失败时剩余的样本计为丢弃
+     */
+    private boolean spillRemaining(SensorBatch batch, int start) {
+        int count = batch.size();
+        int spilledCount = start;
+        try {
+            for (int i = start; i < count; i++) {
+                spillBuffer.append(batch.toRecord(i));
+                spilledCount++;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, stats.getStageName() + " 溢写批次失败", e);
+        }
+        stats.recordSpilled(spilledCount);
+        if (spilledCount < count) {
+            stats.recordDropped(count - spilledCount);
+            Log.w(TAG, stats.getStageName() + " 溢写失败，丢弃 " + (count - spilledCount) + " 条，累计丢弃 " +
+                       stats.getDropped());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 设置批次处理回调，为null时批次逐条交给记录处理回调
+     */
+    public void setBatchHandler(BatchHandler handler) {
+        this.batchHandler = handler;
+    }
+
+    private void handleBatchAsRecords(SensorBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            recordHandler.handle(batch.toRecord(i));
+        }
+    }
+
+    public void setPolicy(BackpressurePolicy policy) {
+        this.policy = policy;
+        Log.d(TAG, stats.getStageName() + " 背压策略: " + policy);
+    }
+
+    public BackpressurePolicy getPolicy() {
+        return policy;
+    }
+
+    public void setBlockTimeoutMs(long blockTimeoutMs) {
+        this.blockTimeoutMs = Math.max(0, blockTimeoutMs);
+    }
+
+    public PipelineStageStats getStats() {
+        return stats;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        super.afterExecute(r, t);
+        // 队列空闲时读回溢写的数据
+        SpillBuffer buffer = spillBuffer;
+        if (buffer != null && getQueue().isEmpty() && !isShutdown() && buffer.hasPending()) {
+            drainSpilled();
+        }
+    }
+
+    private void drainSpilled() {
+        int count = spillBuffer.drain(recordHandler, UNSPILL_BATCH_SIZE);
+        if (count > 0) {
+            stats.recordUnspilled(count);
+            Log.d(TAG, stats.getStageName() + " 读回溢写记录 " + count + " 条");
+        }
+        // 还有剩余时排一个任务继续读回，队列已满时由后续任务的afterExecute处理
+        if (spillBuffer.hasPending() && !isShutdown()) {
+            getQueue().offer(this::drainSpilled);
+        }
+    }
+
+    @Override
+    protected void terminated() {
+        super.terminated();
+        SpillBuffer buffer = spillBuffer;
+        if (buffer != null) {
+            buffer.close();
+        }
+    }
+
+    private boolean blockingPut(BlockingQueue<Runnable> queue, Runnable r) {
+        try {
+            return queue.offer(r, blockTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * 通过execute提交的非记录任务(例如等待写入完成的屏障)在队列满时阻塞等待
+     */
+    private class BlockingHandler implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown() || !blockingPut(executor.getQueue(), r)) {
+                throw new RejectedExecutionException(stats.getStageName() + " 队列不可用");
+            }
+        }
+    }
+}
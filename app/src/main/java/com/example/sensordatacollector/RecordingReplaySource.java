@@ -0,0 +1,322 @@
+package com.example.sensordatacollector;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 已录制数据回放源
+ * 读取 *_sensor_data_*.jsonl(.gz) 或二进制数据段(.sdseg)文件，按原始节奏、N倍速或尽可能快地把记录交给
+ * SensorCollector.DataCollectionListener（通常是DataManager），模拟SensorCollector的输出。
+ * 不依赖设备，可在JVM上对DataManager、StorageManager等组件进行负载和回归测试。
+ */
+public class RecordingReplaySource {
+    private static final String TAG = "RecordingReplaySource";
+
+    // 读取文件的缓冲区大小
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 回放节奏
+     */
+    public enum Pacing {
+        /** 按录制时的时间间隔回放 */
+        REALTIME,
+        /** 按录制时间间隔的1/N回放 */
+        SCALED,
+        /** 不等待，尽可能快地回放 */
+        AS_FAST_AS_POSSIBLE
+    }
+
+    /**
+     * 一次回放的统计结果
+     */
+    public static class ReplayResult {
+        public long filesRead;
+        public long recordsEmitted;
+        public long linesSkipped;   // 非数据记录的行或无法解析的行
+        public long elapsedNanos;
+        public long recordingSpanMs; // 回放记录覆盖的录制时间跨度
+        public boolean truncated;    // 文件末尾不完整(例如正在写入的gzip文件)
+
+        public double getRecordsPerSecond() {
+            return elapsedNanos > 0 ? recordsEmitted * 1_000_000_000.0 / elapsedNanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "回放 " + filesRead + " 个文件, " + recordsEmitted + " 条记录, 跳过 " + linesSkipped + " 行" +
+                   ", 录制跨度 " + recordingSpanMs + "ms, 耗时 " + (elapsedNanos / 1_000_000) + "ms" +
+                   String.format(Locale.US, ", %.0f 条/秒", getRecordsPerSecond()) +
+                   (truncated ? ", 文件末尾不完整" : "");
+        }
+    }
+
+    private final SensorCollector.DataCollectionListener target;
+
+    private volatile Pacing pacing = Pacing.AS_FAST_AS_POSSIBLE;
+    private volatile double speedFactor = 1.0;
+    private volatile boolean stopRequested = false;
+
+    // 节奏基准：基准记录的录制时间(纳秒)、对应的回放时间、录制时间的来源和倍速
+    // 不同文件(可能跨越重启)以及事件时间和毫秒时间戳之间的时基不可比较，来源或文件变化时重新确定基准
+    private long paceBaseRecordNanos = -1;
+    private long paceBaseStartNanos;
+    private boolean paceUsesEventTime;
+    private double paceFactor;
+
+    // 已回放记录的首末墙上时间，用于计算录制跨度
+    private long firstTimestampMs = -1;
+    private long lastTimestampMs = -1;
+
+    public RecordingReplaySource(SensorCollector.DataCollectionListener target) {
+        if (target == null) {
+            throw new IllegalArgumentException("回放目标不能为空");
+        }
+        this.target = target;
+    }
+
+    /**
+     * 按录制时的时间间隔回放
+     */
+    public void setRealtime() {
+        this.pacing = Pacing.REALTIME;
+        this.speedFactor = 1.0;
+    }
+
+    /**
+     * 以N倍速回放
+     */
+    public void setSpeedFactor(double factor) {
+        if (factor <= 0) {
+            throw new IllegalArgumentException("回放倍速必须大于0: " + factor);
+        }
+        this.pacing = Pacing.SCALED;
+        this.speedFactor = factor;
+    }
+
+    /**
+     * 不等待，尽可能快地回放
+     */
+    public void setAsFastAsPossible() {
+        this.pacing = Pacing.AS_FAST_AS_POSSIBLE;
+    }
+
+    public Pacing getPacing() {
+        return pacing;
+    }
+
+    public double getSpeedFactor() {
+        return speedFactor;
+    }
+
+    /**
+     * 请求停止回放，可在其他线程调用
+     */
+    public void stop() {
+        stopRequested = true;
+    }
+
+    /**
+     * 查找目录中的录制文件，按文件名(包含录制时间)排序
+     */
+    public static List<File> findRecordingFiles(File directory) {
+        File[] files = directory.listFiles((dir, name) ->
+                (name.contains("_sensor_data_") || name.startsWith("sensor_data_")) &&
+                StorageManager.isDataFileName(name));
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        Arrays.sort(files, (f1, f2) -> f1.getName().compareTo(f2.getName()));
+        return new ArrayList<>(Arrays.asList(files));
+    }
+
+    /**
+     * 回放单个文件
+     */
+    public ReplayResult replay(File file) throws IOException {
+        List<File> files = new ArrayList<>();
+        files.add(file);
+        return replay(files);
+    }
+
+    /**
+     * 按顺序回放多个文件；节奏在每个文件内跟随录制时间，文件之间不等待
+     */
+    public ReplayResult replay(List<File> files) throws IOException {
+        stopRequested = false;
+        long startNanos = System.nanoTime();
+
+        ReplayResult result = new ReplayResult();
+        firstTimestampMs = -1;
+        lastTimestampMs = -1;
+
+        for (File file : files) {
+            if (stopRequested) {
+                break;
+            }
+            Log.d(TAG, "开始回放文件: " + file.getName() + ", 节奏: " + pacing +
+                       (pacing == Pacing.SCALED ? " x" + speedFactor : ""));
+            paceBaseRecordNanos = -1;
+
+            if (file.getName().endsWith(SegmentFormat.FILE_EXTENSION)) {
+                replaySegment(file, result);
+            } else {
+                replayJsonl(file, result);
+            }
+        }
+
+        result.elapsedNanos = System.nanoTime() - startNanos;
+        result.recordingSpanMs = firstTimestampMs >= 0 ? lastTimestampMs - firstTimestampMs : 0;
+        Log.i(TAG, result.toString());
+        return result;
+    }
+
+    private void replayJsonl(File file, ReplayResult result) throws IOException {
+        try (BufferedReader reader = openReader(file)) {
+            result.filesRead++;
+            // 字典编号只在一个文件内有效
+            StringDictionary dictionary = new StringDictionary();
+            String line;
+            while (!stopRequested && (line = readLineOrNull(reader, result)) != null) {
+                DataRecord record = parseRecord(line, dictionary);
+                if (record == null) {
+                    result.linesSkipped++;
+                    continue;
+                }
+                emit(record, result);
+            }
+        }
+    }
+
+    /**
+     * 回放二进制数据段，与JSONL一样只回放传感器记录，元数据和融合记录计入跳过的行
+     */
+    private void replaySegment(File file, ReplayResult result) throws IOException {
+        try (SegmentReader reader = new SegmentReader(
+                new BufferedInputStream(new FileInputStream(file), READ_BUFFER_SIZE))) {
+            result.filesRead++;
+            while (!stopRequested && reader.next()) {
+                DataRecord record = reader.getRecord();
+                if (record == null || !"sensor".equals(record.type)) {
+                    result.linesSkipped++;
+                    continue;
+                }
+                emit(record, result);
+            }
+            if (reader.isTruncated()) {
+                Log.w(TAG, "文件末尾不完整，停止读取该文件");
+                result.truncated = true;
+            }
+        }
+    }
+
+    private void emit(DataRecord record, ReplayResult result) {
+        awaitRecordTime(record);
+        target.onDataCollected(record);
+        result.recordsEmitted++;
+
+        if (firstTimestampMs < 0) {
+            firstTimestampMs = record.timestampMs;
+        }
+        lastTimestampMs = record.timestampMs;
+    }
+
+    private static BufferedReader openReader(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            if (file.getName().endsWith(".gz")) {
+                in = new GZIPInputStream(in, READ_BUFFER_SIZE);
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), READ_BUFFER_SIZE);
+    }
+
+    /**
+     * 读取一行，gzip文件末尾不完整时视为文件结束
+     */
+    private static String readLineOrNull(BufferedReader reader, ReplayResult result) throws IOException {
+        try {
+            return reader.readLine();
+        } catch (EOFException e) {
+            Log.w(TAG, "文件末尾不完整，停止读取该文件");
+            result.truncated = true;
+            return null;
+        }
+    }
+
+    /**
+     * 解析一行数据记录，元数据行和无法解析的行返回null
+     * 字典定义行记入dictionary，供后续记录的 *_ref 字段还原
+     */
+    private static DataRecord parseRecord(String line, StringDictionary dictionary) {
+        if (line.isEmpty()) {
+            return null;
+        }
+        try {
+            JSONObject json = new JSONObject(line);
+            if (dictionary.readDefinition(json)) {
+                return null;
+            }
+            if (!json.has("timestamp_ms") || !"sensor".equals(json.optString("type", "sensor"))) {
+                return null;
+            }
+            return DataRecord.fromJson(json, dictionary);
+        } catch (JSONException e) {
+            Log.v(TAG, "跳过无法解析的行: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 按当前节奏等待到该记录应当被发出的时间
+     * 文件开始、录制时间的来源变化或倍速变化时以该记录为新的基准，立即发出
+     */
+    private void awaitRecordTime(DataRecord record) {
+        Pacing currentPacing = pacing;
+        if (currentPacing == Pacing.AS_FAST_AS_POSSIBLE) {
+            paceBaseRecordNanos = -1;
+            return;
+        }
+
+        // 优先使用硬件事件时间，旧文件或没有事件时间的记录使用毫秒时间戳
+        boolean usesEventTime = record.eventTimeNanos != 0;
+        long recordTimeNanos = usesEventTime ? record.eventTimeNanos : record.timestampMs * 1_000_000L;
+        double factor = currentPacing == Pacing.SCALED ? speedFactor : 1.0;
+        if (paceBaseRecordNanos < 0 || usesEventTime != paceUsesEventTime || factor != paceFactor) {
+            paceBaseRecordNanos = recordTimeNanos;
+            paceBaseStartNanos = System.nanoTime();
+            paceUsesEventTime = usesEventTime;
+            paceFactor = factor;
+            return;
+        }
+
+        long offsetNanos = (long) ((recordTimeNanos - paceBaseRecordNanos) / factor);
+        long deadline = paceBaseStartNanos + offsetNanos;
+
+        long remaining;
+        while (!stopRequested && (remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+}
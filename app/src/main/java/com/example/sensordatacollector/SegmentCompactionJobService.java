@@ -0,0 +1,72 @@
+package com.example.sensordatacollector;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 已封存数据段的后台压缩任务，见SegmentCompactor
+ * 只在充电、设备空闲且存储空间充足时由JobScheduler运行，条件不再满足时系统调用onStopJob，
+ * 压缩在下一个检查点放弃当前组并在下次运行时重新处理。任务按周期重复，重启后保留。
+ */
+public class SegmentCompactionJobService extends JobService {
+    private static final String TAG = "SegmentCompactionJob";
+
+    public static final int JOB_ID = 1001;
+    private static final long PERIOD_MS = TimeUnit.HOURS.toMillis(6);
+
+    private final AtomicBoolean stopRequested = new AtomicBoolean(false);
+    private Thread worker;
+
+    /**
+     * 登记周期任务，已经登记过时不做任何事
+     */
+    public static void schedule(Context context) {
+        JobScheduler scheduler = context.getSystemService(JobScheduler.class);
+        if (scheduler == null) {
+            Log.w(TAG, "无法获取JobScheduler，跳过后台压缩");
+            return;
+        }
+        if (scheduler.getPendingJob(JOB_ID) != null) {
+            return;
+        }
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, SegmentCompactionJobService.class))
+                .setRequiresCharging(true)
+                .setRequiresDeviceIdle(true)
+                .setRequiresStorageNotLow(true)
+                .setPeriodic(PERIOD_MS)
+                .setPersisted(true)
+                .build();
+        int result = scheduler.schedule(job);
+        Log.i(TAG, "登记后台压缩任务: " + (result == JobScheduler.RESULT_SUCCESS ? "成功" : "失败"));
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        Log.i(TAG, "开始后台压缩");
+        stopRequested.set(false);
+        worker = new Thread(() -> {
+            SegmentCompactor.Result result = SegmentCompactor.compact(getFilesDir(), CompressionCodec.DEFLATE_BEST,
+                    SegmentCompactor.DEFAULT_MAX_MERGED_BYTES, stopRequested);
+            // 被中止时要求重新调度，剩余的文件在条件再次满足时处理
+            jobFinished(params, result.stopped);
+        }, "SegmentCompaction");
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        Log.i(TAG, "后台压缩条件不再满足，停止压缩");
+        stopRequested.set(true);
+        return true;
+    }
+}
@@ -0,0 +1,306 @@
+package com.example.sensordatacollector;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * 已封存数据段的后台压缩
+ * 采集时为了省电使用快速压缩编码，并且每次刷新都结束一个压缩块，文件中的块往往很小、压缩率不高。
+ * 本类把同一用户、同一采样比例、在清单中相邻的已封存数据段按顺序读出，以更高压缩率的编码写入一个合并后的文件，
+ * 每个原文件之后的文件头以元数据行保留，末尾追加一行压缩元数据说明来源。
+ * 合并后的文件写完并同步到磁盘后由SegmentManifest.replaceCompacted在清单的锁内替换原文件，
+ * 期间原文件开始上传、被降采样或删除时放弃本组结果；进程在任何时候被杀都不会丢失数据。
+ * 只在充电且空闲时由SegmentCompactionJobService调用，同一时间只能有一次压缩在运行。
+ */
+public class SegmentCompactor {
+    private static final String TAG = "SegmentCompactor";
+
+    public static final String METADATA_TYPE = "compaction";
+    static final String TEMP_SUFFIX = ".compact.tmp";
+    // 合并后文件名在第一个原文件的基础上加的后缀
+    static final String MERGED_SUFFIX = "_c";
+
+    /** 一组原文件的总字节数上限，超过上限的单个文件单独重新压缩 */
+    public static final long DEFAULT_MAX_MERGED_BYTES = 32L * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // 每复制这么多条记录检查一次是否要求停止
+    private static final int STOP_CHECK_INTERVAL = 4096;
+
+    /**
+     * 压缩结果
+     */
+    public static class Result {
+        public int segmentsCompacted;
+        public int filesWritten;
+        public long bytesBefore;
+        public long bytesAfter;
+        public boolean stopped;
+
+        @Override
+        public String toString() {
+            return "合并 " + segmentsCompacted + " 个文件为 " + filesWritten + " 个, " +
+                   (bytesBefore / 1024) + "KB -> " + (bytesAfter / 1024) + "KB" + (stopped ? ", 已中止" : "");
+        }
+    }
+
+    /**
+     * 压缩目录中所有尚未压缩过的已封存数据段
+     * @param directory 存储目录，清单已由StorageManager创建
+     * @param codec 合并后文件使用的压缩编码
+     * @param maxMergedBytes 一组原文件的总字节数上限
+     * @param stopRequested 设置后在下一个检查点放弃当前组并返回
+     */
+    public static Result compact(File directory, CompressionCodec codec, long maxMergedBytes,
+                                 AtomicBoolean stopRequested) {
+        Result result = new Result();
+        SegmentManifest manifest = SegmentManifest.forDirectory(directory);
+        if (!manifest.isLoadedFromDisk()) {
+            // 清单尚未由StorageManager建立，没有可信的文件状态
+            Log.w(TAG, "没有文件清单，跳过压缩");
+            return result;
+        }
+        deleteTempFiles(directory);
+
+        for (List<SegmentManifest.Entry> group : planGroups(manifest.getEntries(), maxMergedBytes)) {
+            if (stopRequested.get()) {
+                result.stopped = true;
+                break;
+            }
+            try {
+                if (!compactGroup(directory, manifest, group, codec, stopRequested, result)) {
+                    result.stopped = stopRequested.get();
+                }
+            } catch (IOException | RuntimeException e) {
+                // 原文件损坏或空间不足，跳过本组，原文件保持不变
+                Log.e(TAG, "压缩失败: " + group.get(0).name, e);
+            }
+            if (result.stopped) {
+                break;
+            }
+        }
+        Log.i(TAG, "压缩完成: " + result);
+        return result;
+    }
+
+    /**
+     * 把清单中的文件分组：只考虑未压缩过的已封存数据段，同一组的文件在清单中相邻、用户相同、采样比例相同，
+     * 总字节数不超过maxMergedBytes(超过上限的单个文件单独成组)
+     */
+    static List<List<SegmentManifest.Entry>> planGroups(List<SegmentManifest.Entry> entries, long maxMergedBytes) {
+        List<List<SegmentManifest.Entry>> groups = new ArrayList<>();
+        List<SegmentManifest.Entry> group = new ArrayList<>();
+        long groupBytes = 0;
+        for (SegmentManifest.Entry entry : entries) {
+            boolean candidate = entry.state == SegmentManifest.State.SEALED && !entry.compacted &&
+                    entry.name.endsWith(SegmentFormat.FILE_EXTENSION);
+            if (!group.isEmpty()) {
+                SegmentManifest.Entry first = group.get(0);
+                if (!candidate || !userPrefix(first.name).equals(userPrefix(entry.name)) ||
+                        first.downsampleFactor != entry.downsampleFactor || groupBytes + entry.bytes > maxMergedBytes) {
+                    groups.add(group);
+                    group = new ArrayList<>();
+                    groupBytes = 0;
+                }
+            }
+            if (candidate) {
+                group.add(entry);
+                groupBytes += entry.bytes;
+            }
+        }
+        if (!group.isEmpty()) {
+            groups.add(group);
+        }
+        return groups;
+    }
+
+    /**
+     * 合并后文件对应的第一个原文件名，不是合并后的文件名时返回null
+     */
+    static String firstSourceName(String name) {
+        String suffix = MERGED_SUFFIX + SegmentFormat.FILE_EXTENSION;
+        if (!name.endsWith(suffix)) {
+            return null;
+        }
+        return name.substring(0, name.length() - suffix.length()) + SegmentFormat.FILE_EXTENSION;
+    }
+
+    /**
+     * 文件名中用户ID的部分，即"sensor_data_"之前的内容
+     */
+    private static String userPrefix(String name) {
+        int index = name.indexOf("sensor_data_");
+        return index > 0 ? name.substring(0, index) : "";
+    }
+
+    /**
+     * 压缩一组文件并替换清单中的条目
+     * @return 是否完成(替换成功或确认没有收益)；被要求停止或原文件在此期间发生变化时返回false
+     */
+    private static boolean compactGroup(File directory, SegmentManifest manifest, List<SegmentManifest.Entry> group,
+                                        CompressionCodec codec, AtomicBoolean stopRequested, Result result) throws IOException {
+        SegmentManifest.Entry first = group.get(0);
+        String baseName = first.name.substring(0, first.name.length() - SegmentFormat.FILE_EXTENSION.length());
+        SegmentManifest.Entry merged = new SegmentManifest.Entry(baseName + MERGED_SUFFIX + SegmentFormat.FILE_EXTENSION,
+                SegmentManifest.State.SEALED, first.createdMs);
+        merged.downsampleFactor = first.downsampleFactor;
+        merged.compacted = true;
+        merged.records = 0;
+
+        File temp = new File(directory, first.name + TEMP_SUFFIX);
+        long bytesBefore = 0;
+        JSONArray sources = new JSONArray();
+        FileOutputStream fileOut = new FileOutputStream(temp);
+        CheckedOutputStream checkedOut = new CheckedOutputStream(fileOut, new CRC32());
+        SegmentWriter writer = null;
+        boolean completed = false;
+        try {
+            for (SegmentManifest.Entry source : group) {
+                File file = new File(directory, source.name);
+                bytesBefore += file.length();
+                sources.put(source.name);
+                try (InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)) {
+                    SegmentReader reader = new SegmentReader(in);
+                    if (writer == null) {
+                        SegmentFormat.Header header = reader.getHeader();
+                        writer = new SegmentWriter(new BufferedOutputStream(checkedOut, BUFFER_SIZE),
+                                new SegmentFormat.Header(header.createdMs, header.userId, header.deviceInfo,
+                                        header.sensors, SegmentFormat.RECORD_ENCODING_GORILLA, codec.getId()), true);
+                    } else {
+                        // 保留后续文件的文件头(设备信息可能不同)，同时标出原文件的边界
+                        writer.writeMetadata(reader.getHeader().toJson().toString());
+                    }
+                    if (!copyRecords(reader, writer, merged, stopRequested)) {
+                        return false;
+                    }
+                    if (reader.isTruncated()) {
+                        Log.w(TAG, "原文件末尾不完整，只合并完整的部分: " + source.name);
+                    }
+                }
+            }
+            writer.writeMetadata(createMetadata(sources, codec).toString());
+            writer.flush();
+            fileOut.getFD().sync();
+            writer.close();
+            completed = true;
+        } finally {
+            if (!completed) {
+                if (writer != null) {
+                    writer.close();
+                } else {
+                    fileOut.close();
+                }
+                temp.delete();
+            }
+        }
+
+        long bytesAfter = temp.length();
+        if (bytesAfter >= bytesBefore) {
+            // 已经是高压缩率的大文件，不再重复处理
+            temp.delete();
+            for (SegmentManifest.Entry source : group) {
+                manifest.setCompacted(source.name);
+            }
+            manifest.save();
+            Log.d(TAG, "压缩没有收益，保留原文件: " + first.name + " 等 " + group.size() + " 个文件");
+            return true;
+        }
+
+        merged.bytes = bytesAfter;
+        merged.crc32 = checkedOut.getChecksum().getValue();
+        if (!manifest.replaceCompacted(group, merged, temp)) {
+            temp.delete();
+            Log.i(TAG, "压缩期间原文件发生变化，放弃本组: " + first.name);
+            return false;
+        }
+
+        // 清单已指向合并后的文件，再删除原文件；删除前进程退出时由StorageManager启动时删除
+        for (SegmentManifest.Entry source : group) {
+            File file = new File(directory, source.name);
+            if (!file.exists() || file.delete()) {
+                manifest.remove(source.name);
+            }
+        }
+        manifest.save();
+
+        result.segmentsCompacted += group.size();
+        result.filesWritten++;
+        result.bytesBefore += bytesBefore;
+        result.bytesAfter += bytesAfter;
+        Log.i(TAG, "合并 " + group.size() + " 个文件为 " + merged.name + ", " + (bytesBefore / 1024) + "KB -> " +
+              (bytesAfter / 1024) + "KB, " + merged.records + " 条记录");
+        return true;
+    }
+
+    /**
+     * 复制一个文件中的全部记录和元数据，同时统计记录数和时间范围
+     * @return 被要求停止时返回false
+     */
+    private static boolean copyRecords(SegmentReader reader, SegmentWriter writer, SegmentManifest.Entry merged,
+                                       AtomicBoolean stopRequested) throws IOException {
+        long copied = 0;
+        while (reader.next()) {
+            if (reader.isMetadata()) {
+                writer.writeMetadata(reader.getMetadataJson());
+                continue;
+            }
+            DataRecord record = reader.getRecord();
+            writer.write(record);
+            merged.records++;
+            if (merged.firstTimestampMs < 0 || record.timestampMs < merged.firstTimestampMs) {
+                merged.firstTimestampMs = record.timestampMs;
+            }
+            if (record.timestampMs > merged.lastTimestampMs) {
+                merged.lastTimestampMs = record.timestampMs;
+            }
+            if (++copied % STOP_CHECK_INTERVAL == 0 && stopRequested.get()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 删除上次压缩时进程被杀留下的临时文件
+     */
+    private static void deleteTempFiles(File directory) {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(TEMP_SUFFIX));
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.delete()) {
+                Log.d(TAG, "删除残留的临时文件: " + file.getName());
+            }
+        }
+    }
+
+    private static JSONObject createMetadata(JSONArray sources, CompressionCodec codec) {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("type", METADATA_TYPE);
+            json.put("sources", sources);
+            json.put("compression", codec.getName());
+            json.put("created_ms", System.currentTimeMillis());
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return json;
+    }
+}
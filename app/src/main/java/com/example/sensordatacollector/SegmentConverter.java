@@ -0,0 +1,137 @@
+package com.example.sensordatacollector;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 二进制数据段与JSONL之间的流式转换
+ * 转换为JSONL时先写一行segment_header元数据，之后按原顺序写出记录和元数据行，
+ * 记录的编码与StorageManager直接写JSONL时相同(可选字符串字典)，上传和文件查看仍然使用JSONL。
+ */
+public class SegmentConverter {
+    private static final String TAG = "SegmentConverter";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 转换结果
+     */
+    public static class Result {
+        public long records;
+        public long metadataLines;
+        public long skippedLines;
+        public boolean truncated;
+
+        @Override
+        public String toString() {
+            return "转换 " + records + " 条记录, " + metadataLines + " 行元数据, 跳过 " + skippedLines + " 行" +
+                   (truncated ? ", 文件末尾不完整" : "");
+        }
+    }
+
+    /**
+     * 把二进制数据段转换为JSONL
+     * @param maxRecords 最多转换的记录数，小于等于0表示不限制，用于文件预览
+     */
+    public static Result toJsonl(InputStream segment, OutputStream jsonl, boolean useDictionary, long maxRecords)
+            throws IOException {
+        Result result = new Result();
+        SegmentReader reader = new SegmentReader(segment);
+        JsonLineEncoder encoder = new JsonLineEncoder();
+        StringDictionary dictionary = useDictionary ? new StringDictionary() : null;
+
+        jsonl.write((reader.getHeader().toJson().toString() + "\n").getBytes(StandardCharsets.UTF_8));
+        while ((maxRecords <= 0 || result.records < maxRecords) && reader.next()) {
+            if (reader.isMetadata()) {
+                jsonl.write((reader.getMetadataJson() + "\n").getBytes(StandardCharsets.UTF_8));
+                result.metadataLines++;
+                continue;
+            }
+            encoder.reset();
+            encoder.encode(reader.getRecord(), dictionary);
+            encoder.writeTo(jsonl);
+            result.records++;
+        }
+        result.truncated = reader.isTruncated();
+        return result;
+    }
+
+    /**
+     * 把JSONL转换为二进制数据段
+     * 字典定义行用于还原 *_ref 字段，传感器和融合记录写为定长记录，其他JSON行写为元数据，无法解析的行跳过
+     */
+    public static Result fromJsonl(InputStream jsonl, OutputStream segment, SegmentFormat.Header header)
+            throws IOException {
+        Result result = new Result();
+        SegmentWriter writer = new SegmentWriter(segment, header, true);
+        StringDictionary dictionary = new StringDictionary();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(jsonl, StandardCharsets.UTF_8), BUFFER_SIZE);
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            try {
+                JSONObject json = new JSONObject(line);
+                if (dictionary.readDefinition(json) || SegmentFormat.HEADER_TYPE.equals(json.optString("type"))) {
+                    continue;
+                }
+                String type = json.optString("type", "sensor");
+                if (json.has("timestamp_ms") && ("sensor".equals(type) || FusedDataRecord.TYPE.equals(type))) {
+                    writer.write(DataRecord.fromJson(json, dictionary));
+                    result.records++;
+                } else {
+                    writer.writeMetadata(line);
+                    result.metadataLines++;
+                }
+            } catch (JSONException e) {
+                result.skippedLines++;
+            }
+        }
+        writer.flush();
+        return result;
+    }
+
+    /**
+     * 把二进制数据段文件转换为.jsonl.gz文件，用于上传
+     */
+    public static Result convertToJsonlGzip(File segmentFile, File jsonlGzipFile, boolean useDictionary) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(segmentFile), BUFFER_SIZE);
+             OutputStream out = new GZIPOutputStream(new FileOutputStream(jsonlGzipFile), BUFFER_SIZE)) {
+            Result result = toJsonl(in, out, useDictionary, 0);
+            Log.d(TAG, segmentFile.getName() + " -> " + jsonlGzipFile.getName() + ": " + result);
+            return result;
+        }
+    }
+
+    /**
+     * 把.jsonl或.jsonl.gz文件转换为二进制数据段文件
+     */
+    public static Result convertToSegment(File jsonlFile, File segmentFile, SegmentFormat.Header header) throws IOException {
+        try (InputStream fileIn = new FileInputStream(jsonlFile);
+             InputStream in = jsonlFile.getName().endsWith(".gz") ?
+                     new GZIPInputStream(fileIn, BUFFER_SIZE) : new BufferedInputStream(fileIn, BUFFER_SIZE);
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(segmentFile), BUFFER_SIZE)) {
+            Result result = fromJsonl(in, out, header);
+            Log.d(TAG, jsonlFile.getName() + " -> " + segmentFile.getName() + ": " + result);
+            return result;
+        }
+    }
+}
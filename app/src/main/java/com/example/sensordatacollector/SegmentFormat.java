@@ -0,0 +1,150 @@
+package com.example.sensordatacollector;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 二进制数据段(.sdseg)的格式定义
+ * 所有数值均为小端序。文件由文件头和一串以标记字节开头的块组成：
+ * <pre>
+ * 文件头: "SDSG" | 版本 u8 | 记录编码 u8 | 压缩编码 u8 | 保留 1字节 | 创建时间 i64(ms) | 用户ID str | 设备信息 str
+ *         | 传感器条目数 u16 | 传感器条目 (编码 u8, 传感器ID i32, 名称 str)...
+ * 传感器记录(24字节): 0x01 | 传感器编码 u8 | 精度 i8 | 标志 u8 | 上下文编号 u16
+ *         | 墙上时间增量 i16(ms) | 事件时间增量 i32(ns) | x f32 | y f32 | z f32
+ * 融合记录(48字节): 0x02 | 0 | 精度 i8 | 标志 u8 | 上下文编号 u16 | 墙上时间增量 i16 | 事件时间增量 i32
+ *         | 加速度计 xyz, 陀螺仪 xyz, 磁力计 xyz 共9个f32
+ * 记录块: 0x03 | 记录数 u16 | 长度 i32 | Gorilla位流(见GorillaCodec)
+ * 时间基准: 0x10 | 墙上时间 i64(ms) | 事件时间 i64(ns)
+ * 传感器定义: 0x11 | 编码 u8 | 传感器ID i32 | 名称 str
+ * 上下文定义: 0x12 | 编号 u16 | 用户ID str | 前台应用名称 str | 前台应用包名 str
+ * 元数据: 0x13 | 长度 i32 | UTF-8 JSON(例如clock_sync行)
+ * str: 长度 i32(-1表示null) | UTF-8字节
+ * 压缩块: 原始长度 i32 | 压缩后长度 i32 | 数据(压缩后长度等于原始长度时为原样存储)
+ * </pre>
+ * 时间增量相对上一条记录，超出范围时先写一个新的时间基准。编码和编号只在所在文件内有效，
+ * 同一编码再次定义时以后出现的为准。
+ * 记录编码为RECORD_ENCODING_FIXED时每条记录写一个定长块；为RECORD_ENCODING_GORILLA时记录攒成记录块，
+ * 块内的传感器编码和上下文编号引用块之前的定义，元数据按原顺序写在块之间。版本1的文件记录编码字节为0。
+ * 压缩编码(见CompressionCodec)不为0时，文件头之后的所有块按顺序拼接后切成压缩块存储，
+ * 每个压缩块可以单独解压；版本2及以前的文件压缩编码字节为0。
+ */
+public final class SegmentFormat {
+    public static final String FILE_EXTENSION = ".sdseg";
+
+    static final byte[] MAGIC = { 'S', 'D', 'S', 'G' };
+    static final int VERSION = 3;
+
+    /** 记录编码：每条记录一个定长块 */
+    public static final int RECORD_ENCODING_FIXED = 0;
+    /** 记录编码：Gorilla风格的记录块，时间写间隔的差值，数值写与上一条的异或 */
+    public static final int RECORD_ENCODING_GORILLA = 1;
+
+    static final int TAG_SENSOR_RECORD = 0x01;
+    static final int TAG_FUSED_RECORD = 0x02;
+    static final int TAG_RECORD_CHUNK = 0x03;
+    static final int TAG_TIME_BASE = 0x10;
+    static final int TAG_SENSOR_DEFINITION = 0x11;
+    static final int TAG_CONTEXT_DEFINITION = 0x12;
+    static final int TAG_METADATA = 0x13;
+
+    static final int SENSOR_RECORD_SIZE = 24;
+    static final int FUSED_RECORD_SIZE = 48;
+    static final int TIME_BASE_SIZE = 17;
+    static final int CHUNK_HEADER_SIZE = 7;
+
+    // 每个记录块最多的记录数，刷新时不满也会结束当前块
+    static final int MAX_CHUNK_RECORDS = 4096;
+
+    // 压缩块的最大原始字节数，读取时超出视为文件损坏
+    static final int MAX_COMPRESSED_BLOCK_SIZE = 4 * 1024 * 1024;
+
+    // 记录标志：没有硬件事件时间
+    static final int FLAG_NO_EVENT_TIME = 0x01;
+
+    // 每个文件最多的传感器编码和上下文编号，用完后从头重新分配
+    static final int MAX_SENSOR_CODES = 256;
+    static final int MAX_CONTEXTS = 65536;
+
+    // 转换为JSONL时文件头对应的元数据行类型
+    public static final String HEADER_TYPE = "segment_header";
+
+    private SegmentFormat() {
+    }
+
+    /**
+     * 文件头信息
+     */
+    public static class Header {
+        public final long createdMs;
+        public final String userId;
+        public final String deviceInfo;
+        // 文件头中预先定义的传感器，按编码顺序
+        public final List<SensorEntry> sensors;
+        public final int recordEncoding;
+        // 压缩编码编号，见CompressionCodec
+        public final int compression;
+
+        public Header(long createdMs, String userId, String deviceInfo, List<SensorEntry> sensors) {
+            this(createdMs, userId, deviceInfo, sensors, RECORD_ENCODING_FIXED);
+        }
+
+        public Header(long createdMs, String userId, String deviceInfo, List<SensorEntry> sensors, int recordEncoding) {
+            this(createdMs, userId, deviceInfo, sensors, recordEncoding, CompressionCodec.ID_NONE);
+        }
+
+        public Header(long createdMs, String userId, String deviceInfo, List<SensorEntry> sensors, int recordEncoding,
+                      int compression) {
+            this.createdMs = createdMs;
+            this.userId = userId;
+            this.deviceInfo = deviceInfo;
+            this.sensors = sensors != null ? sensors : new ArrayList<>();
+            this.recordEncoding = recordEncoding;
+            this.compression = compression;
+        }
+
+        /**
+         * 只改变压缩编码的副本，用于以另一种压缩编码重写文件
+         */
+        public Header withCompression(int compression) {
+            return new Header(createdMs, userId, deviceInfo, sensors, recordEncoding, compression);
+        }
+
+        /**
+         * 转换为JSONL时写在最前面的元数据行
+         */
+        public JSONObject toJson() {
+            JSONObject json = new JSONObject();
+            try {
+                json.put("type", HEADER_TYPE);
+                json.put("format_version", VERSION);
+                json.put("record_encoding", recordEncoding == RECORD_ENCODING_GORILLA ? "gorilla" : "fixed");
+                CompressionCodec codec = CompressionCodec.forId(compression);
+                json.put("compression", codec != null ? codec.getName() : String.valueOf(compression));
+                json.put("created_ms", createdMs);
+                json.put("user_id", userId);
+                json.put("device_info", deviceInfo);
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+            return json;
+        }
+    }
+
+    /**
+     * 传感器定义：文件内的单字节编码对应的传感器ID和名称
+     */
+    public static class SensorEntry {
+        public final int code;
+        public final int sensorId;
+        public final String name;
+
+        public SensorEntry(int code, int sensorId, String name) {
+            this.code = code;
+            this.sensorId = sensorId;
+            this.name = name;
+        }
+    }
+}
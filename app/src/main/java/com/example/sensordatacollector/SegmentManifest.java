@@ -0,0 +1,410 @@
+package com.example.sensordatacollector;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 数据文件清单
+ * 记录存储目录中每个数据文件的状态、字节数、记录数、时间范围和CRC32校验和，保存在 segments_manifest.json 中。
+ * StorageManager启动和列出文件时只读取清单，不扫描目录、不逐个读取文件属性；清单不存在或损坏时由StorageManager扫描目录重建。
+ * 保存时先写临时文件并同步到磁盘，再重命名替换，进程在任何时候被杀都不会留下写了一半的清单。
+ * 同一目录只有一个实例(见forDirectory)，同一进程中的多个StorageManager共享。
+ */
+public class SegmentManifest {
+    private static final String TAG = "SegmentManifest";
+
+    public static final String FILE_NAME = "segments_manifest.json";
+    private static final int VERSION = 1;
+
+    // 每个目录一个实例
+    private static final Map<String, SegmentManifest> instances = new HashMap<>();
+
+    /**
+     * 文件状态
+     */
+    public enum State {
+        /** 正在写入 */
+        OPEN,
+        /** 已封存，等待上传 */
+        SEALED,
+        /** 已交给上传，上传完成前进程退出时重新视为已封存 */
+        UPLOADING,
+        /** 已上传，文件删除后从清单中移除 */
+        UPLOADED,
+        /** 已合并到重新压缩后的文件中，文件删除后从清单中移除；删除前进程退出时在启动时删除 */
+        COMPACTED,
+        /** 合并后的文件，已登记但原文件尚未标记为COMPACTED；替换完成前进程退出时在启动时删除，原文件仍然有效 */
+        COMPACTING
+    }
+
+    /**
+     * 清单中的一个文件
+     */
+    public static class Entry {
+        public final String name;
+        public State state;
+        public long createdMs;
+        public long bytes;
+        public long records;
+        public long firstTimestampMs = -1;
+        public long lastTimestampMs = -1;
+        public long crc32 = -1; // 封存后在后台计算，未知时为-1
+        public int downsampleFactor = 1; // 存储配额降采样后保留的比例(1/N)，未降采样时为1
+        public boolean compacted = false; // 已由后台任务重新压缩，不再重复处理
+
+        public Entry(String name, State state, long createdMs) {
+            this.name = name;
+            this.state = state;
+            this.createdMs = createdMs;
+        }
+
+        /**
+         * 列表中显示的时间：有记录时为最后一条记录的时间，否则为创建时间
+         */
+        public long getDisplayTimeMs() {
+            return lastTimestampMs > 0 ? lastTimestampMs : createdMs;
+        }
+
+        public JSONObject toJson() {
+            JSONObject json = new JSONObject();
+            try {
+                json.put("name", name);
+                json.put("state", state.name().toLowerCase(Locale.US));
+                json.put("created_ms", createdMs);
+                json.put("bytes", bytes);
+                json.put("records", records);
+                json.put("first_timestamp_ms", firstTimestampMs);
+                json.put("last_timestamp_ms", lastTimestampMs);
+                if (crc32 >= 0) {
+                    json.put("crc32", String.format(Locale.US, "%08x", crc32));
+                }
+                if (downsampleFactor > 1) {
+                    json.put("downsample_factor", downsampleFactor);
+                }
+                if (compacted) {
+                    json.put("compacted", true);
+                }
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+            return json;
+        }
+
+        static Entry fromJson(JSONObject json) throws JSONException {
+            Entry entry = new Entry(json.getString("name"),
+                    State.valueOf(json.getString("state").toUpperCase(Locale.US)), json.optLong("created_ms", 0));
+            entry.bytes = json.optLong("bytes", 0);
+            entry.records = json.optLong("records", 0);
+            entry.firstTimestampMs = json.optLong("first_timestamp_ms", -1);
+            entry.lastTimestampMs = json.optLong("last_timestamp_ms", -1);
+            String crc = json.optString("crc32", "");
+            entry.crc32 = crc.isEmpty() ? -1 : Long.parseLong(crc, 16);
+            entry.downsampleFactor = json.optInt("downsample_factor", 1);
+            entry.compacted = json.optBoolean("compacted", false);
+            return entry;
+        }
+    }
+
+    private final File directory;
+    private final File file;
+    // 按创建顺序(从旧到新)
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    private boolean loadedFromDisk = false;
+
+    /**
+     * 获取目录对应的清单，首次获取时从磁盘加载
+     */
+    public static SegmentManifest forDirectory(File directory) {
+        String key = directory.getAbsolutePath();
+        synchronized (instances) {
+            SegmentManifest manifest = instances.get(key);
+            if (manifest == null) {
+                manifest = read(directory);
+                instances.put(key, manifest);
+            }
+            return manifest;
+        }
+    }
+
+    /**
+     * 从磁盘读取目录的清单，不经过实例缓存
+     */
+    static SegmentManifest read(File directory) {
+        SegmentManifest manifest = new SegmentManifest(directory);
+        manifest.load();
+        return manifest;
+    }
+
+    private SegmentManifest(File directory) {
+        this.directory = directory;
+        this.file = new File(directory, FILE_NAME);
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[16 * 1024];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                content.write(buffer, 0, n);
+            }
+            JSONArray segments = new JSONObject(content.toString("UTF-8")).getJSONArray("segments");
+            for (int i = 0; i < segments.length(); i++) {
+                Entry entry = Entry.fromJson(segments.getJSONObject(i));
+                entries.put(entry.name, entry);
+            }
+            loadedFromDisk = true;
+            Log.i(TAG, "已加载文件清单: " + entries.size() + " 个文件");
+        } catch (IOException | JSONException | IllegalArgumentException e) {
+            Log.e(TAG, "文件清单无法读取，将扫描目录重建", e);
+            entries.clear();
+        }
+    }
+
+    /**
+     * 清单是否从磁盘成功加载；为false时调用方应扫描目录重建
+     */
+    public synchronized boolean isLoadedFromDisk() {
+        return loadedFromDisk;
+    }
+
+    /**
+     * 原子地保存清单：写临时文件、同步到磁盘、重命名替换
+     * @return 是否保存成功
+     */
+    public synchronized boolean save() {
+        JSONArray segments = new JSONArray();
+        for (Entry entry : entries.values()) {
+            segments.put(entry.toJson());
+        }
+        JSONObject json = new JSONObject();
+        try {
+            json.put("version", VERSION);
+            json.put("segments", segments);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+
+        File temp = new File(directory, FILE_NAME + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(json.toString().getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "保存文件清单失败", e);
+            return false;
+        }
+        if (!temp.renameTo(file)) {
+            Log.e(TAG, "替换文件清单失败: " + file.getAbsolutePath());
+            return false;
+        }
+        loadedFromDisk = true;
+        return true;
+    }
+
+    public synchronized Entry get(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * 添加文件，已存在时返回已有的条目
+     */
+    public synchronized Entry add(String name, State state, long createdMs) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            entry = new Entry(name, state, createdMs);
+            entries.put(name, entry);
+        }
+        return entry;
+    }
+
+    public synchronized void setState(String name, State state) {
+        Entry entry = entries.get(name);
+        if (entry != null) {
+            entry.state = state;
+        }
+    }
+    
+    /**
+     * 文件处于expected中的某个状态时改为state
+     * @return 是否修改了状态；文件不在清单中或状态不符时返回false
+     */
+    public synchronized boolean setStateIf(String name, State state, State... expected) {
+        Entry entry = entries.get(name);
+        if (entry == null || !matches(entry, expected)) {
+            return false;
+        }
+        entry.state = state;
+        return true;
+    }
+
+    /**
+     * 更新文件的字节数、记录数和时间范围
+     */
+    public synchronized void updateStats(String name, long bytes, long records, long firstTimestampMs, long lastTimestampMs) {
+        Entry entry = entries.get(name);
+        if (entry != null) {
+            entry.bytes = bytes;
+            entry.records = records;
+            entry.firstTimestampMs = firstTimestampMs;
+            entry.lastTimestampMs = lastTimestampMs;
+        }
+    }
+
+    /**
+     * 把文件标记为已封存并记录最终字节数，不在清单中时添加
+     */
+    public synchronized void seal(String name, long bytes, long createdMs) {
+        Entry entry = add(name, State.SEALED, createdMs);
+        entry.state = State.SEALED;
+        entry.bytes = bytes;
+    }
+
+    public synchronized void setChecksum(String name, long crc32) {
+        Entry entry = entries.get(name);
+        if (entry != null) {
+            entry.crc32 = crc32;
+        }
+    }
+
+    /**
+     * 降采样后更新文件的字节数、记录数和采样比例，原校验和失效
+     */
+    public synchronized void setDownsampled(String name, long bytes, long records, int downsampleFactor) {
+        Entry entry = entries.get(name);
+        if (entry != null) {
+            entry.bytes = bytes;
+            entry.records = records;
+            entry.downsampleFactor = downsampleFactor;
+            entry.crc32 = -1;
+        }
+    }
+
+    public synchronized void setCompacted(String name) {
+        Entry entry = entries.get(name);
+        if (entry != null) {
+            entry.compacted = true;
+        }
+    }
+
+    /**
+     * 用重新压缩后的文件替换一组已封存的文件：确认这些文件仍是已封存状态且大小和采样比例没有变化，
+     * 先在第一个文件的位置插入COMPACTING状态的合并后条目并保存清单，再把临时文件重命名为合并后的文件名，
+     * 最后把合并后的条目改为SEALED、原条目标记为COMPACTED并保存清单。进程在任何一步退出时，
+     * 清单要么不含合并后的文件，要么把它记为COMPACTING(启动时删除)，原文件都仍然有效。
+     * 检查、重命名和保存在清单的锁内完成，与上传、淘汰等状态变化互斥。调用方随后删除原文件。
+     * @param sources 读取时的原文件条目
+     * @param merged 合并后的条目，文件名在清单中不存在
+     * @param temp 已写完并同步到磁盘的临时文件
+     * @return 是否替换；原文件在此期间开始上传、被降采样或删除时返回false，临时文件由调用方删除
+     */
+    public synchronized boolean replaceCompacted(List<Entry> sources, Entry merged, File temp) {
+        if (sources.isEmpty() || entries.containsKey(merged.name)) {
+            return false;
+        }
+        for (Entry source : sources) {
+            Entry current = entries.get(source.name);
+            if (current == null || current.state != State.SEALED || current.bytes != source.bytes ||
+                    current.downsampleFactor != source.downsampleFactor) {
+                return false;
+            }
+        }
+
+        merged.state = State.COMPACTING;
+        String firstName = sources.get(0).name;
+        List<Entry> ordered = new ArrayList<>(entries.values());
+        entries.clear();
+        for (Entry entry : ordered) {
+            if (entry.name.equals(firstName)) {
+                entries.put(merged.name, merged);
+            }
+            entries.put(entry.name, entry);
+        }
+        if (!save() || !temp.renameTo(new File(directory, merged.name))) {
+            Log.e(TAG, "登记或重命名合并后的文件失败: " + temp.getName());
+            entries.remove(merged.name);
+            save();
+            return false;
+        }
+
+        merged.state = State.SEALED;
+        for (Entry source : sources) {
+            entries.get(source.name).state = State.COMPACTED;
+        }
+        save();
+        return true;
+    }
+
+    public synchronized void remove(String name) {
+        entries.remove(name);
+    }
+
+    /**
+     * 指定状态的文件名，按创建顺序(从旧到新)；不指定状态时返回所有文件
+     */
+    public synchronized List<String> getNames(State... states) {
+        List<String> names = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (matches(entry, states)) {
+                names.add(entry.name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * 指定状态的文件条目副本，按创建顺序(从旧到新)
+     */
+    public synchronized List<Entry> getEntries(State... states) {
+        List<Entry> result = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (matches(entry, states)) {
+                Entry copy = new Entry(entry.name, entry.state, entry.createdMs);
+                copy.bytes = entry.bytes;
+                copy.records = entry.records;
+                copy.firstTimestampMs = entry.firstTimestampMs;
+                copy.lastTimestampMs = entry.lastTimestampMs;
+                copy.crc32 = entry.crc32;
+                copy.downsampleFactor = entry.downsampleFactor;
+                copy.compacted = entry.compacted;
+                result.add(copy);
+            }
+        }
+        return result;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private static boolean matches(Entry entry, State[] states) {
+        if (states.length == 0) {
+            return true;
+        }
+        for (State state : states) {
+            if (entry.state == state) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
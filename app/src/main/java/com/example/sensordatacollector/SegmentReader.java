@@ -0,0 +1,339 @@
+package com.example.sensordatacollector;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 二进制数据段的流式读取器，格式见SegmentFormat
+ * 按拉取方式使用：每次next()返回true时，当前条目是一条记录或一行元数据JSON。
+ * 文件末尾的块不完整时(例如写入时进程被杀)视为文件结束，isTruncated()返回true。
+ * 支持版本1的定长记录和版本2的Gorilla记录块，记录块整块读入后逐条解码；
+ * 版本3的文件头指定了压缩编码时，文件头之后的内容经CompressedBlockInputStream按块解压。
+ */
+public class SegmentReader implements Closeable {
+    private InputStream in;
+    private CompressedBlockInputStream blockIn;
+    private final SegmentFormat.Header header;
+
+    private final byte[] scratch = new byte[SegmentFormat.FUSED_RECORD_SIZE];
+
+    // 传感器编码表
+    private final int[] sensorIds = new int[SegmentFormat.MAX_SENSOR_CODES];
+    private final String[] sensorNames = new String[SegmentFormat.MAX_SENSOR_CODES];
+
+    // 上下文编号表，每个条目为 用户ID、前台应用名称、包名
+    private final List<String[]> contexts = new ArrayList<>();
+
+    private long baseWallMs;
+    private long baseEventNanos;
+
+    // 当前记录块
+    private final GorillaCodec.Decoder chunkDecoder = new GorillaCodec.Decoder();
+    private byte[] chunkData = new byte[0];
+
+    private DataRecord currentRecord;
+    private String currentMetadata;
+    private boolean truncated = false;
+
+    /**
+     * 读取并校验文件头
+     * @param in 输入流，应自带缓冲
+     * @throws IOException 不是数据段文件或文件头不完整
+     */
+    public SegmentReader(InputStream in) throws IOException {
+        this.in = in;
+        readFully(scratch, 8);
+        for (int i = 0; i < SegmentFormat.MAGIC.length; i++) {
+            if (scratch[i] != SegmentFormat.MAGIC[i]) {
+                throw new IOException("不是二进制数据段文件");
+            }
+        }
+        int version = scratch[4] & 0xFF;
+        if (version > SegmentFormat.VERSION) {
+            throw new IOException("不支持的数据段版本: " + version);
+        }
+        int recordEncoding = scratch[5] & 0xFF;
+        int compression = scratch[6] & 0xFF;
+        CompressionCodec codec = CompressionCodec.forId(compression);
+        if (codec == null) {
+            throw new IOException("不支持的压缩编码: " + compression);
+        }
+
+        long createdMs = readLong();
+        String userId = readString();
+        String deviceInfo = readString();
+        int count = readUnsignedShort();
+        List<SegmentFormat.SensorEntry> sensors = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int code = readUnsignedByte();
+            int sensorId = readInt();
+            String name = readString();
+            sensorIds[code] = sensorId;
+            sensorNames[code] = name;
+            sensors.add(new SegmentFormat.SensorEntry(code, sensorId, name));
+        }
+        this.header = new SegmentFormat.Header(createdMs, userId, deviceInfo, sensors, recordEncoding, compression);
+        if (codec != CompressionCodec.NONE) {
+            blockIn = new CompressedBlockInputStream(in, codec);
+            this.in = blockIn;
+        }
+    }
+
+    public SegmentFormat.Header getHeader() {
+        return header;
+    }
+
+    /**
+     * 读取下一条记录或元数据
+     * @return 到达文件末尾时返回false
+     */
+    public boolean next() throws IOException {
+        currentRecord = null;
+        currentMetadata = null;
+        try {
+            if (chunkDecoder.hasNext()) {
+                chunkDecoder.next();
+                currentRecord = decodeChunkRecord();
+                return true;
+            }
+            while (true) {
+                int tag = in.read();
+                if (tag < 0) {
+                    return false;
+                }
+                switch (tag) {
+                    case SegmentFormat.TAG_SENSOR_RECORD:
+                        readFully(scratch, SegmentFormat.SENSOR_RECORD_SIZE - 1);
+                        currentRecord = decodeRecord(false);
+                        return true;
+                    case SegmentFormat.TAG_FUSED_RECORD:
+                        readFully(scratch, SegmentFormat.FUSED_RECORD_SIZE - 1);
+                        currentRecord = decodeRecord(true);
+                        return true;
+                    case SegmentFormat.TAG_RECORD_CHUNK: {
+                        int count = readUnsignedShort();
+                        int length = readInt();
+                        if (length < 0) {
+                            throw new IOException("记录块长度无效: " + length);
+                        }
+                        if (chunkData.length < length) {
+                            chunkData = new byte[length];
+                        }
+                        readFully(chunkData, length);
+                        chunkDecoder.reset(chunkData, length, count);
+                        if (chunkDecoder.hasNext()) {
+                            chunkDecoder.next();
+                            currentRecord = decodeChunkRecord();
+                            return true;
+                        }
+                        break;
+                    }
+                    case SegmentFormat.TAG_TIME_BASE:
+                        baseWallMs = readLong();
+                        baseEventNanos = readLong();
+                        break;
+                    case SegmentFormat.TAG_SENSOR_DEFINITION: {
+                        int code = readUnsignedByte();
+                        int sensorId = readInt();
+                        String name = readString();
+                        sensorIds[code] = sensorId;
+                        sensorNames[code] = name;
+                        break;
+                    }
+                    case SegmentFormat.TAG_CONTEXT_DEFINITION: {
+                        int ref = readUnsignedShort();
+                        String[] context = { readString(), readString(), readString() };
+                        while (contexts.size() <= ref) {
+                            contexts.add(null);
+                        }
+                        contexts.set(ref, context);
+                        break;
+                    }
+                    case SegmentFormat.TAG_METADATA: {
+                        int length = readInt();
+                        if (length < 0) {
+                            throw new IOException("元数据长度无效: " + length);
+                        }
+                        byte[] data = new byte[length];
+                        readFully(data, length);
+                        currentMetadata = new String(data, StandardCharsets.UTF_8);
+                        return true;
+                    }
+                    default:
+                        throw new IOException("未知的块类型: " + tag);
+                }
+            }
+        } catch (EOFException e) {
+            truncated = true;
+            currentRecord = null;
+            currentMetadata = null;
+            chunkDecoder.reset(chunkData, 0, 0);
+            return false;
+        }
+    }
+
+    /**
+     * 当前条目是否为元数据
+     */
+    public boolean isMetadata() {
+        return currentMetadata != null;
+    }
+
+    /**
+     * 当前记录，当前条目为元数据时返回null
+     */
+    public DataRecord getRecord() {
+        return currentRecord;
+    }
+
+    /**
+     * 当前元数据JSON，当前条目为记录时返回null
+     */
+    public String getMetadataJson() {
+        return currentMetadata;
+    }
+
+    public boolean isTruncated() {
+        return truncated || (blockIn != null && blockIn.isTruncated());
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * 解码scratch中的定长记录(不含标记字节)
+     */
+    private DataRecord decodeRecord(boolean fused) {
+        int sensorCode = scratch[0] & 0xFF;
+        int accuracy = scratch[1];
+        int flags = scratch[2] & 0xFF;
+        int contextRef = getShort(3) & 0xFFFF;
+        short wallDelta = getShort(5);
+        int eventDelta = getInt(7);
+
+        long timestampMs = baseWallMs + wallDelta;
+        baseWallMs = timestampMs;
+        long eventTimeNanos = 0;
+        if ((flags & SegmentFormat.FLAG_NO_EVENT_TIME) == 0) {
+            eventTimeNanos = baseEventNanos + eventDelta;
+            baseEventNanos = eventTimeNanos;
+        }
+
+        String[] context = contextRef < contexts.size() ? contexts.get(contextRef) : null;
+        String userId = context != null ? context[0] : null;
+        String appName = context != null ? context[1] : null;
+        String packageName = context != null ? context[2] : null;
+
+        if (fused) {
+            FusedDataRecord record = new FusedDataRecord(timestampMs, eventTimeNanos, accuracy, appName, packageName, userId);
+            record.accX = getFloat(11);
+            record.accY = getFloat(15);
+            record.accZ = getFloat(19);
+            record.gyroX = getFloat(23);
+            record.gyroY = getFloat(27);
+            record.gyroZ = getFloat(31);
+            record.magX = getFloat(35);
+            record.magY = getFloat(39);
+            record.magZ = getFloat(43);
+            return record;
+        }
+        return new DataRecord(timestampMs, eventTimeNanos, sensorIds[sensorCode], sensorNames[sensorCode],
+                getFloat(11), getFloat(15), getFloat(19), accuracy, appName, packageName, userId);
+    }
+
+    /**
+     * 由记录块解码器的当前记录构造记录
+     */
+    private DataRecord decodeChunkRecord() {
+        int contextRef = chunkDecoder.getContextRef();
+        String[] context = contextRef < contexts.size() ? contexts.get(contextRef) : null;
+        String userId = context != null ? context[0] : null;
+        String appName = context != null ? context[1] : null;
+        String packageName = context != null ? context[2] : null;
+        long timestampMs = chunkDecoder.getTimestampMs();
+        long eventTimeNanos = chunkDecoder.getEventTimeNanos();
+        int accuracy = chunkDecoder.getAccuracy();
+
+        if (chunkDecoder.isFused()) {
+            FusedDataRecord record = new FusedDataRecord(timestampMs, eventTimeNanos, accuracy, appName, packageName, userId);
+            record.accX = chunkDecoder.getValue(0);
+            record.accY = chunkDecoder.getValue(1);
+            record.accZ = chunkDecoder.getValue(2);
+            record.gyroX = chunkDecoder.getValue(3);
+            record.gyroY = chunkDecoder.getValue(4);
+            record.gyroZ = chunkDecoder.getValue(5);
+            record.magX = chunkDecoder.getValue(6);
+            record.magY = chunkDecoder.getValue(7);
+            record.magZ = chunkDecoder.getValue(8);
+            return record;
+        }
+        int sensorCode = chunkDecoder.getSensorCode();
+        return new DataRecord(timestampMs, eventTimeNanos, sensorIds[sensorCode], sensorNames[sensorCode],
+                chunkDecoder.getValue(0), chunkDecoder.getValue(1), chunkDecoder.getValue(2),
+                accuracy, appName, packageName, userId);
+    }
+
+    private void readFully(byte[] target, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int n = in.read(target, offset, length - offset);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            offset += n;
+        }
+    }
+
+    private int readUnsignedByte() throws IOException {
+        int value = in.read();
+        if (value < 0) {
+            throw new EOFException();
+        }
+        return value;
+    }
+
+    private int readUnsignedShort() throws IOException {
+        readFully(scratch, 2);
+        return getShort(0) & 0xFFFF;
+    }
+
+    private int readInt() throws IOException {
+        readFully(scratch, 4);
+        return getInt(0);
+    }
+
+    private long readLong() throws IOException {
+        readFully(scratch, 8);
+        return (getInt(0) & 0xFFFFFFFFL) | ((long) getInt(4) << 32);
+    }
+
+    private String readString() throws IOException {
+        int length = readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] data = new byte[length];
+        readFully(data, length);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    private short getShort(int offset) {
+        return (short) ((scratch[offset] & 0xFF) | (scratch[offset + 1] << 8));
+    }
+
+    private int getInt(int offset) {
+        return (scratch[offset] & 0xFF) | ((scratch[offset + 1] & 0xFF) << 8) |
+               ((scratch[offset + 2] & 0xFF) << 16) | (scratch[offset + 3] << 24);
+    }
+
+    private float getFloat(int offset) {
+        return Float.intBitsToFloat(getInt(offset));
+    }
+}
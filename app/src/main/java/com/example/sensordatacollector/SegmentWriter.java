@@ -0,0 +1,413 @@
+package com.example.sensordatacollector;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 二进制数据段的流式写入器，格式见SegmentFormat
+ * 每次写入先在内部缓冲区中编码完整的块，再一次性写入输出流，输出流应自带缓冲。
+ * 传感器编码和上下文编号在首次出现时以定义块写入，之后的记录只写编号。
+ * 使用Gorilla记录编码时记录先攒在当前记录块中，块满、写入元数据或flush()时才写出，
+ * 因此需要落盘时应调用本类的flush()而不是直接刷新输出流。
+ * 文件头指定了压缩编码时，文件头之后的内容经CompressedBlockOutputStream按块压缩，flush()同时结束当前压缩块。
+ * 写入方法返回的字节数都是压缩前的字节数。
+ * 实例不是线程安全的。
+ */
+public class SegmentWriter implements Closeable {
+    private OutputStream out;
+
+    private byte[] buffer = new byte[256];
+    private int length = 0;
+
+    // 传感器编码表，按编码下标
+    private final int[] sensorIds = new int[SegmentFormat.MAX_SENSOR_CODES];
+    private final String[] sensorNames = new String[SegmentFormat.MAX_SENSOR_CODES];
+    private int sensorCodeCount = 0;
+    private int lastSensorCode = -1;
+
+    // 上下文编号表，上一条记录的上下文直接复用，只有变化时才查表
+    private final Map<String, Integer> contextRefs = new HashMap<>();
+    private String lastUserId;
+    private String lastAppName;
+    private String lastPackageName;
+    private int lastContextRef = -1;
+
+    // 时间增量的基准，即上一条记录的时间
+    private boolean hasTimeBase = false;
+    private long baseWallMs;
+    private long baseEventNanos;
+
+    private long recordsWritten = 0;
+    private long bytesWritten = 0;
+
+    // Gorilla记录编码时的当前记录块，定长编码时为null
+    private final GorillaCodec.Encoder chunkEncoder;
+    // 当前记录块已经在write()返回值中计入的字节数，以及已写出的块中需要扣除的部分
+    private int reportedChunkBytes = 0;
+    private int reportedEmittedBytes = 0;
+
+    /**
+     * @param out 输出流
+     * @param header 文件头，其中的传感器条目作为初始编码表
+     * @param writeHeader 是否写入文件头；向已有文件追加时为false，此时编码表从空开始，重新定义的编码覆盖之前的
+     * @throws IOException 写入失败，或文件头中的压缩编码未知
+     */
+    public SegmentWriter(OutputStream out, SegmentFormat.Header header, boolean writeHeader) throws IOException {
+        this.out = out;
+        this.chunkEncoder = header.recordEncoding == SegmentFormat.RECORD_ENCODING_GORILLA ?
+                new GorillaCodec.Encoder() : null;
+        CompressionCodec codec = CompressionCodec.forId(header.compression);
+        if (codec == null) {
+            throw new IOException("未知的压缩编码: " + header.compression);
+        }
+        if (writeHeader) {
+            writeHeader(header);
+        }
+        if (codec != CompressionCodec.NONE) {
+            this.out = new CompressedBlockOutputStream(out, codec, CompressedBlockOutputStream.DEFAULT_BLOCK_SIZE);
+        }
+    }
+
+    private void writeHeader(SegmentFormat.Header header) throws IOException {
+        for (byte b : SegmentFormat.MAGIC) {
+            putByte(b);
+        }
+        putByte(SegmentFormat.VERSION);
+        putByte(header.recordEncoding);
+        putByte(header.compression);
+        putByte(0);
+        putLong(header.createdMs);
+        putString(header.userId);
+        putString(header.deviceInfo);
+
+        int count = Math.min(header.sensors.size(), SegmentFormat.MAX_SENSOR_CODES);
+        putShort(count);
+        for (int i = 0; i < count; i++) {
+            SegmentFormat.SensorEntry entry = header.sensors.get(i);
+            putByte(i);
+            putInt(entry.sensorId);
+            putString(entry.name);
+            sensorIds[i] = entry.sensorId;
+            sensorNames[i] = entry.name;
+        }
+        sensorCodeCount = count;
+        flushBuffer();
+    }
+
+    /**
+     * 写入一条记录
+     * 传感器记录和融合记录使用定长格式或写入当前记录块，其他类型的记录以元数据JSON写入
+     * @return 写入的字节数，包括新增的定义块和时间基准；使用记录块时为当前块增加的字节数
+     */
+    public int write(DataRecord record) throws IOException {
+        boolean fused = record instanceof FusedDataRecord;
+        if (!fused && !"sensor".equals(record.type)) {
+            return writeMetadata(record.toJson().toString());
+        }
+
+        int contextRef = contextRefFor(record.userId, record.foregroundAppName, record.foregroundPackageName);
+        if (!fused) {
+            return writeSensor(sensorCodeFor(record.sensorId, record.sensorName), contextRef, record.timestampMs,
+                    record.eventTimeNanos, record.sensorAccuracy, record.sensorX, record.sensorY, record.sensorZ);
+        }
+
+        if (chunkEncoder != null) {
+            chunkEncoder.encode(record, 0, contextRef);
+            return endRecord();
+        }
+        putRecordHeader(SegmentFormat.TAG_FUSED_RECORD, 0, contextRef, record.timestampMs, record.eventTimeNanos,
+                record.sensorAccuracy);
+        FusedDataRecord fusedRecord = (FusedDataRecord) record;
+        putFloat(fusedRecord.accX);
+        putFloat(fusedRecord.accY);
+        putFloat(fusedRecord.accZ);
+        putFloat(fusedRecord.gyroX);
+        putFloat(fusedRecord.gyroY);
+        putFloat(fusedRecord.gyroZ);
+        putFloat(fusedRecord.magX);
+        putFloat(fusedRecord.magY);
+        putFloat(fusedRecord.magZ);
+        return endRecord();
+    }
+
+    /**
+     * 写入批次中的第i个传感器样本，直接读取批次的列，不创建DataRecord；编码结果与write(batch.toRecord(i))相同
+     * @return 写入的字节数，含义同write(DataRecord)
+     */
+    public int write(SensorBatch batch, int i) throws IOException {
+        int contextRef = contextRefFor(batch.getUserId(), batch.getForegroundAppName(), batch.getForegroundPackageName());
+        return writeSensor(sensorCodeFor(batch.getSensorId(i), batch.getSensorName(i)), contextRef,
+                batch.getTimestampMs(i), batch.getEventTimeNanos(i), batch.getAccuracy(i),
+                batch.getX(i), batch.getY(i), batch.getZ(i));
+    }
+
+    private int writeSensor(int sensorCode, int contextRef, long timestampMs, long eventTimeNanos, int accuracy,
+                            float x, float y, float z) throws IOException {
+        if (chunkEncoder != null) {
+            chunkEncoder.encodeSensor(sensorCode, contextRef, timestampMs, eventTimeNanos, accuracy, x, y, z);
+            return endRecord();
+        }
+        putRecordHeader(SegmentFormat.TAG_SENSOR_RECORD, sensorCode, contextRef, timestampMs, eventTimeNanos, accuracy);
+        putFloat(x);
+        putFloat(y);
+        putFloat(z);
+        return endRecord();
+    }
+
+    /**
+     * 定长格式的记录头，时间增量超出范围时先写入新的时间基准
+     */
+    private void putRecordHeader(int tag, int sensorCode, int contextRef, long timestampMs, long eventTimeNanos,
+                                 int accuracy) {
+        boolean hasEventTime = eventTimeNanos != 0;
+        long wallDelta = timestampMs - baseWallMs;
+        long eventDelta = hasEventTime ? eventTimeNanos - baseEventNanos : 0;
+        if (!hasTimeBase || wallDelta != (short) wallDelta || eventDelta != (int) eventDelta) {
+            putByte(SegmentFormat.TAG_TIME_BASE);
+            putLong(timestampMs);
+            putLong(eventTimeNanos);
+            hasTimeBase = true;
+            baseEventNanos = eventTimeNanos;
+            wallDelta = 0;
+            eventDelta = 0;
+        }
+        baseWallMs = timestampMs;
+        if (hasEventTime) {
+            baseEventNanos = eventTimeNanos;
+        }
+
+        putByte(tag);
+        putByte(sensorCode);
+        putByte(Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, accuracy)));
+        putByte(hasEventTime ? 0 : SegmentFormat.FLAG_NO_EVENT_TIME);
+        putShort(contextRef);
+        putShort((int) wallDelta);
+        putInt((int) eventDelta);
+    }
+
+    /**
+     * 记录计数；使用记录块时块满则写入内部缓冲区
+     * @return 本条记录写入的字节数
+     */
+    private int endRecord() throws IOException {
+        recordsWritten++;
+        if (chunkEncoder != null && chunkEncoder.getRecordCount() >= SegmentFormat.MAX_CHUNK_RECORDS) {
+            putChunk();
+        }
+        return flushBuffer();
+    }
+
+    /**
+     * 写入一行元数据JSON，例如clock_sync
+     * @return 写入的字节数
+     */
+    public int writeMetadata(String json) throws IOException {
+        // 先写出之前的记录，保持记录和元数据的顺序
+        putChunk();
+        byte[] data = json.getBytes(StandardCharsets.UTF_8);
+        putByte(SegmentFormat.TAG_METADATA);
+        putInt(data.length);
+        putBytes(data);
+        return flushBuffer();
+    }
+
+    /**
+     * 当前编码表中的传感器，可用于下一个文件的文件头
+     */
+    public List<SegmentFormat.SensorEntry> getSensorEntries() {
+        List<SegmentFormat.SensorEntry> entries = new ArrayList<>(sensorCodeCount);
+        for (int i = 0; i < sensorCodeCount; i++) {
+            entries.add(new SegmentFormat.SensorEntry(i, sensorIds[i], sensorNames[i]));
+        }
+        return entries;
+    }
+
+    public long getRecordsWritten() {
+        return recordsWritten;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * 写出当前记录块并刷新输出流，使用压缩编码时同时结束当前压缩块
+     */
+    public void flush() throws IOException {
+        putChunk();
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        putChunk();
+        flushBuffer();
+        out.close();
+    }
+
+    /**
+     * 把当前记录块写入内部缓冲区，没有记录时不做任何事
+     */
+    private void putChunk() {
+        if (chunkEncoder == null || chunkEncoder.getRecordCount() == 0) {
+            return;
+        }
+        int length = chunkEncoder.getByteLength();
+        putByte(SegmentFormat.TAG_RECORD_CHUNK);
+        putShort(chunkEncoder.getRecordCount());
+        putInt(length);
+        ensureCapacity(length);
+        System.arraycopy(chunkEncoder.getBuffer(), 0, buffer, this.length, length);
+        this.length += length;
+        chunkEncoder.reset();
+        reportedEmittedBytes += reportedChunkBytes;
+        reportedChunkBytes = 0;
+    }
+
+    /**
+     * 查找传感器编码，未定义时分配编码并写入定义块；编码用完后清空编码表重新分配
+     */
+    private int sensorCodeFor(int sensorId, String name) {
+        if (lastSensorCode >= 0 && sensorIds[lastSensorCode] == sensorId &&
+                Objects.equals(sensorNames[lastSensorCode], name)) {
+            return lastSensorCode;
+        }
+        for (int code = 0; code < sensorCodeCount; code++) {
+            if (sensorIds[code] == sensorId && Objects.equals(sensorNames[code], name)) {
+                lastSensorCode = code;
+                return code;
+            }
+        }
+
+        if (sensorCodeCount == SegmentFormat.MAX_SENSOR_CODES) {
+            // 重新分配编码前先写出引用旧编码的记录
+            putChunk();
+            sensorCodeCount = 0;
+        }
+        int code = sensorCodeCount++;
+        sensorIds[code] = sensorId;
+        sensorNames[code] = name;
+        putByte(SegmentFormat.TAG_SENSOR_DEFINITION);
+        putByte(code);
+        putInt(sensorId);
+        putString(name);
+        lastSensorCode = code;
+        return code;
+    }
+
+    /**
+     * 查找上下文编号，未定义时分配编号并写入定义块；编号用完后清空重新分配
+     */
+    private int contextRefFor(String userId, String appName, String packageName) {
+        if (lastContextRef >= 0 && Objects.equals(userId, lastUserId) &&
+                Objects.equals(appName, lastAppName) && Objects.equals(packageName, lastPackageName)) {
+            return lastContextRef;
+        }
+
+        String key = userId + '\u0000' + (userId == null ? 0 : 1) + appName + '\u0000' + (appName == null ? 0 : 1) +
+                     packageName + '\u0000' + (packageName == null ? 0 : 1);
+        Integer ref = contextRefs.get(key);
+        if (ref == null) {
+            if (contextRefs.size() == SegmentFormat.MAX_CONTEXTS) {
+                putChunk();
+                contextRefs.clear();
+            }
+            ref = contextRefs.size();
+            contextRefs.put(key, ref);
+            putByte(SegmentFormat.TAG_CONTEXT_DEFINITION);
+            putShort(ref);
+            putString(userId);
+            putString(appName);
+            putString(packageName);
+        }
+
+        lastUserId = userId;
+        lastAppName = appName;
+        lastPackageName = packageName;
+        lastContextRef = ref;
+        return ref;
+    }
+
+    /**
+     * 把内部缓冲区写入输出流
+     * @return 新增的字节数：写出的字节数加上当前记录块的增长，已经计入过的记录块字节不重复计算
+     */
+    private int flushBuffer() throws IOException {
+        int written = length;
+        if (length > 0) {
+            out.write(buffer, 0, length);
+            length = 0;
+            bytesWritten += written;
+        }
+        int added = written - reportedEmittedBytes;
+        reportedEmittedBytes = 0;
+        if (chunkEncoder != null) {
+            int chunkBytes = chunkEncoder.getRecordCount() > 0 ?
+                    SegmentFormat.CHUNK_HEADER_SIZE + chunkEncoder.getByteLength() : 0;
+            added += chunkBytes - reportedChunkBytes;
+            reportedChunkBytes = chunkBytes;
+        }
+        return added;
+    }
+
+    private void ensureCapacity(int extra) {
+        int required = length + extra;
+        if (required > buffer.length) {
+            byte[] grown = new byte[Math.max(required, buffer.length * 2)];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        }
+    }
+
+    private void putByte(int value) {
+        ensureCapacity(1);
+        buffer[length++] = (byte) value;
+    }
+
+    private void putShort(int value) {
+        ensureCapacity(2);
+        buffer[length++] = (byte) value;
+        buffer[length++] = (byte) (value >> 8);
+    }
+
+    private void putInt(int value) {
+        ensureCapacity(4);
+        buffer[length++] = (byte) value;
+        buffer[length++] = (byte) (value >> 8);
+        buffer[length++] = (byte) (value >> 16);
+        buffer[length++] = (byte) (value >> 24);
+    }
+
+    private void putLong(long value) {
+        putInt((int) value);
+        putInt((int) (value >> 32));
+    }
+
+    private void putFloat(float value) {
+        putInt(Float.floatToRawIntBits(value));
+    }
+
+    private void putBytes(byte[] data) {
+        ensureCapacity(data.length);
+        System.arraycopy(data, 0, buffer, length, data.length);
+        length += data.length;
+    }
+
+    private void putString(String value) {
+        if (value == null) {
+            putInt(-1);
+            return;
+        }
+        byte[] data = value.getBytes(StandardCharsets.UTF_8);
+        putInt(data.length);
+        putBytes(data);
+    }
+}
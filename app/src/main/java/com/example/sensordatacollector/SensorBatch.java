@@ -0,0 +1,161 @@
+package com.example.sensordatacollector;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按列存储的传感器样本批次
+ * 时间戳、传感器ID和x/y/z/精度分别保存在并行的原始类型数组中，用户ID和前台应用信息每批只保存一份。
+ * 一批样本在流水线中作为一个对象传递，避免每个样本创建一个DataRecord。
+ * 批次交给下游后不应再修改。
+ */
+public class SensorBatch {
+    // 批次大小范围，过小时对象开销占比高，过大时单批延迟和队列内存增加
+    public static final int MIN_CAPACITY = 64;
+    public static final int MAX_CAPACITY = 1024;
+
+    private final int capacity;
+    private int size = 0;
+
+    private final long[] timestampsMs;
+    private final long[] eventTimeNanos;
+    private final int[] sensorIds;
+    private final String[] sensorNames; // 引用注册表中的名称，不额外分配
+    private final float[] valuesX;
+    private final float[] valuesY;
+    private final float[] valuesZ;
+    private final int[] accuracies;
+
+    // 整批共用的信息
+    private final String userId;
+    private final String foregroundAppName;
+    private final String foregroundPackageName;
+
+    /**
+     * @param capacity 批次容量，会限制在MIN_CAPACITY到MAX_CAPACITY之间
+     */
+    public SensorBatch(int capacity, String userId, String foregroundAppName, String foregroundPackageName) {
+        this.capacity = Math.max(MIN_CAPACITY, Math.min(MAX_CAPACITY, capacity));
+        this.timestampsMs = new long[this.capacity];
+        this.eventTimeNanos = new long[this.capacity];
+        this.sensorIds = new int[this.capacity];
+        this.sensorNames = new String[this.capacity];
+        this.valuesX = new float[this.capacity];
+        this.valuesY = new float[this.capacity];
+        this.valuesZ = new float[this.capacity];
+        this.accuracies = new int[this.capacity];
+        this.userId = userId;
+        this.foregroundAppName = foregroundAppName;
+        this.foregroundPackageName = foregroundPackageName;
+    }
+
+    /**
+     * 追加一个样本
+     * @return 批次已满时返回false，样本未加入
+     */
+    public boolean add(long timestampMs, long eventTimeNanos, int sensorId, String sensorName,
+                       float x, float y, float z, int accuracy) {
+        if (size == capacity) {
+            return false;
+        }
+        int i = size;
+        this.timestampsMs[i] = timestampMs;
+        this.eventTimeNanos[i] = eventTimeNanos;
+        this.sensorIds[i] = sensorId;
+        this.sensorNames[i] = sensorName;
+        this.valuesX[i] = x;
+        this.valuesY[i] = y;
+        this.valuesZ[i] = z;
+        this.accuracies[i] = accuracy;
+        size++;
+        return true;
+    }
+
+    /**
+     * 追加一条数据记录的样本值，记录中的用户和前台应用信息以批次为准
+     */
+    public boolean add(DataRecord record) {
+        return add(record.timestampMs, record.eventTimeNanos, record.sensorId, record.sensorName,
+                record.sensorX, record.sensorY, record.sensorZ, record.sensorAccuracy);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    public long getTimestampMs(int i) {
+        return timestampsMs[i];
+    }
+
+    public long getEventTimeNanos(int i) {
+        return eventTimeNanos[i];
+    }
+
+    public int getSensorId(int i) {
+        return sensorIds[i];
+    }
+
+    public String getSensorName(int i) {
+        return sensorNames[i];
+    }
+
+    public float getX(int i) {
+        return valuesX[i];
+    }
+
+    public float getY(int i) {
+        return valuesY[i];
+    }
+
+    public float getZ(int i) {
+        return valuesZ[i];
+    }
+
+    public int getAccuracy(int i) {
+        return accuracies[i];
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getForegroundAppName() {
+        return foregroundAppName;
+    }
+
+    public String getForegroundPackageName() {
+        return foregroundPackageName;
+    }
+
+    /**
+     * 把第i个样本转换为DataRecord，供只处理单条记录的监听器使用
+     */
+    public DataRecord toRecord(int i) {
+        return new DataRecord(timestampsMs[i], eventTimeNanos[i], sensorIds[i], sensorNames[i],
+                valuesX[i], valuesY[i], valuesZ[i], accuracies[i],
+                foregroundAppName, foregroundPackageName, userId);
+    }
+
+    /**
+     * 把整批样本转换为DataRecord列表
+     */
+    public List<DataRecord> toRecords() {
+        List<DataRecord> records = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            records.add(toRecord(i));
+        }
+        return records;
+    }
+}
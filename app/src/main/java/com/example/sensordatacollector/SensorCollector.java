@@ -5,30 +5,55 @@ import android.content.Context;
 import android.content.res.Configuration;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
+import android.hardware.SensorEventListener2;
 import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
-public class SensorCollector implements SensorEventListener, ComponentCallbacks2 {
+public class SensorCollector implements SensorEventListener2, ComponentCallbacks2 {
 
     private static final String TAG = "SensorCollector";
     private SensorManager sensorManager;
-    private Sensor accelerometer, gyroscope, magnetometer;
+    
+    // 传感器注册表，决定采集哪些传感器以及各自的采样周期
+    private final SensorRegistry sensorRegistry = SensorRegistry.createDefault();
+    
+    // 静止时降低后的采样周期(微秒)，0表示按正常采样率采集
+    private volatile int idlePeriodUs = 0;
+    
+    // 按传感器ID缓存已获取的硬件传感器
+    private final Map<Integer, Sensor> sensorsById = new ConcurrentHashMap<>();
     private volatile java.lang.ref.WeakReference<Context> contextRef; // 使用WeakReference避免内存泄漏
     private ForegroundAppManager foregroundAppManager;
 
     private DataCollectionListener dataCollectionListener;
-    private ExecutorService executorService;
+    
+    // 传感器样本环形缓冲区，回调线程写入，处理线程读取
+    private final SensorSampleRing sampleRing = new SensorSampleRing(RING_CAPACITY);
+    private volatile Thread consumerThread;
+    private volatile boolean consumerParked = false;
+    
+    // 复用的样本处理回调，避免每个事件分配lambda
+    private final SensorSampleRing.SampleHandler sampleHandler = this::handleSensorEventData;
+    
+    // 正在填充的样本批次，只在处理线程中访问；前台应用信息每批只查询一次
+    private SensorBatch currentBatch;
+    private long currentBatchStartNanos;
+    private static final ForegroundAppManager.ForegroundAppInfo UNKNOWN_APP_INFO =
+            new ForegroundAppManager.ForegroundAppInfo("未知应用", "");
     
     // 时间戳管理器
     private TimestampManager timestampManager;
@@ -36,30 +61,60 @@ public class SensorCollector implements SensorEventListener, ComponentCallbacks2
     // 添加活跃传感器列表
     private final List<Sensor> activeSensors = new ArrayList<>();
     
-    // 线程池状态监控
-    private final AtomicBoolean isExecutorRunning = new AtomicBoolean(false);
+    // 处理线程状态监控
+    private final AtomicBoolean isConsumerRunning = new AtomicBoolean(false);
     
     // 默认传感器延迟(微秒) - 使用volatile确保线程安全
     private volatile int currentDelayMicros = SensorManager.SENSOR_DELAY_NORMAL;
     private volatile int samplingRateMs = 10; // 默认采样率，与currentDelayMicros保持一致
     private final AtomicBoolean isListening = new AtomicBoolean(false);
     
-    // 用于监控传感器事件频率的变量
-    private volatile long lastSensorEventTime = 0;
-    private volatile int sensorEventCount = 0;
+    // 硬件FIFO批处理的最大上报延迟(微秒)，0表示不批处理，每个样本单独上报
+    private volatile int maxReportLatencyUs = 0;
+    
+    // 等待flush完成的闭锁，由onFlushCompleted倒数
+    private volatile CountDownLatch pendingFlushLatch;
+    
+    // 是否在独立的高优先级线程上接收传感器回调，避免与主线程的UI更新和对话框竞争
+    private volatile boolean useDedicatedCallbackThread = true;
+    private HandlerThread callbackThread;
+    private volatile Handler callbackHandler;
+    
+    // 回调延迟统计（事件时间戳到onSensorChanged执行的时间差，纳秒），只在回调线程中写入
+    private volatile long callbackLatencyTotalNs = 0;
+    private volatile long callbackLatencyMaxNs = 0;
+    private volatile long callbackLatencyCount = 0;
+    
+    // 环形缓冲区阶段的计数器；回调线程不能阻塞，单生产者也不能挤掉旧样本，因此缓冲区满时总是丢弃新样本
+    private final PipelineStageStats ringStats = new PipelineStageStats("sensor_ring");
     
-    // 用于统计实际采样间隔的变量
-    private volatile long totalInterval = 0;
-    private volatile int intervalCount = 0;
+    // 按传感器ID索引的频率监控，注册传感器时创建，写时复制
+    private volatile SensorRateMonitor[] rateMonitors = new SensorRateMonitor[0];
+    private final Object rateMonitorLock = new Object();
     
-    // 线程池配置参数 - 优化减少线程数量
-    private static final int CORE_POOL_SIZE = 1;
-    private static final int MAX_POOL_SIZE = 1; // 传感器只需要单线程处理
-    private static final int KEEP_ALIVE_TIME = 10; // 减少保活时间
-    private static final int QUEUE_CAPACITY = 100; // 减少队列容量
+    // 回调线程收到的事件总数，用于定期输出频率统计
+    private long sensorEventCount = 0;
+    private static final int RATE_LOG_INTERVAL_EVENTS = 1000;
+    
+    // 环形缓冲区参数：3个传感器200Hz下可缓冲约6.8秒数据
+    private static final int RING_CAPACITY = 4096;
+    private static final int BATCH_CAPACITY = 256; // 每个SensorBatch最多包含的样本数
+    private static final long BATCH_MAX_AGE_NANOS = 100_000_000L; // 批次未满时最长攒100ms后交付，限制显示和写入延迟
+    
+    // 停止监听前等待FIFO清空的最长时间
+    private static final long FLUSH_TIMEOUT_MS = 500;
 
     public interface DataCollectionListener {
         void onDataCollected(DataRecord dataRecord);
+        
+        /**
+         * 一次收到一批样本，默认逐条转换为DataRecord处理
+         */
+        default void onBatchCollected(SensorBatch batch) {
+            for (int i = 0; i < batch.size(); i++) {
+                onDataCollected(batch.toRecord(i));
+            }
+        }
     }
 
     public SensorCollector(Context context, DataCollectionListener listener) {
@@ -70,26 +125,13 @@ public class SensorCollector implements SensorEventListener, ComponentCallbacks2
         // 初始化时间戳管理器
         this.timestampManager = TimestampManager.getInstance();
         
-        // 使用更健壮的线程池代替简单的单线程执行器
-        createExecutor();
+        // 启动样本处理线程
+        startConsumer();
         
         this.foregroundAppManager = ForegroundAppManager.getInstance(context);
         
         if (sensorManager != null) {
-            try {
-                accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-                gyroscope = sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
-                magnetometer = sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
-                
-                if (accelerometer == null || gyroscope == null || magnetometer == null) {
-                    Log.w(TAG, "部分传感器不可用！" + 
-                          (accelerometer == null ? " 加速度计缺失" : "") +
-                          (gyroscope == null ? " 陀螺仪缺失" : "") +
-                          (magnetometer == null ? " 磁力计缺失" : ""));
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "获取传感器时出错", e);
-            }
+            resolveSensors();
         } else {
             Log.e(TAG, "无法获取SensorManager服务");
         }
@@ -103,49 +145,214 @@ public class SensorCollector implements SensorEventListener, ComponentCallbacks2
     }
     
     /**
-     * 创建或重建执行器
+     * 获取注册表中所有启用的传感器对应的硬件传感器
      */
-    private synchronized void createExecutor() {
-        // 如果已存在执行器，先关闭
-        if (executorService != null && !executorService.isShutdown()) {
+    private void resolveSensors() {
+        StringBuilder missing = new StringBuilder();
+        
+        for (SensorRegistry.SensorSpec spec : sensorRegistry.getSpecs()) {
+            if (!spec.isEnabled() || sensorsById.containsKey(spec.getSensorId())) {
+                continue;
+            }
+            
             try {
-                executorService.shutdown();
-                // 等待一小段时间让当前任务完成
-                if (!executorService.awaitTermination(100, TimeUnit.MILLISECONDS)) {
-                    executorService.shutdownNow(); // 如果超时则强制关闭
-                    Log.w(TAG, "旧的传感器执行器被强制关闭");
+                Sensor sensor = sensorManager.getDefaultSensor(spec.getSensorType());
+                if (sensor != null) {
+                    sensorsById.put(spec.getSensorId(), sensor);
+                } else {
+                    missing.append(' ').append(spec.getName());
                 }
-            } catch (InterruptedException e) {
-                if (executorService != null) { // 添加null检查
-                    executorService.shutdownNow();
-                }
-                Thread.currentThread().interrupt();
-                Log.w(TAG, "关闭旧的传感器执行器时被中断", e);
             } catch (Exception e) {
-                Log.w(TAG, "关闭旧的执行器时出现异常", e);
+                Log.e(TAG, "获取传感器时出错: " + spec.getName(), e);
             }
         }
         
-        // 创建新的执行器，使用有界队列和拒绝策略
-        executorService = new ThreadPoolExecutor(
-            CORE_POOL_SIZE, 
-            MAX_POOL_SIZE, 
-            KEEP_ALIVE_TIME, 
-            TimeUnit.SECONDS,
-            new LinkedBlockingQueue<>(QUEUE_CAPACITY), 
-            new ThreadFactory() {
-                @Override
-                public Thread newThread(Runnable r) {
-                    Thread thread = new Thread(r, "SensorCollector-Worker");
-                    thread.setPriority(Thread.NORM_PRIORITY); // 正常优先级
-                    return thread;
+        if (missing.length() > 0) {
+            Log.w(TAG, "部分传感器不可用！缺失:" + missing);
+        }
+    }
+
+    /**
+     * 启动传感器回调线程（如果尚未运行）
+     */
+    private synchronized void startCallbackThread() {
+        if (callbackThread != null && callbackThread.isAlive()) {
+            return;
+        }
+        
+        // 优先级高于普通线程，确保传感器回调不会被UI或后台任务拖延
+        callbackThread = new HandlerThread("SensorCollector-Callback", Process.THREAD_PRIORITY_DISPLAY);
+        callbackThread.start();
+        callbackHandler = new Handler(callbackThread.getLooper());
+        Log.d(TAG, "启动了独立的传感器回调线程");
+    }
+    
+    /**
+     * 停止传感器回调线程，之后注册的传感器回调回到主线程
+     */
+    private synchronized void stopCallbackThread() {
+        callbackHandler = null;
+        if (callbackThread != null) {
+            callbackThread.quitSafely();
+            callbackThread = null;
+            Log.d(TAG, "停止了独立的传感器回调线程");
+        }
+    }
+
+    /**
+     * 启动样本处理线程（如果尚未运行）
+     */
+    private synchronized void startConsumer() {
+        Thread thread = consumerThread;
+        if (thread != null && thread.isAlive()) {
+            return;
+        }
+        
+        isConsumerRunning.set(true);
+        thread = new Thread(this::runConsumerLoop, "SensorCollector-Worker");
+        thread.setPriority(Thread.NORM_PRIORITY); // 正常优先级
+        thread.setDaemon(true);
+        consumerThread = thread;
+        thread.start();
+        Log.d(TAG, "启动了传感器样本处理线程，缓冲区容量: " + sampleRing.getCapacity());
+    }
+    
+    /**
+     * 停止样本处理线程，并处理完缓冲区中剩余的样本
+     */
+    private synchronized void stopConsumer() {
+        isConsumerRunning.set(false);
+        Thread thread = consumerThread;
+        consumerThread = null;
+        if (thread == null) {
+            return;
+        }
+        
+        LockSupport.unpark(thread);
+        try {
+            thread.join(1000);
+            if (thread.isAlive()) {
+                Log.w(TAG, "传感器样本处理线程未能在1秒内退出");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Log.w(TAG, "等待传感器样本处理线程退出时被中断", e);
+        }
+    }
+    
+    /**
+     * 处理线程主循环：批量读取环形缓冲区攒成SensorBatch
+     * 缓冲区为空时休眠到当前批次的交付时间，没有未交付的批次时一直休眠，直到回调线程写入样本后唤醒，
+     * 因此没有传感器事件(未注册传感器或硬件批处理期间)时处理线程不会被周期性唤醒
+     */
+    private void runConsumerLoop() {
+        while (isConsumerRunning.get()) {
+            int drained = drainSamples();
+            deliverBatch(false);
+            if (drained == 0) {
+                consumerParked = true;
+                // 设置标志后再次检查，避免生产者在设置标志前写入而错过唤醒
+                if (sampleRing.isEmpty() && isConsumerRunning.get()) {
+                    if (currentBatch == null) {
+                        LockSupport.park(this);
+                    } else {
+                        long remainingNanos = BATCH_MAX_AGE_NANOS - (System.nanoTime() - currentBatchStartNanos);
+                        if (remainingNanos > 0) {
+                            LockSupport.parkNanos(this, remainingNanos);
+                        }
+                    }
                 }
-            },
-            new ThreadPoolExecutor.DiscardOldestPolicy() // 如果队列满了，丢弃最旧的任务
-        );
+                consumerParked = false;
+            }
+        }
+        
+        // 退出前处理完剩余样本
+        while (drainSamples() > 0) {
+            // 继续读取
+        }
+        deliverBatch(true);
+        Log.d(TAG, "传感器样本处理线程已退出");
+    }
+    
+    /**
+     * 读取样本追加到当前批次，批次满时交给监听器
+     * @return 本次读取的样本数
+     */
+    private int drainSamples() {
+        if (sampleRing.isEmpty()) {
+            return 0;
+        }
+        
+        SensorBatch batch = currentBatch;
+        if (batch == null) {
+            // 每批样本只查询一次前台应用
+            ForegroundAppManager.ForegroundAppInfo appInfo = resolveForegroundAppInfo();
+            if (appInfo == null) {
+                appInfo = UNKNOWN_APP_INFO;
+            }
+            batch = new SensorBatch(BATCH_CAPACITY, DataManager.getCurrentUserId(),
+                    appInfo.getAppName(), appInfo.getPackageName());
+            currentBatch = batch;
+            currentBatchStartNanos = System.nanoTime();
+        }
+        
+        int count;
+        try {
+            count = sampleRing.drain(sampleHandler, batch.getCapacity() - batch.size());
+        } catch (Exception e) {
+            Log.e(TAG, "处理传感器数据出错", e);
+            return 0;
+        }
         
-        isExecutorRunning.set(true);
-        Log.d(TAG, "创建了新的传感器数据处理执行器");
+        if (batch.isFull()) {
+            deliverBatch(true);
+        }
+        return count;
+    }
+    
+    /**
+     * 把当前批次交给监听器
+     * @param force 为false时只有批次已攒满最长时间才交付
+     */
+    private void deliverBatch(boolean force) {
+        SensorBatch batch = currentBatch;
+        if (batch == null) {
+            return;
+        }
+        if (!force && System.nanoTime() - currentBatchStartNanos < BATCH_MAX_AGE_NANOS) {
+            return;
+        }
+        
+        currentBatch = null;
+        if (batch.isEmpty() || dataCollectionListener == null) {
+            return;
+        }
+        try {
+            dataCollectionListener.onBatchCollected(batch);
+        } catch (Exception e) {
+            Log.e(TAG, "通知DataCollectionListener失败", e);
+            // 如果通知失败，可能是DataManager已关闭，减少日志频率
+            if (e.getMessage() != null && e.getMessage().contains("已关闭")) {
+                Log.v(TAG, "DataCollectionListener已关闭，跳过后续通知");
+            }
+        }
+    }
+    
+    /**
+     * 获取前台应用信息，失败时返回默认值
+     */
+    private ForegroundAppManager.ForegroundAppInfo resolveForegroundAppInfo() {
+        if (foregroundAppManager != null) {
+            try {
+                ForegroundAppManager.ForegroundAppInfo appInfo = foregroundAppManager.getForegroundAppInfo();
+                if (appInfo != null) {
+                    return appInfo;
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "获取前台应用信息失败", e);
+            }
+        }
+        return UNKNOWN_APP_INFO;
     }
 
     /**
@@ -197,7 +404,8 @@ public class SensorCollector implements SensorEventListener, ComponentCallbacks2
             Log.w(TAG, "注意：由于硬件限制，实际采样率(" + this.samplingRateMs + "ms)与请求的采样率(" + safeRate + "ms)不同");
         }
         
-        // 记录传感器的实际能力信息
+        // 获取注册表中新启用的传感器，并记录传感器的实际能力信息
+        resolveSensors();
         logSensorCapabilities();
         
         // 设置时间戳管理器的采样率并开始采集
@@ -208,10 +416,19 @@ public class SensorCollector implements SensorEventListener, ComponentCallbacks2
         Log.d(TAG, "开始监听传感器，采样率: " + safeRate + "ms (" + currentDelayMicros + "μs)");
         
         try {
-            // 检查执行器状态并重置
-            if (executorService == null || executorService.isShutdown()) {
-                createExecutor();
+            // 检查处理线程状态
+            startConsumer();
+            
+            // 准备传感器回调线程
+            if (useDedicatedCallbackThread) {
+                startCallbackThread();
+            } else {
+                stopCallbackThread();
             }
+            resetCallbackLatencyStats();
+            
+            // 新的采集会话总是从正常采样率开始
+            idlePeriodUs = 0;
             
             if (registerSensorListeners()) {
                 isListening.set(true);
@@ -235,61 +452,128 @@ public class SensorCollector implements SensorEventListener, ComponentCallbacks2
             
             boolean anySuccess = false;
             
-            if (accelerometer != null) {
-                try {
-                    boolean success = sensorManager.registerListener(this, accelerometer, currentDelayMicros);
-                    if (success) {
-                        activeSensors.add(accelerometer);
-                        anySuccess = true;
-                        Log.d(TAG, "加速度计注册成功");
-                    } else {
-                        Log.w(TAG, "加速度计注册失败");
-                    }
-                } catch (Exception e) {
-                    Log.e(TAG, "注册加速度计时发生异常", e);
+            for (SensorRegistry.SensorSpec spec : sensorRegistry.getSpecs()) {
+                if (spec.isEnabled()) {
+                    anySuccess |= registerSensor(spec);
                 }
             }
             
-            if (gyroscope != null) {
-                try {
-                    boolean success = sensorManager.registerListener(this, gyroscope, currentDelayMicros);
-                    if (success) {
-                        activeSensors.add(gyroscope);
-                        anySuccess = true;
-                        Log.d(TAG, "陀螺仪注册成功");
-                    } else {
-                        Log.w(TAG, "陀螺仪注册失败");
-                    }
-                } catch (Exception e) {
-                    Log.e(TAG, "注册陀螺仪时发生异常", e);
-                }
+            Log.i(TAG, "成功注册了 " + activeSensors.size() + " 个传感器" +
+                  (maxReportLatencyUs > 0 ? "，批处理延迟: " + maxReportLatencyUs + "μs" : ""));
+            return anySuccess;
+        }
+    }
+    
+    /**
+     * 按注册表配置注册单个传感器，启用批处理时带上maxReportLatencyUs，让样本先缓存在传感器hub的FIFO中
+     * 调用方需持有activeSensors锁
+     * @return 是否注册成功
+     */
+    private boolean registerSensor(SensorRegistry.SensorSpec spec) {
+        Sensor sensor = sensorsById.get(spec.getSensorId());
+        if (sensor == null) {
+            return false;
+        }
+        
+        // 单独配置了采样周期的传感器不能快于硬件最小延迟
+        int periodUs = spec.resolveSamplingPeriodUs(currentDelayMicros);
+        if (spec.getSamplingPeriodUs() > 0 && sensor.getMinDelay() > 0) {
+            periodUs = Math.max(periodUs, sensor.getMinDelay());
+        }
+        // 空闲采样时只会放慢，不会比正常采样率更快
+        int idleUs = idlePeriodUs;
+        if (idleUs > 0) {
+            periodUs = Math.max(periodUs, idleUs);
+        }
+        int latencyUs = spec.resolveMaxReportLatencyUs(maxReportLatencyUs);
+        
+        try {
+            // callbackHandler为null时回调在主线程上执行
+            boolean success = sensorManager.registerListener(this, sensor, periodUs, latencyUs, callbackHandler);
+            
+            if (success) {
+                activeSensors.add(sensor);
+                getOrCreateRateMonitor(spec).reset(periodUs * 1000L);
+                Log.d(TAG, spec.getName() + "注册成功，采样周期: " + periodUs + "μs, 批处理延迟: " + latencyUs + "μs");
+            } else {
+                Log.w(TAG, spec.getName() + "注册失败");
+            }
+            return success;
+        } catch (Exception e) {
+            Log.e(TAG, "注册" + spec.getName() + "时发生异常", e);
+            return false;
+        }
+    }
+
+    /**
+     * 获取传感器的频率监控，不存在时创建
+     */
+    private SensorRateMonitor getOrCreateRateMonitor(SensorRegistry.SensorSpec spec) {
+        int sensorId = spec.getSensorId();
+        synchronized (rateMonitorLock) {
+            SensorRateMonitor[] monitors = rateMonitors;
+            if (sensorId < monitors.length && monitors[sensorId] != null) {
+                return monitors[sensorId];
             }
             
-            if (magnetometer != null) {
-                try {
-                    boolean success = sensorManager.registerListener(this, magnetometer, currentDelayMicros);
-                    if (success) {
-                        activeSensors.add(magnetometer);
-                        anySuccess = true;
-                        Log.d(TAG, "磁力计注册成功");
-                    } else {
-                        Log.w(TAG, "磁力计注册失败");
-                    }
-                } catch (Exception e) {
-                    Log.e(TAG, "注册磁力计时发生异常", e);
-                }
+            SensorRateMonitor[] updated = Arrays.copyOf(monitors, Math.max(monitors.length, sensorId + 1));
+            updated[sensorId] = new SensorRateMonitor(sensorId, spec.getName(), 0);
+            rateMonitors = updated;
+            return updated[sensorId];
+        }
+    }
+    
+    /**
+     * 获取所有已注册传感器的频率和抖动统计
+     */
+    public List<SensorRateMonitor.RateStats> getRateStats() {
+        List<SensorRateMonitor.RateStats> stats = new ArrayList<>();
+        for (SensorRateMonitor monitor : rateMonitors) {
+            if (monitor != null) {
+                stats.add(monitor.getStats());
             }
+        }
+        return stats;
+    }
+    
+    /**
+     * 获取指定传感器的频率监控，未注册时返回null
+     */
+    public SensorRateMonitor getRateMonitor(int sensorId) {
+        SensorRateMonitor[] monitors = rateMonitors;
+        return sensorId >= 0 && sensorId < monitors.length ? monitors[sensorId] : null;
+    }
+    
+    /**
+     * 输出各传感器的频率统计，实际频率与请求频率差异较大时给出警告
+     */
+    private void logRateStats() {
+        Log.d(TAG, "流水线计数 - " + ringStats);
+        for (SensorRateMonitor.RateStats stats : getRateStats()) {
+            if (stats.sampleCount < 2) {
+                continue;
+            }
+            Log.d(TAG, "传感器事件频率监控 - " + stats + ", 回调延迟: 平均 " + getAverageCallbackLatencyUs() +
+                       "μs / 最大 " + getMaxCallbackLatencyUs() + "μs");
             
-            Log.i(TAG, "成功注册了 " + activeSensors.size() + " 个传感器");
-            return anySuccess;
+            // 超过50%差异
+            if (!stats.meetsRequestedRate(0.5) || stats.achievedHz > stats.requestedHz * 1.5) {
+                Log.w(TAG, "警告：" + stats.sensorName + "实际采样频率(" + String.format("%.1f", stats.achievedHz) +
+                           "Hz)与请求的采样频率(" + String.format("%.1f", stats.requestedHz) + "Hz)差异较大");
+            }
         }
     }
-
+    
     /**
      * 停止监听传感器
      */
     public synchronized void stopListening() {
         if (sensorManager != null) {
+            // 批处理模式下先清空FIFO，否则注销时尚未上报的样本会被丢弃
+            if (isListening.get() && isBatchingEnabled()) {
+                flushAndAwait();
+            }
+            
             try {
                 sensorManager.unregisterListener(this);
                 isListening.set(false);
@@ -303,6 +587,190 @@ public class SensorCollector implements SensorEventListener, ComponentCallbacks2
         if (timestampManager != null) {
             timestampManager.stopSensorCollection();
         }
+        
+        // 停止处理线程，退出前交付缓冲区中剩余的样本；startListening时重新启动
+        stopConsumer();
+    }
+    
+    /**
+     * 切换到空闲采样率，例如设备静止时，samplingRateMs保持不变
+     * @param periodUs 空闲时的采样周期(微秒)
+     * @return 是否重新注册成功
+     */
+    public synchronized boolean enterIdleRate(int periodUs) {
+        if (periodUs <= 0 || !isListening.get() || sensorManager == null) {
+            return false;
+        }
+        if (idlePeriodUs == periodUs) {
+            return true;
+        }
+        
+        Log.i(TAG, "进入空闲采样，采样周期: " + periodUs + "μs (正常: " + currentDelayMicros + "μs)");
+        idlePeriodUs = periodUs;
+        return reregisterSensorListeners();
+    }
+    
+    /**
+     * 恢复到startListening时配置的采样率
+     * @return 是否重新注册成功
+     */
+    public synchronized boolean exitIdleRate() {
+        if (idlePeriodUs == 0 || !isListening.get() || sensorManager == null) {
+            return false;
+        }
+        
+        Log.i(TAG, "退出空闲采样，恢复采样周期: " + currentDelayMicros + "μs");
+        idlePeriodUs = 0;
+        return reregisterSensorListeners();
+    }
+    
+    /**
+     * 是否处于空闲采样率
+     */
+    public boolean isInIdleRate() {
+        return isListening.get() && idlePeriodUs > 0;
+    }
+    
+    /**
+     * 以当前配置重新注册所有传感器，批处理模式下先清空FIFO避免丢失样本
+     */
+    private boolean reregisterSensorListeners() {
+        if (isBatchingEnabled()) {
+            flushAndAwait();
+        }
+        try {
+            sensorManager.unregisterListener(this);
+            return registerSensorListeners();
+        } catch (Exception e) {
+            Log.e(TAG, "重新注册传感器失败", e);
+            return false;
+        }
+    }
+    
+    /**
+     * 设置硬件FIFO批处理的最大上报延迟，下次startListening时生效
+     * @param latencyUs 最大上报延迟(微秒)，0表示关闭批处理
+     */
+    public void setMaxReportLatencyUs(int latencyUs) {
+        this.maxReportLatencyUs = Math.max(0, latencyUs);
+        Log.d(TAG, "设置批处理最大上报延迟: " + this.maxReportLatencyUs + "μs");
+    }
+    
+    /**
+     * 获取硬件FIFO批处理的最大上报延迟(微秒)
+     */
+    public int getMaxReportLatencyUs() {
+        return maxReportLatencyUs;
+    }
+    
+    /**
+     * 是否启用了批处理模式（全局或任一传感器单独配置）
+     */
+    public boolean isBatchingEnabled() {
+        for (SensorRegistry.SensorSpec spec : sensorRegistry.getSpecs()) {
+            if (spec.isEnabled() && spec.resolveMaxReportLatencyUs(maxReportLatencyUs) > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * 获取传感器注册表，可用于启用其他传感器或单独设置采样率，下次startListening时生效
+     */
+    public SensorRegistry getSensorRegistry() {
+        return sensorRegistry;
+    }
+    
+    /**
+     * 请求传感器上报FIFO中缓存的样本，并等待onFlushCompleted(最多FLUSH_TIMEOUT_MS)，用于定时文件切换
+     * 返回时样本已进入采集环形缓冲区，但可能还没有写入文件；在传感器回调线程上调用时只发出请求
+     */
+    public void flushBatchedEventsAndWait() {
+        if (sensorManager == null || !isListening.get() || !isBatchingEnabled()) {
+            return;
+        }
+        flushAndAwait();
+    }
+    
+    /**
+     * 请求flush并等待所有活跃传感器的onFlushCompleted回调
+     * 如果当前就在回调所在的主线程上，等待会死锁，只能发出请求
+     */
+    private void flushAndAwait() {
+        int sensorCount;
+        synchronized (activeSensors) {
+            sensorCount = activeSensors.size();
+        }
+        if (sensorCount == 0) {
+            return;
+        }
+        
+        CountDownLatch latch = new CountDownLatch(sensorCount);
+        pendingFlushLatch = latch;
+        try {
+            if (!sensorManager.flush(this)) {
+                Log.w(TAG, "请求flush失败，FIFO中的样本可能丢失");
+                return;
+            }
+            
+            Handler handler = callbackHandler;
+            Looper callbackLooper = handler != null ? handler.getLooper() : Looper.getMainLooper();
+            if (Looper.myLooper() == callbackLooper) {
+                Log.d(TAG, "在回调线程上调用，无法等待flush完成");
+                return;
+            }
+            
+            if (!latch.await(FLUSH_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "等待flush完成超时(" + FLUSH_TIMEOUT_MS + "ms)");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            Log.w(TAG, "flush时出错", e);
+        } finally {
+            pendingFlushLatch = null;
+        }
+    }
+    
+    /**
+     * 设置是否在独立的高优先级线程上接收传感器回调，下次startListening时生效
+     */
+    public void setUseDedicatedCallbackThread(boolean useDedicatedThread) {
+        this.useDedicatedCallbackThread = useDedicatedThread;
+        Log.d(TAG, "设置独立传感器回调线程: " + useDedicatedThread);
+    }
+    
+    /**
+     * 是否在独立的线程上接收传感器回调
+     */
+    public boolean isUsingDedicatedCallbackThread() {
+        return useDedicatedCallbackThread;
+    }
+    
+    /**
+     * 获取平均回调延迟(微秒)：传感器事件时间戳到onSensorChanged执行的时间差
+     * 批处理模式下包含样本在FIFO中等待的时间
+     */
+    public long getAverageCallbackLatencyUs() {
+        long count = callbackLatencyCount;
+        return count > 0 ? callbackLatencyTotalNs / count / 1000 : 0;
+    }
+    
+    /**
+     * 获取最大回调延迟(微秒)
+     */
+    public long getMaxCallbackLatencyUs() {
+        return callbackLatencyMaxNs / 1000;
+    }
+    
+    /**
+     * 重置回调延迟统计
+     */
+    private void resetCallbackLatencyStats() {
+        callbackLatencyTotalNs = 0;
+        callbackLatencyMaxNs = 0;
+        callbackLatencyCount = 0;
     }
     
     /**
@@ -312,6 +780,20 @@ public class SensorCollector implements SensorEventListener, ComponentCallbacks2
         return samplingRateMs; // 直接返回保存的采样率，而不是从微秒转换
     }
     
+    /**
+     * 获取因缓冲区已满而丢弃的样本数
+     */
+    public long getDroppedSampleCount() {
+        return sampleRing.getDroppedCount();
+    }
+    
+    /**
+     * 获取环形缓冲区阶段的计数器
+     */
+    public PipelineStageStats getPipelineStats() {
+        return ringStats;
+    }
+    
     /**
      * 是否正在监听传感器
      */
@@ -321,7 +803,7 @@ public class SensorCollector implements SensorEventListener, ComponentCallbacks2
 
     @Override
     public void onSensorChanged(SensorEvent event) {
-        if (event == null || event.values == null || event.values.length < 3) {
+        if (event == null || event.values == null || event.values.length < 1 || event.sensor == null) {
             Log.w(TAG, "收到无效的传感器事件");
             return;
         }
@@ -332,164 +814,84 @@ public class SensorCollector implements SensorEventListener, ComponentCallbacks2
             return;
         }
         
-        // 检查执行器状态，如果已关闭则不处理
-        if (!isExecutorRunning.get()) {
+        // 检查处理线程状态，如果已关闭则不处理
+        if (!isConsumerRunning.get()) {
             Log.v(TAG, "传感器收集器已关闭，忽略传感器事件");
             return;
         }
         
-        // 监控传感器事件频率
-        long currentEventTime = System.currentTimeMillis();
-        if (lastSensorEventTime != 0) {
-            long eventInterval = currentEventTime - lastSensorEventTime;
-            sensorEventCount++;
-            
-            // 统计实际采样间隔
-            totalInterval += eventInterval;
-            intervalCount++;
-            
-            // 每100个事件记录一次统计信息
-            if (sensorEventCount % 100 == 0) {
-                long avgInterval = totalInterval / intervalCount;
-                Log.d(TAG, "传感器事件频率监控 - 最近间隔: " + eventInterval + "ms, 平均间隔: " + avgInterval + "ms, 设置采样率: " + samplingRateMs + "ms");
-                
-                // 如果平均间隔与设置的采样率差异较大，给出警告
-                if (Math.abs(avgInterval - samplingRateMs) > samplingRateMs * 0.5) { // 超过50%差异
-                    Log.w(TAG, "警告：实际平均采样间隔(" + avgInterval + "ms)与设置的采样率(" + samplingRateMs + "ms)差异较大");
-                }
-                
-                // 重置统计
-                totalInterval = 0;
-                intervalCount = 0;
+        // 统计回调延迟
+        long latencyNs = SystemClock.elapsedRealtimeNanos() - event.timestamp;
+        if (latencyNs >= 0) {
+            callbackLatencyTotalNs += latencyNs;
+            callbackLatencyCount++;
+            if (latencyNs > callbackLatencyMaxNs) {
+                callbackLatencyMaxNs = latencyNs;
             }
         }
-        lastSensorEventTime = currentEventTime;
         
-        // 为了确保精度不丢失，立即复制传感器值和时间戳
-        // 使用时间戳管理器获取统一的时间戳
-        final long timestamp = timestampManager.getCurrentSensorTimestamp();
-        final float valueX = event.values[0];
-        final float valueY = event.values[1];
-        final float valueZ = event.values[2];
-        final int accuracy = event.accuracy;
-        final int sensorType = event.sensor.getType();
+        SensorRegistry.SensorSpec spec = sensorRegistry.findByType(event.sensor.getType());
+        if (spec == null) {
+            Log.v(TAG, "收到未注册的传感器事件: " + event.sensor.getType());
+            return;
+        }
         
-        // 在单独的线程中处理传感器数据
-        if (executorService == null || executorService.isShutdown()) {
-            // 如果线程池已关闭，尝试重新创建
-            try {
-                Log.d(TAG, "传感器处理线程池已关闭，重新创建");
-                createExecutor();
-            } catch (Exception e) {
-                Log.e(TAG, "无法重新创建线程池", e);
-                handleSensorEventData(timestamp, valueX, valueY, valueZ, accuracy, sensorType);
-                return;
+        // 按传感器统计事件间隔，使用硬件事件时间戳(纳秒)
+        SensorRateMonitor[] monitors = rateMonitors;
+        int sensorId = spec.getSensorId();
+        if (sensorId < monitors.length && monitors[sensorId] != null) {
+            monitors[sensorId].record(event.timestamp);
+        }
+        if (++sensorEventCount % RATE_LOG_INTERVAL_EVENTS == 0) {
+            logRateStats();
+        }
+        
+        // 只把原始值写入环形缓冲区，回调线程上不分配对象；单轴传感器(如气压)的y/z记为0
+        float[] values = event.values;
+        ringStats.recordOffered();
+        if (!sampleRing.offer(sensorId, event.timestamp,
+                values[0], values.length > 1 ? values[1] : 0f, values.length > 2 ? values[2] : 0f, event.accuracy)) {
+            ringStats.recordDropped();
+            long dropped = sampleRing.getDroppedCount();
+            if (dropped % 1000 == 1) {
+                Log.w(TAG, "传感器样本缓冲区已满，累计丢弃 " + dropped + " 个样本");
             }
+            return;
         }
         
-        try {
-            executorService.submit(() -> {
-                try {
-                    handleSensorEventData(timestamp, valueX, valueY, valueZ, accuracy, sensorType);
-                } catch (Exception e) {
-                    Log.e(TAG, "处理传感器数据出错", e);
-                }
-            });
-        } catch (RejectedExecutionException e) {
-            // 如果任务被拒绝，记录日志并尝试恢复
-            Log.w(TAG, "传感器数据处理任务被拒绝：" + e.getMessage());
-            
-            // 尝试恢复线程池
-            try {
-                if (executorService.isShutdown() && isExecutorRunning.get()) {
-                    createExecutor();
-                    Log.d(TAG, "已重新创建传感器处理线程池");
-                    
-                    // 尝试重新提交任务
-                    executorService.submit(() -> {
-                        handleSensorEventData(timestamp, valueX, valueY, valueZ, accuracy, sensorType);
-                    });
-                    return;
-                }
-            } catch (Exception ex) {
-                Log.e(TAG, "恢复线程池失败", ex);
+        ringStats.recordQueued();
+        
+        // 处理线程正在休眠时唤醒它
+        if (consumerParked) {
+            Thread thread = consumerThread;
+            if (thread != null) {
+                LockSupport.unpark(thread);
             }
-            
-            // 直接在当前线程处理数据，避免丢失
-            handleSensorEventData(timestamp, valueX, valueY, valueZ, accuracy, sensorType);
-        } catch (Exception e) {
-            // 其他异常
-            Log.e(TAG, "提交传感器数据处理任务时发生异常", e);
-            handleSensorEventData(timestamp, valueX, valueY, valueZ, accuracy, sensorType);
         }
     }
     
     /**
-     * 统一处理传感器数据，创建DataRecord并通知监听器。
-     * 此方法取代了旧的 processSensorData 和 processEventInMainThread。
+     * 统一处理传感器数据，把样本追加到当前批次。
+     * 在样本处理线程中调用，前台应用信息按批次复用。
      */
-    private void handleSensorEventData(long timestamp, float valueX, float valueY, float valueZ, int accuracy, int sensorType) {
-        try {
-            String sensorName = "unknown"; // 默认值
-            
-            // 获取前台应用信息
-            ForegroundAppManager.ForegroundAppInfo appInfo = null;
-            if (foregroundAppManager != null) {
-                try {
-                    appInfo = foregroundAppManager.getForegroundAppInfo();
-                } catch (Exception e) {
-                    Log.w(TAG, "获取前台应用信息失败", e);
-                }
-            }
-            
-            if (appInfo == null) {
-                // 提供一个默认的ForegroundAppInfo对象，避免空指针
-                appInfo = new ForegroundAppManager.ForegroundAppInfo("未知应用", "");
-            }
-            
-            // 确定传感器类型
-            switch (sensorType) {
-                case Sensor.TYPE_ACCELEROMETER:
-                    sensorName = "accelerometer";
-                    break;
-                case Sensor.TYPE_GYROSCOPE:
-                    sensorName = "gyroscope";
-                    break;
-                case Sensor.TYPE_MAGNETIC_FIELD:
-                    sensorName = "magnetometer";
-                    break;
-                // 可以选择添加 default case 来处理未知传感器类型，或者保持当前逻辑仅处理已知类型
-            }
+    private void handleSensorEventData(int sensorId, long eventTimeNanos, float valueX, float valueY, float valueZ, int accuracy) {
+        // 由注册表确定传感器名称
+        String sensorName = sensorRegistry.getName(sensorId);
 
-            // 创建数据记录
-            DataRecord record = new DataRecord(
-                    timestamp,
-                    sensorName,
-                    valueX,
-                    valueY,
-                    valueZ,
-                    accuracy,
-                    appInfo.getAppName(),
-                    appInfo.getPackageName(),
-                    DataManager.getCurrentUserId() // 静态方法调用，确保线程安全
-            );
+        // 使用硬件事件时间戳，通过启动时间偏移换算为墙上时间，同时记入时间戳历史
+        long timestamp = timestampManager.recordSensorEvent(eventTimeNanos);
 
-            // 发送数据
-            if (dataCollectionListener != null) {
-                try {
-                    dataCollectionListener.onDataCollected(record);
-                } catch (Exception e) {
-                    Log.e(TAG, "通知DataCollectionListener失败", e);
-                    // 如果通知失败，可能是DataManager已关闭，减少日志频率
-                    if (e.getMessage() != null && e.getMessage().contains("已关闭")) {
-                        Log.v(TAG, "DataCollectionListener已关闭，跳过后续通知");
-                    }
-                }
-            }
-        } catch (Exception e) {
-            // 捕获创建DataRecord或通知监听器时可能发生的任何顶层异常
-            Log.e(TAG, "在handleSensorEventData中发生严重错误", e);
+        // 每次读取的样本数不超过批次剩余容量，不会溢出
+        currentBatch.add(timestamp, eventTimeNanos, sensorId, sensorName, valueX, valueY, valueZ, accuracy);
+    }
+
+    @Override
+    public void onFlushCompleted(Sensor sensor) {
+        CountDownLatch latch = pendingFlushLatch;
+        if (latch != null) {
+            latch.countDown();
         }
+        Log.v(TAG, "传感器flush完成: " + (sensor != null ? sensor.getName() : "unknown"));
     }
 
     @Override
@@ -531,7 +933,15 @@ public class SensorCollector implements SensorEventListener, ComponentCallbacks2
                     for (Sensor sensor : activeSensors) {
                         // 使用更低的采样率，降低CPU和内存压力
                         int currentDelay = samplingRateMs > 100 ? SensorManager.SENSOR_DELAY_NORMAL : SensorManager.SENSOR_DELAY_UI;
-                        sensorManager.registerListener(this, sensor, currentDelay);
+                        sensorManager.registerListener(this, sensor, currentDelay, maxReportLatencyUs, callbackHandler);
+                    }
+                    
+                    // 请求间隔已改变，重新开始统计
+                    long reducedIntervalNs = samplingRateMs > 100 ? 200_000_000L : 66_667_000L;
+                    for (SensorRateMonitor monitor : rateMonitors) {
+                        if (monitor != null) {
+                            monitor.reset(reducedIntervalNs);
+                        }
                     }
                 } catch (Exception e) {
                     Log.e(TAG, "调整传感器采样率失败", e);
@@ -568,31 +978,19 @@ public class SensorCollector implements SensorEventListener, ComponentCallbacks2
         int minDelay = Integer.MAX_VALUE;
         
         try {
-            if (accelerometer != null) {
-                int accelDelay = accelerometer.getMinDelay();
-                Log.d(TAG, "加速度计最小延迟: " + accelDelay + "μs");
-                if (accelDelay > 0) {
-                    minDelay = Math.min(minDelay, accelDelay);
-                } else if (accelDelay == 0) {
-                    Log.w(TAG, "加速度计只支持on-change模式，不支持连续采样");
-                }
-            }
-            if (gyroscope != null) {
-                int gyroDelay = gyroscope.getMinDelay();
-                Log.d(TAG, "陀螺仪最小延迟: " + gyroDelay + "μs");
-                if (gyroDelay > 0) {
-                    minDelay = Math.min(minDelay, gyroDelay);
-                } else if (gyroDelay == 0) {
-                    Log.w(TAG, "陀螺仪只支持on-change模式，不支持连续采样");
+            // 只考虑跟随全局采样率的传感器，单独配置了采样周期的传感器在注册时各自检查
+            for (SensorRegistry.SensorSpec spec : sensorRegistry.getSpecs()) {
+                Sensor sensor = sensorsById.get(spec.getSensorId());
+                if (sensor == null || !spec.isEnabled() || spec.getSamplingPeriodUs() > 0) {
+                    continue;
                 }
-            }
-            if (magnetometer != null) {
-                int magDelay = magnetometer.getMinDelay();
-                Log.d(TAG, "磁力计最小延迟: " + magDelay + "μs");
-                if (magDelay > 0) {
-                    minDelay = Math.min(minDelay, magDelay);
-                } else if (magDelay == 0) {
-                    Log.w(TAG, "磁力计只支持on-change模式，不支持连续采样");
+                
+                int delay = sensor.getMinDelay();
+                Log.d(TAG, spec.getName() + "最小延迟: " + delay + "μs");
+                if (delay > 0) {
+                    minDelay = Math.min(minDelay, delay);
+                } else if (delay == 0) {
+                    Log.w(TAG, spec.getName() + "只支持on-change模式，不支持连续采样");
                 }
             }
         } catch (Exception e) {
@@ -617,17 +1015,14 @@ public class SensorCollector implements SensorEventListener, ComponentCallbacks2
         if (sensorManager == null) return;
         
         try {
-            if (accelerometer != null) {
-                Log.d(TAG, "加速度计信息 - 最小延迟: " + accelerometer.getMinDelay() + "μs (" + 
-                      (accelerometer.getMinDelay() / 1000.0f) + "ms), 最大范围: " + accelerometer.getMaximumRange());
-            }
-            if (gyroscope != null) {
-                Log.d(TAG, "陀螺仪信息 - 最小延迟: " + gyroscope.getMinDelay() + "μs (" + 
-                      (gyroscope.getMinDelay() / 1000.0f) + "ms), 最大范围: " + gyroscope.getMaximumRange());
-            }
-            if (magnetometer != null) {
-                Log.d(TAG, "磁力计信息 - 最小延迟: " + magnetometer.getMinDelay() + "μs (" + 
-                      (magnetometer.getMinDelay() / 1000.0f) + "ms), 最大范围: " + magnetometer.getMaximumRange());
+            for (SensorRegistry.SensorSpec spec : sensorRegistry.getSpecs()) {
+                Sensor sensor = sensorsById.get(spec.getSensorId());
+                if (sensor == null || !spec.isEnabled()) {
+                    continue;
+                }
+                Log.d(TAG, spec.getName() + "信息 - 最小延迟: " + sensor.getMinDelay() + "μs (" + 
+                      (sensor.getMinDelay() / 1000.0f) + "ms), 最大范围: " + sensor.getMaximumRange() +
+                      ", FIFO容量: " + sensor.getFifoMaxEventCount());
             }
         } catch (Exception e) {
             Log.w(TAG, "获取传感器能力信息失败", e);
@@ -647,26 +1042,13 @@ public class SensorCollector implements SensorEventListener, ComponentCallbacks2
         }
         
         stopListening();
-        isExecutorRunning.set(false);
         
-        if (executorService != null && !executorService.isShutdown()) {
-            try {
-                // 尝试优雅关闭
-                executorService.shutdown();
-                if (!executorService.awaitTermination(1, TimeUnit.SECONDS)) {
-                    // 如果超时，强制关闭
-                    executorService.shutdownNow();
-                }
-                executorService = null;
-                Log.d(TAG, "关闭传感器数据处理线程池");
-            } catch (InterruptedException e) {
-                // 如果当前线程被中断，强制关闭
-                if (executorService != null) {
-                    executorService.shutdownNow();
-                }
-                Thread.currentThread().interrupt();
-            }
-        }
+        // 停止传感器回调线程
+        stopCallbackThread();
+        
+        // 停止样本处理线程，剩余样本会在退出前处理完
+        stopConsumer();
+        Log.d(TAG, "关闭传感器样本处理线程");
     }
 }
 
@@ -0,0 +1,162 @@
+package com.example.sensordatacollector;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Locale;
+
+/**
+ * 单个传感器的采样频率监控
+ * 基于SensorEvent.timestamp(纳秒)统计实际的事件间隔，以及与请求间隔的偏差(抖动)。
+ * record只由传感器回调线程调用，getStats可在任意线程调用。
+ */
+public class SensorRateMonitor {
+
+    /**
+     * 某一时刻的频率统计快照
+     */
+    public static class RateStats {
+        public final int sensorId;
+        public final String sensorName;
+        public final long sampleCount;
+        public final double requestedHz;
+        public final double achievedHz;
+        public final long requestedIntervalUs;
+        public final long p50IntervalUs;
+        public final long p99IntervalUs;
+        public final long p50JitterUs;
+        public final long p99JitterUs;
+        public final long maxJitterUs;
+
+        RateStats(int sensorId, String sensorName, long sampleCount, long requestedIntervalNs, double achievedHz,
+                  Histogram intervals, Histogram jitter) {
+            this.sensorId = sensorId;
+            this.sensorName = sensorName;
+            this.sampleCount = sampleCount;
+            this.requestedIntervalUs = requestedIntervalNs / 1000;
+            this.requestedHz = requestedIntervalNs > 0 ? 1_000_000_000.0 / requestedIntervalNs : 0;
+            this.achievedHz = achievedHz;
+            this.p50IntervalUs = intervals.getValueAtPercentile(50) / 1000;
+            this.p99IntervalUs = intervals.getValueAtPercentile(99) / 1000;
+            this.p50JitterUs = jitter.getValueAtPercentile(50) / 1000;
+            this.p99JitterUs = jitter.getValueAtPercentile(99) / 1000;
+            this.maxJitterUs = jitter.getMax() / 1000;
+        }
+
+        /**
+         * 实际频率是否达到请求频率的给定比例，例如0.95表示至少达到95%
+         */
+        public boolean meetsRequestedRate(double ratio) {
+            return requestedHz > 0 && achievedHz >= requestedHz * ratio;
+        }
+
+        public JSONObject toJson() {
+            JSONObject json = new JSONObject();
+            try {
+                json.put("sensor_id", sensorId);
+                json.put("sensor_name", sensorName);
+                json.put("sample_count", sampleCount);
+                json.put("requested_hz", Math.round(requestedHz * 100) / 100.0);
+                json.put("achieved_hz", Math.round(achievedHz * 100) / 100.0);
+                json.put("interval_p50_us", p50IntervalUs);
+                json.put("interval_p99_us", p99IntervalUs);
+                json.put("jitter_p50_us", p50JitterUs);
+                json.put("jitter_p99_us", p99JitterUs);
+                json.put("jitter_max_us", maxJitterUs);
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+            return json;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: %.1f/%.1fHz, 抖动p50 %dμs p99 %dμs",
+                    sensorName, achievedHz, requestedHz, p50JitterUs, p99JitterUs);
+        }
+    }
+
+    private final int sensorId;
+    private final String sensorName;
+
+    private final Histogram intervals = new Histogram();
+    private final Histogram jitter = new Histogram();
+
+    private volatile long requestedIntervalNs;
+    private volatile long firstEventNanos = 0;
+    private volatile long lastEventNanos = 0;
+    private volatile long sampleCount = 0;
+
+    public SensorRateMonitor(int sensorId, String sensorName, long requestedIntervalNs) {
+        this.sensorId = sensorId;
+        this.sensorName = sensorName;
+        this.requestedIntervalNs = requestedIntervalNs;
+    }
+
+    /**
+     * 记录一个事件的硬件时间戳
+     */
+    public void record(long eventTimeNanos) {
+        long last = lastEventNanos;
+        if (last == 0) {
+            firstEventNanos = eventTimeNanos;
+        } else {
+            long interval = eventTimeNanos - last;
+            if (interval <= 0) {
+                // 时间戳重复或倒退，不计入间隔统计
+                return;
+            }
+            intervals.record(interval);
+            jitter.record(Math.abs(interval - requestedIntervalNs));
+        }
+        lastEventNanos = eventTimeNanos;
+        sampleCount++;
+    }
+
+    /**
+     * 修改请求的采样间隔并清空已有统计
+     */
+    public void reset(long requestedIntervalNs) {
+        this.requestedIntervalNs = requestedIntervalNs;
+        intervals.reset();
+        jitter.reset();
+        firstEventNanos = 0;
+        lastEventNanos = 0;
+        sampleCount = 0;
+    }
+
+    public int getSensorId() {
+        return sensorId;
+    }
+
+    public long getRequestedIntervalNs() {
+        return requestedIntervalNs;
+    }
+
+    /**
+     * 实际达到的采样频率(Hz)
+     */
+    public double getAchievedHz() {
+        long count = sampleCount;
+        long span = lastEventNanos - firstEventNanos;
+        return count > 1 && span > 0 ? (count - 1) * 1_000_000_000.0 / span : 0;
+    }
+
+    /**
+     * 事件间隔直方图(纳秒)
+     */
+    public Histogram getIntervalHistogram() {
+        return intervals;
+    }
+
+    /**
+     * 实际间隔与请求间隔之差的绝对值直方图(纳秒)
+     */
+    public Histogram getJitterHistogram() {
+        return jitter;
+    }
+
+    public RateStats getStats() {
+        return new RateStats(sensorId, sensorName, sampleCount, requestedIntervalNs, getAchievedHz(), intervals, jitter);
+    }
+}
@@ -0,0 +1,237 @@
+package com.example.sensordatacollector;
+
+import android.hardware.Sensor;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 传感器注册表
+ * 描述SensorCollector需要采集哪些传感器，以及每个传感器各自的采样周期和批处理延迟。
+ * 每个传感器有一个固定的ID写入记录流，用于区分不同传感器的数据。
+ */
+public class SensorRegistry {
+    private static final String TAG = "SensorRegistry";
+
+    // 跟随SensorCollector全局设置的取值
+    public static final int FOLLOW_GLOBAL_PERIOD = 0;
+    public static final int FOLLOW_GLOBAL_LATENCY = -1;
+
+    // 默认传感器的ID，与历史数据中的三种传感器保持对应
+    public static final int ID_ACCELEROMETER = 1;
+    public static final int ID_GYROSCOPE = 2;
+    public static final int ID_MAGNETOMETER = 3;
+
+    /**
+     * 单个传感器的采集配置
+     */
+    public static class SensorSpec {
+        private final int sensorId;
+        private final int sensorType;
+        private final String name;
+
+        private volatile boolean enabled = true;
+        private volatile int samplingPeriodUs = FOLLOW_GLOBAL_PERIOD;
+        private volatile int maxReportLatencyUs = FOLLOW_GLOBAL_LATENCY;
+
+        SensorSpec(int sensorId, int sensorType, String name) {
+            this.sensorId = sensorId;
+            this.sensorType = sensorType;
+            this.name = name;
+        }
+
+        public int getSensorId() {
+            return sensorId;
+        }
+
+        public int getSensorType() {
+            return sensorType;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        /**
+         * 采样周期(微秒)，FOLLOW_GLOBAL_PERIOD表示使用全局采样率
+         */
+        public int getSamplingPeriodUs() {
+            return samplingPeriodUs;
+        }
+
+        /**
+         * 批处理最大上报延迟(微秒)，FOLLOW_GLOBAL_LATENCY表示使用全局设置
+         */
+        public int getMaxReportLatencyUs() {
+            return maxReportLatencyUs;
+        }
+
+        /**
+         * 计算实际使用的采样周期
+         */
+        public int resolveSamplingPeriodUs(int globalPeriodUs) {
+            return samplingPeriodUs > 0 ? samplingPeriodUs : globalPeriodUs;
+        }
+
+        /**
+         * 计算实际使用的批处理延迟
+         */
+        public int resolveMaxReportLatencyUs(int globalLatencyUs) {
+            return maxReportLatencyUs >= 0 ? maxReportLatencyUs : globalLatencyUs;
+        }
+
+        @Override
+        public String toString() {
+            return name + "(id=" + sensorId + ", type=" + sensorType +
+                   ", period=" + (samplingPeriodUs > 0 ? samplingPeriodUs + "μs" : "global") +
+                   ", latency=" + (maxReportLatencyUs >= 0 ? maxReportLatencyUs + "μs" : "global") +
+                   (enabled ? "" : ", disabled") + ")";
+        }
+    }
+
+    // 使用数组快照，传感器回调线程上按类型查找时无需加锁、不分配对象
+    private volatile SensorSpec[] specs = new SensorSpec[0];
+
+    /**
+     * 创建包含加速度计、陀螺仪和磁力计的默认注册表
+     */
+    public static SensorRegistry createDefault() {
+        SensorRegistry registry = new SensorRegistry();
+        registry.register(ID_ACCELEROMETER, Sensor.TYPE_ACCELEROMETER, "accelerometer");
+        registry.register(ID_GYROSCOPE, Sensor.TYPE_GYROSCOPE, "gyroscope");
+        registry.register(ID_MAGNETOMETER, Sensor.TYPE_MAGNETIC_FIELD, "magnetometer");
+        return registry;
+    }
+
+    /**
+     * 注册一个传感器类型，自动分配ID；已注册的类型直接返回原配置
+     */
+    public synchronized SensorSpec register(int sensorType, String name) {
+        SensorSpec existing = findByType(sensorType);
+        if (existing != null) {
+            return existing;
+        }
+
+        int nextId = 1;
+        for (SensorSpec spec : specs) {
+            nextId = Math.max(nextId, spec.sensorId + 1);
+        }
+        return register(nextId, sensorType, name);
+    }
+
+    /**
+     * 使用指定ID注册一个传感器类型
+     */
+    public synchronized SensorSpec register(int sensorId, int sensorType, String name) {
+        if (sensorId <= 0 || sensorId > 255) {
+            throw new IllegalArgumentException("传感器ID必须在1-255之间: " + sensorId);
+        }
+        for (SensorSpec spec : specs) {
+            if (spec.sensorId == sensorId || spec.sensorType == sensorType) {
+                throw new IllegalArgumentException("传感器ID或类型已注册: " + spec);
+            }
+        }
+
+        SensorSpec spec = new SensorSpec(sensorId, sensorType, name);
+        SensorSpec[] updated = Arrays.copyOf(specs, specs.length + 1);
+        updated[updated.length - 1] = spec;
+        specs = updated;
+        Log.d(TAG, "注册传感器: " + spec);
+        return spec;
+    }
+
+    /**
+     * 启用或禁用某个传感器类型，下次startListening时生效
+     */
+    public boolean setEnabled(int sensorType, boolean enabled) {
+        SensorSpec spec = findByType(sensorType);
+        if (spec == null) {
+            return false;
+        }
+        spec.enabled = enabled;
+        return true;
+    }
+
+    /**
+     * 设置某个传感器的采样周期，下次startListening时生效
+     * @param periodUs 采样周期(微秒)，FOLLOW_GLOBAL_PERIOD表示使用全局采样率
+     */
+    public boolean setSamplingPeriodUs(int sensorType, int periodUs) {
+        SensorSpec spec = findByType(sensorType);
+        if (spec == null) {
+            return false;
+        }
+        spec.samplingPeriodUs = Math.max(FOLLOW_GLOBAL_PERIOD, periodUs);
+        return true;
+    }
+
+    /**
+     * 以赫兹设置某个传感器的采样率
+     */
+    public boolean setSamplingRateHz(int sensorType, float rateHz) {
+        if (rateHz <= 0) {
+            return setSamplingPeriodUs(sensorType, FOLLOW_GLOBAL_PERIOD);
+        }
+        return setSamplingPeriodUs(sensorType, Math.max(1, Math.round(1_000_000f / rateHz)));
+    }
+
+    /**
+     * 设置某个传感器的批处理最大上报延迟，下次startListening时生效
+     * @param latencyUs 最大上报延迟(微秒)，FOLLOW_GLOBAL_LATENCY表示使用全局设置
+     */
+    public boolean setMaxReportLatencyUs(int sensorType, int latencyUs) {
+        SensorSpec spec = findByType(sensorType);
+        if (spec == null) {
+            return false;
+        }
+        spec.maxReportLatencyUs = Math.max(FOLLOW_GLOBAL_LATENCY, latencyUs);
+        return true;
+    }
+
+    /**
+     * 按Android传感器类型查找配置
+     */
+    public SensorSpec findByType(int sensorType) {
+        SensorSpec[] snapshot = specs;
+        for (SensorSpec spec : snapshot) {
+            if (spec.sensorType == sensorType) {
+                return spec;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 按记录流中的传感器ID查找配置
+     */
+    public SensorSpec findById(int sensorId) {
+        SensorSpec[] snapshot = specs;
+        for (SensorSpec spec : snapshot) {
+            if (spec.sensorId == sensorId) {
+                return spec;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 按传感器ID获取名称，未注册时返回"unknown"
+     */
+    public String getName(int sensorId) {
+        SensorSpec spec = findById(sensorId);
+        return spec != null ? spec.name : "unknown";
+    }
+
+    /**
+     * 获取所有已注册的传感器配置
+     */
+    public List<SensorSpec> getSpecs() {
+        return new ArrayList<>(Arrays.asList(specs));
+    }
+}
@@ -0,0 +1,506 @@
+package com.example.sensordatacollector;
+
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * 多传感器重采样器
+ * 按硬件事件时间(纳秒)把加速度计、陀螺仪和磁力计插值到统一的固定频率时间网格上，
+ * 每个网格点输出一条FusedDataRecord，下游不再需要按时间戳拼接三种传感器的数据。
+ * 某个传感器不存在、被禁用或停止上报超过STALE_TIMEOUT_NANOS时不再等待它，网格点照常输出，
+ * 该传感器的分量记为缺失(NaN，见FusedDataRecord)；单个传感器的数据中断同样只让该传感器在中断期间缺失。
+ * 其他传感器的记录原样转发给下游。停止采集时调用flush()输出缓存中剩余的网格点。
+ * 一般放在DataManager和StorageManager之间，作为StorageManager的前置监听器。
+ */
+public class SensorResampler implements DataManager.DataRecordListener {
+    private static final String TAG = "SensorResampler";
+
+    /**
+     * 插值方式
+     */
+    public enum Interpolation {
+        /** 三个分量分别线性插值 */
+        LINEAR,
+        /** 加速度计和磁力计按方向在球面上插值、模长线性插值；陀螺仪为角速度，仍然线性插值 */
+        SLERP
+    }
+
+    // 参与融合的传感器，按输出顺序排列
+    private static final int[] FUSED_SENSOR_IDS = {
+            SensorRegistry.ID_ACCELEROMETER,
+            SensorRegistry.ID_GYROSCOPE,
+            SensorRegistry.ID_MAGNETOMETER
+    };
+    private static final int CHANNEL_COUNT = FUSED_SENSOR_IDS.length;
+
+    // 每个传感器缓存的样本数，足够覆盖另一个传感器批处理上报造成的延迟
+    private static final int CHANNEL_CAPACITY = 512;
+
+    // 两个样本间隔超过该网格周期倍数时视为数据中断，不跨越中断插值
+    private static final int MAX_GAP_PERIODS = 4;
+
+    // 传感器的最新样本落后于其他传感器超过该时间时视为缺失，不再等待它(覆盖硬件批处理的上报延迟)
+    static final long STALE_TIMEOUT_NANOS = 1_000_000_000L;
+
+    // 两个方向夹角小于该值(弧度)时直接线性插值，避免除以接近0的sin值
+    private static final double SLERP_MIN_ANGLE = 1e-3;
+
+    /**
+     * 单个传感器的样本缓存(环形数组)
+     */
+    private static class Channel {
+        final long[] times = new long[CHANNEL_CAPACITY];
+        final long[] wallTimesMs = new long[CHANNEL_CAPACITY];
+        final float[] xs = new float[CHANNEL_CAPACITY];
+        final float[] ys = new float[CHANNEL_CAPACITY];
+        final float[] zs = new float[CHANNEL_CAPACITY];
+        int start = 0;
+        int size = 0;
+        int accuracy = 0;
+
+        int index(int i) {
+            return (start + i) % CHANNEL_CAPACITY;
+        }
+
+        long oldestTime() {
+            return times[start];
+        }
+
+        long newestTime() {
+            return times[index(size - 1)];
+        }
+
+        /**
+         * 添加样本，缓存已满时覆盖最旧的样本
+         * @return 是否覆盖了旧样本
+         */
+        boolean add(long timeNanos, long wallTimeMs, float x, float y, float z) {
+            boolean overwrote = false;
+            if (size == CHANNEL_CAPACITY) {
+                start = (start + 1) % CHANNEL_CAPACITY;
+                size--;
+                overwrote = true;
+            }
+            int i = index(size);
+            times[i] = timeNanos;
+            wallTimesMs[i] = wallTimeMs;
+            xs[i] = x;
+            ys[i] = y;
+            zs[i] = z;
+            size++;
+            return overwrote;
+        }
+
+        /**
+         * 丢弃前n个样本
+         */
+        void discard(int n) {
+            start = (start + n) % CHANNEL_CAPACITY;
+            size -= n;
+        }
+
+        void clear() {
+            start = 0;
+            size = 0;
+        }
+    }
+
+    private final DataManager.DataRecordListener downstream;
+    private final Channel[] channels = new Channel[CHANNEL_COUNT];
+
+    private volatile long periodNanos;
+    private volatile Interpolation interpolation = Interpolation.LINEAR;
+
+    // 插值结果的临时数组，只在持有锁时使用
+    private final double[] interpolated = new double[3];
+    private final boolean[] stale = new boolean[CHANNEL_COUNT];
+
+    // 重置后收到的第一个样本的时间，还没有样本的传感器从此时开始计算等待时间
+    private long firstSampleNanos = -1;
+
+    // 下一个待输出的网格时间(纳秒)，-1表示尚未确定
+    private long nextTickNanos = -1;
+
+    // 最近一条记录的前台应用和用户信息，写入融合记录
+    private String lastAppName;
+    private String lastPackageName;
+    private String lastUserId;
+
+    // 统计
+    private volatile long ticksEmitted = 0;
+    private volatile long ticksSkipped = 0;     // 所有传感器都中断而跳过的网格点
+    private volatile long samplesDropped = 0;   // 时间戳不递增或被覆盖的样本
+    private volatile long samplesReceived = 0;
+
+    /**
+     * @param downstream 融合记录和其他传感器记录的接收者，通常是StorageManager
+     * @param rateHz 输出网格频率
+     */
+    public SensorResampler(DataManager.DataRecordListener downstream, double rateHz) {
+        if (downstream == null) {
+            throw new IllegalArgumentException("下游监听器不能为空");
+        }
+        this.downstream = downstream;
+        for (int i = 0; i < CHANNEL_COUNT; i++) {
+            channels[i] = new Channel();
+        }
+        setRateHz(rateHz);
+    }
+
+    /**
+     * 设置输出网格频率，会清空已缓存的样本
+     */
+    public synchronized void setRateHz(double rateHz) {
+        if (rateHz <= 0) {
+            throw new IllegalArgumentException("重采样频率必须大于0: " + rateHz);
+        }
+        this.periodNanos = Math.max(1, Math.round(1_000_000_000.0 / rateHz));
+        reset();
+        Log.d(TAG, "重采样网格周期: " + periodNanos + "ns");
+    }
+
+    public double getRateHz() {
+        return 1_000_000_000.0 / periodNanos;
+    }
+
+    public void setInterpolation(Interpolation interpolation) {
+        if (interpolation != null) {
+            this.interpolation = interpolation;
+        }
+    }
+
+    public Interpolation getInterpolation() {
+        return interpolation;
+    }
+
+    /**
+     * 清空缓存的样本，下一组样本重新确定网格起点
+     */
+    public synchronized void reset() {
+        for (Channel channel : channels) {
+            channel.clear();
+        }
+        nextTickNanos = -1;
+        firstSampleNanos = -1;
+    }
+
+    /**
+     * 输出缓存中剩余的网格点并清空缓存，用于停止采集时，否则每次采集最后一段样本不会写入
+     * 超出某个传感器最新样本的网格点中该传感器记为缺失
+     */
+    public synchronized void flush() {
+        long latest = Long.MIN_VALUE;
+        for (Channel channel : channels) {
+            if (channel.size > 0) {
+                latest = Math.max(latest, channel.newestTime());
+            }
+        }
+        if (latest != Long.MIN_VALUE) {
+            Arrays.fill(stale, false);
+            if (nextTickNanos < 0) {
+                nextTickNanos = ceilToGrid(oldestPresentTime(), periodNanos);
+            }
+            while (nextTickNanos <= latest) {
+                emitTick(nextTickNanos);
+                nextTickNanos += periodNanos;
+            }
+        }
+        reset();
+    }
+
+    @Override
+    public synchronized void onNewDataRecord(DataRecord dataRecord) {
+        int channelIndex = channelIndexOf(dataRecord);
+        if (channelIndex < 0) {
+            // 不参与融合的传感器或其他类型的记录原样转发
+            downstream.onNewDataRecord(dataRecord);
+            return;
+        }
+
+        lastAppName = dataRecord.foregroundAppName;
+        lastPackageName = dataRecord.foregroundPackageName;
+        lastUserId = dataRecord.userId;
+        addSample(channelIndex, dataRecord.timestampMs, dataRecord.eventTimeNanos,
+                dataRecord.sensorX, dataRecord.sensorY, dataRecord.sensorZ, dataRecord.sensorAccuracy);
+    }
+
+    @Override
+    public synchronized void onNewBatch(SensorBatch batch) {
+        lastAppName = batch.getForegroundAppName();
+        lastPackageName = batch.getForegroundPackageName();
+        lastUserId = batch.getUserId();
+
+        // 不参与融合的样本收集到一个新批次中一起转发
+        SensorBatch passThrough = null;
+        for (int i = 0; i < batch.size(); i++) {
+            int channelIndex = channelIndexOf(batch.getSensorId(i));
+            if (channelIndex < 0) {
+                if (passThrough == null) {
+                    passThrough = new SensorBatch(batch.size(), batch.getUserId(),
+                            batch.getForegroundAppName(), batch.getForegroundPackageName());
+                }
+                passThrough.add(batch.getTimestampMs(i), batch.getEventTimeNanos(i), batch.getSensorId(i),
+                        batch.getSensorName(i), batch.getX(i), batch.getY(i), batch.getZ(i), batch.getAccuracy(i));
+                continue;
+            }
+            addSample(channelIndex, batch.getTimestampMs(i), batch.getEventTimeNanos(i),
+                    batch.getX(i), batch.getY(i), batch.getZ(i), batch.getAccuracy(i));
+        }
+
+        if (passThrough != null) {
+            downstream.onNewBatch(passThrough);
+        }
+    }
+
+    /**
+     * 加入一个参与融合的样本，并输出已经可以插值的网格点
+     */
+    private void addSample(int channelIndex, long timestampMs, long eventTimeNanos, float x, float y, float z, int accuracy) {
+        samplesReceived++;
+
+        long timeNanos = eventTimeNanos != 0 ? eventTimeNanos : timestampMs * 1_000_000L;
+        Channel channel = channels[channelIndex];
+        if (channel.size > 0 && timeNanos <= channel.newestTime()) {
+            // 重复或乱序的样本无法用于插值
+            samplesDropped++;
+            return;
+        }
+        if (channel.add(timeNanos, timestampMs, x, y, z)) {
+            samplesDropped++;
+        }
+        if (firstSampleNanos < 0) {
+            firstSampleNanos = timeNanos;
+        }
+        channel.accuracy = accuracy;
+
+        emitReadyTicks();
+    }
+
+    private static int channelIndexOf(DataRecord record) {
+        if (!"sensor".equals(record.type)) {
+            return -1;
+        }
+        return channelIndexOf(record.sensorId);
+    }
+
+    private static int channelIndexOf(int sensorId) {
+        for (int i = 0; i < CHANNEL_COUNT; i++) {
+            if (FUSED_SENSOR_IDS[i] == sensorId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 输出所有未缺失的传感器都已覆盖的网格点
+     * 传感器的最新样本(没有样本时为重置后第一个样本的时间)比最新的传感器落后超过STALE_TIMEOUT_NANOS时视为缺失；
+     * 有传感器的缓存已满时，继续等待落后的传感器会覆盖样本，落后超过MAX_GAP_PERIODS个周期即视为缺失
+     */
+    private void emitReadyTicks() {
+        long period = periodNanos;
+        long latest = Long.MIN_VALUE;
+        boolean full = false;
+        for (Channel channel : channels) {
+            if (channel.size > 0) {
+                latest = Math.max(latest, channel.newestTime());
+                full |= channel.size == CHANNEL_CAPACITY;
+            }
+        }
+        long timeout = full ? period * MAX_GAP_PERIODS : STALE_TIMEOUT_NANOS;
+
+        long newestCommon = Long.MAX_VALUE;
+        for (int c = 0; c < CHANNEL_COUNT; c++) {
+            Channel channel = channels[c];
+            long newest = channel.size > 0 ? channel.newestTime() : firstSampleNanos;
+            stale[c] = latest - newest > timeout;
+            if (!stale[c]) {
+                if (channel.size == 0) {
+                    // 等待尚未上报的传感器
+                    return;
+                }
+                newestCommon = Math.min(newestCommon, newest);
+            }
+        }
+
+        if (nextTickNanos < 0) {
+            nextTickNanos = ceilToGrid(oldestPresentTime(), period);
+        }
+        while (nextTickNanos <= newestCommon) {
+            emitTick(nextTickNanos);
+            nextTickNanos += period;
+        }
+    }
+
+    /**
+     * 未缺失的传感器中最晚的最旧样本时间，作为第一个网格点的下限
+     */
+    private long oldestPresentTime() {
+        long oldest = Long.MIN_VALUE;
+        for (int c = 0; c < CHANNEL_COUNT; c++) {
+            if (!stale[c] && channels[c].size > 0) {
+                oldest = Math.max(oldest, channels[c].oldestTime());
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * 在一个网格点上插值并输出融合记录
+     * 已缺失、网格点不在缓存样本范围内或相邻样本间隔超过MAX_GAP_PERIODS个周期的传感器记为缺失，全部缺失时跳过该网格点
+     */
+    private void emitTick(long tick) {
+        long maxGapNanos = periodNanos * MAX_GAP_PERIODS;
+        FusedDataRecord fused = null;
+        for (int c = 0; c < CHANNEL_COUNT; c++) {
+            Channel channel = channels[c];
+            if (stale[c] || channel.size == 0) {
+                continue;
+            }
+            discardBefore(channel, tick);
+            int a = channel.index(0);
+            int b = channel.index(Math.min(1, channel.size - 1));
+            long span = channel.times[b] - channel.times[a];
+            if (channel.times[a] > tick || channel.times[b] < tick || span > maxGapNanos) {
+                continue;
+            }
+
+            if (fused == null) {
+                // 墙上时间按第一个可用传感器的相邻样本换算，保证与原始记录使用同一时基
+                long wallMs = channel.wallTimesMs[a] + Math.round((tick - channel.times[a]) / 1_000_000.0);
+                fused = new FusedDataRecord(wallMs, tick, 0, lastAppName, lastPackageName, lastUserId);
+                fused.setAbsent(true, true, true);
+                fused.sensorAccuracy = Integer.MAX_VALUE;
+            }
+            fused.sensorAccuracy = Math.min(fused.sensorAccuracy, channel.accuracy);
+
+            double f = span > 0 ? (double) (tick - channel.times[a]) / span : 0;
+            interpolate(channel, a, b, f, FUSED_SENSOR_IDS[c], fused);
+        }
+
+        if (fused == null) {
+            ticksSkipped++;
+            return;
+        }
+        ticksEmitted++;
+        downstream.onNewDataRecord(fused);
+    }
+
+    /**
+     * 丢弃网格点之前不再需要的样本，之后缓存中第一个样本满足 times[0] <= tick < times[1]
+     */
+    private static void discardBefore(Channel channel, long tick) {
+        int i = 0;
+        while (i + 1 < channel.size && channel.times[channel.index(i + 1)] <= tick) {
+            i++;
+        }
+        if (i > 0) {
+            channel.discard(i);
+        }
+    }
+
+    private static long ceilToGrid(long timeNanos, long period) {
+        long floor = Math.floorDiv(timeNanos, period) * period;
+        return floor == timeNanos ? floor : floor + period;
+    }
+
+    /**
+     * 在两个样本之间插值并写入融合记录的对应分量
+     */
+    private void interpolate(Channel channel, int a, int b, double f, int sensorId, FusedDataRecord out) {
+        double x0 = channel.xs[a], y0 = channel.ys[a], z0 = channel.zs[a];
+        double x1 = channel.xs[b], y1 = channel.ys[b], z1 = channel.zs[b];
+        double[] result = interpolated;
+        if (interpolation == Interpolation.SLERP && sensorId != SensorRegistry.ID_GYROSCOPE) {
+            slerp(x0, y0, z0, x1, y1, z1, f, result);
+        } else {
+            lerp(x0, y0, z0, x1, y1, z1, f, result);
+        }
+
+        switch (sensorId) {
+            case SensorRegistry.ID_ACCELEROMETER:
+                out.accX = (float) result[0];
+                out.accY = (float) result[1];
+                out.accZ = (float) result[2];
+                break;
+            case SensorRegistry.ID_GYROSCOPE:
+                out.gyroX = (float) result[0];
+                out.gyroY = (float) result[1];
+                out.gyroZ = (float) result[2];
+                break;
+            case SensorRegistry.ID_MAGNETOMETER:
+            default:
+                out.magX = (float) result[0];
+                out.magY = (float) result[1];
+                out.magZ = (float) result[2];
+                break;
+        }
+    }
+
+    private static void lerp(double x0, double y0, double z0, double x1, double y1, double z1, double f, double[] out) {
+        out[0] = x0 + (x1 - x0) * f;
+        out[1] = y0 + (y1 - y0) * f;
+        out[2] = z0 + (z1 - z0) * f;
+    }
+
+    /**
+     * 向量球面插值：方向沿大圆插值，模长线性插值
+     */
+    static void slerp(double x0, double y0, double z0, double x1, double y1, double z1, double f, double[] out) {
+        double m0 = Math.sqrt(x0 * x0 + y0 * y0 + z0 * z0);
+        double m1 = Math.sqrt(x1 * x1 + y1 * y1 + z1 * z1);
+        if (m0 == 0 || m1 == 0) {
+            lerp(x0, y0, z0, x1, y1, z1, f, out);
+            return;
+        }
+
+        double cos = (x0 * x1 + y0 * y1 + z0 * z1) / (m0 * m1);
+        double angle = Math.acos(Math.max(-1.0, Math.min(1.0, cos)));
+        double w0;
+        double w1;
+        if (angle < SLERP_MIN_ANGLE || Math.PI - angle < SLERP_MIN_ANGLE) {
+            // 方向几乎相同(或相反，此时大圆不唯一)，退化为方向的线性插值
+            w0 = 1 - f;
+            w1 = f;
+        } else {
+            double sin = Math.sin(angle);
+            w0 = Math.sin((1 - f) * angle) / sin;
+            w1 = Math.sin(f * angle) / sin;
+        }
+
+        double dx = w0 * x0 / m0 + w1 * x1 / m1;
+        double dy = w0 * y0 / m0 + w1 * y1 / m1;
+        double dz = w0 * z0 / m0 + w1 * z1 / m1;
+        double dm = Math.sqrt(dx * dx + dy * dy + dz * dz);
+        double magnitude = m0 + (m1 - m0) * f;
+        double scale = dm > 0 ? magnitude / dm : 0;
+        out[0] = dx * scale;
+        out[1] = dy * scale;
+        out[2] = dz * scale;
+    }
+
+    public long getTicksEmitted() {
+        return ticksEmitted;
+    }
+
+    public long getTicksSkipped() {
+        return ticksSkipped;
+    }
+
+    public long getSamplesDropped() {
+        return samplesDropped;
+    }
+
+    public long getSamplesReceived() {
+        return samplesReceived;
+    }
+
+    @Override
+    public String toString() {
+        return "重采样 " + String.format(Locale.US, "%.1f", getRateHz()) + "Hz (" + interpolation + ")" +
+               ": 输入 " + samplesReceived + " 个样本, 输出 " + ticksEmitted + " 行, 跳过 " + ticksSkipped +
+               " 个网格点, 丢弃 " + samplesDropped + " 个样本";
+    }
+}
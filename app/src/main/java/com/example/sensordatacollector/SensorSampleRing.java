@@ -0,0 +1,126 @@
+package com.example.sensordatacollector;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 传感器样本环形缓冲区
+ * 单生产者（传感器回调线程）/单消费者（处理线程），预分配原始类型数组，
+ * 写入和读取过程中不产生任何对象分配
+ */
+public class SensorSampleRing {
+
+    /**
+     * 样本消费回调，参数均为原始类型，避免装箱和临时对象
+     */
+    public interface SampleHandler {
+        void onSample(int sensorId, long eventTimeNanos, float x, float y, float z, int accuracy);
+    }
+
+    private final int capacity;
+    private final int mask;
+
+    // 按列存储的样本槽位，传感器以SensorRegistry中的ID标识
+    private final int[] sensorIds;
+    private final long[] eventTimeNanos;
+    private final float[] valuesX;
+    private final float[] valuesY;
+    private final float[] valuesZ;
+    private final int[] accuracies;
+
+    // head只由生产者写入，tail只由消费者写入
+    private final AtomicLong head = new AtomicLong(0);
+    private final AtomicLong tail = new AtomicLong(0);
+
+    // 因缓冲区已满而丢弃的样本数
+    private final AtomicLong droppedCount = new AtomicLong(0);
+
+    /**
+     * @param capacity 容量，会向上取整为2的幂
+     */
+    public SensorSampleRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.capacity = size;
+        this.mask = size - 1;
+        this.sensorIds = new int[size];
+        this.eventTimeNanos = new long[size];
+        this.valuesX = new float[size];
+        this.valuesY = new float[size];
+        this.valuesZ = new float[size];
+        this.accuracies = new int[size];
+    }
+
+    /**
+     * 写入一个样本，只能由生产者线程调用
+     * @return 缓冲区已满时返回false，样本被丢弃
+     */
+    public boolean offer(int sensorId, long timeNanos, float x, float y, float z, int accuracy) {
+        long h = head.get();
+        if (h - tail.get() >= capacity) {
+            droppedCount.incrementAndGet();
+            return false;
+        }
+
+        int index = (int) (h & mask);
+        sensorIds[index] = sensorId;
+        eventTimeNanos[index] = timeNanos;
+        valuesX[index] = x;
+        valuesY[index] = y;
+        valuesZ[index] = z;
+        accuracies[index] = accuracy;
+
+        // volatile写保证槽位写入先于head的发布对消费者可见；不用lazySet，
+        // 否则生产者随后读取消费者的休眠标志可能重排到发布之前，消费者无超时休眠时会错过唤醒
+        head.set(h + 1);
+        return true;
+    }
+
+    /**
+     * 读取最多maxSamples个样本交给handler处理，只能由消费者线程调用
+     * @return 实际处理的样本数
+     */
+    public int drain(SampleHandler handler, int maxSamples) {
+        long t = tail.get();
+        long available = head.get() - t;
+        if (available <= 0) {
+            return 0;
+        }
+
+        int count = (int) Math.min(available, maxSamples);
+        for (int i = 0; i < count; i++) {
+            int index = (int) ((t + i) & mask);
+            handler.onSample(sensorIds[index], eventTimeNanos[index],
+                    valuesX[index], valuesY[index], valuesZ[index], accuracies[index]);
+        }
+
+        tail.lazySet(t + count);
+        return count;
+    }
+
+    /**
+     * 缓冲区是否为空
+     */
+    public boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    /**
+     * 当前缓冲的样本数
+     */
+    public int size() {
+        return (int) (head.get() - tail.get());
+    }
+
+    /**
+     * 缓冲区容量
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * 因缓冲区已满而丢弃的样本总数
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+}
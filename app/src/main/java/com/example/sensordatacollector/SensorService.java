@@ -35,6 +35,10 @@ public class SensorService extends Service implements ComponentCallbacks2 {
     private static final String CHANNEL_ID = "sensor_service_channel";
 
     private SensorCollector sensorCollector;
+    private MotionAdaptiveController motionAdaptiveController;
+    
+    // 融合输出时位于DataManager和StorageManager之间的重采样器，null表示写入原始记录
+    private SensorResampler sensorResampler;
     private DataManager dataManager;
     private StorageManager storageManager;
     private BatteryStatsManager batteryStatsManager;
@@ -50,6 +54,17 @@ public class SensorService extends Service implements ComponentCallbacks2 {
     // 采样率，默认为5毫秒（高频采样）
     private int samplingRateMs = 10; // 默认10毫秒
     
+    // 硬件FIFO批处理的最大上报延迟(毫秒)，0表示不批处理
+    private int maxReportLatencyMs = 0;
+    
+    // 时钟映射出现跳变或首次获得服务器时间时，在当前文件中追加一行新的映射
+    private final ClockSyncManager.ClockSyncListener clockSyncListener = (mapping, stepped) -> {
+        StorageManager storage = storageManager;
+        if (stepped && storage != null && isRecordingToFile) {
+            storage.writeClockSyncMetadata();
+        }
+    };
+    
     // 服务级别的Handler，用于延迟任务
     private Handler serviceHandler;
     
@@ -158,6 +173,7 @@ public class SensorService extends Service implements ComponentCallbacks2 {
         batteryStatsManager = BatteryStatsManager.getInstance(this);
         storageManager = new StorageManager(this);
         sensorCollector = new SensorCollector(this, dataManager);
+        motionAdaptiveController = new MotionAdaptiveController(this, sensorCollector);
         foregroundAppManager = ForegroundAppManager.getInstance(this);
         
         // 初始化时间戳管理器
@@ -166,6 +182,19 @@ public class SensorService extends Service implements ComponentCallbacks2 {
         // 监听数据
         dataManager.addListener(storageManager);
         
+        // 定期跟踪传感器时钟与墙上时间/服务器时间的映射，映射变化时写入当前文件
+        ClockSyncManager.getInstance().addListener(clockSyncListener);
+        ClockSyncManager.getInstance().start();
+        
+        // 定时切换文件前清空传感器FIFO并等待flush完成，让切换前采集的样本尽量写入旧文件；
+        // 仍在采集和写入队列中的样本可能落入新文件，见StorageManager.FileRotationListener
+        storageManager.setFileRotationListener(() -> {
+            SensorCollector collector = sensorCollector;
+            if (collector != null) {
+                collector.flushBatchedEventsAndWait();
+            }
+        });
+        
         // 注册屏幕状态广播接收器
         IntentFilter screenFilter = new IntentFilter();
         screenFilter.addAction(Intent.ACTION_SCREEN_ON);
@@ -179,6 +208,9 @@ public class SensorService extends Service implements ComponentCallbacks2 {
         
         // 注册内存回调，确保服务能够响应系统内存压力
         registerComponentCallbacks(this);
+        
+        // 充电且空闲时在后台重新压缩已封存的数据段
+        SegmentCompactionJobService.schedule(this);
     }
 
     @Override
@@ -186,6 +218,19 @@ public class SensorService extends Service implements ComponentCallbacks2 {
         if (intent != null && intent.hasExtra("samplingRateMs")) {
             samplingRateMs = intent.getIntExtra("samplingRateMs", 200);
         }
+        if (intent != null && intent.hasExtra("maxReportLatencyMs")) {
+            setMaxReportLatencyMs(intent.getIntExtra("maxReportLatencyMs", 0));
+        }
+        if (intent != null && intent.hasExtra("fusedOutputHz")) {
+            double fusedOutputHz = intent.getDoubleExtra("fusedOutputHz", 0);
+            setFusedOutput(fusedOutputHz, SensorResampler.Interpolation.LINEAR);
+        }
+        if (intent != null && intent.hasExtra("significantMotionWake")) {
+            setSignificantMotionWakeEnabled(intent.getBooleanExtra("significantMotionWake", false));
+        }
+        if (intent != null && intent.hasExtra("motionAdaptiveSampling")) {
+            setMotionAdaptiveSamplingEnabled(intent.getBooleanExtra("motionAdaptiveSampling", false));
+        }
         
         // 使用兼容不同Android版本的方式启动前台服务
         startForegroundService();
@@ -389,6 +434,7 @@ public class SensorService extends Service implements ComponentCallbacks2 {
      * 停止收集数据（即停止写入文件，但保持监控）
      */
     public void stopCollecting() {
+        flushResampler();
         dataManager.setShouldRecordToFile(false);
         dataManager.setCollecting(false);
         isRecordingToFile = false;
@@ -417,6 +463,7 @@ public class SensorService extends Service implements ComponentCallbacks2 {
         if (sensorCollector != null && sensorCollector.isListening()) {
             sensorCollector.stopListening();
         }
+        flushResampler();
         dataManager.setShouldRecordToFile(false);
         dataManager.setCollecting(false);
         isRecordingToFile = false;
@@ -444,6 +491,114 @@ public class SensorService extends Service implements ComponentCallbacks2 {
         Log.d(TAG, "采样率已设置为: " + samplingRateMs + "ms");
     }
 
+    /**
+     * 设置硬件FIFO批处理的最大上报延迟，下次启动传感器监听时生效
+     * @param latencyMs 最大上报延迟(毫秒)，0表示关闭批处理
+     */
+    public void setMaxReportLatencyMs(int latencyMs) {
+        this.maxReportLatencyMs = Math.max(0, latencyMs);
+        if (sensorCollector != null) {
+            sensorCollector.setMaxReportLatencyUs(this.maxReportLatencyMs * 1000);
+        }
+        Log.d(TAG, "批处理最大上报延迟已设置为: " + this.maxReportLatencyMs + "ms");
+    }
+    
+    /**
+     * 获取硬件FIFO批处理的最大上报延迟(毫秒)
+     */
+    public int getMaxReportLatencyMs() {
+        return maxReportLatencyMs;
+    }
+
+    /**
+     * 设置融合输出：加速度计、陀螺仪和磁力计按固定频率重采样后每个时间点写入一行9轴记录
+     * @param rateHz 输出频率，小于等于0表示关闭融合，恢复写入原始记录
+     */
+    public synchronized void setFusedOutput(double rateHz, SensorResampler.Interpolation interpolation) {
+        if (dataManager == null || storageManager == null) {
+            return;
+        }
+        
+        if (rateHz <= 0) {
+            if (sensorResampler != null) {
+                // 先恢复原始记录的写入再移除重采样器，切换期间的批次不会丢失
+                dataManager.addListener(storageManager);
+                dataManager.removeListener(sensorResampler);
+                sensorResampler.flush();
+                Log.i(TAG, "关闭融合输出，" + sensorResampler);
+                sensorResampler = null;
+            }
+            return;
+        }
+        
+        if (sensorResampler == null) {
+            sensorResampler = new SensorResampler(storageManager, rateHz);
+            sensorResampler.setInterpolation(interpolation);
+            // 先添加重采样器再移除原始记录的写入，切换期间的批次不会丢失
+            dataManager.addListener(sensorResampler);
+            dataManager.removeListener(storageManager);
+        } else {
+            sensorResampler.setRateHz(rateHz);
+            sensorResampler.setInterpolation(interpolation);
+        }
+        Log.i(TAG, "融合输出已启用: " + rateHz + "Hz, 插值方式: " + sensorResampler.getInterpolation());
+    }
+    
+    /**
+     * 输出重采样器中缓存的最后一段样本，需要在停止写入文件之前调用
+     */
+    private void flushResampler() {
+        SensorResampler resampler = sensorResampler;
+        if (resampler != null) {
+            resampler.flush();
+        }
+    }
+    
+    /**
+     * 获取融合输出使用的重采样器，未启用时返回null
+     */
+    public SensorResampler getSensorResampler() {
+        return sensorResampler;
+    }
+
+    /**
+     * 启用或停用运动自适应采样：设备静止时降低采样率，检测到运动时恢复，默认关闭
+     */
+    public void setMotionAdaptiveSamplingEnabled(boolean enabled) {
+        if (motionAdaptiveController == null) {
+            return;
+        }
+        if (enabled) {
+            motionAdaptiveController.start();
+        } else {
+            motionAdaptiveController.stop();
+        }
+    }
+    
+    public boolean isMotionAdaptiveSamplingEnabled() {
+        return motionAdaptiveController != null && motionAdaptiveController.isRunning();
+    }
+    
+    /**
+     * 运动自适应采样进入空闲时是否同时用TYPE_SIGNIFICANT_MOTION唤醒，默认关闭
+     */
+    public void setSignificantMotionWakeEnabled(boolean enabled) {
+        if (motionAdaptiveController != null) {
+            motionAdaptiveController.setUseSignificantMotion(enabled);
+        }
+    }
+    
+    public boolean isSignificantMotionWakeEnabled() {
+        return motionAdaptiveController != null && motionAdaptiveController.isUsingSignificantMotion();
+    }
+    
+    /**
+     * 获取运动自适应采样控制器，未创建时返回null
+     */
+    public MotionAdaptiveController getMotionAdaptiveController() {
+        return motionAdaptiveController;
+    }
+
     /**
      * 获取电池信息
      */
@@ -451,6 +606,112 @@ public class SensorService extends Service implements ComponentCallbacks2 {
         return batteryStatsManager.getBatteryStatsInfo();
     }
     
+    /**
+     * 获取各传感器的实际采样频率和抖动统计
+     */
+    public List<SensorRateMonitor.RateStats> getSensorRateStats() {
+        return sensorCollector != null ? sensorCollector.getRateStats() : new ArrayList<>();
+    }
+    
+    /**
+     * 获取采集流水线各阶段(环形缓冲区、分发、写入)的入队/丢弃计数，按数据流向排列
+     */
+    public List<PipelineStageStats> getPipelineStats() {
+        List<PipelineStageStats> stats = new ArrayList<>();
+        if (sensorCollector != null) {
+            stats.add(sensorCollector.getPipelineStats());
+        }
+        if (dataManager != null) {
+            stats.add(dataManager.getPipelineStats());
+        }
+        if (storageManager != null) {
+            stats.add(storageManager.getPipelineStats());
+        }
+        return stats;
+    }
+    
+    /**
+     * 设置分发和写入阶段队列已满时的处理策略
+     */
+    public void setBackpressurePolicy(BackpressurePolicy policy) {
+        if (dataManager != null) {
+            dataManager.setBackpressurePolicy(policy);
+        }
+        if (storageManager != null) {
+            storageManager.setBackpressurePolicy(policy);
+        }
+    }
+    
+    /**
+     * 设置数据文件的刷新策略
+     */
+    public void setFlushPolicy(FlushPolicy policy) {
+        if (storageManager != null) {
+            storageManager.setFlushPolicy(policy);
+        }
+    }
+    
+    /**
+     * 设置是否以二进制数据段格式写入数据文件
+     */
+    public void setUseBinaryFormat(boolean use) {
+        if (storageManager != null) {
+            storageManager.setUseBinaryFormat(use);
+        }
+    }
+    
+    /**
+     * 设置二进制数据段是否使用Gorilla记录块编码
+     */
+    public void setUseGorillaEncoding(boolean use) {
+        if (storageManager != null) {
+            storageManager.setUseGorillaEncoding(use);
+        }
+    }
+    
+    /**
+     * 设置二进制数据段在电池供电和充电时使用的压缩编码
+     */
+    public void setCompressionCodecs(CompressionCodec onBattery, CompressionCodec whileCharging) {
+        if (storageManager != null) {
+            storageManager.setCompressionCodecs(onBattery, whileCharging);
+        }
+    }
+    
+    /**
+     * 设置数据文件的存储配额和淘汰策略
+     */
+    public void setStorageQuota(StorageQuota quota) {
+        if (storageManager != null) {
+            storageManager.setStorageQuota(quota);
+        }
+    }
+    
+    /**
+     * 获取数据文件的写入计数(压缩率、写调用和刷新次数)，存储未初始化时返回null
+     */
+    public StorageWriteStats getStorageWriteStats() {
+        return storageManager != null ? storageManager.getWriteStats() : null;
+    }
+    
+    /**
+     * 获取存储配额淘汰计数(删除和降采样的文件、释放的字节数)，存储未初始化时返回null
+     */
+    public StorageEvictionStats getStorageEvictionStats() {
+        return storageManager != null ? storageManager.getEvictionStats() : null;
+    }
+    
+    /**
+     * 以JSON数组导出各传感器的频率统计
+     */
+    public JSONArray getSensorRateStatsJson() {
+        JSONArray array = new JSONArray();
+        for (SensorRateMonitor.RateStats stats : getSensorRateStats()) {
+            array.put(stats.toJson());
+        }
+        return array;
+    }
+    
     /**
      * 获取服务运行状态
      */
@@ -524,6 +785,16 @@ public class SensorService extends Service implements ComponentCallbacks2 {
             Log.w(TAG, "取消注册组件回调失败", e);
         }
 
+        // 停止时钟同步
+        ClockSyncManager.getInstance().removeListener(clockSyncListener);
+        ClockSyncManager.getInstance().stop();
+
+        // 停止运动自适应采样
+        if (motionAdaptiveController != null) {
+            motionAdaptiveController.stop();
+            motionAdaptiveController = null;
+        }
+
         // 关闭 SensorCollector
         if (sensorCollector != null) {
             try {
@@ -539,6 +810,11 @@ public class SensorService extends Service implements ComponentCallbacks2 {
         if (dataManager != null) {
             try {
                 dataManager.removeListener(storageManager); // 先移除监听器
+                if (sensorResampler != null) {
+                    dataManager.removeListener(sensorResampler);
+                    sensorResampler.flush();
+                    sensorResampler = null;
+                }
                 dataManager.shutdown();
                 Log.d(TAG, "DataManager 已关闭");
             } catch (Exception e) {
@@ -0,0 +1,259 @@
+package com.example.sensordatacollector;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 磁盘溢写缓冲区
+ * 队列已满时把记录按JSONL追加到文件，队列空闲后按写入顺序读回。
+ * 读回时保持一个读取流打开，从上次的位置继续读，不重新打开和跳过已读回的部分。
+ * 文件全部读完后删除；进程退出后，下次创建时会继续读回残留的记录。
+ * 正常关闭时会移除已读回的部分；异常退出时最后一批记录可能被重复读回。
+ */
+public class SpillBuffer {
+    private static final String TAG = "SpillBuffer";
+
+    public interface RecordHandler {
+        void handle(DataRecord record);
+    }
+
+    private final File spillFile;
+    private BufferedWriter writer;
+
+    // 已读回的字节位置
+    private long readOffset = 0;
+
+    // 读取流及其中已读入但未处理的字节，位于readOffset之后
+    private FileInputStream reader;
+    private byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+    private int bufferStart = 0;
+    private int bufferEnd = 0;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    public SpillBuffer(File directory, String name) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.w(TAG, "创建溢写目录失败: " + directory.getAbsolutePath());
+        }
+        this.spillFile = new File(directory, name + ".spill.jsonl");
+        if (spillFile.length() > 0) {
+            Log.i(TAG, "发现上次残留的溢写数据: " + spillFile.getName() + " (" + spillFile.length() + " 字节)");
+        }
+    }
+
+    /**
+     * 追加一条记录
+     */
+    public synchronized void append(DataRecord record) throws IOException {
+        if (writer == null) {
+            writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(spillFile, true), StandardCharsets.UTF_8));
+        }
+        writer.write(record.toJson().toString());
+        writer.write('\n');
+    }
+
+    /**
+     * 还有未读回的记录时追加一条记录，用于保证溢写期间的新记录排在已溢写的记录之后
+     * @return 没有未读回的记录时不追加并返回false
+     */
+    public synchronized boolean appendIfPending(DataRecord record) throws IOException {
+        if (!hasPending()) {
+            return false;
+        }
+        append(record);
+        return true;
+    }
+
+    /**
+     * 是否还有未读回的记录
+     */
+    public synchronized boolean hasPending() {
+        return writer != null || spillFile.length() > readOffset;
+    }
+
+    /**
+     * 按写入顺序读回最多maxRecords条记录交给handler
+     * 只在读取时持有锁，handler在锁外调用，处理期间仍然可以追加新记录
+     * @return 读回的记录数
+     */
+    public int drain(RecordHandler handler, int maxRecords) {
+        List<DataRecord> records = readRecords(maxRecords);
+        for (DataRecord record : records) {
+            handler.handle(record);
+        }
+        // 处理完成后再删除文件，处理期间进程退出时这些记录下次还能读回
+        resetIfDrained();
+        return records.size();
+    }
+
+    /**
+     * 从上次的位置读取最多maxRecords条记录
+     */
+    private synchronized List<DataRecord> readRecords(int maxRecords) {
+        List<DataRecord> records = new ArrayList<>(Math.min(maxRecords, 256));
+        try {
+            if (writer != null) {
+                writer.flush();
+            }
+            if (spillFile.length() <= readOffset) {
+                return records;
+            }
+
+            if (reader == null) {
+                reader = new FileInputStream(spillFile);
+                long skipped = 0;
+                while (skipped < readOffset) {
+                    long n = reader.skip(readOffset - skipped);
+                    if (n <= 0) {
+                        break;
+                    }
+                    skipped += n;
+                }
+            }
+
+            String line;
+            while (records.size() < maxRecords && (line = readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    records.add(DataRecord.fromJson(new JSONObject(line)));
+                } catch (JSONException e) {
+                    Log.w(TAG, "跳过无法解析的溢写记录: " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "读回溢写数据失败", e);
+        }
+        return records;
+    }
+
+    /**
+     * 全部读回时关闭并删除溢写文件；读回期间追加的记录留到下次读回
+     */
+    private synchronized void resetIfDrained() {
+        try {
+            if (writer != null) {
+                writer.flush();
+            }
+            if (spillFile.length() <= readOffset) {
+                reset();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "删除溢写文件失败", e);
+        }
+    }
+
+    /**
+     * 读取下一行并推进readOffset，文件末尾没有完整的行时返回null
+     */
+    private String readLine() throws IOException {
+        while (true) {
+            for (int i = bufferStart; i < bufferEnd; i++) {
+                if (readBuffer[i] == '\n') {
+                    String line = new String(readBuffer, bufferStart, i - bufferStart, StandardCharsets.UTF_8);
+                    readOffset += i - bufferStart + 1;
+                    bufferStart = i + 1;
+                    return line;
+                }
+            }
+            // 把未处理的部分移到开头，一行超过缓冲区时扩大缓冲区
+            int remaining = bufferEnd - bufferStart;
+            if (bufferStart > 0) {
+                System.arraycopy(readBuffer, bufferStart, readBuffer, 0, remaining);
+            } else if (remaining == readBuffer.length) {
+                readBuffer = Arrays.copyOf(readBuffer, readBuffer.length * 2);
+            }
+            bufferStart = 0;
+            bufferEnd = remaining;
+            // 文件在写入时增长，读到末尾后再次读取可以得到新追加的数据
+            int n = reader.read(readBuffer, bufferEnd, readBuffer.length - bufferEnd);
+            if (n <= 0) {
+                return null;
+            }
+            bufferEnd += n;
+        }
+    }
+
+    private void closeReader() {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                Log.w(TAG, "关闭溢写读取流失败", e);
+            }
+            reader = null;
+        }
+        bufferStart = 0;
+        bufferEnd = 0;
+    }
+
+    /**
+     * 全部读回后关闭并删除溢写文件
+     */
+    private void reset() throws IOException {
+        closeReader();
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+        if (spillFile.exists() && !spillFile.delete()) {
+            Log.w(TAG, "删除溢写文件失败: " + spillFile.getName());
+        }
+        readOffset = 0;
+    }
+
+    /**
+     * 关闭写入流，未读回的数据保留在磁盘上，已读回的部分从文件中移除
+     */
+    public synchronized void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                Log.w(TAG, "关闭溢写文件失败", e);
+            }
+            writer = null;
+        }
+        closeReader();
+
+        if (readOffset > 0 && spillFile.length() > readOffset) {
+            compact();
+        }
+    }
+
+    /**
+     * 把未读回的部分复制到新文件，避免下次启动时重复读回已处理的记录
+     */
+    private void compact() {
+        File tempFile = new File(spillFile.getParentFile(), spillFile.getName() + ".tmp");
+        try (FileInputStream in = new FileInputStream(spillFile);
+             FileOutputStream out = new FileOutputStream(tempFile)) {
+            in.getChannel().transferTo(readOffset, spillFile.length() - readOffset, out.getChannel());
+        } catch (IOException e) {
+            Log.w(TAG, "压缩溢写文件失败，下次启动时可能重复读回部分记录", e);
+            tempFile.delete();
+            return;
+        }
+
+        if (tempFile.renameTo(spillFile)) {
+            readOffset = 0;
+        } else {
+            Log.w(TAG, "替换溢写文件失败");
+            tempFile.delete();
+        }
+    }
+}
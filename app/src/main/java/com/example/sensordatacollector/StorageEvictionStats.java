@@ -0,0 +1,138 @@
+package com.example.sensordatacollector;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 存储配额淘汰的计数器
+ * 统计淘汰次数、删除的文件数和字节数、降采样的文件数、丢弃的记录数和释放的字节数，
+ * 以及最近一次淘汰前后的占用和可用空间，用于观察离线时配额对数据的影响。
+ */
+public class StorageEvictionStats {
+    private final AtomicLong evictions = new AtomicLong(0);            // 释放了空间的淘汰次数
+    private final AtomicLong filesDeleted = new AtomicLong(0);         // 删除的文件数
+    private final AtomicLong uploadedFilesDeleted = new AtomicLong(0); // 其中已上传的文件数
+    private final AtomicLong unuploadedRecordsDeleted = new AtomicLong(0); // 删除的未上传文件中的记录数(清单中已知的部分)
+    private final AtomicLong filesDownsampled = new AtomicLong(0);     // 降采样次数
+    private final AtomicLong recordsDropped = new AtomicLong(0);       // 降采样丢弃的记录数
+    private final AtomicLong bytesFreed = new AtomicLong(0);           // 释放的字节数
+
+    // 最近一次淘汰的情况
+    private volatile long lastEvictionMs = 0;
+    private volatile long lastUsedBytesBefore = 0;
+    private volatile long lastUsedBytesAfter = 0;
+    private volatile long lastFreeBytesBefore = 0;
+    private volatile long lastBytesFreed = 0;
+
+    public void recordDeletion(long bytes, boolean uploaded, long records) {
+        filesDeleted.incrementAndGet();
+        if (uploaded) {
+            uploadedFilesDeleted.incrementAndGet();
+        } else {
+            unuploadedRecordsDeleted.addAndGet(records);
+        }
+        bytesFreed.addAndGet(bytes);
+    }
+
+    public void recordDownsample(long bytesFreed, long recordsDropped) {
+        filesDownsampled.incrementAndGet();
+        this.recordsDropped.addAndGet(recordsDropped);
+        this.bytesFreed.addAndGet(bytesFreed);
+    }
+
+    /**
+     * 一次淘汰结束，释放了空间时计入淘汰次数
+     */
+    public void recordEviction(long usedBytesBefore, long usedBytesAfter, long freeBytesBefore) {
+        if (usedBytesBefore <= usedBytesAfter) {
+            return;
+        }
+        evictions.incrementAndGet();
+        lastEvictionMs = System.currentTimeMillis();
+        lastUsedBytesBefore = usedBytesBefore;
+        lastUsedBytesAfter = usedBytesAfter;
+        lastFreeBytesBefore = freeBytesBefore;
+        lastBytesFreed = usedBytesBefore - usedBytesAfter;
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getFilesDeleted() {
+        return filesDeleted.get();
+    }
+
+    public long getUploadedFilesDeleted() {
+        return uploadedFilesDeleted.get();
+    }
+
+    public long getUnuploadedRecordsDeleted() {
+        return unuploadedRecordsDeleted.get();
+    }
+
+    public long getFilesDownsampled() {
+        return filesDownsampled.get();
+    }
+
+    public long getRecordsDropped() {
+        return recordsDropped.get();
+    }
+
+    public long getBytesFreed() {
+        return bytesFreed.get();
+    }
+
+    public long getLastEvictionMs() {
+        return lastEvictionMs;
+    }
+
+    /**
+     * 清零所有计数
+     */
+    public void reset() {
+        evictions.set(0);
+        filesDeleted.set(0);
+        uploadedFilesDeleted.set(0);
+        unuploadedRecordsDeleted.set(0);
+        filesDownsampled.set(0);
+        recordsDropped.set(0);
+        bytesFreed.set(0);
+        lastEvictionMs = 0;
+        lastUsedBytesBefore = 0;
+        lastUsedBytesAfter = 0;
+        lastFreeBytesBefore = 0;
+        lastBytesFreed = 0;
+    }
+
+    public JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("evictions", getEvictions());
+            json.put("files_deleted", getFilesDeleted());
+            json.put("uploaded_files_deleted", getUploadedFilesDeleted());
+            json.put("unuploaded_records_deleted", getUnuploadedRecordsDeleted());
+            json.put("files_downsampled", getFilesDownsampled());
+            json.put("records_dropped", getRecordsDropped());
+            json.put("bytes_freed", getBytesFreed());
+            json.put("last_eviction_ms", lastEvictionMs);
+            json.put("last_used_bytes_before", lastUsedBytesBefore);
+            json.put("last_used_bytes_after", lastUsedBytesAfter);
+            json.put("last_free_bytes_before", lastFreeBytesBefore);
+            json.put("last_bytes_freed", lastBytesFreed);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "淘汰: %d 次, 删除文件 %d (已上传 %d, 未上传记录 %d), 降采样 %d 次 (丢弃记录 %d), 释放 %d 字节",
+                getEvictions(), getFilesDeleted(), getUploadedFilesDeleted(), getUnuploadedRecordsDeleted(),
+                getFilesDownsampled(), getRecordsDropped(), getBytesFreed());
+    }
+}
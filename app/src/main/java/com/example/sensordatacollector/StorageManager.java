@@ -2,36 +2,47 @@ package com.example.sensordatacollector;
 
 import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.res.Configuration;
+import android.os.BatteryManager;
 import android.util.Log;
 
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.nio.channels.FileChannel;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.zip.GZIPOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
 public class StorageManager implements DataManager.DataRecordListener, ComponentCallbacks2 {
     private static final String TAG = "StorageManager";
     private static final String FILENAME_PREFIX = "sensor_data_"; // 保持原有前缀，稍后动态添加用户ID
     private static final String FILENAME_EXTENSION = ".jsonl";
     private static final String FILENAME_EXTENSION_COMPRESSED = ".jsonl.gz";
+    private static final String FILENAME_EXTENSION_SEGMENT = SegmentFormat.FILE_EXTENSION;
+    private static final String UPLOAD_PREFIX = "upload_";
     private static final String PREFS_NAME = "storage_manager_prefs";
     private static final String PREF_LAST_UPLOAD_TIME = "last_upload_time";
     
@@ -39,44 +50,147 @@ public class StorageManager implements DataManager.DataRecordListener, Component
     private static final long DEFAULT_MAX_FILE_SIZE_BYTES = 1024L * 1024 * 1024; // 1GB
     private static final long DEFAULT_FILE_ROTATION_INTERVAL_MS = 60 * 60 * 1000; // 默认每小时切换一次文件
     
-    // 文件写入缓冲区大小
-    private static final int BUFFER_SIZE = 8 * 1024; // 8KB的缓冲区大小
+    // 文件写入缓冲区大小，与默认刷新策略的字节上限一致，两次刷新之间的数据不会因缓冲区满而逐块写入
+    private static final int BUFFER_SIZE = 64 * 1024; // 64KB的缓冲区大小
+    
+    // 恢复GZIP文件时检查的末尾字节数，远大于一个刷新窗口产生的成员
+    private static final int GZIP_RESUME_SCAN_BYTES = 1024 * 1024;
+    
+    // 写入队列容量，之前为无界队列
+    private static final int WRITE_QUEUE_CAPACITY = 8192;
+    
+    // 存储配额检查间隔，以及降采样策略下每个文件最多降到的比例(1/N)
+    private static final long QUOTA_CHECK_INTERVAL_MS = 60 * 1000;
+    private static final int MAX_DOWNSAMPLE_FACTOR = 8;
     
     private final File storageDir;
     private final Context context;
     private File currentDataFile;
     private boolean useCompression = true; // 默认使用压缩
+    private volatile boolean useBinaryFormat = false; // 使用二进制数据段格式(.sdseg)代替JSONL
+    private volatile boolean useGorillaEncoding = true; // 二进制数据段使用Gorilla记录块编码
+    // 新建二进制数据段时按充电状态选择压缩编码：电池供电时用快速的LZ4，充电时用压缩率更高的Deflate
+    private volatile CompressionCodec batteryCompressionCodec = CompressionCodec.LZ4;
+    private volatile CompressionCodec chargingCompressionCodec = CompressionCodec.DEFLATE_DEFAULT;
     private long maxFileSizeBytes = DEFAULT_MAX_FILE_SIZE_BYTES;
     private long fileRotationIntervalMs = DEFAULT_FILE_ROTATION_INTERVAL_MS;
     
     // 使用原子类型确保线程安全
     private final AtomicLong bytesWrittenCurrentFile = new AtomicLong(0);
     
-    private ExecutorService fileWriterExecutor; // 文件写入线程 - 移除final，允许重建
+    private RecordStageExecutor fileWriterExecutor; // 文件写入线程 - 移除final，允许重建
+    
+    // 写入阶段的计数器和队列满时的处理策略，执行器重建后继续沿用
+    private final PipelineStageStats writerStats = new PipelineStageStats("storage_writer");
+    private volatile BackpressurePolicy writerBackpressurePolicy = BackpressurePolicy.BLOCK;
     private ScheduledExecutorService scheduledExecutor; // 定时切换文件线程 - 移除final，允许重建
     
     // 添加线程池状态监控
     private final AtomicBoolean isFileWriterRunning = new AtomicBoolean(true);
     
-    private final List<File> completedFiles = new ArrayList<>(); // 已完成的文件列表，用于增量上传
+    // 数据文件清单：已完成(待上传)的文件和当前文件的状态、大小、记录数和时间范围
+    private final SegmentManifest manifest;
+    
+    // 当前文件的记录数和时间范围，保存清单时写入当前文件的条目，只在持有this锁时访问
+    private long currentFileRecords = 0;
+    private long currentFirstTimestampMs = -1;
+    private long currentLastTimestampMs = -1;
+    
+    // 计算校验和、执行存储配额淘汰的低优先级后台线程，不占用定时任务线程
+    private final ExecutorService maintenanceExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "StorageManager-Maintenance");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.setDaemon(true);
+        return thread;
+    });
     private long lastUploadTimestamp = 0; // 上次上传时间戳
     private final SharedPreferences prefs;
     private DataManager dataManagerInstance;
     
     // 添加持久的输出流，用于GZIP压缩
     private FileOutputStream currentFileOutputStream;
-    private GZIPOutputStream currentGzipOutputStream;
-    private BufferedWriter currentBufferedWriter; // 引用 DataManager
+    private GzipMemberOutputStream currentGzipOutputStream;
+    private BufferedOutputStream currentBufferedOutputStream;
+    
+    // 当前文件为二进制数据段时的写入器，以及上一个数据段的传感器编码表(用作下一个文件头)
+    private SegmentWriter currentSegmentWriter;
+    private List<SegmentFormat.SensorEntry> lastSegmentSensors = new ArrayList<>();
+    
+    // 二进制数据段转换出的上传副本与原文件的对应关系，上传完成后一并删除原文件
+    private final java.util.Map<File, File> uploadCopySources = new java.util.HashMap<>();
+    
+    // 当前文件的字符串字典，打开输出流时清空
+    private final StringDictionary stringDictionary = new StringDictionary();
+    
+    // 写入线程复用的JSONL编码器，只在持有this锁时使用
+    private final JsonLineEncoder lineEncoder = new JsonLineEncoder();
+    
+    // 刷新策略和写入计数
+    private volatile FlushPolicy flushPolicy = FlushPolicy.DEFAULT;
+    private final StorageWriteStats writeStats = new StorageWriteStats();
+    private ScheduledFuture<?> flushTask;
+    
+    // 上次刷新后写入的字节数、记录数和其中最早数据的写入时间，只在持有this锁时访问
+    private long pendingBytes = 0;
+    private int pendingRecords = 0;
+    private long pendingSinceNanos = 0;
+    // 服务器端需要先支持dict行和*_ref字段，默认关闭
+    private volatile boolean useStringDictionary = false;
+    
+    // 存储配额、淘汰计数和定时检查任务
+    private volatile StorageQuota storageQuota = StorageQuota.DEFAULT;
+    private final StorageEvictionStats evictionStats = new StorageEvictionStats();
+    // 降采样失败(损坏或空间不足)的文件，保留原文件，不再作为淘汰候选；访问时持有本对象的锁
+    private final Set<String> downsampleFailedFiles = new HashSet<>();
+    // 同一时间只进行一次淘汰，避免两次检查同时降采样同一个文件、写入同一个临时文件
+    private final Object evictionLock = new Object();
+    private final AtomicBoolean quotaCheckPending = new AtomicBoolean(false);
+    private ScheduledFuture<?> quotaTask;
+    
+    // 文件切换前的回调，例如让传感器先清空硬件FIFO
+    private volatile FileRotationListener fileRotationListener;
+
+    /**
+     * 定时切换和forceRotateFile切换文件前的回调，在不持有StorageManager锁的线程上调用，可以短暂阻塞；
+     * 因大小超限、上传封存、格式变化或内存不足而切换时不调用。
+     * 回调返回前送达的样本仍要经过采集和写入队列，切换时尚未写入的样本会落入新文件，
+     * 文件边界不是精确的样本边界，需要按时间戳拼接相邻文件。
+     */
+    public interface FileRotationListener {
+        void onBeforeFileRotation();
+    }
+    
+    // 记录写入文件后的回调，用于压测时统计端到端延迟
+    private volatile RecordWrittenListener recordWrittenListener;
+    
+    public interface RecordWrittenListener {
+        void onRecordWritten(DataRecord dataRecord);
+    }
 
     public StorageManager(Context context) {
-        this.context = context;
-        
         // 使用内部存储，简单且不需要特殊权限
-        storageDir = context.getFilesDir();
+        this(context, context.getFilesDir());
+    }
+    
+    /**
+     * 不依赖Android上下文的构造函数，用于在JVM上回放或压测时写入指定目录
+     * 此时不保存上传时间，也不注册内存回调
+     */
+    public StorageManager(File storageDir) {
+        this(null, storageDir);
+    }
+    
+    private StorageManager(Context context, File storageDir) {
+        this.context = context;
+        this.storageDir = storageDir;
+        if (!storageDir.exists() && !storageDir.mkdirs()) {
+            Log.w(TAG, "创建存储目录失败: " + storageDir.getAbsolutePath());
+        }
+        this.manifest = SegmentManifest.forDirectory(storageDir);
         
         // 初始化SharedPreferences
-        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        lastUploadTimestamp = prefs.getLong(PREF_LAST_UPLOAD_TIME, 0);
+        prefs = context != null ? context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE) : null;
+        lastUploadTimestamp = prefs != null ? prefs.getLong(PREF_LAST_UPLOAD_TIME, 0) : 0;
         
         // 获取DataManager实例
         this.dataManagerInstance = DataManager.getInstance();
@@ -95,9 +209,13 @@ public class StorageManager implements DataManager.DataRecordListener, Component
         
         // 启动定时文件切换任务
         startFileRotationTask();
+        startFlushTask();
+        startQuotaTask();
         
         // 注册内存回调
-        context.registerComponentCallbacks(this);
+        if (context != null) {
+            context.registerComponentCallbacks(this);
+        }
         
         Log.i(TAG, "StorageManager初始化完成，存储目录: " + storageDir.getAbsolutePath());
     }
@@ -119,16 +237,19 @@ public class StorageManager implements DataManager.DataRecordListener, Component
             }
         }
         
-        // 使用单线程执行器，避免创建过多线程
-        fileWriterExecutor = Executors.newSingleThreadExecutor(r -> {
-            Thread thread = new Thread(r, "StorageManager-FileWriter");
-            thread.setPriority(Thread.NORM_PRIORITY - 1);
-            thread.setDaemon(true); // 设置为守护线程
-            return thread;
-        });
+        // 使用单线程有界执行器，队列满时按背压策略处理
+        fileWriterExecutor = new RecordStageExecutor(
+                writerStats,
+                "StorageManager-FileWriter",
+                1,
+                WRITE_QUEUE_CAPACITY,
+                writerBackpressurePolicy,
+                this::writeRecord,
+                new File(storageDir, "spill"));
+        fileWriterExecutor.setBatchHandler(this::writeBatch);
         
         isFileWriterRunning.set(true);
-        Log.d(TAG, "创建了新的文件写入执行器(单线程)");
+        Log.d(TAG, "创建了新的文件写入执行器(单线程, 队列容量: " + WRITE_QUEUE_CAPACITY + ", 背压策略: " + writerBackpressurePolicy + ")");
     }
     
     /**
@@ -160,17 +281,21 @@ public class StorageManager implements DataManager.DataRecordListener, Component
     }
     
     /**
-     * 加载目录中所有现有的数据文件
-     * 查找最新的未达到1GB的文件作为当前文件
+     * 加载现有的数据文件
+     * 优先从文件清单加载；清单不存在(从旧版本升级)或损坏时扫描目录，
+     * 查找最新的未达到1GB的文件作为当前文件，并据此重建清单
      */
     private void loadExistingFiles() {
+        if (manifest.isLoadedFromDisk()) {
+            loadFromManifest();
+            return;
+        }
+        
         File[] files = storageDir.listFiles((dir, name) -> {
             // 匹配新的命名格式：用户ID_sensor_data_时间戳.jsonl[.gz]
-            boolean matchesNewFormat = name.contains("_sensor_data_") && 
-                                     (name.endsWith(FILENAME_EXTENSION) || name.endsWith(FILENAME_EXTENSION_COMPRESSED));
+            boolean matchesNewFormat = name.contains("_sensor_data_") && isDataFileName(name);
             // 兼容旧的命名格式：sensor_data_时间戳.jsonl[.gz]
-            boolean matchesOldFormat = name.startsWith(FILENAME_PREFIX) && 
-                                     (name.endsWith(FILENAME_EXTENSION) || name.endsWith(FILENAME_EXTENSION_COMPRESSED));
+            boolean matchesOldFormat = name.startsWith(FILENAME_PREFIX) && isDataFileName(name);
             
             return (matchesNewFormat || matchesOldFormat);
         });
@@ -180,49 +305,166 @@ public class StorageManager implements DataManager.DataRecordListener, Component
             java.util.Arrays.sort(files, (f1, f2) -> Long.compare(f2.lastModified(), f1.lastModified()));
             
             File latestIncompleteFile = null;
+            List<File> completed = new ArrayList<>();
             
-            synchronized (completedFiles) {
-                for (File file : files) {
-                    if (file.length() == 0) {
-                        // 删除空文件
-                        if (file.delete()) {
-                            Log.d(TAG, "已删除空文件: " + file.getName());
-                        }
-                        continue;
+            for (File file : files) {
+                if (file.getName().startsWith(UPLOAD_PREFIX)) {
+                    // 上次未完成上传留下的副本，原文件仍在，上传时会重新生成
+                    if (file.delete()) {
+                        Log.d(TAG, "已删除遗留的上传副本: " + file.getName());
                     }
-                    
-                    // 检查文件大小
-                    if (file.length() < maxFileSizeBytes) {
-                        // 找到第一个（最新的）未完成文件
-                        if (latestIncompleteFile == null) {
-                            latestIncompleteFile = file;
-                            Log.i(TAG, "找到未完成的文件: " + file.getName() + 
-                                  ", 大小: " + (file.length() / 1024 / 1024) + " MB，将继续写入");
-                        } else {
-                            // 其他未完成文件也加入已完成列表（避免混乱）
-                            completedFiles.add(file);
-                            Log.i(TAG, "已加载其他未完成文件: " + file.getName() + 
-                                  ", 大小: " + (file.length() / 1024 / 1024) + " MB");
-                        }
+                    continue;
+                }
+                if (file.length() == 0) {
+                    // 删除空文件
+                    if (file.delete()) {
+                        Log.d(TAG, "已删除空文件: " + file.getName());
+                    }
+                    continue;
+                }
+                
+                // 检查文件大小
+                if (file.length() < maxFileSizeBytes) {
+                    // 找到第一个（最新的）未完成文件
+                    if (latestIncompleteFile == null) {
+                        latestIncompleteFile = file;
+                        Log.i(TAG, "找到未完成的文件: " + file.getName() + 
+                              ", 大小: " + (file.length() / 1024 / 1024) + " MB，将继续写入");
                     } else {
-                        // 已达到1GB的文件
-                        completedFiles.add(file);
-                        Log.i(TAG, "已加载完成文件: " + file.getName() + 
+                        // 其他未完成文件也加入已完成列表（避免混乱）
+                        completed.add(file);
+                        Log.i(TAG, "已加载其他未完成文件: " + file.getName() + 
                               ", 大小: " + (file.length() / 1024 / 1024) + " MB");
                     }
+                } else {
+                    // 已达到1GB的文件
+                    completed.add(file);
+                    Log.i(TAG, "已加载完成文件: " + file.getName() + 
+                          ", 大小: " + (file.length() / 1024 / 1024) + " MB");
                 }
-                
-                Log.i(TAG, "共加载 " + completedFiles.size() + " 个已完成文件");
             }
             
+            // 按从旧到新的顺序登记到清单，记录数和时间范围未知
+            for (int i = completed.size() - 1; i >= 0; i--) {
+                File file = completed.get(i);
+                manifest.seal(file.getName(), file.length(), file.lastModified());
+            }
+            Log.i(TAG, "共加载 " + completed.size() + " 个已完成文件");
+            
             // 设置当前文件
             if (latestIncompleteFile != null) {
                 currentDataFile = latestIncompleteFile;
                 bytesWrittenCurrentFile.set(latestIncompleteFile.length());
+                manifest.add(currentDataFile.getName(), SegmentManifest.State.OPEN, currentDataFile.lastModified());
                 Log.i(TAG, "设置当前文件: " + currentDataFile.getName() + 
                       ", 当前大小: " + (currentDataFile.length() / 1024 / 1024) + " MB");
             }
         }
+        
+        manifest.save();
+        Log.i(TAG, "已扫描目录重建文件清单: " + manifest.size() + " 个文件");
+    }
+    
+    /**
+     * 从文件清单恢复状态，只读取当前文件的属性
+     * 上传中的文件重新视为已封存，最新的正在写入的文件继续写入
+     */
+    private void loadFromManifest() {
+        SegmentManifest.Entry latestOpen = null;
+        for (SegmentManifest.Entry entry : manifest.getEntries()) {
+            switch (entry.state) {
+                case UPLOADED:
+                    // 已上传的文件按存储配额保留或由配额检查删除，文件已不存在时移除条目
+                    deleteUploadCopy(entry.name);
+                    if (!new File(storageDir, entry.name).exists()) {
+                        manifest.remove(entry.name);
+                    }
+                    break;
+                case UPLOADING:
+                    deleteUploadCopy(entry.name);
+                    manifest.setState(entry.name, SegmentManifest.State.SEALED);
+                    break;
+                case COMPACTED:
+                    // 已合并到重新压缩后的文件中，删除前进程退出
+                case COMPACTING:
+                    // 合并后的文件在原文件标记为COMPACTED之前进程退出，原文件仍然有效
+                    File compacted = new File(storageDir, entry.name);
+                    if (!compacted.exists() || compacted.delete()) {
+                        manifest.remove(entry.name);
+                    }
+                    break;
+                case OPEN:
+                    // 只有最新的一个继续写入，更早的作为已完成文件
+                    if (latestOpen != null) {
+                        sealLoadedFile(latestOpen.name);
+                    }
+                    latestOpen = entry;
+                    break;
+                default:
+                    break;
+            }
+        }
+        
+        if (latestOpen != null) {
+            File file = new File(storageDir, latestOpen.name);
+            long length = file.length();
+            if (length == 0 || length >= maxFileSizeBytes) {
+                sealLoadedFile(latestOpen.name);
+            } else {
+                currentDataFile = file;
+                bytesWrittenCurrentFile.set(length);
+                currentFileRecords = latestOpen.records;
+                currentFirstTimestampMs = latestOpen.firstTimestampMs;
+                currentLastTimestampMs = latestOpen.lastTimestampMs;
+                Log.i(TAG, "设置当前文件: " + file.getName() + ", 当前大小: " + (length / 1024 / 1024) + " MB");
+            }
+        }
+        
+        reconcileUntrackedFiles();
+        manifest.save();
+        Log.i(TAG, "从文件清单加载 " + manifest.getNames(SegmentManifest.State.SEALED).size() + " 个已完成文件");
+    }
+    
+    /**
+     * 处理目录中不在清单里的数据文件(例如清单保存前进程退出)：只列出文件名，不读取清单中已有文件的属性。
+     * 原文件仍然存在的合并后文件是未完成的压缩结果，删除；其他非空文件作为已封存文件登记，空文件删除。
+     */
+    private void reconcileUntrackedFiles() {
+        File[] files = storageDir.listFiles((dir, name) -> isDataFileName(name) &&
+                (name.contains("_sensor_data_") || name.startsWith(FILENAME_PREFIX)) &&
+                !name.startsWith(UPLOAD_PREFIX) && manifest.get(name) == null);
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            String sourceName = SegmentCompactor.firstSourceName(name);
+            if (file.length() == 0 || (sourceName != null && new File(storageDir, sourceName).exists())) {
+                if (file.delete()) {
+                    Log.i(TAG, "删除清单中没有的文件: " + name);
+                }
+                continue;
+            }
+            manifest.seal(name, file.length(), file.lastModified());
+            if (sourceName != null) {
+                manifest.setCompacted(name);
+            }
+            Log.w(TAG, "登记清单中没有的文件: " + name + ", 大小: " + (file.length() / 1024) + "KB");
+        }
+    }
+    
+    /**
+     * 恢复时把不再继续写入的文件作为已完成文件，空文件删除
+     */
+    private void sealLoadedFile(String name) {
+        File file = new File(storageDir, name);
+        long length = file.length();
+        if (length == 0) {
+            file.delete();
+            manifest.remove(name);
+        } else {
+            manifest.seal(name, length, file.lastModified());
+        }
     }
     
     /**
@@ -230,6 +472,14 @@ public class StorageManager implements DataManager.DataRecordListener, Component
      * 如果上一个文件小于1GB，则继续写入该文件
      */
     private synchronized void createNewDataFile() {
+        createNewDataFile(false);
+    }
+    
+    /**
+     * 切换数据文件
+     * @param forceNewFile 为true时当前文件即使未达到大小限制也作为已完成文件，用于上传前封存
+     */
+    private synchronized void createNewDataFile(boolean forceNewFile) {
         // 先关闭当前的输出流
         closeCurrentStreams();
         
@@ -237,8 +487,9 @@ public class StorageManager implements DataManager.DataRecordListener, Component
         if (currentDataFile != null && currentDataFile.exists()) {
             long currentFileSize = currentDataFile.length();
             
-            // 如果当前文件小于1GB，继续使用它
-            if (currentFileSize < maxFileSizeBytes) {
+            // 如果当前文件小于1GB且格式与当前设置一致，继续使用它；二进制数据段不追加写入
+            if (!forceNewFile && currentFileSize < maxFileSizeBytes && isCurrentFormat(currentDataFile) &&
+                    !isSegmentFile(currentDataFile)) {
                 Log.i(TAG, "当前文件 " + currentDataFile.getName() + " 大小为 " + 
                       (currentFileSize / 1024 / 1024) + " MB，继续写入");
                 // 更新字节计数器为当前文件大小
@@ -248,23 +499,36 @@ public class StorageManager implements DataManager.DataRecordListener, Component
                 return;
             }
             
-            // 文件已达到1GB，将其添加到完成列表
+            // 文件已达到1GB或不再继续写入，将其添加到完成列表
             if (currentFileSize > 0) {
-                synchronized (completedFiles) {
-                    completedFiles.add(currentDataFile);
-                    Log.i(TAG, "文件 " + currentDataFile.getName() + " 已达到1GB，大小: " 
-                          + (currentFileSize / 1024 / 1024) + " MB");
-                }
+                markFileCompleted(currentDataFile);
+                Log.i(TAG, "文件 " + currentDataFile.getName() + " 已完成，大小: " 
+                      + (currentFileSize / 1024 / 1024) + " MB");
             } else {
                 // 如果文件为空，则删除
                 boolean deleted = currentDataFile.delete();
                 if (!deleted) {
                     Log.w(TAG, "无法删除空文件: " + currentDataFile.getAbsolutePath());
                 }
+                manifest.remove(currentDataFile.getName());
+                manifest.save();
             }
         }
         
         // 如果之前的步骤没有返回，说明需要创建新文件
+        currentDataFile = newDataFile();
+        bytesWrittenCurrentFile.set(0); // 重置写入字节计数
+        
+        // 打开新文件的输出流
+        openCurrentStreams();
+        
+        Log.i(TAG, "创建新数据文件: " + currentDataFile.getAbsolutePath());
+    }
+    
+    /**
+     * 按当前用户ID、时间和格式设置生成新数据文件，并作为正在写入的文件登记到清单
+     */
+    private File newDataFile() {
         String userId = dataManagerInstance.getCurrentUserId();
         if (userId == null || userId.trim().isEmpty()) {
             Log.w(TAG, "用户ID为空或无效，将使用默认文件名");
@@ -273,15 +537,129 @@ public class StorageManager implements DataManager.DataRecordListener, Component
 
         String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss_SSS", Locale.getDefault()).format(new Date());
         String filenameBase = userId + "_" + FILENAME_PREFIX + timestamp;
-        String fileName = filenameBase + (useCompression ? FILENAME_EXTENSION_COMPRESSED : FILENAME_EXTENSION);
-        
-        currentDataFile = new File(storageDir, fileName);
-        bytesWrittenCurrentFile.set(0); // 重置写入字节计数
-        
-        // 打开新文件的输出流
-        openCurrentStreams();
-        
-        Log.i(TAG, "创建新数据文件: " + currentDataFile.getAbsolutePath());
+        String extension = useBinaryFormat ? FILENAME_EXTENSION_SEGMENT :
+                           (useCompression ? FILENAME_EXTENSION_COMPRESSED : FILENAME_EXTENSION);
+        File file = new File(storageDir, filenameBase + extension);
+        
+        // 登记到清单，当前文件的记录数和时间范围从零开始
+        manifest.add(file.getName(), SegmentManifest.State.OPEN, System.currentTimeMillis());
+        manifest.save();
+        currentFileRecords = 0;
+        currentFirstTimestampMs = -1;
+        currentLastTimestampMs = -1;
+        return file;
+    }
+    
+    /**
+     * 把文件登记为已完成(待上传)并保存清单，在后台计算校验和
+     */
+    private void markFileCompleted(File file) {
+        if (file.equals(currentDataFile)) {
+            updateCurrentEntry();
+        }
+        manifest.seal(file.getName(), file.length(), file.lastModified());
+        manifest.save();
+        scheduleChecksum(file);
+    }
+    
+    /**
+     * 把当前文件的大小、记录数和时间范围写入清单条目(不保存)
+     */
+    private void updateCurrentEntry() {
+        if (currentDataFile != null) {
+            manifest.updateStats(currentDataFile.getName(), currentDataFile.length(), currentFileRecords,
+                    currentFirstTimestampMs, currentLastTimestampMs);
+        }
+    }
+    
+    /**
+     * 在后台计算已完成文件的CRC32并写入清单
+     */
+    private void scheduleChecksum(File file) {
+        try {
+            maintenanceExecutor.execute(() -> {
+                try (CheckedInputStream in = new CheckedInputStream(new FileInputStream(file), new CRC32())) {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    while (in.read(buffer) >= 0) {
+                        // 只计算校验和
+                    }
+                    manifest.setChecksum(file.getName(), in.getChecksum().getValue());
+                    manifest.save();
+                } catch (IOException e) {
+                    // 文件可能已上传并删除
+                    Log.w(TAG, "计算校验和失败: " + file.getName() + ", " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "后台线程已关闭，跳过校验和: " + file.getName());
+        }
+    }
+    
+    /**
+     * 已完成(待上传)的文件，按创建顺序
+     */
+    private List<File> getCompletedFiles() {
+        List<File> files = new ArrayList<>();
+        for (String name : manifest.getNames(SegmentManifest.State.SEALED, SegmentManifest.State.UPLOADING)) {
+            files.add(new File(storageDir, name));
+        }
+        return files;
+    }
+    
+    /**
+     * 是否为数据文件的扩展名(.jsonl、.jsonl.gz或.sdseg)
+     */
+    public static boolean isDataFileName(String name) {
+        return name.endsWith(FILENAME_EXTENSION) || name.endsWith(FILENAME_EXTENSION_COMPRESSED) ||
+               name.endsWith(FILENAME_EXTENSION_SEGMENT);
+    }
+    
+    private static boolean isSegmentFile(File file) {
+        return file != null && file.getName().endsWith(FILENAME_EXTENSION_SEGMENT);
+    }
+    
+    /**
+     * 文件格式是否与当前设置一致
+     */
+    private boolean isCurrentFormat(File file) {
+        String name = file.getName();
+        if (useBinaryFormat) {
+            return name.endsWith(FILENAME_EXTENSION_SEGMENT);
+        }
+        return name.endsWith(useCompression ? FILENAME_EXTENSION_COMPRESSED : FILENAME_EXTENSION);
+    }
+    
+    /**
+     * 二进制数据段的文件头，传感器编码表沿用上一个数据段
+     */
+    private SegmentFormat.Header createSegmentHeader() {
+        String deviceInfo;
+        if (context != null) {
+            deviceInfo = android.os.Build.MANUFACTURER + " " + android.os.Build.MODEL +
+                         " (Android " + android.os.Build.VERSION.RELEASE + ", SDK " + android.os.Build.VERSION.SDK_INT + ")";
+        } else {
+            deviceInfo = System.getProperty("java.vm.name") + " " + System.getProperty("java.version");
+        }
+        CompressionCodec codec = isCharging() ? chargingCompressionCodec : batteryCompressionCodec;
+        Log.d(TAG, "新数据段的压缩编码: " + codec.getName());
+        return new SegmentFormat.Header(System.currentTimeMillis(), dataManagerInstance.getCurrentUserId(),
+                deviceInfo, lastSegmentSensors, useGorillaEncoding ?
+                        SegmentFormat.RECORD_ENCODING_GORILLA : SegmentFormat.RECORD_ENCODING_FIXED, codec.getId());
+    }
+    
+    /**
+     * 设备是否正在充电(或已充满且接着电源)，没有Context时视为电池供电
+     */
+    private boolean isCharging() {
+        if (context == null) {
+            return false;
+        }
+        Intent batteryStatus = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (batteryStatus == null) {
+            return false;
+        }
+        int status = batteryStatus.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+        return status == BatteryManager.BATTERY_STATUS_CHARGING || status == BatteryManager.BATTERY_STATUS_FULL;
     }
     
     /**
@@ -296,64 +674,111 @@ public class StorageManager implements DataManager.DataRecordListener, Component
             // 关闭之前的流（如果存在）
             closeCurrentStreams();
             
-            if (useCompression) {
+            // 字典编号只在一个输出流内有效，重新打开后重新定义
+            stringDictionary.clear();
+            
+            if (isSegmentFile(currentDataFile)) {
+                // 二进制数据段不追加写入：异常退出时末尾可能留下不完整的块，追加后无法解析
+                if (currentDataFile.exists() && currentDataFile.length() > 0) {
+                    markFileCompleted(currentDataFile);
+                    Log.i(TAG, "已有二进制数据段不追加写入，作为已完成文件: " + currentDataFile.getName());
+                    currentDataFile = newDataFile();
+                    bytesWrittenCurrentFile.set(0);
+                }
+                currentFileOutputStream = new FileOutputStream(currentDataFile, false);
+                currentBufferedOutputStream = new BufferedOutputStream(
+                        new CountingOutputStream(currentFileOutputStream, writeStats), BUFFER_SIZE);
+                currentSegmentWriter = new SegmentWriter(currentBufferedOutputStream, createSegmentHeader(), true);
+                Log.d(TAG, "为二进制数据段创建输出流: " + currentDataFile.getName());
+            } else if (useCompression) {
                 // 对于压缩文件，检查是否是新文件
                 boolean isNewFile = !currentDataFile.exists() || currentDataFile.length() == 0;
                 
                 if (isNewFile) {
                     // 新文件，创建新的GZIP流
                     currentFileOutputStream = new FileOutputStream(currentDataFile, false);
-                    currentGzipOutputStream = new GZIPOutputStream(currentFileOutputStream, BUFFER_SIZE);
+                    currentGzipOutputStream = createGzipStream(currentFileOutputStream, 0);
                     Log.d(TAG, "为新GZIP文件创建输出流: " + currentDataFile.getName());
                 } else {
-                    // 现有GZIP文件，不能追加，需要重新创建
-                    Log.w(TAG, "检测到现有GZIP文件，无法追加，将重命名并创建新文件");
-                    
-                    // 重命名现有文件
-                    String oldFileName = currentDataFile.getName() + ".old_" + System.currentTimeMillis();
-                    File oldFile = new File(currentDataFile.getParent(), oldFileName);
-                    
-                    if (currentDataFile.renameTo(oldFile)) {
-                        synchronized (completedFiles) {
-                            completedFiles.add(oldFile);
-                            Log.i(TAG, "已重命名现有GZIP文件: " + oldFile.getName());
-                        }
+                    // 现有GZIP文件，截断末尾不完整的成员后追加新成员
+                    long appendPosition = prepareGzipAppend(currentDataFile);
+                    if (appendPosition < 0) {
+                        // 找不到成员边界(旧版本写出的单成员文件)，作为已完成文件，写入新文件
+                        markFileCompleted(currentDataFile);
+                        Log.i(TAG, "现有GZIP文件无法追加，作为已完成文件: " + currentDataFile.getName());
+                        currentDataFile = newDataFile();
+                        appendPosition = 0;
                     }
-                    
-                    // 创建新的GZIP文件
-                    currentFileOutputStream = new FileOutputStream(currentDataFile, false);
-                    currentGzipOutputStream = new GZIPOutputStream(currentFileOutputStream, BUFFER_SIZE);
-                    bytesWrittenCurrentFile.set(0);
-                    Log.d(TAG, "为重新创建的GZIP文件创建输出流: " + currentDataFile.getName());
+                    bytesWrittenCurrentFile.set(appendPosition);
+                    currentFileOutputStream = new FileOutputStream(currentDataFile, true);
+                    currentGzipOutputStream = createGzipStream(currentFileOutputStream, appendPosition);
+                    Log.d(TAG, "为GZIP文件创建输出流: " + currentDataFile.getName() + " (追加位置 " + appendPosition + ")");
                 }
             } else {
                 // 非压缩文件，可以直接追加
                 currentFileOutputStream = new FileOutputStream(currentDataFile, true);
-                currentBufferedWriter = new BufferedWriter(new OutputStreamWriter(currentFileOutputStream, "UTF-8"), BUFFER_SIZE);
+                currentBufferedOutputStream = new BufferedOutputStream(
+                        new CountingOutputStream(currentFileOutputStream, writeStats), BUFFER_SIZE);
                 Log.d(TAG, "为非压缩文件创建输出流: " + currentDataFile.getName() + " (追加模式)");
             }
             
             Log.d(TAG, "已打开文件输出流: " + currentDataFile.getName() + " (压缩: " + useCompression + ")");
             
+            // 每次打开文件时先写入当前的时钟映射，便于离线换算事件时间
+            writeClockSyncMetadata();
+            
         } catch (IOException e) {
             Log.e(TAG, "打开文件输出流失败", e);
             closeCurrentStreams();
         }
     }
     
+    /**
+     * 检查已有GZIP文件的末尾，截断不完整的成员(例如进程被杀时未写完的部分)
+     * @return 追加新成员的位置，无法追加时返回-1
+     */
+    private long prepareGzipAppend(File file) throws IOException {
+        long appendPosition = GzipMemberOutputStream.findAppendPosition(file, GZIP_RESUME_SCAN_BYTES);
+        if (appendPosition >= 0 && appendPosition < file.length()) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(appendPosition);
+            }
+            Log.w(TAG, "已截断GZIP文件末尾不完整的成员: " + file.getName() + " -> " + appendPosition + " 字节");
+        }
+        return appendPosition;
+    }
+    
+    /**
+     * 创建多成员GZIP输出流
+     * 按刷新策略flush时结束当前成员，刷新后的数据能从文件中读到，文件也总是在成员边界结束
+     */
+    private GzipMemberOutputStream createGzipStream(FileOutputStream fileOutputStream, long fileOffset) {
+        return new GzipMemberOutputStream(new CountingOutputStream(fileOutputStream, writeStats), fileOffset, BUFFER_SIZE);
+    }
+    
     /**
      * 关闭当前的输出流
      */
     private synchronized void closeCurrentStreams() {
+        // 关闭时会写出所有缓冲数据
+        pendingBytes = 0;
+        pendingRecords = 0;
+        
         try {
-            if (currentBufferedWriter != null) {
-                currentBufferedWriter.flush();
-                currentBufferedWriter.close();
-                currentBufferedWriter = null;
+            if (currentSegmentWriter != null) {
+                // 写出未满的记录块
+                currentSegmentWriter.flush();
+                lastSegmentSensors = currentSegmentWriter.getSensorEntries();
+                currentSegmentWriter = null;
+            }
+            
+            if (currentBufferedOutputStream != null) {
+                currentBufferedOutputStream.flush();
+                currentBufferedOutputStream.close();
+                currentBufferedOutputStream = null;
             }
             
             if (currentGzipOutputStream != null) {
-                currentGzipOutputStream.finish();
                 currentGzipOutputStream.close();
                 currentGzipOutputStream = null;
             }
@@ -361,6 +786,10 @@ public class StorageManager implements DataManager.DataRecordListener, Component
             if (currentFileOutputStream != null) {
                 currentFileOutputStream.close();
                 currentFileOutputStream = null;
+                
+                // 文件关闭后大小已确定，更新清单
+                updateCurrentEntry();
+                manifest.save();
             }
             
             Log.d(TAG, "已关闭文件输出流");
@@ -380,7 +809,7 @@ public class StorageManager implements DataManager.DataRecordListener, Component
                     try {
                         if (dataManagerInstance.isRecordingToFile()) { // 仅在记录时切换文件
                             Log.i(TAG, "执行定时文件切换");
-                            createNewDataFile();
+                            rotateFile();
                         }
                     } catch (Exception e) {
                         Log.e(TAG, "定时文件切换失败", e);
@@ -397,7 +826,7 @@ public class StorageManager implements DataManager.DataRecordListener, Component
                         try {
                             if (dataManagerInstance.isRecordingToFile()) {
                                 Log.i(TAG, "执行定时文件切换");
-                                createNewDataFile();
+                                rotateFile();
                             }
                         } catch (Exception ex) {
                             Log.e(TAG, "定时文件切换失败", ex);
@@ -421,8 +850,8 @@ public class StorageManager implements DataManager.DataRecordListener, Component
 
     @Override
     public void onNewDataRecord(DataRecord dataRecord) {
-        // 只有在DataManager指示记录到文件时才写入
-        if (!dataManagerInstance.isRecordingToFile()) {
+        // 只有在DataManager指示记录到文件时才写入，关闭后不再写入
+        if (!dataManagerInstance.isRecordingToFile() || !isFileWriterRunning.get()) {
             return;
         }
 
@@ -434,23 +863,10 @@ public class StorageManager implements DataManager.DataRecordListener, Component
         }
         
         // 检查线程池状态并提交任务
-        if (fileWriterExecutor != null && !fileWriterExecutor.isShutdown()) {
+        RecordStageExecutor executor = fileWriterExecutor;
+        if (executor != null && !executor.isShutdown()) {
             try {
-                fileWriterExecutor.submit(() -> {
-                    try {
-                        // 将数据写入文件
-                        long bytesWritten = writeDataToFile(dataRecord);
-                        long totalBytes = bytesWrittenCurrentFile.addAndGet(bytesWritten);
-                        
-                        // 检查文件大小，如果超过最大值，则创建新文件
-                        if (totalBytes > maxFileSizeBytes) {
-                            Log.i(TAG, "文件大小超过限制，执行文件切换");
-                            createNewDataFile();
-                        }
-                    } catch (IOException e) {
-                        Log.e(TAG, "写入数据到文件失败", e);
-                    }
-                });
+                executor.submitRecord(dataRecord);
             } catch (java.util.concurrent.RejectedExecutionException e) {
                 Log.w(TAG, "文件写入任务被拒绝: " + e.getMessage());
                 handleFileWriterRejection(dataRecord);
@@ -465,117 +881,705 @@ public class StorageManager implements DataManager.DataRecordListener, Component
         }
     }
     
+    @Override
+    public void onNewBatch(SensorBatch batch) {
+        if (!dataManagerInstance.isRecordingToFile() || !isFileWriterRunning.get()) {
+            return;
+        }
+
+        synchronized (this) {
+            if (currentDataFile == null) {
+                createNewDataFile();
+            }
+        }
+        
+        // 整批作为一个写入任务提交
+        RecordStageExecutor executor = fileWriterExecutor;
+        if (executor != null && !executor.isShutdown()) {
+            try {
+                executor.submitBatch(batch);
+                return;
+            } catch (Exception e) {
+                Log.w(TAG, "提交批次写入任务失败: " + e.getMessage());
+            }
+        }
+        
+        if (!isFileWriterRunning.get()) {
+            Log.w(TAG, "StorageManager已关闭，丢弃批次: " + batch.size() + "条");
+            return;
+        }
+        
+        // 线程池不可用，在当前线程直接写入
+        writerStats.recordInline(batch.size());
+        writeBatch(batch);
+    }
+    
+    /**
+     * 按顺序写入一批样本，编码器直接读取批次的列，只有设置了监听器时才转换为DataRecord
+     */
+    private void writeBatch(SensorBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            writeSample(null, batch, i);
+        }
+    }
+    
+    /**
+     * 写入一条记录
+     */
+    private void writeRecord(DataRecord dataRecord) {
+        writeSample(dataRecord, null, 0);
+    }
+    
+    /**
+     * 写入一条记录，dataRecord为null时写入批次中的第index个样本；文件大小超过限制时切换文件
+     */
+    private void writeSample(DataRecord dataRecord, SensorBatch batch, int index) {
+        try {
+            // 将数据写入文件
+            long bytesWritten = writeDataToFile(dataRecord, batch, index);
+            long totalBytes = bytesWrittenCurrentFile.addAndGet(bytesWritten);
+            
+            RecordWrittenListener listener = recordWrittenListener;
+            if (listener != null) {
+                listener.onRecordWritten(dataRecord != null ? dataRecord : batch.toRecord(index));
+            }
+            
+            // 检查文件大小，如果超过最大值，则创建新文件
+            if (totalBytes > maxFileSizeBytes) {
+                Log.i(TAG, "文件大小超过限制，执行文件切换");
+                createNewDataFile();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "写入数据到文件失败", e);
+        }
+    }
+    
+    /**
+     * 处理文件写入任务被拒绝的情况
+     */
+    private void handleFileWriterRejection(DataRecord dataRecord) {
+        // 已关闭时输出流可能已经关闭，直接写入会重新打开文件
+        if (!isFileWriterRunning.get()) {
+            Log.w(TAG, "StorageManager已关闭，丢弃记录");
+            return;
+        }
+        
+        // 如果线程池已关闭且应该运行，尝试重建
+        if ((fileWriterExecutor == null || fileWriterExecutor.isShutdown()) && isFileWriterRunning.get()) {
+            Log.d(TAG, "尝试重建文件写入线程池");
+            try {
+                createFileWriterExecutor();
+                
+                // 重建后尝试重新提交任务
+                if (fileWriterExecutor != null && !fileWriterExecutor.isShutdown()) {
+                    try {
+                        fileWriterExecutor.submitRecord(dataRecord);
+                        return; // 成功提交，直接返回
+                    } catch (Exception retryEx) {
+                        Log.e(TAG, "重建后重新提交任务失败", retryEx);
+                    }
+                }
+            } catch (Exception rebuildEx) {
+                Log.e(TAG, "重建文件写入线程池失败", rebuildEx);
+            }
+        }
+        
+        // 如果重建失败或其他情况，直接在当前线程写入，确保数据不丢失
+        Log.d(TAG, "在当前线程中直接写入数据");
+        writerStats.recordInline();
+        writeRecord(dataRecord);
+    }
+    
+    /**
+     * 设置写入队列已满时的处理策略
+     */
+    public void setBackpressurePolicy(BackpressurePolicy policy) {
+        if (policy == null) return;
+        writerBackpressurePolicy = policy;
+        if (fileWriterExecutor != null) {
+            fileWriterExecutor.setPolicy(policy);
+        }
+    }
+    
+    public BackpressurePolicy getBackpressurePolicy() {
+        return writerBackpressurePolicy;
+    }
+    
+    /**
+     * 获取写入阶段的计数器
+     */
+    public PipelineStageStats getPipelineStats() {
+        return writerStats;
+    }
+    
+    /**
+     * 将数据写入文件
+     * 使用持久的输出流，避免重复创建GZIP头部
+     * @return 写入的字节数
+     */
+    private synchronized long writeDataToFile(DataRecord dataRecord, SensorBatch batch, int index) throws IOException {
+        try {
+            // 确保输出流已打开
+            if (getCurrentOutputStream() == null) {
+                openCurrentStreams();
+            }
+            return writeEncodedLine(dataRecord, batch, index);
+            
+        } catch (IOException e) {
+            Log.e(TAG, "写入数据到文件失败", e);
+            // 尝试重新打开流
+            try {
+                openCurrentStreams();
+                // 重试一次，重新打开后字典已清空，需要重新编码
+                return writeEncodedLine(dataRecord, batch, index);
+            } catch (IOException retryException) {
+                Log.e(TAG, "重试写入数据失败", retryException);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 用流式编码器把记录(为null时为批次中的第index个样本)编码为一行JSON或二进制记录写入当前输出流，
+     * 启用字符串字典时先写新增的字典定义行
+     * @return 写入的字节数
+     */
+    private long writeEncodedLine(DataRecord dataRecord, SensorBatch batch, int index) throws IOException {
+        OutputStream out = getCurrentOutputStream();
+        if (out == null) {
+            throw new IOException(isSegmentFile(currentDataFile) ? "二进制数据段写入器未初始化" :
+                                  (useCompression ? "GZIP输出流未初始化" : "缓冲输出流未初始化"));
+        }
+        int bytes;
+        if (currentSegmentWriter != null) {
+            bytes = dataRecord != null ? currentSegmentWriter.write(dataRecord) : currentSegmentWriter.write(batch, index);
+        } else {
+            StringDictionary dictionary = useStringDictionary ? stringDictionary : null;
+            lineEncoder.reset();
+            if (dataRecord != null) {
+                lineEncoder.encode(dataRecord, dictionary);
+            } else {
+                lineEncoder.encode(batch, index, dictionary);
+            }
+            lineEncoder.writeTo(out);
+            bytes = lineEncoder.length();
+        }
+        onDataBuffered(out, bytes, 1);
+        
+        // 当前文件的记录数和时间范围，保存清单时写入
+        long timestampMs = dataRecord != null ? dataRecord.timestampMs : batch.getTimestampMs(index);
+        currentFileRecords++;
+        if (currentFirstTimestampMs < 0) {
+            currentFirstTimestampMs = timestampMs;
+        }
+        currentLastTimestampMs = timestampMs;
+        return bytes;
+    }
+    
+    /**
+     * 记录写入缓冲区的数据量，满足刷新策略的条件时刷新
+     */
+    private void onDataBuffered(OutputStream out, int bytes, int records) throws IOException {
+        writeStats.recordEncoded(bytes, records);
+        long now = System.nanoTime();
+        if (pendingBytes == 0) {
+            pendingSinceNanos = now;
+        }
+        pendingBytes += bytes;
+        pendingRecords += records;
+        
+        FlushPolicy policy = flushPolicy;
+        if (policy.isSizeReached(pendingBytes, pendingRecords) || policy.isLatencyReached(pendingSinceNanos, now)) {
+            flushOutput(out);
+            writeStats.recordFlush();
+            pendingBytes = 0;
+            pendingRecords = 0;
+        }
+    }
+    
+    /**
+     * 刷新当前文件的输出流；二进制数据段通过写入器刷新，先写出未满的记录块
+     */
+    private void flushOutput(OutputStream out) throws IOException {
+        if (currentSegmentWriter != null && out == currentBufferedOutputStream) {
+            currentSegmentWriter.flush();
+        } else {
+            out.flush();
+        }
+    }
+    
+    /**
+     * 定时检查：最早一条未刷新的数据等待超过策略的最长时间时刷新，保证没有新数据写入时也能按时落盘
+     */
+    private synchronized void flushIfDue() {
+        if (pendingBytes == 0 || !flushPolicy.isLatencyReached(pendingSinceNanos, System.nanoTime())) {
+            return;
+        }
+        OutputStream out = getCurrentOutputStream();
+        if (out == null) {
+            return;
+        }
+        try {
+            flushOutput(out);
+            writeStats.recordFlush();
+            pendingBytes = 0;
+            pendingRecords = 0;
+        } catch (IOException e) {
+            Log.w(TAG, "定时刷新文件失败", e);
+        }
+    }
+    
+    /**
+     * 按刷新策略的最长等待时间启动定时刷新任务，策略未启用时间条件时不启动
+     */
+    private synchronized void startFlushTask() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        long latencyMs = flushPolicy.maxLatencyMs;
+        if (latencyMs <= 0 || scheduledExecutor == null || scheduledExecutor.isShutdown()) {
+            return;
+        }
+        // 检查间隔为最长等待时间的一半，数据最多在最长等待时间的1.5倍内落盘
+        long periodMs = Math.max(10, latencyMs / 2);
+        try {
+            flushTask = scheduledExecutor.scheduleWithFixedDelay(this::flushIfDue, periodMs, periodMs, TimeUnit.MILLISECONDS);
+        } catch (java.util.concurrent.RejectedExecutionException e) {
+            Log.w(TAG, "启动定时刷新任务失败: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * 设置刷新策略，立即生效
+     */
+    public synchronized void setFlushPolicy(FlushPolicy policy) {
+        if (policy == null) return;
+        flushPolicy = policy;
+        startFlushTask();
+        Log.i(TAG, "设置刷新策略: " + policy);
+    }
+    
+    public FlushPolicy getFlushPolicy() {
+        return flushPolicy;
+    }
+    
+    /**
+     * 获取写入计数：压缩前后的字节数、写调用次数和刷新次数
+     */
+    public StorageWriteStats getWriteStats() {
+        return writeStats;
+    }
+    
+    /**
+     * 设置存储配额和淘汰策略，立即检查一次
+     */
+    public void setStorageQuota(StorageQuota quota) {
+        if (quota == null) return;
+        storageQuota = quota;
+        Log.i(TAG, "设置存储配额: " + quota);
+        requestQuotaCheck();
+    }
+    
+    public StorageQuota getStorageQuota() {
+        return storageQuota;
+    }
+    
+    /**
+     * 获取存储配额淘汰计数
+     */
+    public StorageEvictionStats getEvictionStats() {
+        return evictionStats;
+    }
+    
+    /**
+     * 数据文件占用的字节数：清单中的文件大小加上当前文件的实际大小
+     */
+    public synchronized long getStorageUsedBytes() {
+        String currentName = currentDataFile != null ? currentDataFile.getName() : null;
+        long used = 0;
+        for (SegmentManifest.Entry entry : manifest.getEntries()) {
+            if (!entry.name.equals(currentName)) {
+                used += entry.bytes;
+            }
+        }
+        if (currentDataFile != null) {
+            used += currentDataFile.length();
+        }
+        return used;
+    }
+    
+    /**
+     * 定时检查存储配额，检查在后台线程执行
+     */
+    private synchronized void startQuotaTask() {
+        if (quotaTask != null) {
+            quotaTask.cancel(false);
+            quotaTask = null;
+        }
+        if (scheduledExecutor == null || scheduledExecutor.isShutdown()) {
+            return;
+        }
+        try {
+            quotaTask = scheduledExecutor.scheduleWithFixedDelay(this::requestQuotaCheck,
+                    QUOTA_CHECK_INTERVAL_MS / 6, QUOTA_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "启动存储配额检查任务失败: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * 在后台线程检查存储配额，上一次检查还未执行时不重复提交
+     */
+    private void requestQuotaCheck() {
+        if (!quotaCheckPending.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            maintenanceExecutor.execute(() -> {
+                quotaCheckPending.set(false);
+                try {
+                    enforceStorageQuota();
+                } catch (Exception e) {
+                    Log.e(TAG, "存储配额检查失败", e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            quotaCheckPending.set(false);
+        }
+    }
+    
+    /**
+     * 检查存储配额，超出配额或可用空间低于下限时按淘汰策略释放空间
+     * 删除文件和替换降采样后的文件时持有本对象的锁，降采样本身在锁外进行，不阻塞写入；
+     * 正在写入和正在上传的文件不会被淘汰
+     */
+    public void enforceStorageQuota() {
+        synchronized (evictionLock) {
+            enforceStorageQuotaLocked();
+        }
+    }
+    
+    private void enforceStorageQuotaLocked() {
+        StorageQuota quota = storageQuota;
+        if (!quota.retainsUploadedFiles()) {
+            // 删除前进程退出或切换策略前保留下来的已上传文件
+            deleteRetainedUploadedFiles();
+        }
+        
+        long usedBefore = getStorageUsedBytes();
+        long freeBefore = storageDir.getUsableSpace();
+        long bytesToFree = quota.getBytesToFree(usedBefore, freeBefore);
+        if (bytesToFree <= 0) {
+            return;
+        }
+        Log.w(TAG, "存储超出限制(占用 " + (usedBefore / 1024 / 1024) + "MB, 可用 " + (freeBefore / 1024 / 1024) +
+              "MB, " + quota + ")，需要释放 " + (bytesToFree / 1024) + "KB");
+        
+        long freed = 0;
+        while (freed < bytesToFree) {
+            long bytes = evictOne(quota.policy);
+            if (bytes < 0) {
+                Log.w(TAG, "没有可以淘汰的文件，仍需释放 " + ((bytesToFree - freed) / 1024) + "KB");
+                break;
+            }
+            freed += bytes;
+        }
+        
+        long usedAfter = getStorageUsedBytes();
+        evictionStats.recordEviction(usedBefore, usedAfter, freeBefore);
+        Log.i(TAG, "存储淘汰完成: 占用 " + (usedBefore / 1024 / 1024) + "MB -> " + (usedAfter / 1024 / 1024) +
+              "MB, " + evictionStats);
+    }
+    
+    /**
+     * 按策略淘汰一个文件：删除或降采样
+     * @return 释放的字节数，没有可以淘汰的文件时返回-1
+     */
+    private long evictOne(StorageQuota.EvictionPolicy policy) {
+        SegmentManifest.Entry candidate;
+        synchronized (this) {
+            candidate = selectEvictionCandidate(policy);
+            if (candidate == null) {
+                return -1;
+            }
+            if (policy != StorageQuota.EvictionPolicy.DOWNSAMPLE_BEFORE_DELETE ||
+                    candidate.state == SegmentManifest.State.UPLOADED ||
+                    candidate.downsampleFactor >= MAX_DOWNSAMPLE_FACTOR) {
+                return deleteEvictedFile(candidate);
+            }
+        }
+        return downsampleEvictedFile(candidate);
+    }
+    
+    /**
+     * 选择下一个淘汰的文件，只考虑已封存(未上传)和已上传的文件，跳过降采样失败的文件
+     * 最旧优先：按创建时间；已上传优先：先已上传的再未上传的，各自按创建时间；
+     * 降采样优先：先已上传的，再未上传文件中采样比例最高的(降采样次数最少)，同比例时按创建时间
+     */
+    private SegmentManifest.Entry selectEvictionCandidate(StorageQuota.EvictionPolicy policy) {
+        SegmentManifest.Entry best = null;
+        for (SegmentManifest.Entry entry : manifest.getEntries(SegmentManifest.State.SEALED, SegmentManifest.State.UPLOADED)) {
+            if (downsampleFailedFiles.contains(entry.name)) {
+                continue;
+            }
+            if (best == null || compareEvictionOrder(policy, entry, best) < 0) {
+                best = entry;
+            }
+        }
+        return best;
+    }
+    
+    private static int compareEvictionOrder(StorageQuota.EvictionPolicy policy, SegmentManifest.Entry a, SegmentManifest.Entry b) {
+        if (policy != StorageQuota.EvictionPolicy.OLDEST_FIRST) {
+            boolean aUploaded = a.state == SegmentManifest.State.UPLOADED;
+            boolean bUploaded = b.state == SegmentManifest.State.UPLOADED;
+            if (aUploaded != bUploaded) {
+                return aUploaded ? -1 : 1;
+            }
+            if (policy == StorageQuota.EvictionPolicy.DOWNSAMPLE_BEFORE_DELETE && a.downsampleFactor != b.downsampleFactor) {
+                return Integer.compare(a.downsampleFactor, b.downsampleFactor);
+            }
+        }
+        return Long.compare(a.createdMs, b.createdMs);
+    }
+    
+    /**
+     * 删除淘汰的文件，调用方持有本对象的锁
+     */
+    private long deleteEvictedFile(SegmentManifest.Entry entry) {
+        File file = new File(storageDir, entry.name);
+        long bytes = file.exists() ? file.length() : 0;
+        boolean uploaded = entry.state == SegmentManifest.State.UPLOADED;
+        deleteFileAndUploadCopy(entry.name);
+        if (file.exists()) {
+            // 无法删除时不再作为候选，避免反复选中
+            Log.w(TAG, "无法删除淘汰的文件: " + entry.name);
+            manifest.remove(entry.name);
+            manifest.save();
+            return 0;
+        }
+        manifest.remove(entry.name);
+        manifest.save();
+        evictionStats.recordDeletion(bytes, uploaded, entry.records);
+        if (uploaded) {
+            Log.i(TAG, "淘汰已上传文件: " + entry.name + ", 释放 " + (bytes / 1024) + "KB");
+        } else {
+            Log.w(TAG, "淘汰未上传文件: " + entry.name + ", 释放 " + (bytes / 1024) + "KB, 丢失 " + entry.records + " 条记录");
+        }
+        return bytes;
+    }
+    
+    /**
+     * 把未上传的文件降采样到一半，降采样在锁外写入临时文件，完成后在锁内替换原文件
+     * 降采样期间文件开始上传时放弃结果；无法降采样或替换的文件(损坏或空间不足)删除临时文件、保留原文件，
+     * 之后不再作为候选，由调用方继续处理下一个文件。只有删除策略才会删除文件
+     */
+    private long downsampleEvictedFile(SegmentManifest.Entry entry) {
+        File file = new File(storageDir, entry.name);
+        File temp = new File(storageDir, entry.name + ".downsample.tmp");
+        DataFileDownsampler.Result result;
+        try {
+            result = DataFileDownsampler.downsample(file, temp, 2);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "降采样失败，保留原文件: " + entry.name, e);
+            temp.delete();
+            synchronized (this) {
+                downsampleFailedFiles.add(entry.name);
+            }
+            return 0;
+        }
+        
+        // 后台压缩任务在清单的锁内替换文件，检查状态和替换文件期间持有清单的锁(先本对象后清单)
+        synchronized (this) {
+            synchronized (manifest) {
+                SegmentManifest.Entry latest = manifest.get(entry.name);
+                if (latest == null || latest.state != SegmentManifest.State.SEALED) {
+                    // 降采样期间文件开始上传或已被删除
+                    temp.delete();
+                    return 0;
+                }
+                long bytesBefore = file.length();
+                if (!temp.renameTo(file)) {
+                    Log.e(TAG, "替换降采样后的文件失败，保留原文件: " + entry.name);
+                    temp.delete();
+                    downsampleFailedFiles.add(entry.name);
+                    return 0;
+                }
+                long bytesAfter = file.length();
+                int factor = entry.downsampleFactor * 2;
+                manifest.setDownsampled(entry.name, bytesAfter, result.recordsKept, factor);
+                manifest.save();
+                scheduleChecksum(file);
+                evictionStats.recordDownsample(bytesBefore - bytesAfter, result.recordsDropped);
+                Log.i(TAG, "降采样文件: " + entry.name + " 到 1/" + factor + ", " + (bytesBefore / 1024) + "KB -> " +
+                      (bytesAfter / 1024) + "KB, " + result);
+                return bytesBefore - bytesAfter;
+            }
+        }
+    }
+    
+    /**
+     * 删除所有已上传的文件(不保留已上传文件时)
+     */
+    private synchronized void deleteRetainedUploadedFiles() {
+        List<String> names = manifest.getNames(SegmentManifest.State.UPLOADED);
+        if (names.isEmpty()) {
+            return;
+        }
+        for (String name : names) {
+            deleteFileAndUploadCopy(name);
+            manifest.remove(name);
+        }
+        manifest.save();
+        Log.i(TAG, "已删除 " + names.size() + " 个已上传文件");
+    }
+    
+    /**
+     * 当前文件的输出流，二进制数据段和非压缩文件为缓冲流，压缩文件为GZIP流
+     */
+    private OutputStream getCurrentOutputStream() {
+        if (isSegmentFile(currentDataFile)) {
+            return currentSegmentWriter != null ? currentBufferedOutputStream : null;
+        }
+        return useCompression ? currentGzipOutputStream : currentBufferedOutputStream;
+    }
+    
+    /**
+     * 设置是否使用字符串字典压缩重复的传感器名称、前台应用和用户ID，默认关闭
+     * 启用前需要确认接收上传文件的服务器能解析dict行和*_ref字段
+     */
+    public synchronized void setUseStringDictionary(boolean use) {
+        this.useStringDictionary = use;
+        Log.i(TAG, "字符串字典: " + (use ? "启用" : "禁用"));
+    }
+    
+    public boolean isUsingStringDictionary() {
+        return useStringDictionary;
+    }
+    
+    /**
+     * 设置是否使用二进制数据段格式(.sdseg)写入新文件
+     * 正在记录且当前文件格式不同时立即切换到新文件；已有文件保持原格式，上传时二进制数据段转换为.jsonl.gz
+     */
+    public synchronized void setUseBinaryFormat(boolean use) {
+        if (this.useBinaryFormat == use) {
+            return;
+        }
+        this.useBinaryFormat = use;
+        Log.i(TAG, "二进制数据段格式: " + (use ? "启用" : "禁用"));
+        if (currentDataFile != null && dataManagerInstance.isRecordingToFile()) {
+            createNewDataFile();
+        }
+    }
+    
+    public boolean isUsingBinaryFormat() {
+        return useBinaryFormat;
+    }
+    
+    /**
+     * 设置二进制数据段是否使用Gorilla记录块编码(时间写间隔的差值，数值写与上一条的异或)
+     * 只影响之后新建的数据段，当前数据段保持原编码
+     */
+    public void setUseGorillaEncoding(boolean use) {
+        this.useGorillaEncoding = use;
+        Log.i(TAG, "Gorilla记录编码: " + (use ? "启用" : "禁用"));
+    }
+    
+    public boolean isUsingGorillaEncoding() {
+        return useGorillaEncoding;
+    }
+    
     /**
-     * 处理文件写入任务被拒绝的情况
+     * 设置二进制数据段的压缩编码，新建数据段时按充电状态选择，当前数据段保持原编码
+     * @param onBattery 电池供电时使用的编码
+     * @param whileCharging 充电时使用的编码
      */
-    private void handleFileWriterRejection(DataRecord dataRecord) {
-        // 如果线程池已关闭且应该运行，尝试重建
-        if ((fileWriterExecutor == null || fileWriterExecutor.isShutdown()) && isFileWriterRunning.get()) {
-            Log.d(TAG, "尝试重建文件写入线程池");
-            try {
-                createFileWriterExecutor();
-                
-                // 重建后尝试重新提交任务
-                if (fileWriterExecutor != null && !fileWriterExecutor.isShutdown()) {
-                    try {
-                        fileWriterExecutor.submit(() -> {
-                            try {
-                                long bytesWritten = writeDataToFile(dataRecord);
-                                long totalBytes = bytesWrittenCurrentFile.addAndGet(bytesWritten);
-                                
-                                if (totalBytes > maxFileSizeBytes) {
-                                    Log.i(TAG, "文件大小超过限制，执行文件切换");
-                                    createNewDataFile();
-                                }
-                            } catch (IOException e) {
-                                Log.e(TAG, "重建后写入数据到文件失败", e);
-                            }
-                        });
-                        return; // 成功提交，直接返回
-                    } catch (Exception retryEx) {
-                        Log.e(TAG, "重建后重新提交任务失败", retryEx);
-                    }
-                }
-            } catch (Exception rebuildEx) {
-                Log.e(TAG, "重建文件写入线程池失败", rebuildEx);
-            }
-        }
-        
-        // 如果重建失败或其他情况，直接在当前线程写入，确保数据不丢失
-        Log.d(TAG, "在当前线程中直接写入数据");
-        try {
-            long bytesWritten = writeDataToFile(dataRecord);
-            long totalBytes = bytesWrittenCurrentFile.addAndGet(bytesWritten);
-            
-            if (totalBytes > maxFileSizeBytes) {
-                Log.i(TAG, "文件大小超过限制，执行文件切换");
-                createNewDataFile();
-            }
-        } catch (IOException e) {
-            Log.e(TAG, "直接写入数据到文件失败", e);
+    public void setCompressionCodecs(CompressionCodec onBattery, CompressionCodec whileCharging) {
+        if (onBattery == null || whileCharging == null) {
+            throw new IllegalArgumentException("压缩编码不能为空");
         }
+        this.batteryCompressionCodec = onBattery;
+        this.chargingCompressionCodec = whileCharging;
+        Log.i(TAG, "数据段压缩编码: 电池供电 " + onBattery.getName() + ", 充电 " + whileCharging.getName());
+    }
+    
+    public CompressionCodec getBatteryCompressionCodec() {
+        return batteryCompressionCodec;
     }
     
+    public CompressionCodec getChargingCompressionCodec() {
+        return chargingCompressionCodec;
+    }
+
     /**
-     * 将数据写入文件
-     * 使用持久的输出流，避免重复创建GZIP头部
-     * @return 写入的字节数
+     * 将当前的时钟映射作为"clock_sync"元数据行写入当前文件
+     * 在打开文件和时钟重新同步(检测到跳变或更新了服务器偏移)时调用
      */
-    private synchronized long writeDataToFile(DataRecord dataRecord) throws IOException {
-        String jsonLine = dataRecord.toJson().toString() + "\n";
-        long bytesWritten = 0;
-        
+    public synchronized void writeClockSyncMetadata() {
+        if (currentDataFile == null) {
+            return;
+        }
+        ClockSyncManager.ClockMapping mapping = ClockSyncManager.getInstance().getCurrentMapping();
         try {
-            // 确保输出流已打开
-            if ((useCompression && currentGzipOutputStream == null) || 
-                (!useCompression && currentBufferedWriter == null)) {
-                openCurrentStreams();
+            OutputStream out = getCurrentOutputStream();
+            if (out == null) {
+                return;
             }
-            
-            if (useCompression) {
-                if (currentGzipOutputStream != null) {
-                    byte[] data = jsonLine.getBytes("UTF-8");
-                    currentGzipOutputStream.write(data);
-                    currentGzipOutputStream.flush();
-                    bytesWritten = data.length;
-                } else {
-                    throw new IOException("GZIP输出流未初始化");
-                }
+            int length;
+            if (currentSegmentWriter != null) {
+                length = currentSegmentWriter.writeMetadata(mapping.toJson().toString());
             } else {
-                if (currentBufferedWriter != null) {
-                    currentBufferedWriter.write(jsonLine);
-                    currentBufferedWriter.flush();
-                    bytesWritten = jsonLine.getBytes("UTF-8").length;
-                } else {
-                    throw new IOException("缓冲写入器未初始化");
-                }
+                byte[] data = (mapping.toJson().toString() + "\n").getBytes("UTF-8");
+                out.write(data);
+                length = data.length;
             }
-            
-            return bytesWritten;
-            
+            onDataBuffered(out, length, 0);
+            bytesWrittenCurrentFile.addAndGet(length);
         } catch (IOException e) {
-            Log.e(TAG, "写入数据到文件失败", e);
-            // 尝试重新打开流
-            try {
-                openCurrentStreams();
-                // 重试一次
-                if (useCompression && currentGzipOutputStream != null) {
-                    byte[] data = jsonLine.getBytes("UTF-8");
-                    currentGzipOutputStream.write(data);
-                    currentGzipOutputStream.flush();
-                    return data.length;
-                } else if (!useCompression && currentBufferedWriter != null) {
-                    currentBufferedWriter.write(jsonLine);
-                    currentBufferedWriter.flush();
-                    return jsonLine.getBytes("UTF-8").length;
-                }
-            } catch (IOException retryException) {
-                Log.e(TAG, "重试写入数据失败", retryException);
-            }
-            throw e;
+            Log.w(TAG, "写入时钟同步元数据失败", e);
+        }
+    }
+
+    /**
+     * 统计对文件输出流的写调用次数和字节数
+     * 位于压缩器和缓冲区之下，每次写调用对应一次write系统调用
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private final StorageWriteStats stats;
+
+        CountingOutputStream(OutputStream out, StorageWriteStats stats) {
+            super(out);
+            this.stats = stats;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            stats.recordFileWrite(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            stats.recordFileWrite(len);
         }
     }
 
+    /**
+     * 设置记录写入回调
+     */
+    public void setRecordWrittenListener(RecordWrittenListener listener) {
+        this.recordWrittenListener = listener;
+    }
+    
+    /**
+     * 设置文件切换回调
+     */
+    public void setFileRotationListener(FileRotationListener listener) {
+        this.fileRotationListener = listener;
+    }
+
     /**
      * 获取当前数据文件路径
      */
@@ -591,108 +1595,132 @@ public class StorageManager implements DataManager.DataRecordListener, Component
     }
     
     /**
-     * 获取所有未上传的文件列表
+     * 获取所有未上传的文件列表(已完成的文件和当前正在写入的文件)，只用于显示，不改变任何文件
      */
     public synchronized List<File> getUnuploadedFiles() {
-        List<File> filesToUpload = new ArrayList<>();
-        
-        // 添加已完成的文件
-        synchronized (completedFiles) {
-            filesToUpload.addAll(completedFiles);
+        List<File> files = getCompletedFiles();
+        if (currentDataFile != null && currentDataFile.exists() && currentDataFile.length() > 0) {
+            files.add(currentDataFile);
         }
+        return files;
+    }
+    
+    /**
+     * 准备上传的文件列表
+     * 先封存当前文件，再返回所有已封存的文件，只在本对象的锁内封存和列出，不转换也不改变文件状态
+     * 开始上传时调用{@link #beginUpload(List)}
+     */
+    public synchronized List<File> prepareFilesForUpload() {
+        sealCurrentFile();
         
-        // 对于当前正在写入的文件，需要特殊处理
-        if (currentDataFile != null && currentDataFile.exists() && currentDataFile.length() > 0) {
-            try {
-                // 为当前文件创建一个完整的副本用于上传
-                File uploadFile = createUploadCopyOfCurrentFile();
-                if (uploadFile != null) {
-                    filesToUpload.add(uploadFile);
-                    Log.d(TAG, "创建当前文件的上传副本: " + uploadFile.getName());
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "创建当前文件副本失败", e);
+        List<File> filesToUpload = new ArrayList<>();
+        for (String name : manifest.getNames(SegmentManifest.State.SEALED)) {
+            File file = new File(storageDir, name);
+            if (!file.exists()) {
+                // 清单与目录不一致(文件被外部删除)，从清单中移除
+                Log.w(TAG, "已完成文件不存在，从清单中移除: " + name);
+                manifest.remove(name);
+                continue;
             }
+            filesToUpload.add(file);
         }
-        
+        manifest.save();
         return filesToUpload;
     }
     
     /**
-     * 为当前文件创建一个完整的上传副本
-     * 对于GZIP文件，需要正确关闭流以确保文件完整性
+     * 开始上传：文件标记为上传中，二进制数据段转换为JSONL副本
+     * 转换在调用线程中进行且不持有本对象的锁，需要在后台线程调用
+     * @param files prepareFilesForUpload返回的文件列表
+     * @return 实际上传的文件列表，上传完成后传给markFilesAsUploaded或markFilesUploadFailed
      */
-    private synchronized File createUploadCopyOfCurrentFile() {
-        if (currentDataFile == null || !currentDataFile.exists() || currentDataFile.length() == 0) {
-            return null;
-        }
-        
-        try {
-            // 创建临时文件名
-            String tempFileName = "upload_" + System.currentTimeMillis() + "_" + currentDataFile.getName();
-            // 避免重复的temp前缀
-            if (tempFileName.contains("temp_")) {
-                tempFileName = tempFileName.replace("temp_", "");
+    public List<File> beginUpload(List<File> files) {
+        List<File> uploadFiles = new ArrayList<>(files.size());
+        for (File file : files) {
+            // 期间被后台压缩任务合并到其他文件中或被淘汰，合并后的文件下次上传
+            if (!manifest.setStateIf(file.getName(), SegmentManifest.State.UPLOADING,
+                    SegmentManifest.State.SEALED)) {
+                continue;
             }
-            File tempFile = new File(storageDir, tempFileName);
-            
-            // 等待所有写入操作完成
-            if (fileWriterExecutor != null && !fileWriterExecutor.isShutdown()) {
-                try {
-                    fileWriterExecutor.submit(() -> {
-                        // 确保所有写入操作完成
-                    }).get(2, TimeUnit.SECONDS);
-                } catch (Exception e) {
-                    Log.w(TAG, "等待文件写入完成时出现异常: " + e.getMessage());
-                }
+            if (!isSegmentFile(file)) {
+                uploadFiles.add(file);
+                continue;
             }
-            
-            if (useCompression && currentGzipOutputStream != null) {
-                // 对于GZIP文件，需要创建一个完整的副本
-                createCompleteGzipCopy(tempFile);
+            // 上传中的文件不会被压缩或淘汰，可以在锁外读取
+            File uploadFile = createJsonlCopyOfSegment(file);
+            if (uploadFile != null) {
+                uploadFiles.add(uploadFile);
             } else {
-                // 对于非压缩文件，直接复制
-                flushCurrentFile();
-                if (copyFile(currentDataFile, tempFile)) {
-                    return tempFile;
-                } else {
-                    return null;
-                }
+                manifest.setState(file.getName(), SegmentManifest.State.SEALED);
             }
-            
-            return tempFile;
-            
-        } catch (Exception e) {
-            Log.e(TAG, "创建上传副本失败", e);
+        }
+        manifest.save();
+        return uploadFiles;
+    }
+    
+    /**
+     * 封存当前文件：结束写入并移入已完成列表，之后的数据写入新文件
+     * 只关闭输出流和切换文件，不复制文件，写入只在切换期间等待本对象的锁
+     * @return 被封存的文件，当前文件没有数据时返回null
+     */
+    public synchronized File sealCurrentFile() {
+        File file = currentDataFile;
+        if (file == null) {
             return null;
         }
+        // 先刷新，缓冲区中的数据写入文件后再判断文件是否为空
+        flushCurrentFile();
+        if (!file.exists() || file.length() == 0) {
+            return null;
+        }
+        createNewDataFile(true);
+        Log.i(TAG, "已封存当前文件用于上传: " + file.getName());
+        return file;
     }
     
     /**
-     * 创建GZIP文件的完整副本
-     * 通过临时关闭并重新打开流来确保文件完整性
+     * 把已完成的二进制数据段转换为.jsonl.gz上传副本，上传完成后原文件一并删除
      */
-    private synchronized void createCompleteGzipCopy(File tempFile) throws IOException {
-        // 保存当前状态
-        File originalFile = currentDataFile;
-        long originalBytesWritten = bytesWrittenCurrentFile.get();
-        
+    private File createJsonlCopyOfSegment(File segmentFile) {
+        File uploadFile = new File(storageDir, toJsonlGzipName(UPLOAD_PREFIX + segmentFile.getName()));
         try {
-            // 临时关闭当前流以确保GZIP文件完整
-            closeCurrentStreams();
-            
-            // 复制完整的GZIP文件
-            if (!copyFile(originalFile, tempFile)) {
-                throw new IOException("复制GZIP文件失败");
+            SegmentConverter.convertToJsonlGzip(segmentFile, uploadFile, useStringDictionary);
+            synchronized (this) {
+                uploadCopySources.put(uploadFile, segmentFile);
             }
-            
-            Log.d(TAG, "成功创建GZIP文件的完整副本: " + tempFile.getName());
-            
-        } finally {
-            // 重新打开流继续写入
-            currentDataFile = originalFile;
-            bytesWrittenCurrentFile.set(originalBytesWritten);
-            openCurrentStreams();
+            return uploadFile;
+        } catch (IOException e) {
+            Log.e(TAG, "转换二进制数据段失败: " + segmentFile.getName(), e);
+            uploadFile.delete();
+            return null;
+        }
+    }
+    
+    private static String toJsonlGzipName(String segmentName) {
+        return segmentName.substring(0, segmentName.length() - FILENAME_EXTENSION_SEGMENT.length()) +
+               FILENAME_EXTENSION_COMPRESSED;
+    }
+    
+    /**
+     * 删除二进制数据段的上传副本(如果有)
+     */
+    private void deleteUploadCopy(String name) {
+        if (name.endsWith(FILENAME_EXTENSION_SEGMENT)) {
+            File uploadFile = new File(storageDir, toJsonlGzipName(UPLOAD_PREFIX + name));
+            if (uploadFile.exists() && uploadFile.delete()) {
+                Log.d(TAG, "已删除遗留的上传副本: " + uploadFile.getName());
+            }
+        }
+    }
+    
+    /**
+     * 删除已上传的文件和它的上传副本
+     */
+    private void deleteFileAndUploadCopy(String name) {
+        deleteUploadCopy(name);
+        File file = new File(storageDir, name);
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "无法删除已上传文件: " + name);
         }
     }
     
@@ -700,9 +1728,14 @@ public class StorageManager implements DataManager.DataRecordListener, Component
      * 刷新当前文件的缓冲区
      */
     private synchronized void flushCurrentFile() {
+        pendingBytes = 0;
+        pendingRecords = 0;
         try {
-            if (currentBufferedWriter != null) {
-                currentBufferedWriter.flush();
+            if (currentSegmentWriter != null) {
+                currentSegmentWriter.flush();
+            }
+            if (currentBufferedOutputStream != null) {
+                currentBufferedOutputStream.flush();
             }
             if (currentGzipOutputStream != null) {
                 currentGzipOutputStream.flush();
@@ -716,50 +1749,6 @@ public class StorageManager implements DataManager.DataRecordListener, Component
         }
     }
     
-    /**
-     * 复制文件
-     * 使用NIO通道方式，避免大量内存使用
-     */
-    private boolean copyFile(File source, File dest) {
-        try (FileInputStream fis = new FileInputStream(source);
-             FileOutputStream fos = new FileOutputStream(dest)) {
-            
-            FileChannel sourceChannel = fis.getChannel();
-            FileChannel destChannel = fos.getChannel();
-            
-            // 分块传输，而不是一次性传输整个文件
-            // 这样可以避免内存Pinning问题
-            long size = sourceChannel.size();
-            long position = 0;
-            
-            // 使用更小的缓冲区，确保每次只处理小块数据
-            long chunkSize = 32 * 1024; // 进一步减小到32KB，更安全
-            
-            // 使用循环方式分块传输，避免长时间占用内存
-            while (position < size) {
-                long count = Math.min(chunkSize, size - position);
-                position += sourceChannel.transferTo(position, count, destChannel);
-                
-                // 每传输一块就刷新输出通道，确保数据立即写出
-                destChannel.force(false);
-                
-                // 定期释放资源
-                if (position % (512 * 1024) == 0) { // 每512KB
-                    // 让出CPU时间给GC
-                    Thread.yield();
-                    
-                    // 提示系统可以进行GC（轻量级提示） - 移除显式GC调用
-                    // System.gc(); 
-                }
-            }
-            
-            return true;
-        } catch (IOException e) {
-            Log.e(TAG, "复制文件失败: " + source.getAbsolutePath(), e);
-            return false;
-        }
-    }
-    
     /**
      * 标记文件已上传
      * @param files 已上传的文件列表
@@ -767,9 +1756,19 @@ public class StorageManager implements DataManager.DataRecordListener, Component
     public synchronized void markFilesAsUploaded(List<File> files) {
         if (files == null || files.isEmpty()) return;
         
+        List<File> uploaded = new ArrayList<>(files.size());
         for (File file : files) {
+            // 二进制数据段的JSONL副本上传后，改为处理对应的原文件
+            File segmentSource = uploadCopySources.remove(file);
+            if (segmentSource != null) {
+                if (!file.delete()) {
+                    Log.w(TAG, "无法删除上传临时文件: " + file.getName());
+                }
+                file = segmentSource;
+            }
+            
             // 如果是上传临时文件，直接删除
-            if (file.getName().startsWith("upload_") || file.getName().startsWith("temp_")) {
+            if (file.getName().startsWith(UPLOAD_PREFIX) || file.getName().startsWith("temp_")) {
                 if (file.delete()) {
                     Log.d(TAG, "已删除上传临时文件: " + file.getName());
                 } else {
@@ -778,37 +1777,63 @@ public class StorageManager implements DataManager.DataRecordListener, Component
                 continue;
             }
             
-            // 从未上传列表中移除
-            synchronized (completedFiles) {
-                if (completedFiles.remove(file)) {
-                    Log.d(TAG, "从未上传列表中移除文件: " + file.getName());
-                }
-            }
-            
-            // 将文件移动到已上传目录或标记
-            // 这里简单起见，我们直接删除已上传的文件
-            // 在实际应用中，可能需要保留一段时间或移动到另一个目录
-            if (file.delete()) {
+            // 先在清单中标记为已上传，删除前进程退出时下次启动会删除而不是重新上传
+            manifest.setState(file.getName(), SegmentManifest.State.UPLOADED);
+            uploaded.add(file);
+        }
+        manifest.save();
+        
+        // 存储配额保留已上传文件时留在本地，超出配额时由淘汰任务先删除
+        // 否则直接删除已上传的文件
+        List<File> toDelete = storageQuota.retainsUploadedFiles() ? new ArrayList<>() : uploaded;
+        for (File file : toDelete) {
+            if (file.delete() || !file.exists()) {
                 Log.d(TAG, "已删除已上传文件: " + file.getName());
+                manifest.remove(file.getName());
             } else {
                 Log.w(TAG, "无法删除已上传文件: " + file.getName());
             }
         }
+        manifest.save();
         
         lastUploadTimestamp = System.currentTimeMillis();
         
         // 保存上传时间到SharedPreferences
-        prefs.edit().putLong(PREF_LAST_UPLOAD_TIME, lastUploadTimestamp).apply();
+        if (prefs != null) {
+            prefs.edit().putLong(PREF_LAST_UPLOAD_TIME, lastUploadTimestamp).apply();
+        }
         
         Log.i(TAG, "已标记 " + files.size() + " 个文件为已上传");
     }
     
+    /**
+     * 上传失败，文件重新视为已封存：下次上传时重新提交，存储配额不足时可以被淘汰
+     * @param files beginUpload返回的文件列表
+     */
+    public synchronized void markFilesUploadFailed(List<File> files) {
+        if (files == null || files.isEmpty()) return;
+        
+        for (File file : files) {
+            // 上传副本下次上传时重新生成
+            File segmentSource = uploadCopySources.remove(file);
+            if (segmentSource != null && !file.delete()) {
+                Log.w(TAG, "无法删除上传临时文件: " + file.getName());
+            }
+            String name = segmentSource != null ? segmentSource.getName() : file.getName();
+            SegmentManifest.Entry entry = manifest.get(name);
+            if (entry != null && entry.state == SegmentManifest.State.UPLOADING) {
+                manifest.setState(name, SegmentManifest.State.SEALED);
+            }
+        }
+        manifest.save();
+    }
+    
     /**
      * 获取上次上传时间（格式化的字符串）
      */
     public String getLastUploadTimeString() {
         if (lastUploadTimestamp == 0) {
-            return context.getString(R.string.never_uploaded);
+            return context != null ? context.getString(R.string.never_uploaded) : "";
         }
         SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
         return sdf.format(new Date(lastUploadTimestamp));
@@ -841,6 +1866,8 @@ public class StorageManager implements DataManager.DataRecordListener, Component
         
         // 启动新的定时任务
         startFileRotationTask();
+        startFlushTask();
+        startQuotaTask();
         
         Log.i(TAG, "设置文件切换间隔: " + (fileRotationIntervalMs / (60 * 1000)) + "分钟");
     }
@@ -849,9 +1876,8 @@ public class StorageManager implements DataManager.DataRecordListener, Component
      * 获取未上传文件数量
      */
     public int getUnuploadedFilesCount() {
-        synchronized (completedFiles) {
-            return completedFiles.size() + (currentDataFile != null && currentDataFile.exists() && currentDataFile.length() > 0 ? 1 : 0);
-        }
+        return manifest.getNames(SegmentManifest.State.SEALED, SegmentManifest.State.UPLOADING).size() +
+               (currentDataFile != null && currentDataFile.exists() && currentDataFile.length() > 0 ? 1 : 0);
     }
     
     /**
@@ -860,10 +1886,9 @@ public class StorageManager implements DataManager.DataRecordListener, Component
     public long getUnuploadedFilesTotalSizeKB() {
         long totalSize = 0;
         
-        synchronized (completedFiles) {
-            for (File file : completedFiles) {
-                totalSize += file.length();
-            }
+        // 已完成文件的大小取自清单，只读取当前文件的大小
+        for (SegmentManifest.Entry entry : manifest.getEntries(SegmentManifest.State.SEALED, SegmentManifest.State.UPLOADING)) {
+            totalSize += entry.bytes;
         }
         
         if (currentDataFile != null && currentDataFile.exists()) {
@@ -885,8 +1910,23 @@ public class StorageManager implements DataManager.DataRecordListener, Component
      */
     public void forceRotateFile() {
         if (dataManagerInstance.isRecordingToFile()) {
-            createNewDataFile();
+            rotateFile();
+        }
+    }
+    
+    /**
+     * 先通知文件切换监听器再切换文件；监听器在锁外调用，等待期间写入线程继续写入当前文件
+     */
+    private void rotateFile() {
+        FileRotationListener listener = fileRotationListener;
+        if (listener != null) {
+            try {
+                listener.onBeforeFileRotation();
+            } catch (Exception e) {
+                Log.w(TAG, "文件切换回调失败", e);
+            }
         }
+        createNewDataFile();
     }
     
     /**
@@ -896,21 +1936,24 @@ public class StorageManager implements DataManager.DataRecordListener, Component
     public synchronized int cleanAllFiles() {
         int deletedCount = 0;
         
-        synchronized (completedFiles) {
-            // 删除所有已完成的文件
-            for (File file : new ArrayList<>(completedFiles)) {
-                if (file.exists() && file.delete()) {
-                    deletedCount++;
-                    Log.d(TAG, "已删除文件: " + file.getName());
-                }
+        // 删除清单中所有已完成的文件
+        for (String name : manifest.getNames()) {
+            if (currentDataFile != null && name.equals(currentDataFile.getName())) {
+                continue;
             }
-            completedFiles.clear();
+            File file = new File(storageDir, name);
+            if (file.exists() && file.delete()) {
+                deletedCount++;
+                Log.d(TAG, "已删除文件: " + file.getName());
+            }
+            deleteUploadCopy(name);
+            manifest.remove(name);
         }
+        manifest.save();
         
-        // 删除存储目录中其他符合命名规则的文件（排除当前文件）
+        // 删除存储目录中其他符合命名规则的文件（排除当前文件），清理不在清单中的遗留文件
         File[] allFiles = storageDir.listFiles((dir, name) -> {
-            boolean matchesPattern = name.contains("_sensor_data_") && 
-                                   (name.endsWith(FILENAME_EXTENSION) || name.endsWith(FILENAME_EXTENSION_COMPRESSED));
+            boolean matchesPattern = name.contains("_sensor_data_") && isDataFileName(name);
             boolean isNotCurrent = currentDataFile == null || !name.equals(currentDataFile.getName());
             return matchesPattern && isNotCurrent;
         });
@@ -938,48 +1981,28 @@ public class StorageManager implements DataManager.DataRecordListener, Component
             return cleanAllFiles();
         }
         
-        // 获取所有符合命名规则的文件（包括已完成的和存储目录中的）
-        List<File> allDataFiles = new ArrayList<>();
-        
-        synchronized (completedFiles) {
-            allDataFiles.addAll(completedFiles);
-        }
-        
-        // 扫描存储目录中的其他文件
-        File[] directoryFiles = storageDir.listFiles((dir, name) -> {
-            boolean matchesPattern = name.contains("_sensor_data_") && 
-                                   (name.endsWith(FILENAME_EXTENSION) || name.endsWith(FILENAME_EXTENSION_COMPRESSED));
-            boolean isNotCurrent = currentDataFile == null || !name.equals(currentDataFile.getName());
-            boolean notInCompletedList = completedFiles.stream().noneMatch(f -> f.getName().equals(name));
-            return matchesPattern && isNotCurrent && notInCompletedList;
-        });
-        
-        if (directoryFiles != null) {
-            for (File file : directoryFiles) {
-                allDataFiles.add(file);
-            }
+        // 清单中除当前文件以外的所有文件，按创建时间排序（新到旧）
+        List<SegmentManifest.Entry> entries = manifest.getEntries();
+        if (currentDataFile != null) {
+            String currentName = currentDataFile.getName();
+            entries.removeIf(entry -> entry.name.equals(currentName));
         }
-        
-        // 按最后修改时间排序（新到旧）
-        allDataFiles.sort((f1, f2) -> Long.compare(f2.lastModified(), f1.lastModified()));
+        entries.sort((e1, e2) -> Long.compare(e2.createdMs, e1.createdMs));
         
         int deletedCount = 0;
         
         // 删除超出保留数量的文件
-        if (allDataFiles.size() > keepCount) {
-            List<File> filesToDelete = allDataFiles.subList(keepCount, allDataFiles.size());
-            
-            for (File file : filesToDelete) {
+        if (entries.size() > keepCount) {
+            for (SegmentManifest.Entry entry : entries.subList(keepCount, entries.size())) {
+                File file = new File(storageDir, entry.name);
                 if (file.exists() && file.delete()) {
                     deletedCount++;
                     Log.d(TAG, "已删除旧文件: " + file.getName());
-                    
-                    // 从已完成文件列表中移除
-                    synchronized (completedFiles) {
-                        completedFiles.remove(file);
-                    }
                 }
+                deleteUploadCopy(entry.name);
+                manifest.remove(entry.name);
             }
+            manifest.save();
         }
         
         Log.i(TAG, "保留最近 " + keepCount + " 个文件，删除了 " + deletedCount + " 个旧文件");
@@ -1011,50 +2034,47 @@ public class StorageManager implements DataManager.DataRecordListener, Component
      * @return 文件列表信息
      */
     public List<String> getAllDataFilesInfo() {
-        List<File> allFiles = new ArrayList<>();
-        
-        // 添加当前文件
-        if (currentDataFile != null && currentDataFile.exists()) {
-            allFiles.add(currentDataFile);
-        }
-        
-        // 添加已完成的文件
-        synchronized (completedFiles) {
-            allFiles.addAll(completedFiles);
-        }
-        
-        // 扫描目录中的其他文件
-        File[] directoryFiles = storageDir.listFiles((dir, name) -> 
-            name.contains("_sensor_data_") && 
-            (name.endsWith(FILENAME_EXTENSION) || name.endsWith(FILENAME_EXTENSION_COMPRESSED)));
-        
-        if (directoryFiles != null) {
-            for (File file : directoryFiles) {
-                if (!allFiles.contains(file)) {
-                    allFiles.add(file);
-                }
-            }
-        }
-        
-        // 按最后修改时间排序（新到旧）
-        allFiles.sort((f1, f2) -> Long.compare(f2.lastModified(), f1.lastModified()));
-        
         List<String> fileInfoList = new ArrayList<>();
-        for (File file : allFiles) {
-            long sizeKB = file.length() / 1024;
+        SimpleDateFormat sdf = new SimpleDateFormat("MM-dd HH:mm", Locale.getDefault());
+        for (SegmentManifest.Entry entry : getDataFileEntries()) {
+            long sizeKB = entry.bytes / 1024;
             long sizeMB = sizeKB / 1024;
             String sizeStr = sizeMB > 0 ? sizeMB + " MB" : sizeKB + " KB";
+            String timeStr = sdf.format(new Date(entry.getDisplayTimeMs()));
             
-            SimpleDateFormat sdf = new SimpleDateFormat("MM-dd HH:mm", Locale.getDefault());
-            String timeStr = sdf.format(new Date(file.lastModified()));
-            
-            String status = file.equals(currentDataFile) ? " (当前)" : "";
-            fileInfoList.add(String.format("%s - %s - %s%s", file.getName(), sizeStr, timeStr, status));
+            String status = entry.state == SegmentManifest.State.OPEN ? " (当前)" : "";
+            fileInfoList.add(String.format("%s - %s - %s%s", entry.name, sizeStr, timeStr, status));
         }
         
         return fileInfoList;
     }
     
+    /**
+     * 获取所有数据文件的清单条目（新到旧），只读取当前文件的大小，不扫描目录
+     * @return 条目副本，当前文件的字节数、记录数和时间范围是最新的
+     */
+    public synchronized List<SegmentManifest.Entry> getDataFileEntries() {
+        List<SegmentManifest.Entry> entries = manifest.getEntries(SegmentManifest.State.OPEN,
+                SegmentManifest.State.SEALED, SegmentManifest.State.UPLOADING);
+        for (SegmentManifest.Entry entry : entries) {
+            if (currentDataFile != null && entry.name.equals(currentDataFile.getName())) {
+                entry.bytes = currentDataFile.length();
+                entry.records = currentFileRecords;
+                entry.firstTimestampMs = currentFirstTimestampMs;
+                entry.lastTimestampMs = currentLastTimestampMs;
+            }
+        }
+        entries.sort((e1, e2) -> Long.compare(e2.createdMs, e1.createdMs));
+        return entries;
+    }
+    
+    /**
+     * 获取清单条目对应的数据文件
+     */
+    public File getDataFile(SegmentManifest.Entry entry) {
+        return new File(storageDir, entry.name);
+    }
+    
     /**
      * 实现ComponentCallbacks2接口方法
      * 这个方法会在系统内存不足时被调用
@@ -1119,22 +2139,10 @@ public class StorageManager implements DataManager.DataRecordListener, Component
     public void shutdown() {
         Log.d(TAG, "开始关闭StorageManager");
         
-        // 标记为不再运行
+        // 标记为不再运行，之后到达的记录不再写入，也不会重新打开文件
         isFileWriterRunning.set(false);
         
-        // 先关闭文件输出流
-        closeCurrentStreams();
-        
-        // 取消注册内存回调
-        if (context != null) {
-            try {
-                context.unregisterComponentCallbacks(this);
-            } catch (Exception e) {
-                Log.w(TAG, "取消注册内存回调失败", e);
-            }
-        }
-        
-        // 关闭文件写入线程池
+        // 先关闭文件写入线程池，等待队列中已提交的写入完成
         if (fileWriterExecutor != null && !fileWriterExecutor.isShutdown()) {
             try {
                 fileWriterExecutor.shutdown();
@@ -1151,7 +2159,21 @@ public class StorageManager implements DataManager.DataRecordListener, Component
             }
         }
         
-        // 关闭定时任务线程池
+        // 停止定时刷新任务
+        synchronized (this) {
+            if (flushTask != null) {
+                flushTask.cancel(false);
+                flushTask = null;
+            }
+        }
+        
+        // 后台线程不再接受新任务，已提交的任务在后台完成
+        if (quotaTask != null) {
+            quotaTask.cancel(false);
+        }
+        maintenanceExecutor.shutdown();
+        
+        // 关闭定时任务线程池，避免文件切换与关闭输出流同时进行
         if (scheduledExecutor != null && !scheduledExecutor.isShutdown()) {
             try {
                 scheduledExecutor.shutdown();
@@ -1168,6 +2190,18 @@ public class StorageManager implements DataManager.DataRecordListener, Component
             }
         }
         
+        // 写入全部完成后再关闭文件输出流，写出缓冲数据并结束gzip成员
+        closeCurrentStreams();
+        
+        // 取消注册内存回调
+        if (context != null) {
+            try {
+                context.unregisterComponentCallbacks(this);
+            } catch (Exception e) {
+                Log.w(TAG, "取消注册内存回调失败", e);
+            }
+        }
+        
         Log.d(TAG, "StorageManager已关闭");
     }
 }
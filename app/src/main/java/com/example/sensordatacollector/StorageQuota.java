@@ -0,0 +1,83 @@
+package com.example.sensordatacollector;
+
+/**
+ * 数据文件的存储配额
+ * 限制数据文件占用的总字节数，并保证存储分区上保留的最小可用空间；超出任一限制时由后台淘汰任务按淘汰策略释放空间，
+ * 一直释放到低水位(限制的90%)以下，避免每次检查都只释放刚好够用的空间。各限制小于等于0时不启用。
+ * 正在写入的文件和正在上传的文件不会被淘汰。
+ */
+public class StorageQuota {
+    /** 释放空间时的目标：占用降到配额的90%，可用空间升到下限的110% */
+    private static final int LOW_WATERMARK_PERCENT = 90;
+
+    /**
+     * 淘汰策略
+     */
+    public enum EvictionPolicy {
+        /** 按创建时间删除最旧的文件，不区分是否已上传 */
+        OLDEST_FIRST,
+        /** 已上传的文件保留在本地，超出配额时先删除最旧的已上传文件，再删除最旧的未上传文件 */
+        OLDEST_UPLOADED_FIRST,
+        /** 先删除已上传的文件，再对最旧的未上传文件逐次减半采样，每个文件最多降到1/8后才删除 */
+        DOWNSAMPLE_BEFORE_DELETE
+    }
+
+    /** 默认数据文件最多占用2GB，分区至少保留256MB可用空间，超出时先删除最旧的文件 */
+    public static final StorageQuota DEFAULT = new StorageQuota(2048L * 1024 * 1024, 256L * 1024 * 1024,
+            EvictionPolicy.OLDEST_FIRST);
+
+    /** 不限制占用空间，只清理已上传的文件 */
+    public static final StorageQuota UNLIMITED = new StorageQuota(0, 0, EvictionPolicy.OLDEST_FIRST);
+
+    public final long maxBytes;
+    public final long minFreeBytes;
+    public final EvictionPolicy policy;
+
+    public StorageQuota(long maxBytes, long minFreeBytes, EvictionPolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("淘汰策略不能为空");
+        }
+        this.maxBytes = maxBytes;
+        this.minFreeBytes = minFreeBytes;
+        this.policy = policy;
+    }
+
+    /**
+     * 是否超出配额或可用空间低于下限
+     * @param usedBytes 数据文件占用的字节数
+     * @param freeBytes 存储分区的可用字节数
+     */
+    public boolean isExceeded(long usedBytes, long freeBytes) {
+        return (maxBytes > 0 && usedBytes > maxBytes) || (minFreeBytes > 0 && freeBytes < minFreeBytes);
+    }
+
+    /**
+     * 需要释放的字节数：降到低水位所需的字节数，未超出限制时为0
+     */
+    public long getBytesToFree(long usedBytes, long freeBytes) {
+        if (!isExceeded(usedBytes, freeBytes)) {
+            return 0;
+        }
+        long toFree = 0;
+        if (maxBytes > 0) {
+            toFree = Math.max(toFree, usedBytes - maxBytes * LOW_WATERMARK_PERCENT / 100);
+        }
+        if (minFreeBytes > 0) {
+            toFree = Math.max(toFree, minFreeBytes * (200 - LOW_WATERMARK_PERCENT) / 100 - freeBytes);
+        }
+        return Math.max(toFree, 0);
+    }
+
+    /**
+     * 已上传的文件是否保留在本地
+     */
+    public boolean retainsUploadedFiles() {
+        return policy == EvictionPolicy.OLDEST_UPLOADED_FIRST;
+    }
+
+    @Override
+    public String toString() {
+        return "StorageQuota{配额 " + (maxBytes / 1024 / 1024) + "MB, 最小可用空间 " + (minFreeBytes / 1024 / 1024) +
+               "MB, 策略 " + policy + "}";
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.sensordatacollector;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 数据文件写入的计数器
+ * 统计编码后(压缩前)的字节数、实际写入文件的字节数、对文件的写调用次数和刷新次数，
+ * 用于衡量刷新策略对压缩率和系统调用次数的影响。
+ */
+public class StorageWriteStats {
+    private final AtomicLong records = new AtomicLong(0);          // 写入的记录数
+    private final AtomicLong uncompressedBytes = new AtomicLong(0); // 编码后的字节数
+    private final AtomicLong fileBytes = new AtomicLong(0);         // 写入文件的字节数
+    private final AtomicLong fileWrites = new AtomicLong(0);        // 对文件输出流的写调用次数，约等于write系统调用次数
+    private final AtomicLong flushes = new AtomicLong(0);           // 刷新次数
+
+    public void recordEncoded(long bytes, int recordCount) {
+        uncompressedBytes.addAndGet(bytes);
+        records.addAndGet(recordCount);
+    }
+
+    public void recordFileWrite(long bytes) {
+        fileWrites.incrementAndGet();
+        fileBytes.addAndGet(bytes);
+    }
+
+    public void recordFlush() {
+        flushes.incrementAndGet();
+    }
+
+    public long getRecords() {
+        return records.get();
+    }
+
+    public long getUncompressedBytes() {
+        return uncompressedBytes.get();
+    }
+
+    public long getFileBytes() {
+        return fileBytes.get();
+    }
+
+    public long getFileWrites() {
+        return fileWrites.get();
+    }
+
+    public long getFlushes() {
+        return flushes.get();
+    }
+
+    /**
+     * 压缩率(编码字节数/文件字节数)，尚未写入文件时返回0
+     * 压缩器中还未输出的数据不计入文件字节数，因此需要在文件关闭后读取才准确
+     */
+    public double getCompressionRatio() {
+        long written = fileBytes.get();
+        return written > 0 ? (double) uncompressedBytes.get() / written : 0;
+    }
+
+    /**
+     * 清零所有计数
+     */
+    public void reset() {
+        records.set(0);
+        uncompressedBytes.set(0);
+        fileBytes.set(0);
+        fileWrites.set(0);
+        flushes.set(0);
+    }
+
+    public JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("records", getRecords());
+            json.put("uncompressed_bytes", getUncompressedBytes());
+            json.put("file_bytes", getFileBytes());
+            json.put("file_writes", getFileWrites());
+            json.put("flushes", getFlushes());
+            json.put("compression_ratio", getCompressionRatio());
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "写入: 记录 %d, 编码 %d 字节, 文件 %d 字节 (压缩率 %.2f), 写调用 %d, 刷新 %d",
+                getRecords(), getUncompressedBytes(), getFileBytes(), getCompressionRatio(),
+                getFileWrites(), getFlushes());
+    }
+}
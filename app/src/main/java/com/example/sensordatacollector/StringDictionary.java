@@ -0,0 +1,159 @@
+package com.example.sensordatacollector;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 数据文件内的字符串字典
+ * 传感器名称、前台应用名称、包名和用户ID在一个文件里反复出现，写入时每个字符串只以
+ * {"type":"dict","id":N,"value":"..."} 行定义一次，之后的记录用 *_ref 字段引用其编号。
+ * 编号只在当前文件内有效，每次打开文件输出流时重新开始；读取时按行顺序处理定义，
+ * 同一编号再次定义时以后出现的为准。
+ * 写入和读取分别使用各自的实例，实例本身不是线程安全的。
+ */
+public class StringDictionary {
+    public static final String TYPE = "dict";
+
+    // 引用字段的后缀，例如 sensor_name_ref
+    public static final String REF_SUFFIX = "_ref";
+
+    // 单个文件的最大条目数，超过后新字符串直接写入记录，避免前台应用频繁变化时字典无限增长
+    private static final int DEFAULT_MAX_ENTRIES = 4096;
+
+    private final int maxEntries;
+    private final Map<String, Integer> idsByValue = new HashMap<>();
+    private final List<String> valuesById = new ArrayList<>();
+
+    // 已分配编号但尚未写入文件的定义行
+    private final StringBuilder pendingDefinitions = new StringBuilder();
+
+    public StringDictionary() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public StringDictionary(int maxEntries) {
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    /**
+     * 获取字符串的编号，首次出现时分配编号并生成一条待写入的定义行
+     * @return 编号，字符串为null或字典已满时返回-1，调用方应直接写入原字符串
+     */
+    public int encode(String value) {
+        if (value == null) {
+            return -1;
+        }
+        Integer id = idsByValue.get(value);
+        if (id != null) {
+            return id;
+        }
+        if (valuesById.size() >= maxEntries) {
+            return -1;
+        }
+
+        int newId = valuesById.size();
+        valuesById.add(value);
+        idsByValue.put(value, newId);
+        pendingDefinitions.append(definitionJson(newId, value).toString()).append('\n');
+        return newId;
+    }
+
+    /**
+     * 取出上次调用以来新增的定义行(每行以换行结尾)，必须写在引用它们的记录之前
+     * @return 没有新定义时返回空字符串
+     */
+    public String takePendingDefinitions() {
+        if (pendingDefinitions.length() == 0) {
+            return "";
+        }
+        String definitions = pendingDefinitions.toString();
+        pendingDefinitions.setLength(0);
+        return definitions;
+    }
+
+    /**
+     * 读取时处理一行JSON，如果是字典定义行则记录该条目
+     * @return 是否为字典定义行
+     */
+    public boolean readDefinition(JSONObject json) {
+        if (!TYPE.equals(json.optString("type"))) {
+            return false;
+        }
+        int id = json.optInt("id", -1);
+        if (id < 0 || id >= maxEntries || !json.has("value")) {
+            return true;
+        }
+        String value = json.optString("value");
+        while (valuesById.size() <= id) {
+            valuesById.add(null);
+        }
+        String previous = valuesById.set(id, value);
+        if (previous != null) {
+            idsByValue.remove(previous);
+        }
+        idsByValue.put(value, id);
+        return true;
+    }
+
+    /**
+     * 按编号查找字符串，未定义时返回null
+     */
+    public String decode(int id) {
+        return id >= 0 && id < valuesById.size() ? valuesById.get(id) : null;
+    }
+
+    /**
+     * 清空所有条目，在开始写入或读取一个新文件时调用
+     */
+    public void clear() {
+        idsByValue.clear();
+        valuesById.clear();
+        pendingDefinitions.setLength(0);
+    }
+
+    public int size() {
+        return idsByValue.size();
+    }
+
+    /**
+     * 写入字符串字段：字典可用时写入 key_ref 编号，否则写入原字符串
+     */
+    static void putString(JSONObject json, String key, String value, StringDictionary dictionary) throws JSONException {
+        int id = dictionary != null ? dictionary.encode(value) : -1;
+        if (id >= 0) {
+            json.put(key + REF_SUFFIX, id);
+        } else {
+            json.put(key, value);
+        }
+    }
+
+    /**
+     * 读取字符串字段：优先使用原字符串，只有 key_ref 时通过字典还原
+     */
+    static String getString(JSONObject json, String key, StringDictionary dictionary) {
+        if (json.has(key)) {
+            return json.optString(key, null);
+        }
+        if (dictionary != null && json.has(key + REF_SUFFIX)) {
+            return dictionary.decode(json.optInt(key + REF_SUFFIX, -1));
+        }
+        return null;
+    }
+
+    private static JSONObject definitionJson(int id, String value) {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("type", TYPE);
+            json.put("id", id);
+            json.put("value", value);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return json;
+    }
+}
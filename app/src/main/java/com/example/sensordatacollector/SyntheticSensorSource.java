@@ -0,0 +1,255 @@
+package com.example.sensordatacollector;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 合成传感器数据源
+ * 按配置的传感器数量和采样率生成数据记录并交给SensorCollector.DataCollectionListener，
+ * 用于在没有真实传感器的情况下对DataManager和StorageManager进行高频压测。
+ * 记录的eventTimeNanos取自System.nanoTime()，下游可据此计算端到端延迟。
+ */
+public class SyntheticSensorSource {
+    private static final String TAG = "SyntheticSensorSource";
+
+    private static final float GRAVITY = 9.80665f;
+
+    // 合成记录的前台应用信息和精度
+    private static final String APP_NAME = "SyntheticSensorSource";
+    private static final String PACKAGE_NAME = "com.example.sensordatacollector";
+    private static final int ACCURACY = 3;
+
+    /**
+     * 合成数据的数值分布
+     */
+    public enum SignalKind {
+        /** 重力方向缓慢变化，叠加步行振动和噪声 */
+        ACCELEROMETER,
+        /** 零偏加噪声，叠加低频转动 */
+        GYROSCOPE,
+        /** 地磁场加噪声 */
+        MAGNETOMETER,
+        /** 气压缓慢漂移，只有x分量 */
+        PRESSURE
+    }
+
+    /**
+     * 单个合成传感器的配置
+     */
+    public static class SensorConfig {
+        public final int sensorId;
+        public final String name;
+        public final SignalKind kind;
+        public final double rateHz;
+
+        public SensorConfig(int sensorId, String name, SignalKind kind, double rateHz) {
+            if (rateHz <= 0) {
+                throw new IllegalArgumentException("采样率必须大于0: " + rateHz);
+            }
+            this.sensorId = sensorId;
+            this.name = name;
+            this.kind = kind;
+            this.rateHz = rateHz;
+        }
+    }
+
+    /**
+     * 按数量生成传感器配置：前三个为加速度计、陀螺仪、磁力计，其余依次循环这四种分布
+     */
+    public static List<SensorConfig> createSensors(int sensorCount, double rateHz) {
+        SignalKind[] kinds = {SignalKind.ACCELEROMETER, SignalKind.GYROSCOPE, SignalKind.MAGNETOMETER, SignalKind.PRESSURE};
+        String[] names = {"accelerometer", "gyroscope", "magnetometer", "pressure"};
+
+        List<SensorConfig> sensors = new ArrayList<>();
+        for (int i = 0; i < sensorCount; i++) {
+            int kindIndex = i % kinds.length;
+            String name = i < kinds.length ? names[kindIndex] : names[kindIndex] + "_" + (i / kinds.length + 1);
+            sensors.add(new SensorConfig(i + 1, name, kinds[kindIndex], rateHz));
+        }
+        return sensors;
+    }
+
+    /**
+     * 一次运行的统计结果
+     */
+    public static class RunResult {
+        public long recordsEmitted;
+        public long elapsedNanos;
+        public long targetRecords;    // 按配置速率在运行时间内应产生的记录数
+        public long lateEmissions;    // 落后计划时间超过一个采样周期才发出的记录数
+
+        public double getRecordsPerSecond() {
+            return elapsedNanos > 0 ? recordsEmitted * 1_000_000_000.0 / elapsedNanos : 0;
+        }
+    }
+
+    private final SensorCollector.DataCollectionListener target;
+    private final SensorConfig[] sensors;
+    private final Random random;
+    private final String userId;
+
+    private volatile boolean stopRequested = false;
+
+    // 大于0时按SensorCollector的方式攒成SensorBatch交给目标，0表示逐条交付
+    private volatile int batchSize = 0;
+    private volatile long batchMaxAgeNanos = 100_000_000L;
+
+    public SyntheticSensorSource(SensorCollector.DataCollectionListener target, List<SensorConfig> sensors, long seed) {
+        if (target == null) {
+            throw new IllegalArgumentException("数据目标不能为空");
+        }
+        this.target = target;
+        this.sensors = sensors.toArray(new SensorConfig[0]);
+        this.random = new Random(seed);
+        this.userId = DataManager.getCurrentUserId();
+    }
+
+    /**
+     * 设置批次大小，大于0时与SensorCollector一样攒满一批或超过最长时间后调用onBatchCollected
+     */
+    public void setBatching(int batchSize, long maxAgeMs) {
+        this.batchSize = Math.max(0, batchSize);
+        this.batchMaxAgeNanos = Math.max(0, maxAgeMs) * 1_000_000L;
+    }
+
+    /**
+     * 请求停止，可在其他线程调用
+     */
+    public void stop() {
+        stopRequested = true;
+    }
+
+    /**
+     * 在当前线程按计划生成记录，直到达到运行时间或被停止
+     */
+    public RunResult run(long durationMs) {
+        stopRequested = false;
+        int count = sensors.length;
+        long[] periodNanos = new long[count];
+        long[] nextDueNanos = new long[count];
+        long[] emitted = new long[count];
+
+        long startNanos = System.nanoTime();
+        long endNanos = startNanos + durationMs * 1_000_000L;
+        for (int i = 0; i < count; i++) {
+            periodNanos[i] = Math.max(1, (long) (1_000_000_000.0 / sensors[i].rateHz));
+            nextDueNanos[i] = startNanos;
+        }
+
+        RunResult result = new RunResult();
+        int currentBatchSize = batchSize;
+        float[] values = new float[3];
+        SensorBatch batch = null;
+        long batchStartNanos = 0;
+        while (!stopRequested) {
+            // 找到最早到期的传感器
+            int next = 0;
+            for (int i = 1; i < count; i++) {
+                if (nextDueNanos[i] < nextDueNanos[next]) {
+                    next = i;
+                }
+            }
+            long due = nextDueNanos[next];
+            if (due >= endNanos) {
+                break;
+            }
+
+            long now = System.nanoTime();
+            if (batch != null && (batch.isFull() || now - batchStartNanos >= batchMaxAgeNanos)) {
+                target.onBatchCollected(batch);
+                batch = null;
+            }
+            if (due > now) {
+                LockSupport.parkNanos(due - now);
+                continue;
+            }
+            if (now - due > periodNanos[next]) {
+                result.lateEmissions++;
+            }
+
+            SensorConfig sensor = sensors[next];
+            generateValues(sensor, emitted[next], values);
+            if (currentBatchSize > 0) {
+                if (batch == null) {
+                    batch = new SensorBatch(currentBatchSize, userId, APP_NAME, PACKAGE_NAME);
+                    batchStartNanos = now;
+                }
+                batch.add(System.currentTimeMillis(), due, sensor.sensorId, sensor.name,
+                        values[0], values[1], values[2], ACCURACY);
+            } else {
+                target.onDataCollected(new DataRecord(System.currentTimeMillis(), due, sensor.sensorId, sensor.name,
+                        values[0], values[1], values[2], ACCURACY, APP_NAME, PACKAGE_NAME, userId));
+            }
+            emitted[next]++;
+            result.recordsEmitted++;
+            nextDueNanos[next] = due + periodNanos[next];
+        }
+
+        if (batch != null && !batch.isEmpty()) {
+            target.onBatchCollected(batch);
+        }
+
+        result.elapsedNanos = System.nanoTime() - startNanos;
+        for (int i = 0; i < count; i++) {
+            result.targetRecords += (long) (durationMs / 1000.0 * sensors[i].rateHz);
+        }
+        Log.d(TAG, "合成数据生成完成: " + result.recordsEmitted + "/" + result.targetRecords + " 条, 延迟发出 " + result.lateEmissions);
+        return result;
+    }
+
+    /**
+     * 生成一个样本的x/y/z，数值按传感器类型模拟真实分布
+     * @param index 该传感器的样本序号
+     * @param out 输出数组，长度为3
+     */
+    private void generateValues(SensorConfig sensor, long index, float[] out) {
+        double t = index / sensor.rateHz; // 秒
+        float x;
+        float y;
+        float z;
+
+        switch (sensor.kind) {
+            case ACCELEROMETER: {
+                // 设备姿态缓慢变化，重力在x/z之间转动，叠加2Hz步行振动
+                double tilt = 0.3 * Math.sin(2 * Math.PI * 0.05 * t);
+                double walk = 1.2 * Math.sin(2 * Math.PI * 2.0 * t);
+                x = (float) (GRAVITY * Math.sin(tilt) + 0.3 * walk + gaussian(0.02));
+                y = (float) (0.2 * walk + gaussian(0.02));
+                z = (float) (GRAVITY * Math.cos(tilt) + walk + gaussian(0.02));
+                break;
+            }
+            case GYROSCOPE: {
+                double turn = 0.4 * Math.sin(2 * Math.PI * 0.5 * t);
+                x = (float) (0.002 + gaussian(0.005));
+                y = (float) (-0.001 + gaussian(0.005));
+                z = (float) (turn + gaussian(0.005));
+                break;
+            }
+            case MAGNETOMETER: {
+                double heading = 2 * Math.PI * 0.02 * t;
+                x = (float) (22.0 * Math.cos(heading) + gaussian(0.3));
+                y = (float) (22.0 * Math.sin(heading) + gaussian(0.3));
+                z = (float) (-40.0 + gaussian(0.3));
+                break;
+            }
+            case PRESSURE:
+            default:
+                x = (float) (1013.25 + 0.5 * Math.sin(2 * Math.PI * 0.001 * t) + gaussian(0.01));
+                y = 0f;
+                z = 0f;
+                break;
+        }
+
+        out[0] = x;
+        out[1] = y;
+        out[2] = z;
+    }
+
+    private double gaussian(double sigma) {
+        return random.nextGaussian() * sigma;
+    }
+}
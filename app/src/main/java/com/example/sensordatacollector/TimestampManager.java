@@ -1,8 +1,9 @@
 package com.example.sensordatacollector;
 
+import android.os.SystemClock;
 import android.util.Log;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -13,28 +14,39 @@ public class TimestampManager {
     private static final String TAG = "TimestampManager";
     private static volatile TimestampManager instance;
     
-    // 当前传感器采样的统一时间戳
+    // 当前采样周期第一个样本的时间戳(毫秒)，由样本处理线程更新
     private final AtomicLong currentSensorTimestamp = new AtomicLong(0);
     
-    // 传感器时间戳历史记录（用于数据对齐）
-    private final ConcurrentLinkedQueue<Long> sensorTimestampHistory = new ConcurrentLinkedQueue<>();
-    
     // 历史记录的最大保留数量
     private static final int MAX_HISTORY_SIZE = 1000;
     
     // 时间窗口（毫秒），用于数据时间戳对齐
     private static final long TIME_WINDOW_MS = 50;
     
+    // 历史记录保留的时长（毫秒）
+    private static final long HISTORY_RETENTION_MS = TIME_WINDOW_MS * 10;
+    
+    // 传感器时间戳历史记录（用于数据对齐）：固定容量的环形数组，按时间递增排列
+    private final long[] historyRing = new long[MAX_HISTORY_SIZE];
+    private int historyStart = 0;
+    private int historySize = 0;
+    private final Object historyLock = new Object();
+    
     // 采样率
     private volatile int samplingRateMs = 10;
     
     // 是否正在采集传感器数据
     private final AtomicBoolean isSensorCollecting = new AtomicBoolean(false);
     
-    // 用于控制日志输出频率的计数器
-    private volatile int logCounter = 0;
+    // 墙上时间(纳秒)与SystemClock.elapsedRealtimeNanos()之间的偏移量
+    // SensorEvent.timestamp使用elapsedRealtimeNanos时基，加上该偏移即得到墙上时间
+    private volatile long bootTimeOffsetNanos;
+    
+    // 计算偏移量时的采样次数，取读时钟耗时最短的一次
+    private static final int OFFSET_SAMPLE_COUNT = 3;
     
     private TimestampManager() {
+        bootTimeOffsetNanos = computeBootTimeOffsetNanos();
         Log.d(TAG, "时间戳管理器已初始化");
     }
     
@@ -68,8 +80,64 @@ public class TimestampManager {
      * 开始传感器数据采集
      */
     public void startSensorCollection() {
+        bootTimeOffsetNanos = computeBootTimeOffsetNanos();
         isSensorCollecting.set(true);
-        Log.d(TAG, "开始传感器数据采集时间戳同步");
+        Log.d(TAG, "开始传感器数据采集时间戳同步，启动时间偏移: " + bootTimeOffsetNanos + "ns");
+    }
+    
+    /**
+     * 计算墙上时间与elapsedRealtimeNanos之间的偏移量
+     * 用两次elapsedRealtimeNanos夹住currentTimeMillis，取中点以减小读时钟本身的误差
+     */
+    static long computeBootTimeOffsetNanos() {
+        return computeBootTimeOffsetNanos(ClockSyncManager.SYSTEM_CLOCK);
+    }
+    
+    static long computeBootTimeOffsetNanos(ClockSyncManager.DeviceClock clock) {
+        long bestOffset = 0;
+        long bestSpan = Long.MAX_VALUE;
+        
+        for (int i = 0; i < OFFSET_SAMPLE_COUNT; i++) {
+            long before = clock.elapsedRealtimeNanos();
+            long wallMs = clock.currentTimeMillis();
+            long after = clock.elapsedRealtimeNanos();
+            
+            long span = after - before;
+            if (span < bestSpan) {
+                bestSpan = span;
+                bestOffset = wallMs * 1_000_000L - (before + span / 2);
+            }
+        }
+        
+        return bestOffset;
+    }
+    
+    /**
+     * 将传感器事件时间(elapsedRealtimeNanos时基)转换为墙上时间毫秒
+     * 只做一次加法，不需要每个事件读取系统时钟
+     */
+    public long sensorTimeToWallClockMs(long eventTimeNanos) {
+        return (eventTimeNanos + bootTimeOffsetNanos) / 1_000_000L;
+    }
+    
+    /**
+     * 获取墙上时间与elapsedRealtimeNanos之间的偏移量(纳秒)
+     */
+    public long getBootTimeOffsetNanos() {
+        return bootTimeOffsetNanos;
+    }
+    
+    /**
+     * 更新墙上时间与elapsedRealtimeNanos之间的偏移量，由ClockSyncManager在重新同步后调用
+     */
+    void setBootTimeOffsetNanos(long offsetNanos) {
+        this.bootTimeOffsetNanos = offsetNanos;
+        // 换算关系改变后旧的历史记录无法与新时间戳比较
+        currentSensorTimestamp.set(0);
+        synchronized (historyLock) {
+            historyStart = 0;
+            historySize = 0;
+        }
     }
     
     /**
@@ -78,100 +146,141 @@ public class TimestampManager {
     public void stopSensorCollection() {
         isSensorCollecting.set(false);
         currentSensorTimestamp.set(0);
-        sensorTimestampHistory.clear();
+        synchronized (historyLock) {
+            historyStart = 0;
+            historySize = 0;
+        }
         Log.d(TAG, "停止传感器数据采集时间戳同步");
     }
     
     /**
-     * 获取当前传感器数据的统一时间戳
-     * 所有三个传感器在同一采样周期应该使用相同的时间戳
-     * 
-     * 注意：这个方法被设计为在高频调用下保持性能，
-     * 同时确保在同一采样周期内返回相同的时间戳
-     * 移除synchronized以提高性能，使用原子操作确保线程安全
+     * 记录一个传感器样本：把事件时间换算为墙上时间，每个采样周期的第一个样本写入历史记录
+     * 在样本处理线程中调用，同一周期内的其他样本只做一次比较，不加锁；
+     * 批处理时不同传感器的样本可能早于已记录的周期，这些样本不写入历史记录
+     * @param eventTimeNanos 传感器事件时间(elapsedRealtimeNanos时基)
+     * @return 样本的墙上时间(毫秒)
      */
-    public long getCurrentSensorTimestamp() {
-        if (!isSensorCollecting.get()) {
-            return System.currentTimeMillis();
+    public long recordSensorEvent(long eventTimeNanos) {
+        long timestampMs = sensorTimeToWallClockMs(eventTimeNanos);
+        long periodStart = currentSensorTimestamp.get();
+        if (periodStart == 0 || timestampMs - periodStart >= samplingRateMs) {
+            currentSensorTimestamp.set(timestampMs);
+            addToHistory(timestampMs);
         }
-        
-        long currentTime = System.currentTimeMillis();
-        long lastTimestamp = currentSensorTimestamp.get();
-        
-        // 如果是第一次调用或者距离上次时间戳超过采样周期，更新时间戳
-        if (lastTimestamp == 0 || (currentTime - lastTimestamp) >= samplingRateMs) {
-            // 使用compareAndSet确保原子性更新，最多尝试3次避免过度竞争
-            for (int attempts = 0; attempts < 3; attempts++) {
-                if (currentSensorTimestamp.compareAndSet(lastTimestamp, currentTime)) {
-                    addToHistory(currentTime);
-                    
-                    // 减少日志输出频率，只在每20次更新时记录一次
-                    logCounter++;
-                    if (logCounter % 20 == 0) {
-                        Log.v(TAG, "更新传感器统一时间戳: " + currentTime + " (采样周期: " + samplingRateMs + "ms, 间隔: " + (lastTimestamp == 0 ? 0 : currentTime - lastTimestamp) + "ms)");
-                    }
-                    return currentTime;
-                } else {
-                    // 如果CAS失败，重新获取最新时间戳继续尝试
-                    lastTimestamp = currentSensorTimestamp.get();
-                    // 如果最新时间戳已经足够新，直接使用它
-                    if ((currentTime - lastTimestamp) < samplingRateMs) {
-                        if (logCounter % 100 == 0) {
-                            Log.v(TAG, "CAS重试后使用最新时间戳: " + lastTimestamp);
-                        }
-                        return lastTimestamp;
-                    }
-                    // 否则更新当前时间继续尝试
-                    currentTime = System.currentTimeMillis();
-                }
+        return timestampMs;
+    }
+    
+    /**
+     * 添加时间戳到历史记录
+     * 插入和过期清理都是O(1)(均摊)，不会遍历整个历史；包内可见以便单元测试构造历史记录
+     */
+    void addToHistory(long timestamp) {
+        synchronized (historyLock) {
+            if (historySize > 0 && timestamp < historyAt(historySize - 1)) {
+                // 时间回退，旧记录无法与新时间戳比较，直接清空
+                Log.w(TAG, "时间戳回退，清空历史记录");
+                historyStart = 0;
+                historySize = 0;
             }
             
-            // 如果多次CAS失败，直接返回当前获取的时间戳
-            long finalTimestamp = currentSensorTimestamp.get();
-            if (logCounter % 200 == 0) {
-                Log.v(TAG, "CAS多次失败，返回当前时间戳: " + finalTimestamp);
+            // 清理超过保留时长的旧记录，记录按时间递增，只需要从头部移除
+            while (historySize > 0 && timestamp - historyRing[historyStart] > HISTORY_RETENTION_MS) {
+                historyStart = (historyStart + 1) % MAX_HISTORY_SIZE;
+                historySize--;
             }
-            return finalTimestamp;
-        } else {
-            // 在同一采样周期内，返回相同的时间戳
-            // 减少日志输出频率，因为这种情况很常见
-            if (logCounter % 200 == 0) {
-                long timeDiff = currentTime - lastTimestamp;
-                Log.v(TAG, "返回同一采样周期的时间戳: " + lastTimestamp + " (当前时间: " + currentTime + ", 间隔: " + timeDiff + "ms < " + samplingRateMs + "ms)");
+            
+            // 容量已满时覆盖最旧的记录
+            if (historySize == MAX_HISTORY_SIZE) {
+                historyStart = (historyStart + 1) % MAX_HISTORY_SIZE;
+                historySize--;
             }
-            return lastTimestamp;
+            
+            historyRing[(historyStart + historySize) % MAX_HISTORY_SIZE] = timestamp;
+            historySize++;
         }
     }
     
     /**
-     * 强制更新传感器时间戳（在新的采样周期开始时调用）
+     * 历史记录中第i个(从最旧开始)时间戳，调用方需持有historyLock
+     */
+    private long historyAt(int i) {
+        return historyRing[(historyStart + i) % MAX_HISTORY_SIZE];
+    }
+    
+    /**
+     * 第一个不小于timestampMs的历史记录序号，调用方需持有historyLock
      */
-    public long updateSensorTimestamp() {
-        if (!isSensorCollecting.get()) {
-            return System.currentTimeMillis();
+    private int lowerBound(long timestampMs) {
+        int low = 0;
+        int high = historySize;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (historyAt(mid) < timestampMs) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
         }
-        
-        long currentTime = System.currentTimeMillis();
-        currentSensorTimestamp.set(currentTime);
-        addToHistory(currentTime);
-        Log.v(TAG, "更新传感器时间戳: " + currentTime);
-        return currentTime;
+        return low;
     }
     
     /**
-     * 添加时间戳到历史记录
+     * 查找历史记录中与给定时间最接近的统一时间戳，用于把其他来源的数据对齐到传感器采样周期
+     * @return 最接近的时间戳，历史记录为空时返回-1
      */
-    private void addToHistory(long timestamp) {
-        sensorTimestampHistory.offer(timestamp);
-        
-        // 限制历史记录大小，移除最旧的记录
-        while (sensorTimestampHistory.size() > MAX_HISTORY_SIZE) {
-            sensorTimestampHistory.poll();
+    public long findNearestTimestamp(long timestampMs) {
+        synchronized (historyLock) {
+            if (historySize == 0) {
+                return -1;
+            }
+            int index = lowerBound(timestampMs);
+            if (index == historySize) {
+                return historyAt(historySize - 1);
+            }
+            long after = historyAt(index);
+            if (index == 0) {
+                return after;
+            }
+            long before = historyAt(index - 1);
+            return (timestampMs - before) <= (after - timestampMs) ? before : after;
         }
-        
-        // 清理超过时间窗口的旧记录
-        long currentTime = System.currentTimeMillis();
-        sensorTimestampHistory.removeIf(ts -> (currentTime - ts) > (TIME_WINDOW_MS * 10));
+    }
+    
+    /**
+     * 将时间窗口[fromMs, toMs]内的历史时间戳按时间顺序复制到out中
+     * @return 复制的数量，最多为out.length
+     */
+    public int getTimestampsInWindow(long fromMs, long toMs, long[] out) {
+        synchronized (historyLock) {
+            int count = 0;
+            for (int i = lowerBound(fromMs); i < historySize && count < out.length; i++) {
+                long timestamp = historyAt(i);
+                if (timestamp > toMs) {
+                    break;
+                }
+                out[count++] = timestamp;
+            }
+            return count;
+        }
+    }
+    
+    /**
+     * 获取时间窗口[fromMs, toMs]内的历史时间戳
+     */
+    public long[] getTimestampsInWindow(long fromMs, long toMs) {
+        long[] buffer;
+        synchronized (historyLock) {
+            buffer = new long[historySize];
+        }
+        int count = getTimestampsInWindow(fromMs, toMs, buffer);
+        return Arrays.copyOf(buffer, count);
+    }
+    
+    /**
+     * 获取以给定时间为中心、对齐时间窗口(TIME_WINDOW_MS)内的历史时间戳
+     */
+    public long[] getTimestampsAround(long timestampMs) {
+        return getTimestampsInWindow(timestampMs - TIME_WINDOW_MS / 2, timestampMs + TIME_WINDOW_MS / 2);
     }
     
     /**
@@ -185,7 +294,9 @@ public class TimestampManager {
      * 获取时间戳历史记录数量（用于调试）
      */
     public int getHistorySize() {
-        return sensorTimestampHistory.size();
+        synchronized (historyLock) {
+            return historySize;
+        }
     }
     
     /**
@@ -0,0 +1,116 @@
+package com.example.sensordatacollector;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 时钟同步管理器的本地单元测试，服务器时间由本地桩提供，设备时钟只在测试中手动推进
+ * 同步会更新TimestampManager的启动时间偏移，每个测试结束后恢复
+ */
+public class ClockSyncManagerTest {
+
+    /**
+     * 只在测试中手动推进的设备时钟
+     */
+    private static class ManualClock implements ClockSyncManager.DeviceClock {
+        long elapsedNanos = 5_000_000_000L;
+        long wallMs = 1_700_000_000_000L;
+
+        @Override
+        public long elapsedRealtimeNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return wallMs;
+        }
+
+        void advanceMs(long ms) {
+            elapsedNanos += ms * 1_000_000L;
+            wallMs += ms;
+        }
+    }
+
+    private long originalBootOffsetNanos;
+
+    @Before
+    public void setUp() {
+        originalBootOffsetNanos = TimestampManager.getInstance().getBootTimeOffsetNanos();
+    }
+
+    @After
+    public void tearDown() {
+        TimestampManager.getInstance().setBootTimeOffsetNanos(originalBootOffsetNanos);
+    }
+
+    @Test
+    public void estimatesServerOffsetFromStubSource() {
+        ManualClock clock = new ManualClock();
+        ClockSyncManager manager = new ClockSyncManager(clock);
+        manager.setServerTimeSource(() -> clock.wallMs + 1_500);
+
+        ClockSyncManager.ClockMapping mapping = manager.sync();
+
+        assertTrue(mapping.hasServerTime);
+        assertEquals(1_500_000_000L, mapping.serverOffsetNanos);
+        assertEquals(mapping.toWallTimeNanos(1_000L) + mapping.serverOffsetNanos, mapping.toServerTimeNanos(1_000L));
+
+        JSONObject json = mapping.toJson();
+        assertEquals("clock_sync", json.optString("type"));
+        assertTrue(json.has("server_offset_ns"));
+        assertTrue(json.has("boot_offset_ns"));
+    }
+
+    @Test
+    public void reportsStepWhenServerOffsetJumps() {
+        ManualClock clock = new ManualClock();
+        ClockSyncManager manager = new ClockSyncManager(clock);
+        List<Boolean> steps = new ArrayList<>();
+        manager.addListener((mapping, stepped) -> steps.add(stepped));
+
+        manager.setServerTimeSource(() -> clock.wallMs + 200);
+        manager.sync();
+        clock.advanceMs(60_000);
+        manager.sync();
+        manager.setServerTimeSource(() -> clock.wallMs + 260);
+        clock.advanceMs(60_000);
+        ClockSyncManager.ClockMapping mapping = manager.sync();
+
+        // 第一次得到服务器时间也视为跳变
+        assertEquals(Arrays.asList(true, false, true), steps);
+        assertEquals(260_000_000L, mapping.serverOffsetNanos);
+        assertEquals(0, mapping.stepCount);
+    }
+
+    @Test
+    public void appliesBootOffsetOnlyWhenItSteps() {
+        TimestampManager timestampManager = TimestampManager.getInstance();
+        ManualClock clock = new ManualClock();
+        ClockSyncManager manager = new ClockSyncManager(clock);
+        long initial = manager.sync().bootOffsetNanos;
+        assertEquals(initial, timestampManager.getBootTimeOffsetNanos());
+
+        // 墙上时间漂移1ms，低于跳变阈值，不改动正在使用的偏移
+        clock.advanceMs(300_000);
+        clock.wallMs += 1;
+        ClockSyncManager.ClockMapping drifted = manager.sync();
+        assertEquals(initial + 1_000_000L, drifted.bootOffsetNanos);
+        assertEquals(initial, timestampManager.getBootTimeOffsetNanos());
+
+        // 累计漂移超过阈值后同步
+        clock.advanceMs(300_000);
+        clock.wallMs += 2;
+        ClockSyncManager.ClockMapping stepped = manager.sync();
+        assertEquals(stepped.bootOffsetNanos, timestampManager.getBootTimeOffsetNanos());
+        assertEquals(initial + 3_000_000L, stepped.bootOffsetNanos);
+    }
+}
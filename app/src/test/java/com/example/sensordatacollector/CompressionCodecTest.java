@@ -0,0 +1,98 @@
+package com.example.sensordatacollector;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 压缩编码和按块压缩的数据段的本地单元测试
+ */
+public class CompressionCodecTest {
+
+    private static byte[][] samples() {
+        Random random = new Random(7);
+        byte[] noise = new byte[100_000];
+        random.nextBytes(noise);
+        byte[] text = new byte[200_000];
+        byte[] line = "{\"type\":\"sensor\",\"sensor_name\":\"accelerometer\",\"x\":0.125}\n".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < text.length; i++) {
+            text[i] = i % 997 == 0 ? (byte) random.nextInt() : line[i % line.length];
+        }
+        byte[] run = new byte[70_000];
+        Arrays.fill(run, (byte) 'a');
+        return new byte[][] { new byte[0], new byte[] { 1 }, "abcabcabcabcabcabc".getBytes(StandardCharsets.UTF_8),
+                noise, text, run };
+    }
+
+    @Test
+    public void codecsRoundTrip() throws Exception {
+        for (CompressionCodec codec : CompressionCodec.all()) {
+            assertSame(codec, CompressionCodec.forId(codec.getId()));
+            assertSame(codec, CompressionCodec.forName(codec.getName()));
+            for (byte[] sample : samples()) {
+                byte[] compressed = new byte[3 + codec.maxCompressedLength(sample.length)];
+                int length = codec.compress(sample, 0, sample.length, compressed, 3);
+                assertTrue(codec + " " + length, length <= codec.maxCompressedLength(sample.length));
+
+                byte[] restored = new byte[sample.length + 2];
+                codec.decompress(compressed, 3, length, restored, 1, sample.length);
+                assertArrayEquals(codec.getName(), sample, Arrays.copyOfRange(restored, 1, 1 + sample.length));
+                if (sample.length > 1000 && sample[0] == 'a' && codec != CompressionCodec.NONE) {
+                    assertTrue(codec + " " + length, length < sample.length / 50);
+                }
+            }
+        }
+    }
+
+    @Test(expected = java.io.IOException.class)
+    public void lz4RejectsCorruptBlock() throws Exception {
+        byte[] sample = samples()[4];
+        byte[] compressed = new byte[CompressionCodec.LZ4.maxCompressedLength(sample.length)];
+        int length = CompressionCodec.LZ4.compress(sample, 0, sample.length, compressed, 0);
+        CompressionCodec.LZ4.decompress(compressed, 0, length - 7, new byte[sample.length], 0, sample.length);
+    }
+
+    @Test
+    public void segmentRoundTripsWithEachCodec() throws Exception {
+        for (CompressionCodec codec : CompressionCodec.all()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            SegmentWriter writer = new SegmentWriter(out, new SegmentFormat.Header(1_700_000_000_000L, "user1", "jvm",
+                    null, SegmentFormat.RECORD_ENCODING_GORILLA, codec.getId()), true);
+            for (int i = 0; i < 20_000; i++) {
+                writer.write(new DataRecord(1_700_000_000_000L + i * 5L, "gyroscope", i % 100 * 0.01f, -1f,
+                        (float) Math.sin(i * 0.01), 3, "app", "pkg", "user1"));
+                if (i % 5000 == 0) {
+                    // 刷新时结束当前压缩块
+                    writer.flush();
+                }
+            }
+            writer.close();
+            byte[] data = out.toByteArray();
+
+            SegmentReader reader = new SegmentReader(new ByteArrayInputStream(data));
+            assertEquals(codec.getId(), reader.getHeader().compression);
+            int count = 0;
+            while (reader.next()) {
+                assertEquals(1_700_000_000_000L + count * 5L, reader.getRecord().timestampMs);
+                count++;
+            }
+            assertEquals(codec.getName(), 20_000, count);
+            assertFalse(reader.isTruncated());
+
+            // 最后一个压缩块不完整时读到前一个块为止
+            reader = new SegmentReader(new ByteArrayInputStream(Arrays.copyOf(data, data.length - 10)));
+            count = 0;
+            while (reader.next()) {
+                count++;
+            }
+            assertTrue(codec.getName() + " " + count, count > 0 && count < 20_000);
+            assertTrue(reader.isTruncated());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.sensordatacollector;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 数据文件降采样和存储配额计算的本地单元测试
+ */
+public class DataFileDownsamplerTest {
+
+    private static DataRecord record(long timestampMs, String sensorName) {
+        return new DataRecord(timestampMs, sensorName, 1f, 2f, 3f, 3, "app", "pkg", "user1");
+    }
+
+    @Test
+    public void jsonlKeepsEveryNthRecordPerSensorAndAllDictionaryLines() throws Exception {
+        ByteArrayOutputStream jsonl = new ByteArrayOutputStream();
+        JsonLineEncoder encoder = new JsonLineEncoder();
+        StringDictionary dictionary = new StringDictionary();
+        for (int i = 0; i < 10; i++) {
+            encoder.reset();
+            encoder.encode(record(1000L + i, i % 2 == 0 ? "gyroscope" : "accelerometer"), dictionary);
+            encoder.writeTo(jsonl);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataFileDownsampler.Result result = DataFileDownsampler.downsampleJsonl(
+                new ByteArrayInputStream(jsonl.toByteArray()), out, 2);
+        assertEquals(6, result.recordsKept);
+        assertEquals(4, result.recordsDropped);
+
+        // 字典定义保留，被保留的记录仍能还原字符串
+        StringDictionary readDictionary = new StringDictionary();
+        List<Long> timestamps = new ArrayList<>();
+        String[] lines = out.toString("UTF-8").split("\n");
+        for (String line : lines) {
+            JSONObject json = new JSONObject(line);
+            if (readDictionary.readDefinition(json) || !json.has("timestamp_ms")) {
+                continue;
+            }
+            DataRecord read = DataRecord.fromJson(json, readDictionary);
+            assertNotNull(read.sensorName);
+            timestamps.add(read.timestampMs);
+        }
+        // 每个传感器保留第1、3、5条
+        assertEquals(Arrays.asList(1000L, 1001L, 1004L, 1005L, 1008L, 1009L), timestamps);
+        assertEquals(DataFileDownsampler.METADATA_TYPE, new JSONObject(lines[lines.length - 1]).getString("type"));
+    }
+
+    @Test
+    public void segmentKeepsHeaderAndMetadata() throws Exception {
+        ByteArrayOutputStream segment = new ByteArrayOutputStream();
+        SegmentWriter writer = new SegmentWriter(segment,
+                new SegmentFormat.Header(1_700_000_000_000L, "user1", "jvm", null), true);
+        writer.writeMetadata("{\"type\":\"clock_sync\"}");
+        for (int i = 0; i < 9; i++) {
+            writer.write(record(1000L + i, "gyroscope"));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataFileDownsampler.Result result = DataFileDownsampler.downsampleSegment(
+                new ByteArrayInputStream(segment.toByteArray()), out, 4);
+        assertEquals(3, result.recordsKept);
+        assertEquals(6, result.recordsDropped);
+
+        SegmentReader reader = new SegmentReader(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals("user1", reader.getHeader().userId);
+        assertTrue(reader.next());
+        assertEquals("{\"type\":\"clock_sync\"}", reader.getMetadataJson());
+        long[] expected = { 1000L, 1004L, 1008L };
+        for (long timestampMs : expected) {
+            assertTrue(reader.next());
+            assertEquals(timestampMs, reader.getRecord().timestampMs);
+        }
+        assertTrue(reader.next());
+        assertTrue(reader.isMetadata());
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void quotaFreesDownToLowWatermark() {
+        StorageQuota quota = new StorageQuota(1000, 100, StorageQuota.EvictionPolicy.OLDEST_FIRST);
+        assertEquals(0, quota.getBytesToFree(1000, 500));
+        // 超出配额：降到配额的90%
+        assertEquals(200, quota.getBytesToFree(1100, 500));
+        // 可用空间不足：升到下限的110%
+        assertEquals(60, quota.getBytesToFree(500, 50));
+        assertEquals(0, StorageQuota.UNLIMITED.getBytesToFree(Long.MAX_VALUE / 2, 0));
+    }
+}
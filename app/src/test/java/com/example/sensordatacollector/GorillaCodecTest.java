@@ -0,0 +1,194 @@
+package com.example.sensordatacollector;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Gorilla记录块编码的本地单元测试
+ */
+public class GorillaCodecTest {
+
+    private static SegmentFormat.Header header(int recordEncoding) {
+        return new SegmentFormat.Header(1_700_000_000_000L, "user1", "jvm", null, recordEncoding);
+    }
+
+    /**
+     * 交替采样的加速度计和陀螺仪，夹杂融合记录、特殊数值、时间跳变和上下文切换
+     */
+    private static List<DataRecord> records(int count) {
+        Random random = new Random(42);
+        List<DataRecord> records = new ArrayList<>();
+        long wallMs = 1_700_000_000_000L;
+        long eventNanos = 5_000_000_000L;
+        for (int i = 0; i < count; i++) {
+            wallMs += i % 3 == 0 ? 5 : 4;
+            eventNanos += 5_000_000 + random.nextInt(2000);
+            if (i == count / 2) {
+                // 墙上时间被调整、事件时间重新开始
+                wallMs -= 3_600_000;
+                eventNanos = 1;
+            }
+            String app = i < count / 3 ? "应用" : "其他应用";
+            float t = i * 0.01f;
+            records.add(new DataRecord(wallMs, eventNanos, SensorRegistry.ID_ACCELEROMETER, "accelerometer",
+                    (float) Math.sin(t), i % 50 == 0 ? -0f : 0.02f, 9.80665f + random.nextFloat() * 0.01f,
+                    3, app, "com.example.app", "user1"));
+            records.add(new DataRecord(wallMs, i % 7 == 0 ? 0L : eventNanos + 100, SensorRegistry.ID_GYROSCOPE,
+                    "gyroscope", i % 97 == 0 ? Float.NaN : random.nextFloat(), -1f, (float) Math.cos(t),
+                    i % 11 == 0 ? -1 : 2, app, "com.example.app", "user1"));
+            if (i % 10 == 0) {
+                FusedDataRecord fused = new FusedDataRecord(wallMs + 1, eventNanos + 200, 1, app, "com.example.app", "user1");
+                fused.accX = (float) Math.sin(t);
+                fused.gyroZ = Float.intBitsToFloat(0x7fc00001);
+                fused.magZ = i;
+                records.add(fused);
+            }
+        }
+        return records;
+    }
+
+    private static byte[] writeAll(List<DataRecord> records, int recordEncoding) throws Exception {
+        return writeAll(records, recordEncoding, true);
+    }
+
+    private static byte[] writeAll(List<DataRecord> records, int recordEncoding, boolean withMetadata) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SegmentWriter writer = new SegmentWriter(out, header(recordEncoding), true);
+        for (int i = 0; i < records.size(); i++) {
+            writer.write(records.get(i));
+            if (withMetadata && i == records.size() / 4) {
+                writer.writeMetadata("{\"type\":\"clock_sync\"}");
+            }
+        }
+        writer.close();
+        return out.toByteArray();
+    }
+
+    private static void assertSameRecord(DataRecord expected, DataRecord actual) {
+        assertEquals(expected.getClass(), actual.getClass());
+        assertEquals(expected.timestampMs, actual.timestampMs);
+        assertEquals(expected.eventTimeNanos, actual.eventTimeNanos);
+        assertEquals(expected.sensorAccuracy, actual.sensorAccuracy);
+        assertEquals(expected.foregroundAppName, actual.foregroundAppName);
+        if (expected instanceof FusedDataRecord) {
+            FusedDataRecord e = (FusedDataRecord) expected;
+            FusedDataRecord a = (FusedDataRecord) actual;
+            assertEquals(Float.floatToRawIntBits(e.accX), Float.floatToRawIntBits(a.accX));
+            assertEquals(Float.floatToRawIntBits(e.gyroZ), Float.floatToRawIntBits(a.gyroZ));
+            assertEquals(Float.floatToRawIntBits(e.magZ), Float.floatToRawIntBits(a.magZ));
+        } else {
+            assertEquals(expected.sensorId, actual.sensorId);
+            assertEquals(expected.sensorName, actual.sensorName);
+            assertEquals(Float.floatToRawIntBits(expected.sensorX), Float.floatToRawIntBits(actual.sensorX));
+            assertEquals(Float.floatToRawIntBits(expected.sensorY), Float.floatToRawIntBits(actual.sensorY));
+            assertEquals(Float.floatToRawIntBits(expected.sensorZ), Float.floatToRawIntBits(actual.sensorZ));
+        }
+    }
+
+    @Test
+    public void recordsRoundTripAcrossChunks() throws Exception {
+        // 超过一个记录块的容量
+        List<DataRecord> records = records(3000);
+        byte[] gorilla = writeAll(records, SegmentFormat.RECORD_ENCODING_GORILLA);
+        byte[] fixed = writeAll(records, SegmentFormat.RECORD_ENCODING_FIXED);
+
+        SegmentReader reader = new SegmentReader(new ByteArrayInputStream(gorilla));
+        assertEquals(SegmentFormat.RECORD_ENCODING_GORILLA, reader.getHeader().recordEncoding);
+        int index = 0;
+        boolean sawMetadata = false;
+        while (reader.next()) {
+            if (reader.isMetadata()) {
+                // 元数据保持写入时的位置
+                assertEquals(records.size() / 4 + 1, index);
+                sawMetadata = true;
+                continue;
+            }
+            assertSameRecord(records.get(index++), reader.getRecord());
+        }
+        assertTrue(sawMetadata);
+        assertEquals(records.size(), index);
+        assertFalse(reader.isTruncated());
+        assertTrue("gorilla " + gorilla.length + " fixed " + fixed.length, gorilla.length * 2 < fixed.length);
+    }
+
+    @Test
+    public void writeReturnsIncrementalBytes() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SegmentWriter writer = new SegmentWriter(out, header(SegmentFormat.RECORD_ENCODING_GORILLA), true);
+        int headerBytes = out.size();
+        long reported = 0;
+        for (DataRecord record : records(5000)) {
+            reported += writer.write(record);
+        }
+        reported += writer.writeMetadata("{\"type\":\"clock_sync\"}");
+        writer.flush();
+        assertEquals(out.size() - headerBytes, reported);
+    }
+
+    @Test
+    public void truncatedChunkIsDropped() throws Exception {
+        List<DataRecord> records = records(100);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SegmentWriter writer = new SegmentWriter(out, header(SegmentFormat.RECORD_ENCODING_GORILLA), true);
+        for (int i = 0; i < 50; i++) {
+            writer.write(records.get(i));
+        }
+        writer.flush();
+        int firstChunkEnd = out.size();
+        for (int i = 50; i < records.size(); i++) {
+            writer.write(records.get(i));
+        }
+        writer.flush();
+        byte[] data = out.toByteArray();
+
+        SegmentReader reader = new SegmentReader(new ByteArrayInputStream(Arrays.copyOf(data, data.length - 3)));
+        int count = 0;
+        while (reader.next()) {
+            assertSameRecord(records.get(count++), reader.getRecord());
+        }
+        assertEquals(50, count);
+        assertTrue(reader.isTruncated());
+        assertTrue(firstChunkEnd < data.length - 3);
+    }
+
+    @Test
+    public void batchWriteMatchesRecordWrite() throws Exception {
+        List<DataRecord> sensorRecords = new ArrayList<>();
+        for (DataRecord record : records(600)) {
+            if (!(record instanceof FusedDataRecord)) {
+                sensorRecords.add(record);
+            }
+        }
+        for (int encoding : new int[] { SegmentFormat.RECORD_ENCODING_FIXED, SegmentFormat.RECORD_ENCODING_GORILLA }) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            SegmentWriter writer = new SegmentWriter(out, header(encoding), true);
+            SensorBatch batch = null;
+            for (DataRecord record : sensorRecords) {
+                // 批次中的前台应用相同，应用切换时开始新的批次
+                if (batch == null || batch.isFull() || !record.foregroundAppName.equals(batch.getForegroundAppName())) {
+                    writeBatch(writer, batch);
+                    batch = new SensorBatch(SensorBatch.MIN_CAPACITY, record.userId, record.foregroundAppName,
+                            record.foregroundPackageName);
+                }
+                batch.add(record);
+            }
+            writeBatch(writer, batch);
+            writer.close();
+            assertArrayEquals(writeAll(sensorRecords, encoding, false), out.toByteArray());
+        }
+    }
+
+    private static void writeBatch(SegmentWriter writer, SensorBatch batch) throws Exception {
+        for (int i = 0; batch != null && i < batch.size(); i++) {
+            writer.write(batch, i);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.sensordatacollector;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * 多成员GZIP输出流的本地单元测试：追加、截断恢复和旧格式文件
+ */
+public class GzipMemberOutputStreamTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void write(File file, long offset, String... members) throws Exception {
+        try (GzipMemberOutputStream out = new GzipMemberOutputStream(new FileOutputStream(file, true), offset, 1024)) {
+            for (String member : members) {
+                out.write(member.getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                assertEquals(file.length(), out.getCommittedPosition());
+            }
+        }
+    }
+
+    private static String readAll(File file) throws Exception {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                content.write(buffer, 0, n);
+            }
+        }
+        return content.toString("UTF-8");
+    }
+
+    @Test
+    public void appendsMembersToExistingFile() throws Exception {
+        File file = folder.newFile("data.jsonl.gz");
+        write(file, 0, "a\n", "b\n");
+        long position = GzipMemberOutputStream.findAppendPosition(file, 1024 * 1024);
+        assertEquals(file.length(), position);
+
+        write(file, position, "c\n");
+        assertEquals("a\nb\nc\n", readAll(file));
+    }
+
+    @Test
+    public void findsLastCompleteMemberAfterTruncation() throws Exception {
+        File file = folder.newFile("data.jsonl.gz");
+        write(file, 0, "first\n");
+        long boundary = file.length();
+
+        // 模拟写入第二个成员时进程被杀：文件末尾只有成员的一部分
+        StringBuilder large = new StringBuilder();
+        Random random = new Random(1);
+        for (int i = 0; i < 2000; i++) {
+            large.append(random.nextInt()).append('\n');
+        }
+        write(file, boundary, large.toString());
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(boundary + (file.length() - boundary) / 2);
+        }
+
+        assertEquals(boundary, GzipMemberOutputStream.findAppendPosition(file, 1024 * 1024));
+    }
+
+    @Test
+    public void rejectsSingleMemberFileLargerThanScanWindow() throws Exception {
+        File file = folder.newFile("legacy.jsonl.gz");
+        Random random = new Random(2);
+        try (GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(file))) {
+            for (int i = 0; i < 20000; i++) {
+                out.write((random.nextLong() + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        assertEquals(-1, GzipMemberOutputStream.findAppendPosition(file, 4096));
+        assertEquals(file.length(), GzipMemberOutputStream.findAppendPosition(file, (int) file.length()));
+    }
+}
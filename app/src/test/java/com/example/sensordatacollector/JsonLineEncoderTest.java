@@ -0,0 +1,141 @@
+package com.example.sensordatacollector;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * 流式JSONL编码器的本地单元测试
+ * 测试依赖的org.json与Android自带实现的字段顺序和转义不同，与JSONObject的逐字节对比见androidTest中的JsonEncoderBenchmark，
+ * 这里按Android的格式写出期望的行，并验证往返解析
+ */
+public class JsonLineEncoderTest {
+
+    private static String encode(DataRecord record, StringDictionary dictionary) {
+        JsonLineEncoder encoder = new JsonLineEncoder();
+        encoder.encode(record, dictionary);
+        return new String(encoder.getBuffer(), 0, encoder.length(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void formatsIntegralValuesAndNegativeZeroWithoutFraction() {
+        DataRecord record = new DataRecord(1_700_000_000_123L, 987_654_321_000L, SensorRegistry.ID_ACCELEROMETER,
+                "accelerometer", -0f, 1f, 16777216f, 3, "app", "com.example", "u");
+        assertEquals("{\"timestamp_ms\":1700000000123,\"event_time_ns\":987654321000,\"type\":\"sensor\","
+                + "\"user_id\":\"u\",\"foreground_app_name\":\"app\",\"foreground_package_name\":\"com.example\","
+                + "\"sensor_name\":\"accelerometer\",\"sensor_id\":1,"
+                + "\"values\":{\"x\":-0,\"y\":1,\"z\":16777216},\"accuracy\":3}\n", encode(record, null));
+    }
+
+    @Test
+    public void formatsFractionsAndExponentsLikeDoubleToString() {
+        DataRecord small = new DataRecord(1L, 0L, 0, "gyroscope", 1e-10f, 3.4028235e38f, 1e7f, -1, "app", "pkg", "user");
+        assertEquals("{\"timestamp_ms\":1,\"type\":\"sensor\",\"user_id\":\"user\",\"foreground_app_name\":\"app\","
+                + "\"foreground_package_name\":\"pkg\",\"sensor_name\":\"gyroscope\","
+                + "\"values\":{\"x\":1.000000013351432E-10,\"y\":3.4028234663852886E38,\"z\":10000000},"
+                + "\"accuracy\":-1}\n", encode(small, null));
+
+        DataRecord fraction = new DataRecord(2L, 0L, 0, "gyroscope", 0.1f, 123456.78f, 1e-7f, 0, "app", "pkg", "user");
+        assertEquals("{\"timestamp_ms\":2,\"type\":\"sensor\",\"user_id\":\"user\",\"foreground_app_name\":\"app\","
+                + "\"foreground_package_name\":\"pkg\",\"sensor_name\":\"gyroscope\","
+                + "\"values\":{\"x\":0.10000000149011612,\"y\":123456.78125,\"z\":1.0000000116860974E-7},"
+                + "\"accuracy\":0}\n", encode(fraction, null));
+    }
+
+    @Test
+    public void escapesSlashAndControlCharactersButKeepsNonAscii() {
+        DataRecord record = new DataRecord(3L, "magnetometer", 1f, 2f, 3f, 0,
+                "应用 😀", "t\"\\\t\n\u0001\u001f", "a/b");
+        assertEquals("{\"timestamp_ms\":3,\"type\":\"sensor\",\"user_id\":\"a\\/b\","
+                + "\"foreground_app_name\":\"应用 😀\","
+                + "\"foreground_package_name\":\"t\\\"\\\\\\t\\n\\u0001\\u001f\","
+                + "\"sensor_name\":\"magnetometer\",\"values\":{\"x\":1,\"y\":2,\"z\":3},\"accuracy\":0}\n",
+                encode(record, null));
+    }
+
+    @Test
+    public void writesDictionaryReferenceFields() {
+        StringDictionary dictionary = new StringDictionary();
+        String first = encode(new DataRecord(5L, "gyroscope", 1f, 2f, 3f, 0, "app", "pkg", "user"), dictionary);
+        assertEquals("{\"type\":\"dict\",\"id\":0,\"value\":\"user\"}\n"
+                + "{\"type\":\"dict\",\"id\":1,\"value\":\"app\"}\n"
+                + "{\"type\":\"dict\",\"id\":2,\"value\":\"pkg\"}\n"
+                + "{\"type\":\"dict\",\"id\":3,\"value\":\"gyroscope\"}\n"
+                + "{\"timestamp_ms\":5,\"type\":\"sensor\",\"user_id_ref\":0,\"foreground_app_name_ref\":1,"
+                + "\"foreground_package_name_ref\":2,\"sensor_name_ref\":3,"
+                + "\"values\":{\"x\":1,\"y\":2,\"z\":3},\"accuracy\":0}\n", first);
+
+        String second = encode(new DataRecord(6L, "gyroscope", 4f, 5f, 6f, 0, "app", "pkg", "user"), dictionary);
+        assertEquals("{\"timestamp_ms\":6,\"type\":\"sensor\",\"user_id_ref\":0,\"foreground_app_name_ref\":1,"
+                + "\"foreground_package_name_ref\":2,\"sensor_name_ref\":3,"
+                + "\"values\":{\"x\":4,\"y\":5,\"z\":6},\"accuracy\":0}\n", second);
+    }
+
+    @Test
+    public void encodedLineParsesBackToSameRecord() throws Exception {
+        DataRecord record = new DataRecord(1_700_000_000_123L, 987_654_321_000L, SensorRegistry.ID_ACCELEROMETER,
+                "accelerometer", 0.1f, -0f, 9.80665f, 3, "应用 \"名称\"/😀", "com.example.app", "user\n1");
+
+        JsonLineEncoder encoder = new JsonLineEncoder();
+        encoder.encode(record, null);
+        String line = new String(encoder.getBuffer(), 0, encoder.length(), StandardCharsets.UTF_8);
+
+        assertTrue(line.endsWith("\n"));
+        DataRecord parsed = DataRecord.fromJson(new JSONObject(line.trim()));
+        assertEquals(record.timestampMs, parsed.timestampMs);
+        assertEquals(record.eventTimeNanos, parsed.eventTimeNanos);
+        assertEquals(record.sensorId, parsed.sensorId);
+        assertEquals(record.sensorName, parsed.sensorName);
+        assertEquals(record.sensorX, parsed.sensorX, 0f);
+        assertEquals(record.sensorZ, parsed.sensorZ, 0f);
+        assertEquals(record.foregroundAppName, parsed.foregroundAppName);
+        assertEquals(record.userId, parsed.userId);
+    }
+
+    @Test
+    public void writesDictionaryDefinitionsBeforeRecord() throws Exception {
+        StringDictionary writeDictionary = new StringDictionary();
+        JsonLineEncoder encoder = new JsonLineEncoder();
+        encoder.encode(new DataRecord(1L, "gyroscope", 1f, 2f, 3f, 0, "app", "pkg", "user"), writeDictionary);
+        encoder.encode(new DataRecord(2L, "gyroscope", 4f, 5f, 6f, 0, "app", "pkg", "user"), writeDictionary);
+
+        String[] lines = new String(encoder.getBuffer(), 0, encoder.length(), StandardCharsets.UTF_8).split("\n");
+        // 4个字符串各定义一次，第二条记录只有引用
+        assertEquals(6, lines.length);
+
+        StringDictionary readDictionary = new StringDictionary();
+        for (int i = 0; i < 4; i++) {
+            assertTrue(readDictionary.readDefinition(new JSONObject(lines[i])));
+        }
+        DataRecord second = DataRecord.fromJson(new JSONObject(lines[5]), readDictionary);
+        assertFalse(lines[5].contains("gyroscope"));
+        assertEquals("gyroscope", second.sensorName);
+        assertEquals("pkg", second.foregroundPackageName);
+        assertEquals(6f, second.sensorZ, 0f);
+    }
+
+    @Test
+    public void batchSampleEncodesLikeRecord() {
+        SensorBatch batch = new SensorBatch(SensorBatch.MIN_CAPACITY, "user", "应用/名称", "com.example.app");
+        batch.add(1_700_000_000_123L, 987_654_321_000L, SensorRegistry.ID_ACCELEROMETER, "accelerometer",
+                0.1f, -0f, 9.80665f, 3);
+        batch.add(1_700_000_000_124L, 0L, 0, "gyroscope", 1f, 2f, 3f, -1);
+        batch.add(1_700_000_000_125L, 5L, SensorRegistry.ID_GYROSCOPE, "gyroscope", 1e-7f, 0f, 123456.5f, 2);
+
+        for (boolean useDictionary : new boolean[] { false, true }) {
+            StringDictionary batchDictionary = useDictionary ? new StringDictionary() : null;
+            StringDictionary recordDictionary = useDictionary ? new StringDictionary() : null;
+            JsonLineEncoder batchEncoder = new JsonLineEncoder();
+            JsonLineEncoder recordEncoder = new JsonLineEncoder();
+            for (int i = 0; i < batch.size(); i++) {
+                batchEncoder.encode(batch, i, batchDictionary);
+                recordEncoder.encode(batch.toRecord(i), recordDictionary);
+            }
+            assertEquals(new String(recordEncoder.getBuffer(), 0, recordEncoder.length(), StandardCharsets.UTF_8),
+                    new String(batchEncoder.getBuffer(), 0, batchEncoder.length(), StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.sensordatacollector;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * 回放源的本地单元测试
+ */
+public class RecordingReplaySourceTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File writeRecording(String name, int count, long intervalMs) throws Exception {
+        return writeRecording(name, count, intervalMs, 1_000L, 1_000_000_000L);
+    }
+
+    /**
+     * @param eventStartNanos 第一条记录的事件时间，为0时记录没有事件时间
+     */
+    private File writeRecording(String name, int count, long intervalMs, long startMs, long eventStartNanos)
+            throws Exception {
+        File file = tempFolder.newFile(name);
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file)), StandardCharsets.UTF_8)) {
+            for (int i = 0; i < count; i++) {
+                long eventTimeNanos = eventStartNanos != 0 ? eventStartNanos + i * intervalMs * 1_000_000L : 0;
+                DataRecord record = new DataRecord(startMs + i * intervalMs, eventTimeNanos,
+                        SensorRegistry.ID_GYROSCOPE, "gyroscope", i, i * 0.5f, -i, 3, "app", "com.example.app", "user");
+                writer.write(record.toJson().toString());
+                writer.write('\n');
+            }
+            // 非数据记录的行会被跳过
+            writer.write("{\"type\":\"clock_sync\"}\n");
+        }
+        return file;
+    }
+
+    @Test
+    public void replaysAllRecordsInOrder() throws Exception {
+        File file = writeRecording("user_sensor_data_20240101_000000_000.jsonl.gz", 100, 10);
+        List<DataRecord> received = new ArrayList<>();
+
+        RecordingReplaySource source = new RecordingReplaySource(received::add);
+        RecordingReplaySource.ReplayResult result = source.replay(file);
+
+        assertEquals(100, result.recordsEmitted);
+        assertEquals(1, result.linesSkipped);
+        assertEquals(990, result.recordingSpanMs);
+        assertEquals(100, received.size());
+
+        DataRecord last = received.get(99);
+        assertEquals(1_990L, last.timestampMs);
+        assertEquals(1_990_000_000L, last.eventTimeNanos);
+        assertEquals(SensorRegistry.ID_GYROSCOPE, last.sensorId);
+        assertEquals("gyroscope", last.sensorName);
+        assertEquals(49.5f, last.sensorY, 0f);
+        assertEquals("com.example.app", last.foregroundPackageName);
+    }
+
+    @Test
+    public void restoresDictionaryEncodedStrings() throws Exception {
+        File file = tempFolder.newFile("user_sensor_data_20240101_000002_000.jsonl.gz");
+        StringDictionary dictionary = new StringDictionary();
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file)), StandardCharsets.UTF_8)) {
+            for (int i = 0; i < 10; i++) {
+                String sensorName = i % 2 == 0 ? "accelerometer" : "gyroscope";
+                DataRecord record = new DataRecord(1_000L + i, sensorName, i, 0f, 0f, 3,
+                        "app", "com.example.app", "user");
+                String json = record.toJson(dictionary).toString();
+                assertFalse(json.contains("com.example.app"));
+                writer.write(dictionary.takePendingDefinitions());
+                writer.write(json);
+                writer.write('\n');
+            }
+        }
+
+        List<DataRecord> received = new ArrayList<>();
+        RecordingReplaySource.ReplayResult result = new RecordingReplaySource(received::add).replay(file);
+
+        // 5个不同的字符串各定义一次
+        assertEquals(10, result.recordsEmitted);
+        assertEquals(5, result.linesSkipped);
+        assertEquals("accelerometer", received.get(0).sensorName);
+        assertEquals("gyroscope", received.get(9).sensorName);
+        assertEquals("app", received.get(9).foregroundAppName);
+        assertEquals("com.example.app", received.get(9).foregroundPackageName);
+        assertEquals("user", received.get(9).userId);
+    }
+
+    @Test
+    public void scaledPacingFollowsRecordingTime() throws Exception {
+        // 录制跨度约1秒，10倍速回放应约100ms
+        File file = writeRecording("user_sensor_data_20240101_000001_000.jsonl.gz", 101, 10);
+
+        RecordingReplaySource source = new RecordingReplaySource(record -> { });
+        source.setSpeedFactor(10);
+        RecordingReplaySource.ReplayResult result = source.replay(file);
+
+        long elapsedMs = result.elapsedNanos / 1_000_000;
+        assertTrue("回放过快: " + elapsedMs + "ms", elapsedMs >= 95);
+        assertTrue("回放过慢: " + elapsedMs + "ms", elapsedMs < 1000);
+    }
+
+    @Test
+    public void pacingRestartsAtFileAndTimeSourceBoundaries() throws Exception {
+        // 第二个文件在一小时后录制且设备重启过(事件时间更小)，第三个文件没有事件时间
+        List<File> files = new ArrayList<>();
+        files.add(writeRecording("user_sensor_data_20240101_000000_000.jsonl.gz", 11, 10, 1_000L, 500_000_000_000L));
+        files.add(writeRecording("user_sensor_data_20240101_010000_000.jsonl.gz", 11, 10, 3_601_000L, 2_000_000_000L));
+        files.add(writeRecording("user_sensor_data_20240101_020000_000.jsonl.gz", 11, 10, 7_201_000L, 0));
+
+        RecordingReplaySource source = new RecordingReplaySource(record -> { });
+        source.setRealtime();
+        RecordingReplaySource.ReplayResult result = source.replay(files);
+
+        // 每个文件内按录制间隔回放约100ms，文件之间不等待
+        long elapsedMs = result.elapsedNanos / 1_000_000;
+        assertEquals(33, result.recordsEmitted);
+        assertTrue("回放过快: " + elapsedMs + "ms", elapsedMs >= 290);
+        assertTrue("回放过慢: " + elapsedMs + "ms", elapsedMs < 2000);
+    }
+
+    @Test
+    public void findsRecordingFilesSortedByName() throws Exception {
+        writeRecording("user_sensor_data_20240102_000000_000.jsonl.gz", 1, 10);
+        writeRecording("user_sensor_data_20240101_000000_000.jsonl.gz", 1, 10);
+        tempFolder.newFile("notes.txt");
+
+        List<File> files = RecordingReplaySource.findRecordingFiles(tempFolder.getRoot());
+
+        assertEquals(2, files.size());
+        assertEquals("user_sensor_data_20240101_000000_000.jsonl.gz", files.get(0).getName());
+    }
+}
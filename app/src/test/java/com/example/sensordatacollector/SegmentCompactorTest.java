@@ -0,0 +1,192 @@
+package com.example.sensordatacollector;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * 已封存数据段后台压缩的本地单元测试：分组、合并后的内容和清单、原文件变化时放弃
+ */
+public class SegmentCompactorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * 写入一个LZ4压缩、每50条记录刷新一次的数据段，并作为已封存文件登记到清单
+     */
+    private static void writeSegment(File dir, SegmentManifest manifest, String name, String userId,
+                                     long startMs, int records) throws Exception {
+        File file = new File(dir, name);
+        try (SegmentWriter writer = new SegmentWriter(new FileOutputStream(file), new SegmentFormat.Header(startMs,
+                userId, "jvm", null, SegmentFormat.RECORD_ENCODING_GORILLA, CompressionCodec.ID_LZ4), true)) {
+            for (int i = 0; i < records; i++) {
+                writer.write(new DataRecord(startMs + i * 5L, i % 2 == 0 ? "accelerometer" : "gyroscope",
+                        (float) Math.sin(i * 0.01), 0.5f, -9.8f, 3, "app", "pkg", userId));
+                if (i % 50 == 49) {
+                    writer.flush();
+                }
+            }
+        }
+        manifest.add(name, SegmentManifest.State.OPEN, startMs);
+        manifest.updateStats(name, file.length(), records, startMs, startMs + (records - 1) * 5L);
+        manifest.seal(name, file.length(), startMs);
+    }
+
+    private static long[] readTimestamps(File file) throws Exception {
+        try (SegmentReader reader = new SegmentReader(new BufferedInputStream(new FileInputStream(file)))) {
+            long[] timestamps = new long[0];
+            int count = 0;
+            while (reader.next()) {
+                if (!reader.isMetadata()) {
+                    timestamps = Arrays.copyOf(timestamps, count + 1);
+                    timestamps[count++] = reader.getRecord().timestampMs;
+                }
+            }
+            assertFalse(reader.isTruncated());
+            return timestamps;
+        }
+    }
+
+    @Test
+    public void mergesAdjacentSegmentsOfSameUser() throws Exception {
+        File dir = folder.getRoot();
+        SegmentManifest setup = SegmentManifest.read(dir);
+        writeSegment(dir, setup, "user1_sensor_data_1.sdseg", "user1", 1_000_000L, 2000);
+        writeSegment(dir, setup, "user1_sensor_data_2.sdseg", "user1", 2_000_000L, 1500);
+        writeSegment(dir, setup, "user1_sensor_data_3.sdseg", "user1", 3_000_000L, 1000);
+        writeSegment(dir, setup, "user2_sensor_data_4.sdseg", "user2", 4_000_000L, 3000);
+        setup.add("user2_sensor_data_5.sdseg", SegmentManifest.State.OPEN, 5_000_000L);
+        setup.save();
+
+        SegmentCompactor.Result result = SegmentCompactor.compact(dir, CompressionCodec.DEFLATE_BEST,
+                SegmentCompactor.DEFAULT_MAX_MERGED_BYTES, new AtomicBoolean(false));
+        assertEquals(4, result.segmentsCompacted);
+        assertEquals(2, result.filesWritten);
+        assertTrue(result + "", result.bytesAfter < result.bytesBefore);
+        assertFalse(result.stopped);
+
+        SegmentManifest manifest = SegmentManifest.read(dir);
+        assertEquals(Arrays.asList("user1_sensor_data_1_c.sdseg", "user2_sensor_data_4_c.sdseg",
+                "user2_sensor_data_5.sdseg"), manifest.getNames());
+        assertFalse(new File(dir, "user1_sensor_data_2.sdseg").exists());
+        assertFalse(new File(dir, "user2_sensor_data_4.sdseg").exists());
+        assertEquals(0, dir.listFiles((d, name) -> name.endsWith(SegmentCompactor.TEMP_SUFFIX)).length);
+
+        File mergedFile = new File(dir, "user1_sensor_data_1_c.sdseg");
+        SegmentManifest.Entry merged = manifest.get(mergedFile.getName());
+        assertEquals(SegmentManifest.State.SEALED, merged.state);
+        assertTrue(merged.compacted);
+        assertEquals(4500, merged.records);
+        assertEquals(1_000_000L, merged.createdMs);
+        assertEquals(1_000_000L, merged.firstTimestampMs);
+        assertEquals(3_000_000L + 999 * 5L, merged.lastTimestampMs);
+        assertEquals(mergedFile.length(), merged.bytes);
+        try (CheckedInputStream in = new CheckedInputStream(new FileInputStream(mergedFile), new CRC32())) {
+            while (in.read(new byte[4096]) >= 0) {
+                // 只计算校验和
+            }
+            assertEquals(in.getChecksum().getValue(), merged.crc32);
+        }
+
+        long[] timestamps = readTimestamps(mergedFile);
+        assertEquals(4500, timestamps.length);
+        assertEquals(2_000_000L, timestamps[2000]);
+        assertEquals(3_000_000L + 999 * 5L, timestamps[4499]);
+
+        // 已压缩过的文件不再重复处理
+        result = SegmentCompactor.compact(dir, CompressionCodec.DEFLATE_BEST,
+                SegmentCompactor.DEFAULT_MAX_MERGED_BYTES, new AtomicBoolean(false));
+        assertEquals(0, result.segmentsCompacted);
+    }
+
+    @Test
+    public void groupsRespectUserAndSizeLimit() {
+        SegmentManifest manifest = SegmentManifest.read(folder.getRoot());
+        for (String name : new String[] { "u1_sensor_data_1.sdseg", "u1_sensor_data_2.sdseg", "u1_sensor_data_3.sdseg",
+                "u1_sensor_data_4.jsonl.gz", "u1_sensor_data_5.sdseg", "u2_sensor_data_6.sdseg" }) {
+            manifest.add(name, SegmentManifest.State.SEALED, 0);
+            manifest.seal(name, 400, 0);
+        }
+        manifest.setState("u1_sensor_data_2.sdseg", SegmentManifest.State.UPLOADING);
+
+        List<List<SegmentManifest.Entry>> groups = SegmentCompactor.planGroups(manifest.getEntries(), 1000);
+        assertEquals(4, groups.size());
+        assertEquals("u1_sensor_data_1.sdseg", groups.get(0).get(0).name);
+        assertEquals(1, groups.get(0).size());
+        assertEquals("u1_sensor_data_3.sdseg", groups.get(1).get(0).name);
+        assertEquals("u1_sensor_data_5.sdseg", groups.get(2).get(0).name);
+        assertEquals("u2_sensor_data_6.sdseg", groups.get(3).get(0).name);
+
+        manifest.setState("u1_sensor_data_2.sdseg", SegmentManifest.State.SEALED);
+        groups = SegmentCompactor.planGroups(manifest.getEntries(), 1000);
+        assertEquals(2, groups.get(0).size());
+        assertEquals(1, groups.get(1).size());
+    }
+
+    @Test
+    public void replaceIsRefusedWhenSourceStartedUploading() throws Exception {
+        File dir = folder.getRoot();
+        SegmentManifest manifest = SegmentManifest.read(dir);
+        writeSegment(dir, manifest, "u_sensor_data_1.sdseg", "u", 1_000_000L, 100);
+        List<SegmentManifest.Entry> sources = manifest.getEntries();
+        File temp = folder.newFile("u_sensor_data_1.sdseg" + SegmentCompactor.TEMP_SUFFIX);
+        SegmentManifest.Entry merged = new SegmentManifest.Entry("u_sensor_data_1_c.sdseg",
+                SegmentManifest.State.SEALED, 1_000_000L);
+
+        assertTrue(manifest.setStateIf("u_sensor_data_1.sdseg", SegmentManifest.State.UPLOADING,
+                SegmentManifest.State.SEALED));
+        assertFalse(manifest.replaceCompacted(sources, merged, temp));
+        assertTrue(temp.exists());
+        assertNull(manifest.get(merged.name));
+
+        manifest.setState("u_sensor_data_1.sdseg", SegmentManifest.State.SEALED);
+        assertTrue(manifest.replaceCompacted(sources, merged, temp));
+        assertFalse(temp.exists());
+        assertEquals(SegmentManifest.State.COMPACTED, manifest.get("u_sensor_data_1.sdseg").state);
+        assertEquals(Arrays.asList(merged.name, "u_sensor_data_1.sdseg"), manifest.getNames());
+        // 替换结果已在清单的锁内保存到磁盘
+        SegmentManifest saved = SegmentManifest.read(dir);
+        assertEquals(SegmentManifest.State.SEALED, saved.get(merged.name).state);
+        assertEquals(SegmentManifest.State.COMPACTED, saved.get("u_sensor_data_1.sdseg").state);
+        // 已合并的文件不能再开始上传
+        assertFalse(manifest.setStateIf("u_sensor_data_1.sdseg", SegmentManifest.State.UPLOADING,
+                SegmentManifest.State.SEALED, SegmentManifest.State.UPLOADING));
+    }
+
+    @Test
+    public void failedRenameLeavesNoMergedEntry() throws Exception {
+        File dir = folder.getRoot();
+        SegmentManifest manifest = SegmentManifest.read(dir);
+        writeSegment(dir, manifest, "u_sensor_data_1.sdseg", "u", 1_000_000L, 100);
+        manifest.save();
+        SegmentManifest.Entry merged = new SegmentManifest.Entry("u_sensor_data_1_c.sdseg",
+                SegmentManifest.State.SEALED, 1_000_000L);
+
+        // 临时文件不存在，重命名失败
+        assertFalse(manifest.replaceCompacted(manifest.getEntries(), merged,
+                new File(dir, "u_sensor_data_1.sdseg" + SegmentCompactor.TEMP_SUFFIX)));
+        assertNull(manifest.get(merged.name));
+        assertNull(SegmentManifest.read(dir).get(merged.name));
+        assertEquals(SegmentManifest.State.SEALED, manifest.get("u_sensor_data_1.sdseg").state);
+    }
+
+    @Test
+    public void mergedNameMapsToFirstSource() {
+        assertEquals("u_sensor_data_1.sdseg", SegmentCompactor.firstSourceName("u_sensor_data_1_c.sdseg"));
+        assertNull(SegmentCompactor.firstSourceName("u_sensor_data_1.sdseg"));
+        assertNull(SegmentCompactor.firstSourceName("u_sensor_data_1.jsonl.gz"));
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.sensordatacollector;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * 二进制数据段读写和JSONL转换的本地单元测试
+ */
+public class SegmentConverterTest {
+
+    private static SegmentFormat.Header header() {
+        return new SegmentFormat.Header(1_700_000_000_000L, "user1", "jvm", null);
+    }
+
+    @Test
+    public void recordsRoundTripThroughSegment() throws Exception {
+        DataRecord first = new DataRecord(1_700_000_000_000L, 5_000_000_000L, SensorRegistry.ID_ACCELEROMETER,
+                "accelerometer", 0.1f, -0f, 9.80665f, 3, "应用", "com.example.app", "user1");
+        // 墙上时间间隔超过i16、事件时间间隔超过i32，需要新的时间基准
+        DataRecord second = new DataRecord(1_700_000_100_000L, 0L, SensorRegistry.ID_GYROSCOPE,
+                "gyroscope", Float.NaN, 1f, -1f, 0, null, null, "user1");
+        FusedDataRecord fused = new FusedDataRecord(1_700_000_100_005L, 9_000_000_000L, 2, "应用", "com.example.app", "user1");
+        fused.magZ = 42.5f;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SegmentWriter writer = new SegmentWriter(out, header(), true);
+        writer.write(first);
+        writer.writeMetadata("{\"type\":\"clock_sync\"}");
+        writer.write(second);
+        writer.write(fused);
+
+        SegmentReader reader = new SegmentReader(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals("user1", reader.getHeader().userId);
+
+        assertTrue(reader.next());
+        DataRecord read = reader.getRecord();
+        assertEquals(first.timestampMs, read.timestampMs);
+        assertEquals(first.eventTimeNanos, read.eventTimeNanos);
+        assertEquals("accelerometer", read.sensorName);
+        assertEquals(Float.floatToRawIntBits(-0f), Float.floatToRawIntBits(read.sensorY));
+        assertEquals("应用", read.foregroundAppName);
+
+        assertTrue(reader.next());
+        assertTrue(reader.isMetadata());
+        assertEquals("{\"type\":\"clock_sync\"}", reader.getMetadataJson());
+
+        assertTrue(reader.next());
+        read = reader.getRecord();
+        assertEquals(second.timestampMs, read.timestampMs);
+        assertEquals(0L, read.eventTimeNanos);
+        assertEquals(SensorRegistry.ID_GYROSCOPE, read.sensorId);
+        assertTrue(Float.isNaN(read.sensorX));
+        assertNull(read.foregroundPackageName);
+
+        assertTrue(reader.next());
+        assertTrue(reader.getRecord() instanceof FusedDataRecord);
+        FusedDataRecord readFused = (FusedDataRecord) reader.getRecord();
+        assertEquals(fused.timestampMs, readFused.timestampMs);
+        assertEquals(fused.eventTimeNanos, readFused.eventTimeNanos);
+        assertEquals(42.5f, readFused.magZ, 0f);
+
+        assertFalse(reader.next());
+        assertFalse(reader.isTruncated());
+    }
+
+    @Test
+    public void truncatedTailEndsAtLastCompleteBlock() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SegmentWriter writer = new SegmentWriter(out, header(), true);
+        for (int i = 0; i < 3; i++) {
+            writer.write(new DataRecord(1000L + i, "gyroscope", i, i, i, 0, "app", "pkg", "user1"));
+        }
+        byte[] data = out.toByteArray();
+
+        SegmentReader reader = new SegmentReader(new ByteArrayInputStream(Arrays.copyOf(data, data.length - 5)));
+        assertTrue(reader.next());
+        assertTrue(reader.next());
+        assertFalse(reader.next());
+        assertTrue(reader.isTruncated());
+    }
+
+    @Test
+    public void convertsToJsonlAndBack() throws Exception {
+        ByteArrayOutputStream segment = new ByteArrayOutputStream();
+        SegmentWriter writer = new SegmentWriter(segment, header(), true);
+        for (int i = 0; i < 10; i++) {
+            writer.write(new DataRecord(1000L + i * 5, "gyroscope", i, -i, 0.5f, 3, "app", "pkg", "user1"));
+        }
+
+        ByteArrayOutputStream jsonl = new ByteArrayOutputStream();
+        SegmentConverter.Result result = SegmentConverter.toJsonl(
+                new ByteArrayInputStream(segment.toByteArray()), jsonl, true, 0);
+        assertEquals(10, result.records);
+        String[] lines = jsonl.toString("UTF-8").split("\n");
+        assertEquals(SegmentFormat.HEADER_TYPE, new JSONObject(lines[0]).getString("type"));
+
+        ByteArrayOutputStream back = new ByteArrayOutputStream();
+        result = SegmentConverter.fromJsonl(new ByteArrayInputStream(jsonl.toByteArray()), back, header());
+        assertEquals(10, result.records);
+        assertEquals(0, result.skippedLines);
+        assertArrayEquals(segment.toByteArray(), back.toByteArray());
+        assertTrue(back.size() < jsonl.toString("UTF-8").getBytes(StandardCharsets.UTF_8).length);
+    }
+}
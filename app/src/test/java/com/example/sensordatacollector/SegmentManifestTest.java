@@ -0,0 +1,71 @@
+package com.example.sensordatacollector;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 数据文件清单的本地单元测试：保存和重新加载、状态筛选和损坏的清单
+ */
+public class SegmentManifestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void entriesSurviveSaveAndReload() throws Exception {
+        File dir = folder.getRoot();
+        SegmentManifest manifest = SegmentManifest.read(dir);
+        assertFalse(manifest.isLoadedFromDisk());
+
+        manifest.add("a.sdseg", SegmentManifest.State.OPEN, 1000L);
+        manifest.updateStats("a.sdseg", 2048, 80, 1_700_000_000_000L, 1_700_000_060_000L);
+        manifest.seal("a.sdseg", 4096, 1000L);
+        manifest.setChecksum("a.sdseg", 0xdeadbeefL);
+        manifest.add("b.jsonl.gz", SegmentManifest.State.OPEN, 2000L);
+        manifest.save();
+        assertFalse(new File(dir, SegmentManifest.FILE_NAME + ".tmp").exists());
+
+        SegmentManifest reloaded = SegmentManifest.read(dir);
+        assertTrue(reloaded.isLoadedFromDisk());
+        assertEquals(Arrays.asList("a.sdseg", "b.jsonl.gz"), reloaded.getNames());
+        assertEquals(Arrays.asList("b.jsonl.gz"), reloaded.getNames(SegmentManifest.State.OPEN));
+
+        SegmentManifest.Entry entry = reloaded.get("a.sdseg");
+        assertEquals(SegmentManifest.State.SEALED, entry.state);
+        assertEquals(4096, entry.bytes);
+        assertEquals(80, entry.records);
+        assertEquals(1_700_000_060_000L, entry.getDisplayTimeMs());
+        assertEquals(0xdeadbeefL, entry.crc32);
+        assertEquals(-1, reloaded.get("b.jsonl.gz").crc32);
+    }
+
+    @Test
+    public void returnedEntriesAreCopies() {
+        SegmentManifest manifest = SegmentManifest.read(folder.getRoot());
+        manifest.add("a.jsonl", SegmentManifest.State.SEALED, 1000L);
+
+        List<SegmentManifest.Entry> entries = manifest.getEntries(SegmentManifest.State.SEALED);
+        entries.get(0).bytes = 123;
+        assertEquals(0, manifest.get("a.jsonl").bytes);
+    }
+
+    @Test
+    public void corruptManifestIsNotLoaded() throws Exception {
+        File dir = folder.getRoot();
+        try (FileOutputStream out = new FileOutputStream(new File(dir, SegmentManifest.FILE_NAME))) {
+            out.write("{\"version\":1,\"segments\":[{\"name\":".getBytes("UTF-8"));
+        }
+
+        SegmentManifest manifest = SegmentManifest.read(dir);
+        assertFalse(manifest.isLoadedFromDisk());
+        assertEquals(0, manifest.size());
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.sensordatacollector;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 多传感器重采样器的本地单元测试
+ */
+public class SensorResamplerTest {
+
+    private static final long START_NANOS = 1_000_000_000L;
+
+    private static DataRecord sample(int sensorId, long timeNanos, float x, float y, float z) {
+        return new DataRecord(timeNanos / 1_000_000L, timeNanos, sensorId, "sensor_" + sensorId,
+                x, y, z, 3, "app", "com.example.app", "user");
+    }
+
+    @Test
+    public void emitsOneFusedRowPerTickWithLinearValues() {
+        List<DataRecord> output = new ArrayList<>();
+        SensorResampler resampler = new SensorResampler(output::add, 100);
+
+        // 三个传感器的频率和相位都不同，x分量等于样本时间(秒)
+        for (long t = 0; t <= 200_000_000L; t += 1_000_000L) {
+            long time = START_NANOS + t;
+            float seconds = (float) (time / 1e9);
+            if (t % 4_000_000L == 1_000_000L) {
+                resampler.onNewDataRecord(sample(SensorRegistry.ID_ACCELEROMETER, time, seconds, 0, 9.8f));
+            }
+            if (t % 5_000_000L == 2_000_000L) {
+                resampler.onNewDataRecord(sample(SensorRegistry.ID_GYROSCOPE, time, seconds, 0, 0));
+            }
+            if (t % 20_000_000L == 0) {
+                resampler.onNewDataRecord(sample(SensorRegistry.ID_MAGNETOMETER, time, seconds, 20, -40));
+            }
+        }
+
+        assertTrue("输出行数过少: " + output.size(), output.size() >= 18);
+        long previous = 0;
+        for (DataRecord record : output) {
+            assertTrue(record instanceof FusedDataRecord);
+            FusedDataRecord fused = (FusedDataRecord) record;
+            assertEquals(0, fused.eventTimeNanos % 10_000_000L);
+            assertTrue(fused.eventTimeNanos > previous);
+            previous = fused.eventTimeNanos;
+
+            float seconds = (float) (fused.eventTimeNanos / 1e9);
+            assertEquals(seconds, fused.accX, 1e-4f);
+            assertEquals(seconds, fused.gyroX, 1e-4f);
+            assertEquals(seconds, fused.magX, 1e-4f);
+            assertEquals(20f, fused.magY, 1e-4f);
+        }
+        assertEquals(0, resampler.getSamplesDropped());
+    }
+
+    @Test
+    public void marksSensorAbsentAcrossGapsAndPassesOtherSensorsThrough() {
+        List<DataRecord> output = new ArrayList<>();
+        SensorResampler resampler = new SensorResampler(output::add, 100);
+
+        for (long t = 0; t <= 500_000_000L; t += 10_000_000L) {
+            long time = START_NANOS + t;
+            // 陀螺仪在100ms到400ms之间没有数据
+            boolean gyroGap = t > 100_000_000L && t < 400_000_000L;
+            resampler.onNewDataRecord(sample(SensorRegistry.ID_ACCELEROMETER, time, 1, 2, 3));
+            if (!gyroGap) {
+                resampler.onNewDataRecord(sample(SensorRegistry.ID_GYROSCOPE, time, 1, 2, 3));
+            }
+            resampler.onNewDataRecord(sample(SensorRegistry.ID_MAGNETOMETER, time, 1, 2, 3));
+        }
+        resampler.onNewDataRecord(sample(42, START_NANOS + 600_000_000L, 1013f, 0, 0));
+
+        int fusedCount = 0;
+        for (DataRecord record : output) {
+            if (record instanceof FusedDataRecord) {
+                FusedDataRecord fused = (FusedDataRecord) record;
+                long offset = record.eventTimeNanos - START_NANOS;
+                boolean inGap = offset > 100_000_000L && offset < 400_000_000L;
+                assertEquals("跨越中断插值: " + offset, inGap, !fused.hasGyroscope());
+                assertTrue(fused.hasAccelerometer() && fused.hasMagnetometer());
+                fusedCount++;
+            }
+        }
+        // 中断期间其他传感器照常输出
+        assertEquals(51, fusedCount);
+        assertEquals(0, resampler.getTicksSkipped());
+        DataRecord last = output.get(output.size() - 1);
+        assertEquals(42, last.sensorId);
+        assertEquals("sensor", last.type);
+    }
+
+    @Test
+    public void emitsWithoutMagnetometerAndFlushesTailOnStop() throws Exception {
+        List<DataRecord> output = new ArrayList<>();
+        SensorResampler resampler = new SensorResampler(output::add, 100);
+
+        // 设备没有磁力计：只有加速度计和陀螺仪，共3秒
+        for (long t = 0; t < 3_000_000_000L; t += 5_000_000L) {
+            resampler.onNewDataRecord(sample(SensorRegistry.ID_ACCELEROMETER, START_NANOS + t, 1, 2, 3));
+            resampler.onNewDataRecord(sample(SensorRegistry.ID_GYROSCOPE, START_NANOS + t + 1_000_000L, 4, 5, 6));
+        }
+        resampler.onNewDataRecord(sample(SensorRegistry.ID_ACCELEROMETER, START_NANOS + 3_000_000_000L, 1, 2, 3));
+        // 等待磁力计的时间不超过STALE_TIMEOUT_NANOS，缓存的样本都没有被覆盖
+        assertEquals(0, resampler.getSamplesDropped());
+        assertTrue("输出行数过少: " + output.size(), output.size() > 150);
+
+        resampler.flush();
+        assertEquals(300, output.size());
+        assertEquals(0, resampler.getTicksSkipped());
+        long previous = 0;
+        for (DataRecord record : output) {
+            FusedDataRecord fused = (FusedDataRecord) record;
+            assertTrue(fused.eventTimeNanos > previous);
+            previous = fused.eventTimeNanos;
+            assertFalse(fused.hasMagnetometer());
+            assertTrue(Float.isNaN(fused.magZ));
+            assertEquals(1f, fused.accX, 1e-6f);
+            // 最后一个网格点之后没有陀螺仪样本，记为缺失
+            assertEquals(fused.eventTimeNanos < START_NANOS + 3_000_000_000L, fused.hasGyroscope());
+        }
+
+        // 缺失的传感器在JSON中省略，还原后仍为缺失
+        DataRecord restored = DataRecord.fromJson(output.get(0).toJson());
+        assertFalse(output.get(0).toJson().has("magnetometer"));
+        assertFalse(((FusedDataRecord) restored).hasMagnetometer());
+        assertEquals(5f, ((FusedDataRecord) restored).gyroY, 1e-6f);
+        JsonLineEncoder encoder = new JsonLineEncoder();
+        encoder.encode(output.get(0), null);
+        assertEquals(output.get(0).toJson().toString() + "\n",
+                new String(encoder.getBuffer(), 0, encoder.length(), "UTF-8"));
+    }
+
+    @Test
+    public void slerpKeepsMagnitudeBetweenEndpoints() {
+        double[] out = new double[3];
+        SensorResampler.slerp(9.8, 0, 0, 0, 9.8, 0, 0.5, out);
+
+        double magnitude = Math.sqrt(out[0] * out[0] + out[1] * out[1] + out[2] * out[2]);
+        assertEquals(9.8, magnitude, 1e-9);
+        assertEquals(out[0], out[1], 1e-9);
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.sensordatacollector;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 时间戳历史记录的本地单元测试：传感器样本写入历史记录，最近时间戳和时间窗口查询的边界情况
+ */
+public class TimestampAlignmentTest {
+
+    private TimestampManager timestampManager;
+    private long originalBootOffsetNanos;
+
+    @Before
+    public void setUp() {
+        timestampManager = TimestampManager.getInstance();
+        originalBootOffsetNanos = timestampManager.getBootTimeOffsetNanos();
+        // 停止采集时清空历史记录
+        timestampManager.stopSensorCollection();
+    }
+
+    @After
+    public void tearDown() {
+        timestampManager.setBootTimeOffsetNanos(originalBootOffsetNanos);
+        timestampManager.stopSensorCollection();
+    }
+
+    private void addHistory(long... timestamps) {
+        for (long timestamp : timestamps) {
+            timestampManager.addToHistory(timestamp);
+        }
+    }
+
+    @Test
+    public void emptyHistoryHasNoMatches() {
+        assertEquals(-1, timestampManager.findNearestTimestamp(1000));
+        assertEquals(0, timestampManager.getTimestampsInWindow(0, Long.MAX_VALUE).length);
+        assertEquals(0, timestampManager.getTimestampsInWindow(0, Long.MAX_VALUE, new long[4]));
+    }
+
+    @Test
+    public void nearestReturnsExactHitOrClosestNeighbour() {
+        addHistory(1000, 1010, 1020);
+
+        assertEquals(1010, timestampManager.findNearestTimestamp(1010));
+        assertEquals(1010, timestampManager.findNearestTimestamp(1013));
+        assertEquals(1020, timestampManager.findNearestTimestamp(1017));
+        // 早于第一条、晚于最后一条时返回两端
+        assertEquals(1000, timestampManager.findNearestTimestamp(0));
+        assertEquals(1020, timestampManager.findNearestTimestamp(5000));
+    }
+
+    @Test
+    public void nearestPrefersEarlierTimestampOnTie() {
+        addHistory(1000, 1010);
+        assertEquals(1000, timestampManager.findNearestTimestamp(1005));
+
+        // 同一时间戳记录了多次
+        addHistory(1010, 1020);
+        assertEquals(1010, timestampManager.findNearestTimestamp(1015));
+        assertArrayEquals(new long[] { 1010, 1010 }, timestampManager.getTimestampsInWindow(1010, 1010));
+    }
+
+    @Test
+    public void windowIncludesBothBoundaries() {
+        addHistory(1000, 1010, 1020, 1030);
+
+        assertArrayEquals(new long[] { 1010, 1020 }, timestampManager.getTimestampsInWindow(1010, 1020));
+        assertArrayEquals(new long[0], timestampManager.getTimestampsInWindow(1011, 1019));
+        assertArrayEquals(new long[] { 1000 }, timestampManager.getTimestampsInWindow(0, 1000));
+        assertArrayEquals(new long[] { 1030 }, timestampManager.getTimestampsInWindow(1030, 9999));
+        // 起点晚于终点时窗口为空
+        assertArrayEquals(new long[0], timestampManager.getTimestampsInWindow(1020, 1010));
+    }
+
+    @Test
+    public void windowCopyStopsWhenOutputIsFull() {
+        addHistory(1000, 1010, 1020);
+
+        long[] out = new long[2];
+        assertEquals(2, timestampManager.getTimestampsInWindow(0, 9999, out));
+        assertArrayEquals(new long[] { 1000, 1010 }, out);
+    }
+
+    @Test
+    public void historyIsClearedWhenTimeGoesBackwards() {
+        addHistory(2000, 2010);
+        addHistory(1500);
+
+        assertEquals(1, timestampManager.getHistorySize());
+        assertEquals(1500, timestampManager.findNearestTimestamp(2010));
+    }
+
+    @Test
+    public void sensorEventsFeedHistoryOncePerSamplingPeriod() {
+        timestampManager.setSamplingRate(10);
+        // 偏移为1秒时事件时间0对应墙上时间1000ms
+        timestampManager.setBootTimeOffsetNanos(1_000_000_000L);
+
+        long[] eventMs = { 0, 2, 9, 10, 5, 25, 26 };
+        for (long ms : eventMs) {
+            assertEquals(1000 + ms, timestampManager.recordSensorEvent(ms * 1_000_000L));
+        }
+        // 早于当前周期的样本(批处理中其他传感器的样本)不写入历史记录
+        assertArrayEquals(new long[] { 1000, 1010, 1025 }, timestampManager.getTimestampsInWindow(0, Long.MAX_VALUE));
+        assertEquals(1010, timestampManager.findNearestTimestamp(1013));
+    }
+
+    @Test
+    public void bootOffsetChangeClearsHistory() {
+        timestampManager.setSamplingRate(10);
+        timestampManager.setBootTimeOffsetNanos(1_000_000_000L);
+        timestampManager.recordSensorEvent(0);
+        timestampManager.recordSensorEvent(10_000_000L);
+        assertEquals(2, timestampManager.getHistorySize());
+
+        // 时钟同步把墙上时间向回调整后，新的周期从下一个样本开始
+        timestampManager.setBootTimeOffsetNanos(500_000_000L);
+        assertEquals(0, timestampManager.getHistorySize());
+        assertEquals(515, timestampManager.recordSensorEvent(15_000_000L));
+        assertArrayEquals(new long[] { 515 }, timestampManager.getTimestampsInWindow(0, Long.MAX_VALUE));
+    }
+}